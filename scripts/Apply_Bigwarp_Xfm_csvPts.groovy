@@ -71,39 +71,49 @@ catch ( IOException e )
 int nd = lines.get( 0 ).split(",").length;
 transform = buildTransform( landmarksPath, transformType, nd, needInverseTransform, invTolerance, invMaxIters );
 
-// transform all points
+// parse and scale all points, one array per dimension
 outputLines = [];
-result = new double[ nd ];
-boolean firstLine = true;
-for( l in lines )
+if( csvHasHeader )
+	outputLines.add( lines.get( 0 ) );
+
+pointLines = csvHasHeader ? lines.subList( 1, lines.size() ) : lines;
+int n = pointLines.size();
+scale = [ sx, sy, sz ] as double[];
+pts = new double[ nd ][ n ];
+for( int i = 0; i < n; i++ )
 {
-	// add the first line to the output if it's a header
-	if( firstLine && csvHasHeader )
-	{
-		outputLines.add( l );
-		firstLine = false;
-		continue;
-	}
-	
-	// parse line
-	pt = l.split(",").collect { s -> Double.parseDouble(s) };
-	scale = [ sx, sy, sz ] as double[];
-
-
-	// elementwise multiplication of pt and scale
-	scaledpt = [pt, scale].transpose().collect{ it[0] * it[1]};
+	pt = pointLines.get( i ).split(",");
+	for( int d = 0; d < nd; d++ )
+		pts[ d ][ i ] = Double.parseDouble( pt[ d ] ) * scale[ d ];
+}
 
-	// transform point
-	try {
-		transform.apply( scaledpt as double[], result );
-	} catch( Exception e ) {
-		System.err.println("Warning: failed to transform " + Arrays.toString( scaledpt ));
-		Arrays.fill(result, Double.NaN);
+// transform all points in one batch, or one by one if that fails
+results = new double[ nd ][ n ];
+try {
+	RealTransformBatch.apply( transform, pts, results, 0, n );
+} catch( Exception e ) {
+	scaledpt = new double[ nd ];
+	result = new double[ nd ];
+	for( int i = 0; i < n; i++ )
+	{
+		for( int d = 0; d < nd; d++ )
+			scaledpt[ d ] = pts[ d ][ i ];
+
+		try {
+			transform.apply( scaledpt, result );
+		} catch( Exception e2 ) {
+			System.err.println("Warning: failed to transform " + Arrays.toString( scaledpt ));
+			Arrays.fill(result, Double.NaN);
+		}
+
+		for( int d = 0; d < nd; d++ )
+			results[ d ][ i ] = result[ d ];
 	}
-
-	outputLines.add( result.collect{ x -> Double.toString(x)}.join(","));
 }
 
+for( int i = 0; i < n; i++ )
+	outputLines.add( (0..<nd).collect{ d -> Double.toString( results[ d ][ i ] ) }.join(","));
+
 // write output
 try
 {
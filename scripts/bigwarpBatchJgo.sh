@@ -0,0 +1,8 @@
+#!/bin/bash
+#
+# Applies bigwarp transformations to all jobs of a csv manifest in one jvm.
+# See:
+#   bigwarpBatchJgo.sh -h
+# for usage details
+
+jgo.sh sc.fiji:bigwarp_fiji:9.3.3-SNAPSHOT:bigwarp.BigWarpBatchRunner "$@"
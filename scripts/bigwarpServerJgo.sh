@@ -0,0 +1,8 @@
+#!/bin/bash
+#
+# Starts a local server that keeps bigwarp transformations in memory.
+# See:
+#   bigwarpServerJgo.sh -h
+# for usage details
+
+jgo.sh sc.fiji:bigwarp_fiji:9.3.3-SNAPSHOT:bigwarp.server.TransformServer "$@"
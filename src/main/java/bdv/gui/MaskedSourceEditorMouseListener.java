@@ -37,8 +37,10 @@ import bigwarp.source.PlateauSphericalMaskRealRandomAccessible;
 import bigwarp.transforms.AbstractTransformSolver;
 import bigwarp.transforms.BigWarpTransform;
 import bigwarp.transforms.MaskedSimRotTransformSolver;
+import net.imglib2.RealInterval;
 import net.imglib2.RealPoint;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Intervals;
 
 public class MaskedSourceEditorMouseListener implements MouseListener, MouseMotionListener, MouseWheelListener
 {
@@ -166,7 +168,8 @@ public class MaskedSourceEditorMouseListener implements MouseListener, MouseMoti
 
 		viewer.getGlobalMouseCoordinates( p );
 		bw.setAutoEstimateMask( false );
-		
+		final RealInterval before = maskSupport();
+
 		if( e.isControlDown() )
 		{
 			if( mask != null ) {
@@ -195,8 +198,7 @@ public class MaskedSourceEditorMouseListener implements MouseListener, MouseMoti
 			updateSolverCenter(p);
 		}
 
-		bw.getViewerFrameP().getViewerPanel().requestRepaint();
-		bw.getViewerFrameQ().getViewerPanel().requestRepaint();
+		requestRepaint( before );
 	}
 
 	@Override
@@ -212,11 +214,11 @@ public class MaskedSourceEditorMouseListener implements MouseListener, MouseMoti
 		{
 			viewer.getGlobalMouseCoordinates( pressPt );
 
+			final RealInterval before = maskSupport();
 			updateMaskCenter(pressPt);
 
 			bw.setAutoEstimateMask( false );
-			bw.getViewerFrameP().getViewerPanel().requestRepaint();
-			bw.getViewerFrameQ().getViewerPanel().requestRepaint();
+			requestRepaint( before );
 
 			updateSolverCenter(pressPt);
 		}
@@ -234,6 +236,7 @@ public class MaskedSourceEditorMouseListener implements MouseListener, MouseMoti
 		final AffineTransform3D transform = viewer.state().getViewerTransform();
 		final double scale = (1.0 / (Affine3DHelpers.extractScale(transform, 0) + 1e-9 ) + 1e-6 );
 		final int sign = e.getWheelRotation();
+		final RealInterval before = maskSupport();
 
 		if( e.isShiftDown() )
 			mask.incSquaredSigma( sign * scale * scale * fastSpeed * fastSpeed );
@@ -242,8 +245,23 @@ public class MaskedSourceEditorMouseListener implements MouseListener, MouseMoti
 		else
 			mask.incSquaredSigma( sign * scale * scale );
 
-		bw.getViewerFrameP().getViewerPanel().requestRepaint();
-		bw.getViewerFrameQ().getViewerPanel().requestRepaint();
+		requestRepaint( before );
+	}
+
+	private RealInterval maskSupport() {
+
+		return mask == null ? null : mask.getSupport();
+	}
+
+	/**
+	 * Repaints only where the transform can have changed, i.e. where the mask
+	 * was or is non-zero.
+	 */
+	private void requestRepaint(final RealInterval before) {
+
+		final RealInterval region = before == null ? null : Intervals.union(before, mask.getSupport());
+		bw.getViewerFrameP().getViewerPanel().requestRepaintRegion( region );
+		bw.getViewerFrameQ().getViewerPanel().requestRepaintRegion( region );
 	}
 
 	private void updateSolver() {
@@ -42,7 +42,7 @@ public class TransformTypePanel extends JPanel
 	private static final String TRANSFORM_TYPE_HELP_TEXT = "Select the type of transformation.";
 
 	public static final String[] TRANSFORM_TYPE_STRINGS = new String[] {
-				BigWarpTransform.TPS, BigWarpTransform.AFFINE,
+				BigWarpTransform.TPS, BigWarpTransform.WENDLAND, BigWarpTransform.AFFINE,
 				BigWarpTransform.SIMILARITY, BigWarpTransform.ROTATION, BigWarpTransform.TRANSLATION };
 
 	private final BigWarp< ? > bw;
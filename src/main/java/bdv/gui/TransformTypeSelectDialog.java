@@ -60,6 +60,7 @@ public class TransformTypeSelectDialog extends JDialog
 
 	private final ButtonGroup group;
 	private final JRadioButton tpsButton;
+	private final JRadioButton wendlandButton;
 	private final JRadioButton affineButton;
 	private final JRadioButton similarityButton;
 	private final JRadioButton rotationButton;
@@ -84,6 +85,7 @@ public class TransformTypeSelectDialog extends JDialog
 		transformType = bw.getTransformType();
 
 		tpsButton = new JRadioButton( BigWarpTransform.TPS );
+		wendlandButton = new JRadioButton( BigWarpTransform.WENDLAND );
 		affineButton = new JRadioButton( BigWarpTransform.AFFINE );
 		similarityButton = new JRadioButton( BigWarpTransform.SIMILARITY );
 		rotationButton = new JRadioButton( BigWarpTransform.ROTATION );
@@ -91,6 +93,7 @@ public class TransformTypeSelectDialog extends JDialog
 
 		group = new ButtonGroup();
 		group.add( tpsButton );
+		group.add( wendlandButton );
 		group.add( affineButton );
 		group.add( similarityButton );
 		group.add( rotationButton );
@@ -99,6 +102,7 @@ public class TransformTypeSelectDialog extends JDialog
 		updateButtonGroup();
 
 		addActionListender( tpsButton );
+		addActionListender( wendlandButton );
 		addActionListender( affineButton );
 		addActionListender( similarityButton );
 		addActionListender( rotationButton );
@@ -106,6 +110,7 @@ public class TransformTypeSelectDialog extends JDialog
 
 		final JPanel radioPanel = new JPanel( new GridLayout(0, 1));
 		radioPanel.add( tpsButton );
+		radioPanel.add( wendlandButton );
 		radioPanel.add( affineButton );
 		radioPanel.add( similarityButton );
 		radioPanel.add( rotationButton );
@@ -131,6 +136,9 @@ public class TransformTypeSelectDialog extends JDialog
 		case BigWarpTransform.TPS:
 			tpsButton.setSelected( true );
 			break;
+		case BigWarpTransform.WENDLAND:
+			wendlandButton.setSelected( true );
+			break;
 		case BigWarpTransform.AFFINE:
 			affineButton.setSelected( true );
 			break;
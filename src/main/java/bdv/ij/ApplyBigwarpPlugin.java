@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -41,7 +42,6 @@ import org.janelia.saalfeldlab.n5.RawCompression;
 import org.janelia.saalfeldlab.n5.XzCompression;
 import org.janelia.saalfeldlab.n5.blosc.BloscCompression;
 import org.janelia.saalfeldlab.n5.ij.N5ScalePyramidExporter;
-import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.janelia.saalfeldlab.n5.universe.N5Factory;
 import org.janelia.saalfeldlab.n5.universe.metadata.axes.Axis;
 import org.janelia.saalfeldlab.n5.universe.metadata.ome.ngff.v04.OmeNgffMetadata;
@@ -58,8 +58,12 @@ import bigwarp.BigWarpData;
 import bigwarp.BigWarpExporter;
 import bigwarp.BigWarpInit;
 import bigwarp.FieldOfView;
+import bigwarp.N5PyramidWriter;
+import bigwarp.N5PyramidWriter.DownsamplingMethod;
+import bigwarp.WarpedBlockRenderer;
 import bigwarp.landmarks.LandmarkTableModel;
 import bigwarp.transforms.BigWarpTransform;
+import bigwarp.transforms.SolvedTransformCache;
 import fiji.util.gui.GenericDialogPlus;
 import ij.IJ;
 import ij.ImageJ;
@@ -72,21 +76,16 @@ import net.imglib2.FinalRealInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealInterval;
-import net.imglib2.RealRandomAccessible;
-import net.imglib2.realtransform.AffineGet;
-import net.imglib2.realtransform.AffineRandomAccessible;
 import net.imglib2.realtransform.AffineTransform;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.BoundingBoxEstimation;
 import net.imglib2.realtransform.InvertibleRealTransform;
 import net.imglib2.realtransform.RealTransform;
 import net.imglib2.realtransform.RealTransformSequence;
-import net.imglib2.realtransform.RealViews;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Intervals;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.Views;
 
 /**
  * Apply a Bigwarp transform to a 2d or 3d ImagePlus
@@ -1138,7 +1137,9 @@ public class ApplyBigwarpPlugin implements PlugIn
 			final boolean wait,
 			final WriteDestinationOptions writeOpts) {
 
-		final InvertibleRealTransform invXfm = new BigWarpTransform( landmarks, tranformTypeOption ).getTransformation();
+		final BigWarpTransform bwTransform = new BigWarpTransform( landmarks, tranformTypeOption );
+		bwTransform.setSolvedTransformCache( SolvedTransformCache.getDefault() );
+		final InvertibleRealTransform invXfm = bwTransform.getTransformation();
 		return apply(
 				bwData,
 				landmarks,
@@ -1237,9 +1238,12 @@ public class ApplyBigwarpPlugin implements PlugIn
 
 		if( writeOpts != null && writeOpts.n5Dataset != null && !writeOpts.n5Dataset.isEmpty())
 		{
-			final SourceAndConverter<T> src = bwData.getMovingSource(0);
+			final List<SourceAndConverter<T>> channels = new ArrayList<>();
+			for ( int i = 0; i < numChannels; i++ )
+				channels.add( bwData.getMovingSource( i ) );
+
 			final String unit = ApplyBigwarpPlugin.getUnit( bwData, resolutionOption );
-			runN5Export( bwData, src, fieldOfViewOption,
+			runN5ExportChannels( bwData, channels, fieldOfViewOption,
 					outputIntervalList.get( 0 ), interp,
 					offset, res, unit,
 					progressWriter, writeOpts,
@@ -1354,8 +1358,6 @@ public class ApplyBigwarpPlugin implements PlugIn
 
 		// setup n5 parameters
 		final String dataset = writeOpts.n5Dataset;
-		final int[] blockSize = writeOpts.blockSize;
-		final Compression compression = writeOpts.compression;
 		if( dataset == null || dataset.isEmpty() )
 		{
 			System.err.println("Problem with n5 dataset path: " + dataset);
@@ -1374,7 +1376,6 @@ public class ApplyBigwarpPlugin implements PlugIn
 		}
 
 		// build metadata
-		final OmeNgffMetadataParser parser = new OmeNgffMetadataParser();
 		final String[] axesLabels = nd == 2 ? new String[]{"x", "y"} : new String[]{"x", "y", "z"};
 		final Axis[] axes = new Axis[nd];
 		for (int i = 0; i < nd; i++)
@@ -1399,51 +1400,37 @@ public class ApplyBigwarpPlugin implements PlugIn
 		pixelRenderToPhysical.concatenate( resolutionTransform );
 		pixelRenderToPhysical.concatenate( offsetTransform );
 
-		// render and write
+		// render all channels together and write
 		final int N = data.numMovingSources();
+		final List< Source< T > > movingSources = new ArrayList<>();
+		final List< String > names = new ArrayList<>();
+		final List< String > destDatasets = new ArrayList<>();
 		for ( int i = 0; i < N; i++ )
 		{
 			final SourceAndConverter< S > originalMovingSource = data.getMovingSource( i );
 			final int movingSourceIndex = data.sources.indexOf( originalMovingSource );
 			@SuppressWarnings( "unchecked" )
-			final RealRandomAccessible< T > raiRaw = ( RealRandomAccessible< T > )sources.get( movingSourceIndex ).getSpimSource().getInterpolatedSource( 0, 0, interp );
-
-			// to pixel space
-			final AffineRandomAccessible< T, AffineGet > rai = RealViews.affine( raiRaw, pixelRenderToPhysical.inverse() );
+			final Source< T > src = ( Source< T > )WarpedSource.exact( sources.get( movingSourceIndex ).getSpimSource() );
+			movingSources.add( src );
 
-			final IntervalView< T > img = Views.interval( Views.raster( rai ),
-					Intervals.zeroMin( outputInterval ) );
 			final String srcName = originalMovingSource.getSpimSource().getName();
-
-			String destDataset = dataset;
+			names.add( srcName );
 			if( N >  1 )
-				destDataset = dataset + String.format( "/%s", srcName.replace( " " , "_" ));
-
-			RandomAccessibleInterval<T> imgToWrite;
-			if( nd == 2 )
-				imgToWrite = Views.hyperSlice( img, 2, 0 );
+				destDatasets.add( dataset + String.format( "/%s", srcName.replace( " " , "_" )));
 			else
-				imgToWrite = img;
-
-			final String name = originalMovingSource.getSpimSource().getName();
-			final OmeNgffMetadata metadata = OmeNgffMetadata.buildForWriting(nd, name, axes, new String[]{"s0"},
-					new double[][]{resolution}, new double[][]{offset});
-
-			try
-			{
-				N5Utils.save( imgToWrite, n5, destDataset + "/s0", blockSize, compression, exec );
-				if( parser != null && metadata != null )
-					parser.writeMetadata( metadata, n5, destDataset );
-
-				n5.close();
-			}
-			catch ( final Exception e )
-			{
-				e.printStackTrace();
-			}
+				destDatasets.add( dataset );
+		}
 
-			progressWriter.setProgress( (i+1) / ((double)N) );
+		try
+		{
+			writeMultiscale( movingSources, pixelRenderToPhysical, interp, outputDimensions( outputInterval, nd ),
+					n5, destDatasets, names, axes, resolution, offset, writeOpts, exec, progressWriter );
 		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+		}
+		n5.close();
 
 		progressWriter.setProgress( 1.0 );
 	}
@@ -1461,6 +1448,42 @@ public class ApplyBigwarpPlugin implements PlugIn
 			final WriteDestinationOptions writeOpts,
 			final ExecutorService exec )
 	{
+		runN5ExportChannels( data, Collections.singletonList( sourceAndConverter ), fieldOfViewOption,
+				outputInterval, interp, offsetArg, resolutionArg, unit, progressWriter, writeOpts, exec );
+	}
+
+	/**
+	 * Exports warped sources to an n5 container. All sources are rendered in
+	 * one pass, sharing the evaluation of the transform, and are written
+	 * to the dataset if there is one source or to dataset/name otherwise.
+	 *
+	 * @param <S> the source type
+	 * @param <T> the image type
+	 * @param data the bigwarp data
+	 * @param channels the sources to export
+	 * @param fieldOfViewOption the field of view option
+	 * @param outputInterval the output interval
+	 * @param interp the interpolation
+	 * @param offsetArg the offset
+	 * @param resolutionArg the resolution
+	 * @param unit the unit
+	 * @param progressWriter the progress writer
+	 * @param writeOpts the write options
+	 * @param exec the executor
+	 */
+	public static <S,T extends NativeType<T> & NumericType<T>> void runN5ExportChannels(
+			final BigWarpData<S> data,
+			final List<SourceAndConverter<S>> channels,
+			final String fieldOfViewOption,
+			final Interval outputInterval,
+			final Interpolation interp,
+			final double[] offsetArg,
+			final double[] resolutionArg,
+			final String unit,
+			final ProgressWriter progressWriter,
+			final WriteDestinationOptions writeOpts,
+			final ExecutorService exec )
+	{
 
 		final int nd = BigWarp.detectNumDims(data.sources);
 		final double[] resolution = limit(nd, resolutionArg);
@@ -1471,8 +1494,6 @@ public class ApplyBigwarpPlugin implements PlugIn
 
 		// setup n5 parameters
 		final String dataset = writeOpts.n5Dataset;
-		final int[] blockSize = writeOpts.blockSize;
-		final Compression compression = writeOpts.compression;
 		if( dataset == null || dataset.isEmpty() )
 		{
 			System.err.println("Problem with n5 dataset path: " + dataset);
@@ -1491,7 +1512,6 @@ public class ApplyBigwarpPlugin implements PlugIn
 		}
 
 		// build metadata
-		final OmeNgffMetadataParser parser = new OmeNgffMetadataParser();
 		final String[] axesLabels = nd == 2 ? new String[]{"x", "y"} : new String[]{"x", "y", "z"};
 		final Axis[] axes = new Axis[nd];
 		for (int i = 0; i < nd; i++)
@@ -1512,48 +1532,180 @@ public class ApplyBigwarpPlugin implements PlugIn
 		if( resolution.length > 2 )
 			offsetTransform.set( offsetPhysical[ 2 ], 2, 3 );
 
+		// the same transform as BigWarpExporter.buildTotalRenderTransform
 		final AffineTransform3D pixelRenderToPhysical = new AffineTransform3D();
-		pixelRenderToPhysical.concatenate( resolutionTransform );
 		pixelRenderToPhysical.concatenate( offsetTransform );
+		pixelRenderToPhysical.concatenate( resolutionTransform );
 
-		// render and write
-		final String srcName = sourceAndConverter.getSpimSource().getName();
-		final BigWarpExporter<?> exporter = BigWarpExporter.getExporter( data,
-				sourceAndConverter, interp, progressWriter );
-		exporter.setRenderResolution( resolution );
-		exporter.setOffset( offsetPhysical );
-		exporter.setInterval(Intervals.zeroMin(outputInterval));
-		exporter.setSingleChannelNoStack(true);
-		final RandomAccessibleInterval<T> imgExp = (RandomAccessibleInterval<T>)exporter.exportRai((Source<T>)sourceAndConverter.getSpimSource());
-		final IntervalView<T> img = Views.translateInverse( imgExp, Intervals.minAsLongArray( imgExp ));
-
-		RandomAccessibleInterval<T> imgToWrite;
-		if( nd == 2 )
-			imgToWrite = Views.hyperSlice( img, 2, 0 );
-		else
-			imgToWrite = img;
+		// render all channels together and write
+		final int N = channels.size();
+		final List< Source< T > > sources = new ArrayList<>();
+		final List< String > names = new ArrayList<>();
+		final List< String > destDatasets = new ArrayList<>();
+		for ( final SourceAndConverter< S > sourceAndConverter : channels )
+		{
+			@SuppressWarnings( "unchecked" )
+			final Source< T > src = ( Source< T > )WarpedSource.exact( sourceAndConverter.getSpimSource() );
+			sources.add( src );
 
-		final String destDataset = dataset;
-		final OmeNgffMetadata metadata = OmeNgffMetadata.buildForWriting(nd, srcName, axes, new String[]{"s0"},
-				new double[][]{resolution}, new double[][]{offsetPhysical});
+			final String srcName = sourceAndConverter.getSpimSource().getName();
+			names.add( srcName );
+			if( N > 1 )
+				destDatasets.add( dataset + String.format( "/%s", srcName.replace( " " , "_" )));
+			else
+				destDatasets.add( dataset );
+		}
 
 		try
 		{
-			N5Utils.save( imgToWrite, n5, destDataset + "/s0", blockSize, compression, exec );
-			if( parser != null && metadata != null )
-				parser.writeMetadata( metadata, n5, destDataset );
-
-			n5.close();
+			writeMultiscale( sources, pixelRenderToPhysical, interp, outputDimensions( outputInterval, nd ),
+					n5, destDatasets, names, axes, resolution, offsetPhysical, writeOpts, exec, progressWriter );
 		}
 		catch ( final Exception e )
 		{
 			e.printStackTrace();
 		}
-
+		n5.close();
 
 		progressWriter.setProgress( 1.0 );
 	}
 
+	private static long[] outputDimensions( final Interval outputInterval, final int nd )
+	{
+		final long[] dimensions = new long[ nd ];
+		for( int d = 0; d < nd; d++ )
+			dimensions[ d ] = outputInterval.dimension( d );
+
+		return dimensions;
+	}
+
+	/**
+	 * Renders warped sources block by block with a {@link WarpedBlockRenderer},
+	 * evaluating the transform once per block for all sources, and writes
+	 * each into its own multiscale group.
+	 *
+	 * @param sources the sources
+	 * @param pixelRenderToPhysical transform from output pixels to physical space
+	 * @param interp the interpolation
+	 * @param dimensions the output dimensions
+	 * @param n5 the writer
+	 * @param datasets the multiscale group of every source
+	 * @param names the name of every source
+	 * @param axes the axes
+	 * @param resolution the full resolution pixel spacing
+	 * @param offset the full resolution offset
+	 * @param writeOpts block size, compression and downsampling options
+	 * @param exec the executor
+	 * @param progressWriter the progress writer, may be null
+	 * @throws Exception if writing fails
+	 */
+	public static <T extends NativeType<T> & NumericType<T>> void writeMultiscale(
+			final List< Source< T > > sources,
+			final AffineTransform3D pixelRenderToPhysical,
+			final Interpolation interp,
+			final long[] dimensions,
+			final N5Writer n5,
+			final List< String > datasets,
+			final List< String > names,
+			final Axis[] axes,
+			final double[] resolution,
+			final double[] offset,
+			final WriteDestinationOptions writeOpts,
+			final ExecutorService exec,
+			final ProgressWriter progressWriter ) throws Exception
+	{
+		final int numThreads = exec instanceof ThreadPoolExecutor
+				? ( ( ThreadPoolExecutor ) exec ).getMaximumPoolSize()
+				: Runtime.getRuntime().availableProcessors();
+		final WarpedBlockRenderer< T > renderer = new WarpedBlockRenderer<>( sources, pixelRenderToPhysical, interp );
+		renderer.setMaxPrefetchSize( WarpedBlockRenderer.DEFAULT_MAX_PREFETCH_SIZE / numThreads );
+		final T type = sources.get( 0 ).getType().createVariable();
+		final List< N5PyramidWriter< T > > writers = new ArrayList<>();
+		for( final String dataset : datasets )
+			writers.add( createPyramidWriter( n5, dataset, dimensions, type, writeOpts ));
+
+		N5PyramidWriter.write( writers, () -> renderer.copy()::render, exec, progressWriter );
+
+		for( int i = 0; i < writers.size(); i++ )
+			writeMultiscaleMetadata( writers.get( i ), n5, datasets.get( i ), names.get( i ), axes, resolution, offset );
+	}
+
+	/**
+	 * Writes an image and its multiscale pyramid in a single pass, along with
+	 * OME-NGFF multiscale metadata.
+	 *
+	 * @param img the full resolution image with zero min
+	 * @param n5 the writer
+	 * @param dataset the multiscale group
+	 * @param name the name of the image
+	 * @param axes the axes
+	 * @param resolution the full resolution pixel spacing
+	 * @param offset the full resolution offset
+	 * @param writeOpts block size, compression and downsampling options
+	 * @param exec the executor
+	 * @param progressWriter the progress writer, may be null
+	 * @throws Exception if writing fails
+	 */
+	public static <T extends NativeType<T>> void writeMultiscale(
+			final RandomAccessibleInterval<T> img,
+			final N5Writer n5,
+			final String dataset,
+			final String name,
+			final Axis[] axes,
+			final double[] resolution,
+			final double[] offset,
+			final WriteDestinationOptions writeOpts,
+			final ExecutorService exec,
+			final ProgressWriter progressWriter ) throws Exception
+	{
+		final N5PyramidWriter<T> writer = createPyramidWriter( n5, dataset, img.dimensionsAsLongArray(),
+				img.getType().createVariable(), writeOpts );
+		writer.write( img, exec, progressWriter );
+		writeMultiscaleMetadata( writer, n5, dataset, name, axes, resolution, offset );
+	}
+
+	private static <T extends NativeType<T>> N5PyramidWriter<T> createPyramidWriter(
+			final N5Writer n5,
+			final String dataset,
+			final long[] dimensions,
+			final T type,
+			final WriteDestinationOptions writeOpts )
+	{
+		final int nd = dimensions.length;
+		final int[] blockSize = new int[ nd ];
+		Arrays.fill( blockSize, 64 );
+		if( writeOpts.blockSize != null )
+			System.arraycopy( writeOpts.blockSize, 0, blockSize, 0, Math.min( nd, writeOpts.blockSize.length ));
+
+		int[][] factors = writeOpts.downsamplingFactors;
+		if( factors == null )
+			factors = N5PyramidWriter.automaticFactors( dimensions, blockSize );
+
+		if( factors.length > 0 && !( type instanceof RealType ))
+		{
+			System.err.println( "Can not downsample " + type.getClass().getSimpleName() + ", writing a single scale." );
+			factors = new int[ 0 ][];
+		}
+
+		final DownsamplingMethod method = writeOpts.downsamplingMethod == null ? DownsamplingMethod.AVERAGE : writeOpts.downsamplingMethod;
+		return new N5PyramidWriter<>( n5, dataset, dimensions, blockSize, factors, method, writeOpts.compression, type );
+	}
+
+	private static void writeMultiscaleMetadata(
+			final N5PyramidWriter<?> writer,
+			final N5Writer n5,
+			final String dataset,
+			final String name,
+			final Axis[] axes,
+			final double[] resolution,
+			final double[] offset )
+	{
+		final int nd = axes.length;
+		final OmeNgffMetadata metadata = OmeNgffMetadata.buildForWriting( nd, name, axes, writer.getScalePaths(),
+				writer.getScales( resolution ), writer.getTranslations( resolution, offset ));
+		new OmeNgffMetadataParser().writeMetadata( metadata, n5, dataset );
+	}
+
 	@Override
 	public void run( final String arg )
 	{
@@ -1597,6 +1749,7 @@ public class ApplyBigwarpPlugin implements PlugIn
 		gd.addChoice( "Transform type",
 				new String[] {
 					BigWarpTransform.TPS,
+					BigWarpTransform.WENDLAND,
 					BigWarpTransform.AFFINE,
 					BigWarpTransform.SIMILARITY,
 					BigWarpTransform.ROTATION,
@@ -1654,6 +1807,8 @@ public class ApplyBigwarpPlugin implements PlugIn
 				N5ScalePyramidExporter.XZ_COMPRESSION,
 				N5ScalePyramidExporter.BLOSC_COMPRESSION },
 			N5ScalePyramidExporter.GZIP_COMPRESSION );
+		gd.addStringField( "n5_downsampling_factors", N5PyramidWriter.SINGLE_SCALE );
+		gd.addChoice( "n5_downsampling_method", DOWNSAMPLING_METHODS, DOWNSAMPLING_METHODS[ 0 ] );
 
 		gd.showDialog();
 
@@ -1706,6 +1861,8 @@ public class ApplyBigwarpPlugin implements PlugIn
 		final String n5Dataset = gd.getNextString();
 		final String blockSizeString = gd.getNextString();
 		final String compressionString = gd.getNextChoice();
+		final String downsamplingFactorsString = gd.getNextString();
+		final String downsamplingMethodString = gd.getNextChoice();
 
 		// load the image data
 		final BigWarpData< ? > bigwarpdata = BigWarpInit.initData();
@@ -1760,7 +1917,9 @@ public class ApplyBigwarpPlugin implements PlugIn
 		final int[] blockSize = ApplyBigwarpPlugin.parseBlockSize( blockSizeString, nd );
 		final Compression compression = ApplyBigwarpPlugin.getCompression( compressionString );
 		final WriteDestinationOptions writeOpts = new ApplyBigwarpPlugin.WriteDestinationOptions( fileOrN5Root, n5Dataset,
-				blockSize, compression );
+				blockSize, compression,
+				N5PyramidWriter.parseFactors( downsamplingFactorsString, nd ),
+				getDownsamplingMethod( downsamplingMethodString ));
 
 		final LandmarkTableModel ltm = new LandmarkTableModel( nd );
 		try
@@ -1826,6 +1985,16 @@ public class ApplyBigwarpPlugin implements PlugIn
 		}
 	}
 
+	public static final String[] DOWNSAMPLING_METHODS = new String[] { "Average", "Mode (labels)" };
+
+	public static DownsamplingMethod getDownsamplingMethod( final String methodArg )
+	{
+		if( methodArg != null && methodArg.toLowerCase().startsWith( "mode" ))
+			return DownsamplingMethod.MODE;
+		else
+			return DownsamplingMethod.AVERAGE;
+	}
+
 	public static class WriteDestinationOptions
 	{
 		final public String pathOrN5Root;
@@ -1833,13 +2002,38 @@ public class ApplyBigwarpPlugin implements PlugIn
 		final public int[] blockSize;
 		final public Compression compression;
 
+		/**
+		 * Downsampling factors per level relative to the previous level.
+		 * Empty for a single scale, null to choose them automatically.
+		 */
+		final public int[][] downsamplingFactors;
+		final public DownsamplingMethod downsamplingMethod;
+
+		/**
+		 * Options that write a single scale, like the export dialogs do by
+		 * default.
+		 *
+		 * @param pathOrN5Root the file or the n5 root
+		 * @param n5Dataset the dataset
+		 * @param blockSize the block size
+		 * @param compression the compression
+		 */
 		public WriteDestinationOptions( final String pathOrN5Root, final String n5Dataset,
 				final int[] blockSize, final Compression compression )
+		{
+			this( pathOrN5Root, n5Dataset, blockSize, compression, new int[ 0 ][], DownsamplingMethod.AVERAGE );
+		}
+
+		public WriteDestinationOptions( final String pathOrN5Root, final String n5Dataset,
+				final int[] blockSize, final Compression compression,
+				final int[][] downsamplingFactors, final DownsamplingMethod downsamplingMethod )
 		{
 			this.pathOrN5Root = pathOrN5Root;
 			this.n5Dataset = n5Dataset;
 			this.blockSize = blockSize;
 			this.compression = compression;
+			this.downsamplingFactors = downsamplingFactors;
+			this.downsamplingMethod = downsamplingMethod;
 		}
 	}
 
@@ -32,9 +32,6 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import javax.swing.JFrame;
 
@@ -66,8 +63,11 @@ import bigwarp.BigWarpExporter;
 import bigwarp.landmarks.LandmarkTableModel;
 import bigwarp.source.SourceInfo;
 import bigwarp.transforms.BigWarpTransform;
+import bigwarp.transforms.DisplacementFieldWriter;
+import bigwarp.transforms.InverseDisplacementFieldWriter;
 import bigwarp.transforms.NgffTransformations;
 import bigwarp.transforms.SlicerTransformations;
+import bigwarp.transforms.SolvedTransformCache;
 import fiji.util.gui.GenericDialogPlus;
 import ij.IJ;
 import ij.ImageJ;
@@ -326,7 +326,10 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 	{
 		BigWarpTransform bwXfm;
 		if( bwTransform == null )
+		{
 			bwXfm = new BigWarpTransform( ltm, BigWarpTransform.TPS );
+			bwXfm.setSolvedTransformCache( SolvedTransformCache.getDefault() );
+		}
 		else
 			bwXfm = bwTransform;
 
@@ -698,7 +701,10 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 
 		final BigWarpTransform bwXfm;
 		if( bwTransform == null )
+		{
 			bwXfm = new BigWarpTransform( ltm, BigWarpTransform.TPS );
+			bwXfm.setSolvedTransformCache( SolvedTransformCache.getDefault() );
+		}
 		else
 			bwXfm = bwTransform;
 
@@ -715,9 +721,6 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 			transform = totalTransform;
 
 		final int[] spatialBlockSize = fillBlockSize( spatialBlockSizeArg, ltm.getNumdims() );
-		final int[] blockSize = new int[ spatialBlockSize.length + 1 ];
-		blockSize[ 0 ] = spatialBlockSize.length;
-		System.arraycopy( spatialBlockSize, 0, blockSize, 1, spatialBlockSize.length );
 
 		final N5Factory factory = new N5Factory().gsonBuilder( NgffTransformations.gsonBuilder() );
 		final N5Writer n5 = factory.openWriter( n5BasePath );
@@ -740,105 +743,120 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 		}
 
 
-		final RandomAccessibleInterval<T> dfield;
-		if (splitAffine) {
+		// the field is computed and written block by block, never as a whole
+		final AffineGet affine = splitAffine ? bwXfm.affinePartOfTps() : null;
 
-			// the affine part
-			final AffineGet affine = bwXfm.affinePartOfTps();
-			final AffineCoordinateTransform ngffAffine = new AffineCoordinateTransform( affine.getRowPackedCopy() );
-
-			dfield = buildDisplacementField(dtype, transform, new FinalInterval(dims), spacing, offset);
+		// invert by warm started solves on the forward transform, starting from the inverse of
+		// the tps's affine part (which is split off when splitAffine is true)
+		final RealTransform warmStartForward = inverse && transform == totalTransform ? fwdTransform : null;
+		final AffineGet inverseGuess = warmStartForward == null || splitAffine ? null : bwXfm.affinePartOfTps().inverse();
+		final ExecutorService exec = Executors.newFixedThreadPool( nThreads );
+		try {
 			if (format.equals(ExportDisplacementFieldFrame.FMT_SLICER)) {
-				final ThreadPoolExecutor exec = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-				SlicerTransformations.saveDisplacementField(n5, dataset, dfield, blockSize, compression, exec);
-				SlicerTransformations.saveAffine(n5, dataset, affine);
-			} else if (format.equals(ExportDisplacementFieldFrame.FMT_N5)) {
-				// TODO Implement me
-
-				// affine parameter may be null
-				final Q q = getQuantizedDataType(dtype);
-				if (q == null) // no quantization
-					N5DisplacementField.save(n5, dataset, affine, dfield,
-							spacing, offset, blockSize, compression);
-				else
-					N5DisplacementField.save(n5, dataset, affine, dfield,
-							spacing, offset, blockSize, compression,
-							q, maxError);
-
-			} else {
-				final DisplacementFieldCoordinateTransform<?> dfieldTform = NgffTransformations.save(n5, dataset, dfield, inputSpace, outputSpace, spacing, offset,
-						unit, blockSize, compression, nThreads);
-
-				// the transform sequence needs to have a reference to whatever transform was imported, if requested
-				final CoordinateTransform[] ctList = refCt == null ? new CoordinateTransform[]{dfieldTform, ngffAffine}
-						: new CoordinateTransform[]{dfieldTform, ngffAffine, refCt};
-
-				// the total transform
-				final SequenceCoordinateTransform totalTform = new SequenceCoordinateTransform(inputSpace, outputSpace, ctList);
-
-				NgffTransformations.addCoordinateTransformations(n5, "/", totalTform);
-			}
-		}
-		else {
+				writeDisplacementField(n5, dataset, transform, warmStartForward, inverseGuess, invTolerance, invMaxIters, dims, spacing, offset, spatialBlockSize, compression,
+						dtype, true, nThreads, exec);
 
-			dfield = buildDisplacementField(dtype, transform, new FinalInterval(dims), spacing, offset);
-
-			if (format.equals(ExportDisplacementFieldFrame.FMT_SLICER)) {
-				final ThreadPoolExecutor exec = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-				SlicerTransformations.saveDisplacementField(n5, dataset, dfield, blockSize, compression, exec);
-
-				// for slicer, this affine represents the pixel to physical transformation
-				SlicerTransformations.saveAffine(n5, dataset, new ScaleAndTranslation(spacing, offset));
+				// without a split affine, this affine represents the pixel to physical transformation
+				SlicerTransformations.saveAffine(n5, dataset, splitAffine ? affine : new ScaleAndTranslation(spacing, offset));
 			} else if (format.equals(ExportDisplacementFieldFrame.FMT_N5)) {
-				// affine parameter may be null
 				final Q q = getQuantizedDataType(dtype);
-				if (q == null) // no quantization
-					N5DisplacementField.save(n5, dataset, null, dfield,
-							spacing, offset, blockSize, compression);
-				else
-					N5DisplacementField.save(n5, dataset, null, dfield,
-							spacing, offset, blockSize, compression,
-							q, maxError);
+				if (q == null) { // no quantization
+					writeDisplacementField(n5, dataset, transform, warmStartForward, inverseGuess, invTolerance, invMaxIters, dims, spacing, offset, spatialBlockSize, compression,
+							dtype, false, nThreads, exec);
+				} else {
+					final double m = DisplacementFieldWriter.quantizationMultiplier(dims.length, maxError);
+					writeDisplacementField(n5, dataset, transform, warmStartForward, inverseGuess, invTolerance, invMaxIters, dims, spacing, offset, spatialBlockSize, compression,
+							q, false, m, nThreads, exec);
+					n5.setAttribute(dataset, N5DisplacementField.MULTIPLIER_ATTR, m);
+				}
+
+				// affine may be null
+				if (affine != null)
+					N5DisplacementField.saveAffine(affine, n5, dataset);
 
+				n5.setAttribute(dataset, N5DisplacementField.SPACING_ATTR, spacing);
+				n5.setAttribute(dataset, N5DisplacementField.OFFSET_ATTR, offset);
 			} else {
-				final DisplacementFieldCoordinateTransform<?> dfieldTform = NgffTransformations.save(n5, dataset, dfield, inputSpace, outputSpace, spacing, offset,
-						unit, blockSize, compression, nThreads);
+				writeDisplacementField(n5, dataset, transform, warmStartForward, inverseGuess, invTolerance, invMaxIters, dims, spacing, offset, spatialBlockSize, compression,
+						dtype, false, nThreads, exec);
+				final DisplacementFieldCoordinateTransform<?> dfieldTform = NgffTransformations.saveDisplacementFieldMetadata(
+						n5, dataset, inputSpace, outputSpace, spacing, offset, unit);
 
 				final CoordinateTransform<?> ngffTform;
-				if (refCt == null)
+				if (splitAffine) {
+					final AffineCoordinateTransform ngffAffine = new AffineCoordinateTransform( affine.getRowPackedCopy() );
+
+					// the transform sequence needs to have a reference to whatever transform was imported, if requested
+					final CoordinateTransform[] ctList = refCt == null ? new CoordinateTransform[]{dfieldTform, ngffAffine}
+							: new CoordinateTransform[]{dfieldTform, ngffAffine, refCt};
+
+					// the total transform
+					ngffTform = new SequenceCoordinateTransform(inputSpace, outputSpace, ctList);
+				}
+				else if (refCt == null)
 					ngffTform = dfieldTform;
 				else
 					ngffTform = new SequenceCoordinateTransform(refCt.getInput(), dfieldTform.getOutput(), new CoordinateTransform[]{dfieldTform, refCt});
 
 				NgffTransformations.addCoordinateTransformations(n5, "/", ngffTform);
 			}
+		} catch (final InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		} finally {
+			exec.shutdown();
 		}
 
 		n5.close();
 	}
 
-	@SuppressWarnings({"unchecked", "rawtypes"})
-	private static <T extends NativeType<T> & RealType<T>> RandomAccessibleInterval<T> buildDisplacementField(DTYPE dtype,
-			RealTransform transform, Interval interval, double[] spacing, double[] offset) {
+	private static void writeDisplacementField(
+			final N5Writer n5, final String dataset, final RealTransform transform,
+			final RealTransform warmStartForward, final AffineGet inverseGuess, final double invTolerance, final int invMaxIters,
+			final long[] dims, final double[] spacing, final double[] offset,
+			final int[] spatialBlockSize, final Compression compression, final DTYPE dtype,
+			final boolean vectorAxisLast, final int nThreads, final ExecutorService exec)
+			throws InterruptedException, ExecutionException {
 
 		if (DTYPE.FLOAT.equals(dtype))
-			return (RandomAccessibleInterval)buildDisplacementFieldFloat(transform, interval, spacing, offset);
+			writeDisplacementField(n5, dataset, transform, warmStartForward, inverseGuess, invTolerance, invMaxIters, dims, spacing, offset, spatialBlockSize, compression,
+					new FloatType(), vectorAxisLast, Double.NaN, nThreads, exec);
 		else
-			return (RandomAccessibleInterval)buildDisplacementFieldDouble(transform, interval, spacing, offset);
+			writeDisplacementField(n5, dataset, transform, warmStartForward, inverseGuess, invTolerance, invMaxIters, dims, spacing, offset, spatialBlockSize, compression,
+					new DoubleType(), vectorAxisLast, Double.NaN, nThreads, exec);
 	}
 
-	private static RandomAccessibleInterval<DoubleType> buildDisplacementFieldDouble(
-			RealTransform transform, Interval interval, double[] spacing, double[] offset) {
+	/**
+	 * Writes the displacement field of a transform block by block with a
+	 * {@link DisplacementFieldWriter}, keeping at most two blocks per thread in
+	 * memory. If warmStartForward is not null, writes the field of its inverse
+	 * with an {@link InverseDisplacementFieldWriter} instead of evaluating the
+	 * transform.
+	 *
+	 * @param multiplier the quantization multiplier, or NaN to store displacements as they are
+	 */
+	private static <T extends NativeType<T> & RealType<T>> void writeDisplacementField(
+			final N5Writer n5, final String dataset, final RealTransform transform,
+			final RealTransform warmStartForward, final AffineGet inverseGuess, final double invTolerance, final int invMaxIters,
+			final long[] dims, final double[] spacing, final double[] offset,
+			final int[] spatialBlockSize, final Compression compression, final T type,
+			final boolean vectorAxisLast, final double multiplier, final int nThreads, final ExecutorService exec)
+			throws InterruptedException, ExecutionException {
+
+		final DisplacementFieldWriter<T> writer;
+		if (warmStartForward != null)
+			writer = new InverseDisplacementFieldWriter<>(warmStartForward, inverseGuess, invTolerance, invMaxIters, dims, spacing, offset, type);
+		else
+			writer = new DisplacementFieldWriter<>(transform, dims, spacing, offset, type);
 
-		return DisplacementFieldTransform.createDisplacementField(transform, interval, spacing, offset,
-				() -> DoubleType.createVector(transform.numTargetDimensions()));
-	}
+		writer.setVectorAxisLast(vectorAxisLast);
+		if (!Double.isNaN(multiplier))
+			writer.setQuantization(multiplier);
 
-	private static RandomAccessibleInterval<FloatType> buildDisplacementFieldFloat(
-			RealTransform transform, Interval interval, double[] spacing, double[] offset) {
+		writer.setMaxBlocksInFlight(2 * nThreads);
+		writer.write(n5, dataset, spatialBlockSize, compression, exec);
 
-		return DisplacementFieldTransform.createDisplacementField(transform, interval, spacing, offset,
-				() -> FloatType.createVector(transform.numTargetDimensions()));
+		if (warmStartForward != null)
+			IJ.log("Inverse displacement field " + dataset + ": " + ((InverseDisplacementFieldWriter<T>)writer).getStatistics());
 	}
 
 	@SuppressWarnings("unchecked")
@@ -0,0 +1,419 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bdv.img;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.RealTransform;
+
+/**
+ * Approximates a 3D {@link RealTransform} by the trilinear interpolation of
+ * its displacements sampled on a regular grid.
+ * <p>
+ * The grid is divided into blocks that are computed on demand by the threads
+ * that apply the transform, and cached. When the transform is updated with
+ * {@link #update(RealTransform, RealInterval)}, blocks that intersect the
+ * changed region are recomputed when they are next used. Blocks outside the
+ * changed region are checked against the new transform at their corners and
+ * center, and are recomputed only if the displacement changed by more than the
+ * tolerance there, so that a local change only recomputes the blocks near
+ * it.
+ * <p>
+ * For planar (2D) sources, the grid has a single layer at z = 0 and the
+ * displacement is interpolated bilinearly.
+ */
+public class DisplacementFieldProxy
+{
+	private static final int N = 3;
+
+	// the number of transform updates that are remembered for revalidating blocks
+	private static final int MAX_HISTORY = 32;
+
+	private static final int KEY_BITS = 21;
+
+	private static final long KEY_OFFSET = 1L << ( KEY_BITS - 1 );
+
+	private static final long KEY_MASK = ( 1L << KEY_BITS ) - 1;
+
+	private final double spacing;
+
+	private final int blockSize;
+
+	private final double tolerance;
+
+	private final boolean planar;
+
+	private final int maxBlocks;
+
+	private final ConcurrentHashMap< Long, Block > blocks;
+
+	private volatile State state;
+
+	/**
+	 * @param spacing the spacing of the grid
+	 * @param blockSize the number of grid cells per block side
+	 * @param tolerance the largest change of the displacement at the corners
+	 *            and center of a block outside the changed region for which
+	 *            the block is kept
+	 * @param maxBlocks the cache is cleared if it grows beyond this number of
+	 *            blocks
+	 * @param planar if the grid has a single layer at z = 0
+	 */
+	public DisplacementFieldProxy( final double spacing, final int blockSize, final double tolerance, final int maxBlocks, final boolean planar )
+	{
+		this.spacing = spacing;
+		this.blockSize = blockSize;
+		this.tolerance = tolerance;
+		this.maxBlocks = maxBlocks;
+		this.planar = planar;
+		blocks = new ConcurrentHashMap<>();
+	}
+
+	public DisplacementFieldProxy( final double spacing, final boolean planar )
+	{
+		this( spacing, 8, 0.25, 4096, planar );
+	}
+
+	public double getSpacing()
+	{
+		return spacing;
+	}
+
+	/**
+	 * Sets the transform to approximate.
+	 * <p>
+	 * Blocks outside the changed region are only checked at their corners and
+	 * center, so a change in between goes unnoticed. The region must therefore
+	 * bound every change larger than the tolerance, which holds for
+	 * transforms with compact support, like a Wendland RBF, but not for a thin
+	 * plate spline, where moving one landmark changes the transform everywhere.
+	 * Pass null for those.
+	 *
+	 * @param xfm the transform
+	 * @param changed the region in which the transform changed, or null if it
+	 *            changed everywhere
+	 */
+	public synchronized void update( final RealTransform xfm, final RealInterval changed )
+	{
+		if ( changed == null || state == null )
+		{
+			blocks.clear();
+			state = new State( xfm, state == null ? 0 : state.generation + 1, null, null );
+			return;
+		}
+
+		// blocks whose cells intersect the changed region
+		final long[] min = new long[ N ];
+		final long[] max = new long[ N ];
+		for ( int d = 0; d < N; d++ )
+		{
+			min[ d ] = ( long ) Math.floor( changed.realMin( d ) / spacing / blockSize );
+			max[ d ] = ( long ) Math.floor( changed.realMax( d ) / spacing / blockSize );
+		}
+
+		if ( planar )
+		{
+			min[ 2 ] = 0;
+			max[ 2 ] = 0;
+		}
+
+		State prev = state;
+		int length = 1;
+		for ( State s = prev; s.previous != null; s = s.previous )
+			length++;
+
+		if ( length >= MAX_HISTORY )
+			prev = prev.truncate( MAX_HISTORY / 2 );
+
+		state = new State( xfm, state.generation + 1, new long[][] { min, max }, prev );
+	}
+
+	public synchronized void clear()
+	{
+		blocks.clear();
+		state = null;
+	}
+
+	/**
+	 * @return a transform that interpolates the current state of this proxy,
+	 *         or null if no transform was set
+	 */
+	public RealTransform getTransform()
+	{
+		final State s = state;
+		return s == null ? null : new ProxyTransform( s );
+	}
+
+	private static long key( final long x, final long y, final long z )
+	{
+		return ( ( x + KEY_OFFSET ) & KEY_MASK ) |
+				( ( ( y + KEY_OFFSET ) & KEY_MASK ) << KEY_BITS ) |
+				( ( ( z + KEY_OFFSET ) & KEY_MASK ) << ( 2 * KEY_BITS ) );
+	}
+
+	/**
+	 * An immutable transform and the region that changed since the previous
+	 * state.
+	 */
+	private static final class State
+	{
+		final RealTransform xfm;
+
+		final int generation;
+
+		// {min, max} block coordinates that changed, null if everything changed
+		final long[][] changed;
+
+		final State previous;
+
+		State( final RealTransform xfm, final int generation, final long[][] changed, final State previous )
+		{
+			this.xfm = xfm;
+			this.generation = generation;
+			this.changed = changed;
+			this.previous = previous;
+		}
+
+		State truncate( final int length )
+		{
+			if ( length <= 1 || previous == null )
+				return new State( xfm, generation, changed, null );
+
+			return new State( xfm, generation, changed, previous.truncate( length - 1 ) );
+		}
+
+		/**
+		 * @return true if the block may have to be recomputed since the given
+		 *         generation
+		 */
+		boolean changedSince( final int blockGeneration, final long x, final long y, final long z )
+		{
+			State s = this;
+			while ( s.generation > blockGeneration )
+			{
+				if ( s.changed == null )
+					return true;
+
+				final long[] min = s.changed[ 0 ];
+				final long[] max = s.changed[ 1 ];
+				if ( x >= min[ 0 ] && x <= max[ 0 ] && y >= min[ 1 ] && y <= max[ 1 ] && z >= min[ 2 ] && z <= max[ 2 ] )
+					return true;
+
+				// older changes are not known
+				if ( s.previous == null )
+					return s.generation - 1 > blockGeneration;
+
+				s = s.previous;
+			}
+			return false;
+		}
+	}
+
+	private static final class Block
+	{
+		// the displacements of the (blockSize + 1)^3 grid points, x fastest,
+		// or of (blockSize + 1)^2 grid points if planar
+		final float[] displacement;
+
+		volatile int generation;
+
+		Block( final float[] displacement, final int generation )
+		{
+			this.displacement = displacement;
+			this.generation = generation;
+		}
+	}
+
+	private class ProxyTransform implements RealTransform
+	{
+		private final State state;
+
+		private final RealTransform xfm;
+
+		private final double[] p = new double[ N ];
+
+		private final double[] q = new double[ N ];
+
+		private final double[] pos = new double[ N ];
+
+		private long lastKey = Long.MIN_VALUE;
+
+		private Block lastBlock;
+
+		ProxyTransform( final State state )
+		{
+			this.state = state;
+			xfm = state.xfm.copy();
+		}
+
+		@Override
+		public int numSourceDimensions()
+		{
+			return N;
+		}
+
+		@Override
+		public int numTargetDimensions()
+		{
+			return N;
+		}
+
+		@Override
+		public void apply( final double[] source, final double[] target )
+		{
+			final double gx = source[ 0 ] / spacing;
+			final double gy = source[ 1 ] / spacing;
+			final double gz = source[ 2 ] / spacing;
+
+			final long bx = ( long ) Math.floor( gx / blockSize );
+			final long by = ( long ) Math.floor( gy / blockSize );
+			final long bz = planar ? 0 : ( long ) Math.floor( gz / blockSize );
+			final Block block = getBlock( bx, by, bz );
+
+			// the cell in the block and the position in the cell
+			final double lx = gx - bx * blockSize;
+			final double ly = gy - by * blockSize;
+			final double lz = gz - bz * blockSize;
+			final int cx = Math.min( ( int ) lx, blockSize - 1 );
+			final int cy = Math.min( ( int ) ly, blockSize - 1 );
+			final int cz = planar ? 0 : Math.min( ( int ) lz, blockSize - 1 );
+			final double fx = lx - cx;
+			final double fy = ly - cy;
+			final double fz = planar ? 0 : lz - cz;
+
+			final int w = blockSize + 1;
+			final int i000 = N * ( ( cz * w + cy ) * w + cx );
+			final int dy = N * w;
+			final int dz = planar ? 0 : N * w * w;
+			final float[] disp = block.displacement;
+			for ( int d = 0; d < N; d++ )
+			{
+				final int i = i000 + d;
+				final double v00 = disp[ i ] + fx * ( disp[ i + N ] - disp[ i ] );
+				final double v10 = disp[ i + dy ] + fx * ( disp[ i + dy + N ] - disp[ i + dy ] );
+				final double v01 = disp[ i + dz ] + fx * ( disp[ i + dz + N ] - disp[ i + dz ] );
+				final double v11 = disp[ i + dy + dz ] + fx * ( disp[ i + dy + dz + N ] - disp[ i + dy + dz ] );
+				final double v0 = v00 + fy * ( v10 - v00 );
+				final double v1 = v01 + fy * ( v11 - v01 );
+				target[ d ] = source[ d ] + v0 + fz * ( v1 - v0 );
+			}
+		}
+
+		@Override
+		public void apply( final RealLocalizable source, final RealPositionable target )
+		{
+			source.localize( pos );
+			apply( pos, pos );
+			target.setPosition( pos );
+		}
+
+		@Override
+		public RealTransform copy()
+		{
+			return new ProxyTransform( state );
+		}
+
+		private Block getBlock( final long bx, final long by, final long bz )
+		{
+			final long key = key( bx, by, bz );
+			if ( key == lastKey && lastBlock.generation >= state.generation )
+				return lastBlock;
+
+			Block block = blocks.get( key );
+			if ( block == null )
+				block = store( key, computeBlock( bx, by, bz ) );
+			else if ( block.generation < state.generation )
+			{
+				if ( !state.changedSince( block.generation, bx, by, bz ) && isValid( block, bx, by, bz ) )
+					block.generation = Math.max( block.generation, state.generation );
+				else
+					block = store( key, computeBlock( bx, by, bz ) );
+			}
+
+			lastKey = key;
+			lastBlock = block;
+			return block;
+		}
+
+		private Block store( final long key, final Block block )
+		{
+			if ( blocks.size() >= maxBlocks )
+				blocks.clear();
+
+			// keep the newer block if another thread was faster
+			return blocks.merge( key, block, ( a, b ) -> a.generation >= b.generation ? a : b );
+		}
+
+		private Block computeBlock( final long bx, final long by, final long bz )
+		{
+			final int w = blockSize + 1;
+			final int depth = planar ? 1 : w;
+			final float[] disp = new float[ N * w * w * depth ];
+			int i = 0;
+			for ( int z = 0; z < depth; z++ )
+				for ( int y = 0; y < w; y++ )
+					for ( int x = 0; x < w; x++ )
+					{
+						gridPoint( bx, by, bz, x, y, z );
+						xfm.apply( p, q );
+						for ( int d = 0; d < N; d++ )
+							disp[ i++ ] = ( float ) ( q[ d ] - p[ d ] );
+					}
+
+			return new Block( disp, state.generation );
+		}
+
+		/**
+		 * Checks the block against the current transform at its corners and
+		 * center.
+		 */
+		private boolean isValid( final Block block, final long bx, final long by, final long bz )
+		{
+			final int w = blockSize + 1;
+			final int c = blockSize / 2;
+			for ( int k = 0; k < 9; k++ )
+			{
+				final int x = k == 8 ? c : ( k & 1 ) * blockSize;
+				final int y = k == 8 ? c : ( ( k >> 1 ) & 1 ) * blockSize;
+				final int z = planar ? 0 : k == 8 ? c : ( ( k >> 2 ) & 1 ) * blockSize;
+				gridPoint( bx, by, bz, x, y, z );
+				xfm.apply( p, q );
+
+				final int o = N * ( ( z * w + y ) * w + x );
+				for ( int d = 0; d < N; d++ )
+					if ( Math.abs( q[ d ] - p[ d ] - block.displacement[ o + d ] ) > tolerance )
+						return false;
+			}
+			return true;
+		}
+
+		private void gridPoint( final long bx, final long by, final long bz, final int x, final int y, final int z )
+		{
+			p[ 0 ] = ( bx * blockSize + x ) * spacing;
+			p[ 1 ] = ( by * blockSize + y ) * spacing;
+			p[ 2 ] = ( bz * blockSize + z ) * spacing;
+		}
+	}
+}
@@ -21,6 +21,11 @@
  */
 package bdv.img;
 
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 import bdv.viewer.Interpolation;
@@ -31,6 +36,7 @@ import bdv.viewer.render.MipmapOrdering;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.BoundingBoxEstimation;
@@ -68,14 +74,39 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 
 	private InvertibleRealTransform xfm;
 
-	private Interval[] boundingIntervalsPerLevel;
+	/**
+	 * The transform used for display, may approximate {@link #xfm}.
+	 */
+	private RealTransform renderXfm;
+
+	/**
+	 * Approximates the transform for display per mipmap level, null if
+	 * disabled.
+	 */
+	private DisplacementFieldProxy[] proxies;
+
+	private AffineTransform3D[] proxySourceTransforms;
+
+	private double proxySpacing;
+
+	private volatile Interval[] boundingIntervalsPerLevel;
+
+	private Runnable boundingIntervalsListener;
+
+	private final AtomicLong boundingIntervalsGeneration = new AtomicLong();
+
+	private Future< ? > boundingIntervalsFuture;
+
+	private static final ExecutorService boundingIntervalsExecutor = Executors.newCachedThreadPool( r -> {
+		final Thread thread = new Thread( r, "WarpedSource-bounding-box" );
+		thread.setDaemon( true );
+		return thread;
+	} );
 
 	private boolean isTransformed;
 
 	private final Supplier< Boolean > boundingBoxCullingSupplier;
 
-	private final AffineTransform3D tmpSrcTransform;
-
 	private BoundingBoxEstimation bboxEst;
 
 	public WarpedSource( final Source< T > source, final String suffix )
@@ -92,9 +123,7 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 		this.boundingBoxCullingSupplier = doBoundingBoxCulling;
 		this.xfm = null;
 
-		bboxEst = new BoundingBoxEstimation( BoundingBoxEstimation.Method.FACES, 5 );
-		boundingIntervalsPerLevel = new Interval[source.getNumMipmapLevels()];
-		tmpSrcTransform = new AffineTransform3D();
+		bboxEst = new BoundingBoxEstimation( BoundingBoxEstimation.Method.FACES, 5, Runtime.getRuntime().availableProcessors() );
 
 		sourceMipmapOrdering = MipmapOrdering.class.isInstance( source ) ?
 				( MipmapOrdering ) source : new DefaultMipmapOrdering( source );
@@ -118,21 +147,176 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 	}
 
 	public void updateTransform( RealTransform xfm )
+	{
+		updateTransform( xfm, null, null );
+	}
+
+	/**
+	 * Sets the transform of this source and the transform used to display
+	 * it. Exports should use {@link #getExactSource()}.
+	 *
+	 * @param xfm the transform
+	 * @param renderXfm the transform for display, or null to display with xfm
+	 * @param changedRegion the region (in world coordinates) in which the
+	 *            transform changed, or null if it changed everywhere, see
+	 *            {@link DisplacementFieldProxy#update(RealTransform, RealInterval)}
+	 */
+	public void updateTransform( RealTransform xfm, RealTransform renderXfm, RealInterval changedRegion )
 	{
 		if( xfm instanceof InvertibleRealTransform )
 			this.xfm = (InvertibleRealTransform)xfm;
 		else
 			this.xfm = new WrappedIterativeInvertibleRealTransform<>(xfm);
 
+		this.renderXfm = renderXfm == null ? this.xfm : renderXfm;
+		updateProxies( changedRegion );
 		updateBoundingIntervals();
 	}
 
+	/**
+	 * Displays this source through a cached displacement field with the given
+	 * grid spacing (in pixels of each mipmap level) instead of the transform
+	 * itself, see {@link DisplacementFieldProxy}.
+	 *
+	 * @param spacing the grid spacing, zero to disable
+	 */
+	public synchronized void setDisplacementProxySpacing( final double spacing )
+	{
+		if( spacing == proxySpacing )
+			return;
+
+		proxySpacing = spacing;
+		if( spacing <= 0 )
+		{
+			proxies = null;
+			return;
+		}
+
+		final boolean planar = source.getSource( 0, 0 ).numDimensions() < 3 || source.getSource( 0, 0 ).dimension( 2 ) == 1;
+		final DisplacementFieldProxy[] newProxies = new DisplacementFieldProxy[ getNumMipmapLevels() ];
+		proxySourceTransforms = new AffineTransform3D[ getNumMipmapLevels() ];
+		for( int i = 0; i < getNumMipmapLevels(); i++ )
+		{
+			newProxies[ i ] = new DisplacementFieldProxy( spacing, planar );
+			proxySourceTransforms[ i ] = new AffineTransform3D();
+			source.getSourceTransform( 0, i, proxySourceTransforms[ i ] );
+		}
+		proxies = newProxies;
+		updateProxies( null );
+	}
+
+	public double getDisplacementProxySpacing()
+	{
+		return proxySpacing;
+	}
+
+	private synchronized void updateProxies( final RealInterval changedRegion )
+	{
+		if( proxies == null || renderXfm == null )
+			return;
+
+		for( int i = 0; i < proxies.length; i++ )
+		{
+			final AffineTransform3D transform = proxySourceTransforms[ i ];
+			final RealTransformSequence seq = new RealTransformSequence();
+			seq.add( transform );
+			seq.add( renderXfm.copy() );
+			seq.add( transform.inverse() );
+
+			// the proxies are in the pixel coordinates of the level
+			proxies[ i ].update( seq, changedRegion == null ? null : transform.inverse().estimateBounds( changedRegion ) );
+		}
+	}
+
+	/**
+	 * Returns a source that is rendered with the exact transform, for exports.
+	 * This is this source if it is displayed with the exact transform.
+	 *
+	 * @return the exact source
+	 */
+	public Source< T > getExactSource()
+	{
+		if( ( renderXfm == null || renderXfm == xfm ) && proxies == null )
+			return this;
+
+		final WarpedSource< T > exact = new WarpedSource<>( source, suffix, boundingBoxCullingSupplier );
+		exact.setBoundingBoxEstimator( bboxEst );
+		exact.updateTransform( xfm );
+		exact.setIsTransformed( isTransformed );
+		return exact;
+	}
+
+	/**
+	 * @param src a source
+	 * @return the {@link #getExactSource() exact source} if src is a
+	 *         {@link WarpedSource}, otherwise src
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static < T > Source< T > exact( final Source< T > src )
+	{
+		if( src instanceof WarpedSource )
+			return ( ( WarpedSource< T > ) src ).getExactSource();
+
+		return src;
+	}
+
+	/**
+	 * Estimates the bounding intervals in the background after every transform
+	 * update. The previous intervals are used until the new ones are ready,
+	 * and the estimation is cancelled if a newer transform arrives. By default,
+	 * the intervals are estimated synchronously.
+	 *
+	 * @param onUpdate called when new intervals are available, null to
+	 *            estimate synchronously
+	 */
+	public void setAsynchronousBoundingIntervals( final Runnable onUpdate )
+	{
+		this.boundingIntervalsListener = onUpdate;
+	}
+
 	protected void updateBoundingIntervals()
 	{
+		final InvertibleRealTransform xfm = this.xfm;
+		final BoundingBoxEstimation bboxEst = this.bboxEst.copy();
+		final Runnable listener = boundingIntervalsListener;
+		final long generation = boundingIntervalsGeneration.incrementAndGet();
+
+		final Future< ? > previous = boundingIntervalsFuture;
+		if( previous != null )
+			previous.cancel( true );
+
+		if( listener == null || xfm == null )
+		{
+			final Interval[] intervals = estimateBoundingIntervals( xfm, bboxEst, generation );
+			if( intervals != null )
+				boundingIntervalsPerLevel = intervals;
+			return;
+		}
+
+		boundingIntervalsFuture = boundingIntervalsExecutor.submit( () -> {
+			final Interval[] intervals = estimateBoundingIntervals( xfm, bboxEst, generation );
+			if( intervals != null && generation == boundingIntervalsGeneration.get() )
+			{
+				boundingIntervalsPerLevel = intervals;
+				listener.run();
+			}
+		} );
+	}
+
+	/**
+	 * @return the intervals for all levels, or null if a newer transform
+	 *         arrived in the meantime or the thread was interrupted
+	 */
+	private Interval[] estimateBoundingIntervals( final InvertibleRealTransform xfm, final BoundingBoxEstimation bboxEst, final long generation )
+	{
+		final Interval[] intervals = new Interval[ getNumMipmapLevels() ];
 		for( int i = 0; i < getNumMipmapLevels(); i++ )
 		{
-			boundingIntervalsPerLevel[i] = estimateBoundingInterval(0, i);
+			intervals[ i ] = estimateBoundingInterval( 0, i, xfm, bboxEst );
+			if( Thread.currentThread().isInterrupted() || generation != boundingIntervalsGeneration.get() )
+				return null;
 		}
+		return intervals;
 	}
 
 	public void setIsTransformed( boolean isTransformed )
@@ -162,13 +346,14 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 		{
 			return Views.interval(
 					Views.raster( getInterpolatedSource( t, level, Interpolation.NEARESTNEIGHBOR ) ),
-					boundingIntervalsPerLevel[level] );
+					boundingIntervalsPerLevel[ level ] );
 
 		}
 		return source.getSource( t, level );
 	}
 
-	private Interval estimateBoundingInterval( final int t, final int level )
+	private Interval estimateBoundingInterval( final int t, final int level,
+			final InvertibleRealTransform xfm, final BoundingBoxEstimation bboxEst )
 	{
 		if( xfm == null )
 		{
@@ -179,6 +364,7 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 			// getSource can be called by multiple threads, so need ensure application of
 			// the transform is thread safe here by copying
 
+			final AffineTransform3D tmpSrcTransform = new AffineTransform3D();
 			source.getSourceTransform(t, level, tmpSrcTransform);
 			InvertibleRealTransform xfmcopy = xfm.copy();
 			if( xfm instanceof WrappedIterativeInvertibleRealTransform) {
@@ -209,10 +395,18 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 			final AffineTransform3D transform = new AffineTransform3D();
 			source.getSourceTransform( t, level, transform );
 
+			final DisplacementFieldProxy[] proxies = this.proxies;
+			if( proxies != null && Arrays.equals( transform.getRowPackedCopy(), proxySourceTransforms[ level ].getRowPackedCopy() ) )
+			{
+				final RealTransform proxyXfm = proxies[ level ].getTransform();
+				if( proxyXfm != null )
+					return new RealTransformRealRandomAccessible< T, RealTransform >( realSrc, proxyXfm );
+			}
+
 			final RealTransformSequence seq = new RealTransformSequence();
 			// build the inverse transform
 			seq.add(transform);
-			seq.add(xfm.copy());
+			seq.add(renderXfm.copy());
 			seq.add(transform.inverse());
 
 			if( xfm == null )
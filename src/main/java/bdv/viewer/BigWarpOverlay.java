@@ -35,7 +35,7 @@ import javax.swing.JTable;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.RealTransform;
 import bdv.gui.BigWarpLandmarkPanel;
-import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.landmarks.LandmarkTableSnapshot;
 
 public class BigWarpOverlay {
 
@@ -92,7 +92,8 @@ public class BigWarpOverlay {
 		if ( viewer.getSettings().areLandmarksVisible() )
 		{
 
-			final LandmarkTableModel landmarkModel = landmarkPanel.getTableModel();
+			// read the landmarks without waiting for edits in progress
+			final LandmarkTableSnapshot landmarks = landmarkPanel.getTableModel().getTableSnapshot();
 			final JTable table = landmarkPanel.getJTable();
 			final boolean is3d = landmarkPanel.numDimensions() == 3;
 
@@ -104,9 +105,10 @@ public class BigWarpOverlay {
 			// get selected points
 			final int[] selectedRows = table.getSelectedRows();
 			Arrays.sort( selectedRows );
-			final boolean[] isSelected = new boolean[ landmarkModel.getRowCount() ];
+			final boolean[] isSelected = new boolean[ landmarks.getRowCount() ];
 			for( final int i : selectedRows )
-				isSelected[ i ] = true;
+				if ( i < isSelected.length )
+					isSelected[ i ] = true;
 
 
 			final BasicStroke hlStroke = new BasicStroke( (int)viewer.getSettings().strokeWeight );
@@ -143,45 +145,30 @@ public class BigWarpOverlay {
 
 			}
 
-			final int nRows = landmarkModel.getRowCount();
-			for( int index = 0; index < nRows; index++ )
+			// only visit the landmarks near the displayed region and plane
+			final double rad = radius * radiusRatio;
+			final boolean isTransformed = isMoving && viewer.isInFixedImageSpace();
+			final int[] visible = visibleLandmarks( landmarks, rad + strokeW + 4, is3d ? rad : 0 );
+			for( final int index : visible )
 			{
-
-				if ( landmarkModel.isActive( index ) )
+				if ( landmarks.isActive( index ) )
 					g.setColor( color );
 				else
 					g.setColor( inactiveColor );
 
 				g.setStroke( stroke );
 
-				landmarkModel.copyPointSafe(spot, index, isMoving);
-
 				// if the viewer is moving but transformed, render the points
 				// at the location of the warped point ( if it exists ),
 				// otherwise, take the fixed point
-				boolean copySuccess = false;
-				if( isMoving ) {
-					if( viewer.isInFixedImageSpace() ) {
-						if( landmarkModel.isWarped(index))
-							copySuccess = landmarkModel.copyWarpedPointSafe(spot, index);
-						else
-							copySuccess = landmarkModel.copyTargetPointSafe(spot, index);
-					}
-					else
-						copySuccess = landmarkModel.copyMovingPointSafe(spot, index);
-				}
-				else {
-					// fixed space
-					copySuccess = landmarkModel.copyTargetPointSafe(spot, index);
-				}
+				landmarks.copyDisplayed( isMoving, isTransformed, index, spot );
 
 				// if this point is not set, don't render it.
-				if ( !copySuccess || Double.isInfinite( spot[ 0 ] ) )
+				if ( Double.isInfinite( spot[ 0 ] ) )
 					continue;
 
 				transform.apply( spot, viewerCoords );
 
-				final double rad = radius * radiusRatio;
 				final double zv = viewerCoords[ 2 ];
 				final double dz2 = zv * zv;
 
@@ -227,7 +214,7 @@ public class BigWarpOverlay {
 						final int tx = ( int ) ( viewerCoords[ 0 ] + arad + 5 );
 						final int ty = ( int ) viewerCoords[ 1 ];
 
-						final String name = landmarkModel.getNames().get(index);
+						final String name = landmarks.getName( index );
 						final int strwidth = fm.stringWidth( name );
 
 						if( hoveredIndex == index )
@@ -254,6 +241,46 @@ public class BigWarpOverlay {
 	}
 
 
+	/**
+	 * Returns the sorted indices of the landmarks inside the bounding box of
+	 * the displayed region, padded by margin pixels, and of the slab within
+	 * slab pixels of the current plane.
+	 *
+	 * @param landmarks the landmarks
+	 * @param margin padding of the displayed region in pixels
+	 * @param slab half thickness of the slab in pixels
+	 * @return the landmark indices
+	 */
+	protected int[] visibleLandmarks( final LandmarkTableSnapshot landmarks, final double margin, final double slab )
+	{
+		final int nd = landmarks.numDimensions();
+		final double w = viewer.getDisplay().getWidth();
+		final double h = viewer.getDisplay().getHeight();
+
+		final double[] min = new double[ nd ];
+		final double[] max = new double[ nd ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+
+		final double[] corner = new double[ 3 ];
+		final double[] world = new double[ 3 ];
+		for ( int i = 0; i < 8; i++ )
+		{
+			corner[ 0 ] = ( i & 1 ) == 0 ? -margin : w + margin;
+			corner[ 1 ] = ( i & 2 ) == 0 ? -margin : h + margin;
+			corner[ 2 ] = ( i & 4 ) == 0 ? -slab : slab;
+			transform.applyInverse( world, corner );
+			for ( int d = 0; d < nd; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], world[ d ] );
+				max[ d ] = Math.max( max[ d ], world[ d ] );
+			}
+		}
+
+		final boolean isTransformed = isMoving && viewer.isInFixedImageSpace();
+		return landmarks.getIndicesInBox( min, max, isMoving, isTransformed );
+	}
+
 	/**
 	 * Update data to show in the overlay.
 	 * @param state the viewer state
@@ -38,6 +38,8 @@ import java.awt.Graphics2D;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import net.imglib2.FinalInterval;
+import net.imglib2.RealInterval;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.Translation3D;
 
@@ -270,6 +272,54 @@ public class BigWarpViewerPanel extends ViewerPanel
 		addOverlay( maskOverlay );
 	}
 
+	/**
+	 * Repaints the part of the screen that a region of fixed image space
+	 * projects to, for example after editing a transform mask. Repaints
+	 * everything if this panel does not display fixed image space.
+	 *
+	 * @param region bounding box in fixed image space
+	 */
+	public void requestRepaintRegion( final RealInterval region )
+	{
+		if ( region == null || !isInFixedImageSpace() )
+		{
+			requestRepaint();
+			return;
+		}
+
+		final AffineTransform3D viewerTransform = state().getViewerTransform();
+		final int nd = Math.min( region.numDimensions(), 3 );
+		final double[] corner = new double[ 3 ];
+		final double[] min = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		final double[] max = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for ( int i = 0; i < 8; i++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+				corner[ d ] = d >= nd ? 0 : ( i & ( 1 << d ) ) == 0 ? region.realMin( d ) : region.realMax( d );
+
+			viewerTransform.apply( corner, corner );
+			for ( int d = 0; d < 3; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], corner[ d ] );
+				max[ d ] = Math.max( max[ d ], corner[ d ] );
+			}
+		}
+
+		final long x0 = Math.max( 0, ( long ) Math.floor( min[ 0 ] ) - 1 );
+		final long y0 = Math.max( 0, ( long ) Math.floor( min[ 1 ] ) - 1 );
+		final long x1 = Math.min( getDisplay().getWidth() - 1, ( long ) Math.ceil( max[ 0 ] ) + 1 );
+		final long y1 = Math.min( getDisplay().getHeight() - 1, ( long ) Math.ceil( max[ 1 ] ) + 1 );
+
+		// the region is off screen or does not cross the displayed plane, only overlays may change
+		if ( min[ 2 ] > 1 || max[ 2 ] < -1 || x0 > x1 || y0 > y1 )
+		{
+			getDisplay().repaint();
+			return;
+		}
+
+		requestRepaint( new FinalInterval( new long[] { x0, y0 }, new long[] { x1, y1 } ) );
+	}
+
 	public boolean getIsMoving()
 	{
 		return isMoving;
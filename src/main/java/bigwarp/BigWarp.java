@@ -146,6 +146,7 @@ import bdv.viewer.animate.TranslationAnimator;
 import bdv.viewer.overlay.BigWarpMaskSphereOverlay;
 import bdv.viewer.overlay.BigWarpSourceOverlayRenderer;
 import bdv.viewer.overlay.MultiBoxOverlayRenderer;
+import bigwarp.landmarks.LandmarkSnapshot;
 import bigwarp.landmarks.LandmarkTableModel;
 import bigwarp.source.GridSource;
 import bigwarp.source.JacobianDeterminantSource;
@@ -157,6 +158,7 @@ import bigwarp.source.WarpMagnitudeSource;
 import bigwarp.transforms.AbstractTransformSolver;
 import bigwarp.transforms.BigWarpTransform;
 import bigwarp.transforms.MaskedSimRotTransformSolver;
+import bigwarp.transforms.SolvedTransformCache;
 import bigwarp.transforms.WrappedCoordinateTransform;
 import bigwarp.transforms.io.TransformWriterJson;
 import bigwarp.ui.keymap.KeymapManager;
@@ -195,8 +197,8 @@ import net.imglib2.realtransform.BoundingBoxEstimation;
 import net.imglib2.realtransform.InvertibleRealTransform;
 import net.imglib2.realtransform.InvertibleWrapped2DTransformAs3D;
 import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.RealTransformAnalyticDerivatives;
 import net.imglib2.realtransform.ThinplateSplineTransform;
-import net.imglib2.realtransform.inverse.RealTransformFiniteDerivatives;
 import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.RealType;
@@ -327,6 +329,9 @@ public class BigWarp< T >
 
 	private BigWarpTransform bwTransform;
 
+	// the cache next to the file being loaded, used by the solves it requests
+	private SolvedTransformCache loadCache;
+
 	protected SourceGroup mvgGrp, tgtGrp;
 
 	private BoundingBoxEstimation bboxOptions;
@@ -527,12 +532,13 @@ public class BigWarp< T >
 		viewerQ.addOverlay( overlayQ );
 
 		bwTransform = new BigWarpTransform( landmarkModel );
+		bwTransform.setIncrementalSolve( true );
 		bwTransform.initializeInverseParameters(data);
 
 		solverThread = new SolveThread( this );
 		solverThread.start();
 
-		bboxOptions = new BoundingBoxEstimation( BoundingBoxEstimation.Method.FACES, 5 );
+		bboxOptions = new BoundingBoxEstimation( BoundingBoxEstimation.Method.FACES, 5, Runtime.getRuntime().availableProcessors() );
 
 		dragOverlayP = new BigWarpDragOverlay( this, viewerP, solverThread );
 		dragOverlayQ = new BigWarpDragOverlay( this, viewerQ, solverThread );
@@ -774,6 +780,7 @@ public class BigWarp< T >
 //		overlayQ.is2D( options.values.is2D() );
 
 		bwTransform = new BigWarpTransform( landmarkModel );
+		bwTransform.setIncrementalSolve( true );
 		bwTransform.initializeInverseParameters(data);
 
 		transformSelector = new TransformTypeSelectDialog( landmarkFrame, this );
@@ -1474,6 +1481,8 @@ public class BigWarp< T >
 				N5ScalePyramidExporter.XZ_COMPRESSION,
 				N5ScalePyramidExporter.BLOSC_COMPRESSION },
 			N5ScalePyramidExporter.GZIP_COMPRESSION );
+		gd.addStringField( "n5 downsampling factors", N5PyramidWriter.SINGLE_SCALE );
+		gd.addChoice( "n5 downsampling method", ApplyBigwarpPlugin.DOWNSAMPLING_METHODS, ApplyBigwarpPlugin.DOWNSAMPLING_METHODS[ 0 ] );
 
 		gd.showDialog();
 
@@ -1508,11 +1517,15 @@ public class BigWarp< T >
 		final String n5Dataset = gd.getNextString();
 		final String blockSizeString = gd.getNextString();
 		final String compressionString = gd.getNextChoice();
+		final String downsamplingFactorsString = gd.getNextString();
+		final String downsamplingMethodString = gd.getNextChoice();
 
 		final int[] blockSize = ApplyBigwarpPlugin.parseBlockSize( blockSizeString, this.ndims );
 		final Compression compression = ApplyBigwarpPlugin.getCompression( compressionString );
 		final WriteDestinationOptions writeOpts = new ApplyBigwarpPlugin.WriteDestinationOptions( fileOrN5Root, n5Dataset,
-				blockSize, compression );
+				blockSize, compression,
+				N5PyramidWriter.parseFactors( downsamplingFactorsString, this.ndims ),
+				ApplyBigwarpPlugin.getDownsamplingMethod( downsamplingMethodString ));
 
 		final Interpolation interp;
 		if( interpType.equals( "Nearest Neighbor" ))
@@ -1574,6 +1587,10 @@ public class BigWarp< T >
 		landmarkGridItem.setText( "Build landmark grid..." );
 		landmarkMenu.add( landmarkGridItem );
 
+		final JMenuItem landmarkDecimateItem = new JMenuItem( actionMap.get( BigWarpActions.LANDMARK_DECIMATE_DIALOG ) );
+		landmarkDecimateItem.setText( "Simplify landmarks..." );
+		landmarkMenu.add( landmarkDecimateItem );
+
 		landmarkMenuBar.add( landmarkMenu );
 
 
@@ -1837,42 +1854,13 @@ public class BigWarp< T >
 		radsq = ( radsq * radsq );
 		final double scale = computeScaleAssumeRigid( viewerXfm );
 
-		double dist = 0.0;
 		int bestIdx = -1;
-		double smallestDist = Double.MAX_VALUE;
 
 		synchronized( landmarkModel )
 		{
-			final int N = landmarkModel.getRowCount();
-			for ( int n = 0; n < N; n++ )
-			{
-				final Double[] lmpt;
-				if( isMoving && landmarkModel.isWarped( n ) && isMovingDisplayTransformed() )
-				{
-					lmpt = landmarkModel.getWarpedPoints().get( n );
-				}
-				else if( isMoving && isMovingDisplayTransformed() )
-				{
-					lmpt = landmarkModel.getPoints( false ).get( n );
-				}
-				else
-				{
-					lmpt = landmarkModel.getPoints( isMoving ).get( n );
-				}
-
-				dist = 0.0;
-				for ( int i = 0; i < landmarkModel.getNumdims(); i++ )
-				{
-					dist += ( pt[ i ] - lmpt[ i ] ) * ( pt[ i ] - lmpt[ i ] );
-				}
-
-				dist *= ( scale * scale );
-				if ( dist < radsq && dist < smallestDist )
-				{
-					smallestDist = dist;
-					bestIdx = n;
-				}
-			}
+			// moving points are drawn at their warped positions when the moving display is transformed
+			bestIdx = landmarkModel.getIndexNearestTo( pt, isMoving, isMoving && isMovingDisplayTransformed(),
+					Math.sqrt( radsq ) / scale );
 
 			if ( selectInTable && landmarkFrame.isVisible() )
 			{
@@ -2124,7 +2112,8 @@ public class BigWarp< T >
 		{
 			if ( BigWarp.this.landmarkModel.isWarped( row ) )
 			{
-				pt = LandmarkTableModel.toPrimitive( BigWarp.this.landmarkModel.getWarpedPoints().get( row ) );
+				pt = new double[ ndims ];
+				BigWarp.this.landmarkModel.copyWarpedPointSafe( pt, row );
 			}
 			else
 			{
@@ -2696,11 +2685,11 @@ public class BigWarp< T >
 				return;
 
 			final int ndims = landmarkModel.getNumdims();
-			final double[][] p = new double[ ndims ][ numActive ];
-			final double[][] q = new double[ ndims ][ numActive ];
-			final double[] w = new double[ numActive ];
+			final LandmarkSnapshot landmarks = landmarkModel.snapshot();
+			final double[][] p = landmarks.getMovingPoints();
+			final double[][] q = landmarks.getTargetPoints();
+			final double[] w = new double[ landmarks.size() ];
 
-			landmarkModel.copyLandmarks( p, q );
 			Arrays.fill( w, 1.0 );
 
 			try
@@ -2956,12 +2945,28 @@ public class BigWarp< T >
 	private void setTransformationMovingSourceOnly( final InvertibleRealTransform transform )
 	{
 		this.currentTransform = transform;
+
+		// exports use the exact currentTransform, rendering may approximate it
+		final InvertibleRealTransform renderTransform = bwTransform.approximateForRendering( transform );
 		data.sourceInfos.values().forEach( sourceInfo -> {
-			setTransform( sourceInfo, transform );
+			setTransform( sourceInfo, transform, renderTransform );
 		} );
 	}
 
 	private void setTransform( final SourceInfo sourceInfo, final InvertibleRealTransform transform )
+	{
+		setTransform( sourceInfo, transform, null );
+	}
+
+	/**
+	 * Sets the transform of a moving source. Any of its displacement field
+	 * proxies are recomputed entirely: moving one landmark changes a thin
+	 * plate spline everywhere, and the proxy only keeps blocks outside a
+	 * changed region if they agree with the new transform at their corners
+	 * and center (within 0.25 px), which does not bound the change in between.
+	 */
+	private void setTransform( final SourceInfo sourceInfo, final InvertibleRealTransform transform,
+			final InvertibleRealTransform renderTransform )
 	{
 		if ( sourceInfo.isMoving() )
 		{
@@ -2971,13 +2976,49 @@ public class BigWarp< T >
 
 			// the updateTransform method creates a copy of the transform
 			final SourceAndConverter< ? > sac = sourceInfo.getSourceAndConverter();
+			// the displayed sources estimate their bounding boxes in the background
 			final WarpedSource< ? > wsrc = ( WarpedSource< ? > ) sac.getSpimSource();
-			wsrc.updateTransform( transform );
+			wsrc.setAsynchronousBoundingIntervals( this::requestRepaintMoving );
+			wsrc.updateTransform( transform, renderTransform, null );
 			if ( sac.asVolatile() != null )
-				( ( WarpedSource< ? > ) sourceInfo.getSourceAndConverter().asVolatile().getSpimSource() ).updateTransform( transform );
+			{
+				final WarpedSource< ? > vsrc = ( WarpedSource< ? > ) sac.asVolatile().getSpimSource();
+				vsrc.setAsynchronousBoundingIntervals( this::requestRepaintMoving );
+				vsrc.updateTransform( transform, renderTransform, null );
+			}
 		}
 	}
 
+	private void requestRepaintMoving()
+	{
+		if ( viewerP != null )
+			viewerP.requestRepaint();
+
+		if ( viewerQ != null )
+			viewerQ.requestRepaint();
+	}
+
+	/**
+	 * Displays the moving sources through a cached displacement field with the
+	 * given grid spacing (in pixels) instead of evaluating the transform for
+	 * every pixel. Exports always use the exact transform.
+	 *
+	 * @param spacing the grid spacing, zero to disable
+	 */
+	public void setDisplacementProxySpacing( final double spacing )
+	{
+		data.sourceInfos.values().forEach( sourceInfo -> {
+			if ( sourceInfo.isMoving() )
+			{
+				final SourceAndConverter< ? > sac = sourceInfo.getSourceAndConverter();
+				( ( WarpedSource< ? > ) sac.getSpimSource() ).setDisplacementProxySpacing( spacing );
+				if ( sac.asVolatile() != null )
+					( ( WarpedSource< ? > ) sac.asVolatile().getSpimSource() ).setDisplacementProxySpacing( spacing );
+			}
+		} );
+		requestRepaintMoving();
+	}
+
 	public void updateSourceBoundingBoxEstimators()
 	{
 		data.sourceInfos.values().forEach( sourceInfo -> {
@@ -3013,7 +3054,7 @@ public class BigWarp< T >
 			if( xfm instanceof ThinplateSplineTransform )
 				jacDetSource.setTransform( (ThinplateSplineTransform) xfm );
 			else
-				jacDetSource.setTransform( new RealTransformFiniteDerivatives( xfm ));
+				jacDetSource.setTransform( new RealTransformAnalyticDerivatives( xfm ));
 		}
 		else if ( transform instanceof InvertibleWrapped2DTransformAs3D )
 		{
@@ -3804,6 +3845,8 @@ public class BigWarp< T >
 
 		private double[] pt;
 
+		private SolvedTransformCache cache;
+
 		public SolveThread( final BigWarp<?> bw )
 		{
 			this.bw = bw;
@@ -3816,16 +3859,28 @@ public class BigWarp< T >
 			while ( !isInterrupted() )
 			{
 				final boolean b;
+				final SolvedTransformCache solveCache;
 				synchronized ( this )
 				{
 					b = pleaseResolve;
 					pleaseResolve = false;
+					solveCache = cache;
+					cache = null;
 				}
 				if ( b )
 				{
 					try
 					{
-						final InvertibleRealTransform invXfm = bw.bwTransform.getTransformation( index );
+						final InvertibleRealTransform invXfm;
+						bw.bwTransform.setSolvedTransformCache( solveCache );
+						try
+						{
+							invXfm = bw.bwTransform.getTransformation( index );
+						}
+						finally
+						{
+							bw.bwTransform.setSolvedTransformCache( null );
+						}
 
 						if ( invXfm == null )
 							return;
@@ -3836,7 +3891,8 @@ public class BigWarp< T >
 							bw.landmarkModel.resetWarpedPoints();
 
 							// re-compute all warped points for non-active points
-							bw.landmarkModel.updateAllWarpedPoints( bw.currentTransform );
+							// with the new transform, in parallel and without locking the table
+							bw.landmarkModel.updateAllWarpedPoints( invXfm );
 
 							// update sources with the new transformation
 							bw.setTransformationAll( invXfm );
@@ -3898,6 +3954,12 @@ public class BigWarp< T >
 				pleaseResolve = true;
 				this.isMoving = isMoving;
 				this.index = index;
+
+				// only full solves requested while loading a file use its cache
+				if ( index >= 0 )
+					cache = null;
+				else if ( bw.loadCache != null )
+					cache = bw.loadCache;
 				if ( newpt != null )
 					this.pt = Arrays.copyOf( newpt, newpt.length );
 
@@ -4082,7 +4144,17 @@ public class BigWarp< T >
 
 		setLastDirectory( file.getParentFile() );
 
-		final boolean didCompute = restimateTransformation();
+		// large landmark sets are solved once, later loads read the solution
+		loadCache = SolvedTransformCache.nextTo( file );
+		final boolean didCompute;
+		try
+		{
+			didCompute = restimateTransformation();
+		}
+		finally
+		{
+			loadCache = null;
+		}
 
 		// didCompute = false means that there were not enough points
 		// in the loaded points, so we should display the 'raw' moving
@@ -4334,7 +4406,15 @@ public class BigWarp< T >
 		{
 			final BigwarpSettings settings = getSettings();
 			settings.setOverwriteSources( overwriteSources );
-			settings.read( new JsonReader( new FileReader( name ) ) );
+			loadCache = SolvedTransformCache.nextTo( new File( name ) );
+			try
+			{
+				settings.read( new JsonReader( new FileReader( name ) ) );
+			}
+			finally
+			{
+				loadCache = null;
+			}
 
 			// TODO I may need this
 //			Executors.newSingleThreadExecutor().execute(new Runnable() {
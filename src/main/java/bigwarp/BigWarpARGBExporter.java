@@ -47,6 +47,7 @@ import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.view.MixedTransformView;
 import net.imglib2.view.Views;
 import bdv.export.ProgressWriter;
+import bdv.img.WarpedSource;
 import bdv.tools.brightness.ConverterSetup;
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
@@ -118,7 +119,7 @@ public class BigWarpARGBExporter extends BigWarpExporter<ARGBType>
 
 		// in pixel space
 		@SuppressWarnings("unchecked")
-		final RealRandomAccessible<ARGBType> raiRaw = (RealRandomAccessible<ARGBType>)src.getInterpolatedSource(0, 0, interp);
+		final RealRandomAccessible<ARGBType> raiRaw = (RealRandomAccessible<ARGBType>)WarpedSource.exact(src).getInterpolatedSource(0, 0, interp);
 
 		// the transform from world to new pixel coordinates
 		final AffineTransform3D pixelToPhysical = pixelRenderToPhysical.copy().inverse();
@@ -167,9 +168,13 @@ public class BigWarpARGBExporter extends BigWarpExporter<ARGBType>
 				dimensions[ 2 ] = numChannels; 					// c
 				dimensions[ 3 ] = outputInterval.dimension( 2 ); 	// z
 				final FinalInterval destIntervalPerm = new FinalInterval( dimensions );
-				final RandomAccessibleInterval< ARGBType > img = copyToImageStack(
-						raiStack,
-						destIntervalPerm, factory, nThreads );
+				final RandomAccessibleInterval< ARGBType > img;
+				if ( policy == ParallelizationPolicy.BLOCK )
+					img = renderToImageStack( destIntervalPerm, factory, nThreads );
+				else
+					img = copyToImageStack(
+							raiStack,
+							destIntervalPerm, factory, nThreads );
 				ip = ((ImagePlusImg<ARGBType,?>)img).getImagePlus();
 			}
 			else if ( outputInterval.numDimensions() == 2 )
@@ -180,6 +185,8 @@ public class BigWarpARGBExporter extends BigWarpExporter<ARGBType>
 				dimensions[ 2 ] = numChannels; 					// c
 				dimensions[ 3 ] = 1; 							// z
 				final FinalInterval destIntervalPerm = new FinalInterval( dimensions );
+				// 2d exports extend the output by mirroring, which the block
+				// renderer does not do, so they always copy the warped stack
 				final RandomAccessibleInterval< ARGBType > img = copyToImageStack(
 						Views.addDimension( Views.extendMirrorDouble( raiStack )),
 						destIntervalPerm, factory, nThreads );
@@ -45,6 +45,7 @@ import bdv.tools.ToggleDialogAction;
 import bdv.util.Prefs;
 import bdv.viewer.AbstractViewerPanel.AlignPlane;
 import bdv.viewer.Interpolation;
+import bigwarp.landmarks.LandmarkDecimator;
 import bigwarp.landmarks.LandmarkGridGenerator;
 import bigwarp.source.GridSource;
 import mpicbg.models.AbstractModel;
@@ -222,6 +223,9 @@ public class BigWarpActions extends Actions
 	public static final String[] LANDMARK_GRID_DIALOG_KEYS = new String[]{ NOT_MAPPED };
 	public static final String LANDMARK_GRID_DIALOG = "landmark grid dialog";
 
+	public static final String[] LANDMARK_DECIMATE_DIALOG_KEYS = new String[]{ NOT_MAPPED };
+	public static final String LANDMARK_DECIMATE_DIALOG = "landmark simplify dialog";
+
 	// mask
 	public static final String MASK_IMPORT = "import mask";
 	public static final String[] MASK_IMPORT_KEYS = new String[]{ "ctrl shift M"};
@@ -373,6 +377,7 @@ public class BigWarpActions extends Actions
 			descriptions.add( LANDMARK_DEACTIVATE_SELECTED, LANDMARK_DEACTIVATE_SELECTED_KEYS, "Deactivate selected landmarks." );
 
 			descriptions.add( LANDMARK_GRID_DIALOG, LANDMARK_GRID_DIALOG_KEYS, "Open a dialog for creating a landmark grid." );
+			descriptions.add( LANDMARK_DECIMATE_DIALOG, LANDMARK_DECIMATE_DIALOG_KEYS, "Open a dialog for deactivating landmarks the transform does not need." );
 
 			// alignment
 			descriptions.add( XYPLANE, XYPLANE_KEYS, "xy plane" );
@@ -625,6 +630,7 @@ public class BigWarpActions extends Actions
 		actions.runnableAction( bw::saveLandmarks, SAVE_LANDMARKS, SAVE_LANDMARKS_KEYS );
 		actions.runnableAction( bw::quickSaveLandmarks, QUICK_SAVE_LANDMARKS, QUICK_SAVE_LANDMARKS_KEYS );
 		actions.namedAction( new LandmarkGridDialogAction( bw ), LANDMARK_GRID_DIALOG_KEYS );
+		actions.namedAction( new LandmarkDecimateDialogAction( bw ), LANDMARK_DECIMATE_DIALOG_KEYS );
 
 		actions.namedAction( new UndoRedoAction( UNDO, bw ), UNDO_KEYS );
 		actions.namedAction( new UndoRedoAction( REDO, bw ), REDO_KEYS );
@@ -1713,6 +1719,24 @@ public class BigWarpActions extends Actions
 		}
 	}
 
+	public static class LandmarkDecimateDialogAction extends AbstractNamedAction
+	{
+		private static final long serialVersionUID = 1L;
+		BigWarp< ? > bw;
+
+		public LandmarkDecimateDialogAction( final BigWarp< ? > bw )
+		{
+			super( LANDMARK_DECIMATE_DIALOG );
+			this.bw = bw;
+		}
+
+		@Override
+		public void actionPerformed(ActionEvent e)
+		{
+			LandmarkDecimator.decimateFromDialog( bw );
+		}
+	}
+
 	public static class MaskSizeEdit extends AbstractNamedAction
 	{
 		private static final long serialVersionUID = -7918625162439713732L;
@@ -33,6 +33,10 @@ import bigwarp.landmarks.LandmarkTableModel;
 /**
  * Saves bigwarp landmarks to a file periodically,
  * but only if modification has occured since the last save.
+ * <p>
+ * Landmarks are written from the last published
+ * {@link LandmarkTableModel#getTableSnapshot() snapshot} of the table,
+ * so saving does not hold up edits or rendering.
  *
  * @author John Bogovic
  *
@@ -0,0 +1,599 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.utility.parse.ParseUtils;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvException;
+
+import bdv.ij.ApplyBigwarpPlugin;
+import bdv.viewer.Interpolation;
+import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.transforms.BigWarpTransform;
+import bigwarp.transforms.SolvedTransformCache;
+import ij.IJ;
+import ij.ImagePlus;
+import loci.plugins.BF;
+import net.imglib2.realtransform.BoundingBoxEstimation;
+import net.imglib2.realtransform.InvertibleRealTransform;
+
+/**
+ * Applies BigWarp transformations to many images in one process.
+ * <p>
+ * Jobs are read from a csv manifest with a header row. The columns
+ * {@code input} and {@code output} are required, {@code landmarks},
+ * {@code type} and {@code target} are optional and default to the
+ * corresponding command line arguments. Relative paths are resolved against
+ * the directory of the manifest.
+ * <p>
+ * Every distinct combination of landmarks file, transformation type and
+ * dimensionality is solved once and shared by all jobs that use it. Jobs run
+ * concurrently on a fixed number of workers, each rendering with its own
+ * threads, and the timing of every job is appended to a csv report as soon
+ * as it finishes.
+ */
+public class BigWarpBatchRunner
+{
+	public static final String INPUT = "input";
+	public static final String OUTPUT = "output";
+	public static final String LANDMARKS = "landmarks";
+	public static final String TYPE = "type";
+	public static final String TARGET = "target";
+
+	public static final String[] REPORT_HEADER = new String[] {
+			"job", "input", "output", "transform", "status",
+			"load_ms", "solve_ms", "export_ms", "save_ms", "total_ms",
+			"voxels", "voxels_per_second", "error" };
+
+	private transient JCommander jCommander;
+
+	@Parameter( names = { "--manifest", "-m" }, description = "Csv file of jobs with columns input,output[,landmarks,type,target]", required = true )
+	private String manifestPath;
+
+	@Parameter( names = { "--landmarks", "-l" }, description = "Landmarks file for jobs that do not specify one" )
+	private String landmarksPath;
+
+	@Parameter( names = { "--type", "-t" }, description = "Transformation type for jobs that do not specify one" )
+	private String transformType = BigWarpTransform.TPS;
+
+	@Parameter( names = { "--target" }, description = "Target image for jobs that do not specify one" )
+	private String targetPath;
+
+	@Parameter( names = { "--report", "-r" }, description = "Csv file the per-job timing is written to" )
+	private String reportPath;
+
+	@Parameter( names = { "--jobs" }, description = "Number of jobs run concurrently" )
+	private int numJobs = 1;
+
+	@Parameter( names = { "--threads", "-j" }, description = "Number of rendering threads per job" )
+	private int numThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
+
+	@Parameter( names = { "--fov" }, description = "Field of view, e.g. \"Target\", \"Moving (warped)\", \"Specified (physical units)\" or \"Landmark points\"" )
+	private String fovOption;
+
+	@Parameter( names = { "--fov-points" }, description = "Regular expression selecting landmarks for the \"Landmark points\" field of view" )
+	private String fovPointFilter = "";
+
+	@Parameter( names = { "--resolution" }, description = "Output resolution, e.g. \"Target\", \"Moving\" or \"Specified\"" )
+	private String resolutionOption;
+
+	@Parameter( names = { "--out-spacing", "-s" }, description = "Output voxel spacing for the \"Specified\" resolution, e.g. \"0.5,0.5,2.0\"",
+			converter = ParseUtils.DoubleArrayConverter.class )
+	private double[] resolutionSpec = new double[] { 1, 1, 1 };
+
+	@Parameter( names = { "--fov-size" }, description = "Size of a specified field of view, e.g. \"512,512,64\"",
+			converter = ParseUtils.DoubleArrayConverter.class )
+	private double[] fovSpec = new double[] { 1, 1, 1 };
+
+	@Parameter( names = { "--offset", "-f" }, description = "Offset of a specified field of view, e.g. \"5.0,5.0,-1.0\"",
+			converter = ParseUtils.DoubleArrayConverter.class )
+	private double[] offsetSpec = new double[] { 0, 0, 0 };
+
+	@Parameter( names = { "--bbox-method" }, description = "Bounding box estimation {CORNERS,FACES,VOLUME}" )
+	private String bboxMethod = BoundingBoxEstimation.Method.CORNERS.name();
+
+	@Parameter( names = { "--interpolation", "-p" }, description = "Interpolation Type {NLINEAR,NEARESTNEIGHBOR}" )
+	private String interpType = "NLINEAR";
+
+	@Parameter( names = { "--help", "-h" }, help = true )
+	private boolean help;
+
+	private final ConcurrentHashMap< String, CompletableFuture< SolvedTransform > > transforms = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap< String, CompletableFuture< ImagePlus > > targets = new ConcurrentHashMap<>();
+
+	private final AtomicInteger numSolved = new AtomicInteger();
+
+	private CSVWriter reportWriter;
+
+	public static void main( final String[] args ) throws IOException, InterruptedException
+	{
+		final BigWarpBatchRunner runner = new BigWarpBatchRunner();
+		runner.jCommander = new JCommander( runner );
+		runner.jCommander.setProgramName( "bigwarp-batch" );
+		runner.jCommander.parse( args );
+		if ( runner.help )
+		{
+			runner.jCommander.usage();
+			return;
+		}
+
+		final List< JobReport > reports = runner.process();
+		int numFailed = 0;
+		for ( final JobReport r : reports )
+			if ( !r.succeeded() )
+				numFailed++;
+
+		System.exit( numFailed == 0 ? 0 : 1 );
+	}
+
+	public List< JobReport > process() throws IOException, InterruptedException
+	{
+		final List< Job > jobs = readManifest( Paths.get( manifestPath ), landmarksPath, transformType, targetPath );
+		final long startTime = System.nanoTime();
+
+		if ( reportPath != null )
+		{
+			reportWriter = new CSVWriter( new FileWriter( reportPath ) );
+			reportWriter.writeNext( REPORT_HEADER );
+			reportWriter.flush();
+		}
+
+		final List< JobReport > reports = new ArrayList<>();
+		final ExecutorService exec = Executors.newFixedThreadPool( Math.max( 1, numJobs ) );
+		try
+		{
+			final ExecutorCompletionService< JobReport > ecs = new ExecutorCompletionService<>( exec );
+			for ( final Job job : jobs )
+				ecs.submit( () -> run( job ) );
+
+			for ( int i = 0; i < jobs.size(); i++ )
+			{
+				final JobReport r;
+				try
+				{
+					r = ecs.take().get();
+				}
+				catch ( final ExecutionException e )
+				{
+					// run reports its own failures
+					throw new RuntimeException( e.getCause() );
+				}
+				reports.add( r );
+				report( r );
+				System.out.println( String.format( "%d/%d %s", reports.size(), jobs.size(), r ) );
+			}
+		}
+		finally
+		{
+			exec.shutdown();
+			if ( reportWriter != null )
+				reportWriter.close();
+		}
+
+		long voxels = 0;
+		int numFailed = 0;
+		for ( final JobReport r : reports )
+		{
+			voxels += r.voxels;
+			if ( !r.succeeded() )
+				numFailed++;
+		}
+		final double seconds = ( System.nanoTime() - startTime ) * 1e-9;
+		System.out.println( String.format( "%d jobs (%d failed) with %d distinct transforms in %.1f s, %.3g voxels/s",
+				jobs.size(), numFailed, transforms.size(), seconds, voxels / seconds ) );
+
+		return reports;
+	}
+
+	/**
+	 * Runs a single job, never throws.
+	 *
+	 * @param job the job
+	 * @return the report of the job, with the error if it failed
+	 */
+	public < T > JobReport run( final Job job )
+	{
+		final JobReport r = new JobReport( job );
+		final long start = System.nanoTime();
+		long t = start;
+		try
+		{
+			final ImagePlus movingIp = openImage( job.input );
+			final ImagePlus targetIp = job.target == null ? null : getTarget( job.target );
+			final BigWarpData< T > bwData = BigWarpInit.createBigWarpDataFromImages( movingIp, targetIp );
+			bwData.wrapMovingSources();
+			final int nd = BigWarp.detectNumDims( bwData.sources );
+			r.loadNanos = System.nanoTime() - t;
+
+			t = System.nanoTime();
+			final SolvedTransform solved = getTransform( job.landmarks, job.type, nd );
+			r.transform = solved.id;
+			r.solveNanos = System.nanoTime() - t;
+
+			t = System.nanoTime();
+			final String fov = fovOption != null ? fovOption : targetIp != null ? ApplyBigwarpPlugin.TARGET : ApplyBigwarpPlugin.MOVING_WARPED;
+			final String res = resolutionOption != null ? resolutionOption : targetIp != null ? ApplyBigwarpPlugin.TARGET : ApplyBigwarpPlugin.MOVING;
+			final List< ImagePlus > results = ApplyBigwarpPlugin.apply( bwData, solved.landmarks, solved.transform.copy(),
+					job.type, fov, fovPointFilter,
+					new BoundingBoxEstimation( BoundingBoxEstimation.Method.valueOf( bboxMethod ) ),
+					res, resolutionSpec, fovSpec, offsetSpec,
+					Interpolation.valueOf( interpType ), false, numThreads, true, null, false );
+			r.exportNanos = System.nanoTime() - t;
+
+			if ( results == null || results.isEmpty() )
+				throw new IOException( "nothing was exported" );
+
+			for ( final ImagePlus ip : results )
+				r.voxels += ( long ) ip.getWidth() * ip.getHeight() * ip.getStackSize();
+
+			t = System.nanoTime();
+			for ( int i = 0; i < results.size(); i++ )
+			{
+				save( results.get( i ), results.size() == 1 ? job.output : indexedPath( job.output, i ) );
+				results.get( i ).flush();
+			}
+			r.saveNanos = System.nanoTime() - t;
+			movingIp.flush();
+		}
+		catch ( final Throwable e )
+		{
+			r.error = e.getMessage() != null ? e.getMessage() : e.toString();
+		}
+		r.totalNanos = System.nanoTime() - start;
+		return r;
+	}
+
+	/**
+	 * Returns the transformation for the given landmarks, type and number of
+	 * dimensions, solving it if this is the first request for it. Concurrent
+	 * requests for a transformation that is being solved wait for the result.
+	 *
+	 * @param landmarks the landmarks file
+	 * @param type the transformation type
+	 * @param nd the number of dimensions
+	 * @return the solved transformation
+	 * @throws IOException if the landmarks could not be read
+	 */
+	public SolvedTransform getTransform( final String landmarks, final String type, final int nd ) throws IOException
+	{
+		final String key = new File( landmarks ).getAbsolutePath() + "|" + type + "|" + nd;
+		final CompletableFuture< SolvedTransform > future = new CompletableFuture<>();
+		final CompletableFuture< SolvedTransform > existing = transforms.putIfAbsent( key, future );
+		if ( existing == null )
+		{
+			try
+			{
+				future.complete( solve( landmarks, type, nd, numSolved.getAndIncrement() ) );
+			}
+			catch ( final Throwable e )
+			{
+				future.completeExceptionally( e );
+			}
+		}
+		return await( existing == null ? future : existing );
+	}
+
+	/**
+	 * @return the number of distinct transformations requested so far
+	 */
+	public int numTransforms()
+	{
+		return transforms.size();
+	}
+
+	protected SolvedTransform solve( final String landmarks, final String type, final int nd, final int id ) throws IOException
+	{
+		final LandmarkTableModel ltm = new LandmarkTableModel( nd );
+		ltm.load( new File( landmarks ) );
+		final BigWarpTransform bwTransform = new BigWarpTransform( ltm, type );
+		bwTransform.setSolvedTransformCache( SolvedTransformCache.nextTo( new File( landmarks ) ) );
+		return new SolvedTransform( id, ltm, bwTransform.getTransformation() );
+	}
+
+	private ImagePlus getTarget( final String path ) throws IOException
+	{
+		final CompletableFuture< ImagePlus > future = new CompletableFuture<>();
+		final CompletableFuture< ImagePlus > existing = targets.putIfAbsent( new File( path ).getAbsolutePath(), future );
+		if ( existing == null )
+		{
+			try
+			{
+				future.complete( openImage( path ) );
+			}
+			catch ( final Throwable e )
+			{
+				future.completeExceptionally( e );
+			}
+		}
+		return await( existing == null ? future : existing );
+	}
+
+	private static < T > T await( final CompletableFuture< T > future ) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			if ( e.getCause() instanceof IOException )
+				throw ( IOException ) e.getCause();
+			else if ( e.getCause() instanceof RuntimeException )
+				throw ( RuntimeException ) e.getCause();
+
+			throw new IOException( e.getCause() );
+		}
+	}
+
+	private synchronized void report( final JobReport r ) throws IOException
+	{
+		if ( reportWriter == null )
+			return;
+
+		reportWriter.writeNext( r.toRow() );
+		reportWriter.flush();
+	}
+
+	public static ImagePlus openImage( final String path ) throws IOException
+	{
+		ImagePlus ip = null;
+		try
+		{
+			ip = IJ.openImage( path );
+		}
+		catch ( final Exception e )
+		{}
+
+		if ( ip == null )
+		{
+			try
+			{
+				ip = BF.openImagePlus( path )[ 0 ];
+			}
+			catch ( final Exception e )
+			{
+				throw new IOException( "could not read image from: " + path, e );
+			}
+		}
+		return ip;
+	}
+
+	private static void save( final ImagePlus ip, final String path ) throws IOException
+	{
+		final Path parent = Paths.get( path ).toAbsolutePath().getParent();
+		if ( parent != null )
+			Files.createDirectories( parent );
+
+		IJ.save( ip, path );
+		if ( !new File( path ).isFile() )
+			throw new IOException( "failed to write: " + path );
+	}
+
+	/**
+	 * The path for the i-th of several outputs of a job, the index is
+	 * inserted before the extension.
+	 *
+	 * @param path the output path of the job
+	 * @param i the index
+	 * @return the path of the i-th output
+	 */
+	public static String indexedPath( final String path, final int i )
+	{
+		final int dot = path.lastIndexOf( '.' );
+		if ( dot <= path.lastIndexOf( File.separatorChar ) )
+			return path + "_" + i;
+
+		return path.substring( 0, dot ) + "_" + i + path.substring( dot );
+	}
+
+	/**
+	 * Reads the jobs of a manifest. Columns other than the known ones are
+	 * ignored, empty cells fall back to the given defaults.
+	 *
+	 * @param manifest the csv file
+	 * @param defaultLandmarks landmarks of jobs without landmarks, may be null
+	 * @param defaultType transformation type of jobs without a type
+	 * @param defaultTarget target image of jobs without a target, may be null
+	 * @return the jobs in the order of the manifest
+	 * @throws IOException if the manifest could not be read or is invalid
+	 */
+	public static List< Job > readManifest( final Path manifest, final String defaultLandmarks, final String defaultType,
+			final String defaultTarget ) throws IOException
+	{
+		final List< String[] > rows;
+		try ( final CSVReader reader = new CSVReader( new FileReader( manifest.toFile() ) ) )
+		{
+			rows = reader.readAll();
+		}
+		catch ( final CsvException e )
+		{
+			throw new IOException( e );
+		}
+
+		if ( rows.isEmpty() )
+			return new ArrayList<>();
+
+		final Map< String, Integer > columns = new HashMap<>();
+		final String[] header = rows.get( 0 );
+		for ( int i = 0; i < header.length; i++ )
+			columns.put( header[ i ].trim().toLowerCase( Locale.ROOT ), i );
+
+		if ( !columns.containsKey( INPUT ) || !columns.containsKey( OUTPUT ) )
+			throw new IOException( "manifest " + manifest + " needs the columns \"" + INPUT + "\" and \"" + OUTPUT + "\"" );
+
+		final Path dir = manifest.toAbsolutePath().getParent();
+		final List< Job > jobs = new ArrayList<>();
+		for ( int row = 1; row < rows.size(); row++ )
+		{
+			final String[] cells = rows.get( row );
+			if ( cells.length == 0 || ( cells.length == 1 && cells[ 0 ].trim().isEmpty() ) )
+				continue;
+
+			final String input = resolve( dir, get( cells, columns, INPUT, null ) );
+			final String output = resolve( dir, get( cells, columns, OUTPUT, null ) );
+			final String landmarks = resolve( dir, get( cells, columns, LANDMARKS, defaultLandmarks ) );
+			if ( input == null || output == null || landmarks == null )
+				throw new IOException( "manifest " + manifest + " line " + ( row + 1 ) + " needs an input, output and landmarks" );
+
+			jobs.add( new Job( jobs.size(), input, output, landmarks,
+					get( cells, columns, TYPE, defaultType ),
+					resolve( dir, get( cells, columns, TARGET, defaultTarget ) ) ) );
+		}
+		return jobs;
+	}
+
+	private static String get( final String[] cells, final Map< String, Integer > columns, final String column, final String defaultValue )
+	{
+		final Integer i = columns.get( column );
+		if ( i == null || i >= cells.length || cells[ i ].trim().isEmpty() )
+			return defaultValue;
+
+		return cells[ i ].trim();
+	}
+
+	private static String resolve( final Path dir, final String path )
+	{
+		if ( path == null || dir == null )
+			return path;
+
+		return dir.resolve( path ).toString();
+	}
+
+	public static class Job
+	{
+		public final int index;
+		public final String input;
+		public final String output;
+		public final String landmarks;
+		public final String type;
+		public final String target;
+
+		public Job( final int index, final String input, final String output, final String landmarks,
+				final String type, final String target )
+		{
+			this.index = index;
+			this.input = input;
+			this.output = output;
+			this.landmarks = landmarks;
+			this.type = type;
+			this.target = target;
+		}
+	}
+
+	public static class SolvedTransform
+	{
+		public final int id;
+		public final LandmarkTableModel landmarks;
+		public final InvertibleRealTransform transform;
+
+		public SolvedTransform( final int id, final LandmarkTableModel landmarks, final InvertibleRealTransform transform )
+		{
+			this.id = id;
+			this.landmarks = landmarks;
+			this.transform = transform;
+		}
+	}
+
+	public static class JobReport
+	{
+		public final Job job;
+		public int transform = -1;
+		public long loadNanos;
+		public long solveNanos;
+		public long exportNanos;
+		public long saveNanos;
+		public long totalNanos;
+		public long voxels;
+		public String error;
+
+		public JobReport( final Job job )
+		{
+			this.job = job;
+		}
+
+		public boolean succeeded()
+		{
+			return error == null;
+		}
+
+		public double voxelsPerSecond()
+		{
+			return exportNanos > 0 ? voxels / ( exportNanos * 1e-9 ) : 0;
+		}
+
+		public String[] toRow()
+		{
+			return new String[] {
+					Integer.toString( job.index ), job.input, job.output, Integer.toString( transform ),
+					succeeded() ? "ok" : "failed",
+					millis( loadNanos ), millis( solveNanos ), millis( exportNanos ), millis( saveNanos ), millis( totalNanos ),
+					Long.toString( voxels ), String.format( Locale.ROOT, "%.1f", voxelsPerSecond() ),
+					error == null ? "" : error };
+		}
+
+		private static String millis( final long nanos )
+		{
+			return String.format( Locale.ROOT, "%.1f", nanos * 1e-6 );
+		}
+
+		@Override
+		public String toString()
+		{
+			if ( !succeeded() )
+				return String.format( "job %d failed: %s", job.index, error );
+
+			return String.format( "job %d: %s, load %.0f ms, solve %.0f ms, export %.0f ms, save %.0f ms, %.3g voxels/s",
+					job.index, job.output, loadNanos * 1e-6, solveNanos * 1e-6, exportNanos * 1e-6, saveNanos * 1e-6,
+					voxelsPerSecond() );
+		}
+	}
+}
@@ -120,6 +120,7 @@ public class BigWarpBatchTransformFOV
 	{
 		BigWarpBatchTransformFOV alg = parseCommandLineArgs( args );
 		alg.process();
+		System.exit( 0 );
 	}
 
 	private void initCommander()
@@ -316,7 +317,6 @@ public class BigWarpBatchTransformFOV
 
 		long endTime = System.currentTimeMillis();
 		System.out.println( "total time: " + ( endTime - startTime ) + " ms" );
-		System.exit( 0 );
 	}
 
 	public static < T > BigWarpExporter< T > applyBigWarpHelper( AbstractSpimData< ? >[] spimDataP, AbstractSpimData< ? >[] spimDataQ,
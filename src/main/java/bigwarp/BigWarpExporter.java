@@ -28,7 +28,11 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,12 +60,15 @@ import net.imglib2.RealInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
+import net.imglib2.img.cell.AbstractCellImg;
 import net.imglib2.iterator.IntervalIterator;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineRandomAccessible;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.RealTransformBatch;
 import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.NumericType;
 import net.imglib2.type.numeric.RealType;
@@ -103,11 +110,21 @@ public abstract class BigWarpExporter <T>
 	protected ProgressWriter progress;
 
 	public enum ParallelizationPolicy {
-		SLICE, ITER
+		SLICE, ITER, BLOCK
 	}
 
 	public ParallelizationPolicy policy = ParallelizationPolicy.ITER;
 
+	/**
+	 * The default size of export blocks if the moving source is not a cell
+	 * image.
+	 */
+	public static final int[] DEFAULT_BLOCK_SIZE = new int[] { 64, 64, 8 };
+
+	protected int[] blockSize;
+
+	protected int transformSpacing = 1;
+
 	private ImagePlus result;
 
 	private boolean showResult = true;
@@ -214,6 +231,76 @@ public abstract class BigWarpExporter <T>
 		this.nThreads = nThreads;
 	}
 
+	/**
+	 * Sets the size of the blocks that are processed as a unit with the
+	 * {@link ParallelizationPolicy#BLOCK} policy. If not set, the cell size
+	 * of the first moving source is used.
+	 *
+	 * @param blockSize the block size in output pixels (x,y[,z])
+	 */
+	public void setBlockSize( final int... blockSize )
+	{
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Sets the spacing (in output pixels) of the grid on which the
+	 * {@link ParallelizationPolicy#BLOCK} policy evaluates the transform. The
+	 * default of one evaluates it exactly at every output pixel, larger
+	 * spacings interpolate it in between and are faster but approximate, see
+	 * {@link WarpedBlockRenderer#setTransformSpacing(int)}.
+	 *
+	 * @param transformSpacing the spacing
+	 */
+	public void setTransformSpacing( final int transformSpacing )
+	{
+		this.transformSpacing = Math.max( 1, transformSpacing );
+	}
+
+	/**
+	 * Returns the size of export blocks: the size set by the user, otherwise
+	 * the cell size of the first moving source if it is a cell image, such
+	 * that neighboring output pixels read from the same source cells.
+	 *
+	 * @return the block size (x,y,z)
+	 */
+	public int[] getBlockSize()
+	{
+		final int[] size = DEFAULT_BLOCK_SIZE.clone();
+		if ( blockSize != null )
+		{
+			for ( int d = 0; d < Math.min( size.length, blockSize.length ); d++ )
+				size[ d ] = Math.max( 1, blockSize[ d ] );
+
+			return size;
+		}
+
+		try
+		{
+			Source< ? > src = bwData.getMovingSource( 0 ).getSpimSource();
+			if ( src instanceof WarpedSource )
+				src = ( ( WarpedSource< ? > ) src ).getWrappedSource();
+
+			final Object img = src.getSource( 0, 0 );
+			if ( img instanceof AbstractCellImg )
+			{
+				final AbstractCellImg< ?, ?, ?, ? > cellImg = ( AbstractCellImg< ?, ?, ?, ? > ) img;
+				for ( int d = 0; d < Math.min( size.length, cellImg.numDimensions() ); d++ )
+				{
+					// very thin or very large cells make poor blocks
+					final int max = d < 2 ? 256 : 64;
+					final int min = d < 2 ? 32 : 1;
+					size[ d ] = Math.max( min, Math.min( max, cellImg.getCellGrid().cellDimension( d ) ) );
+				}
+			}
+		}
+		catch ( final Exception e )
+		{
+			// use the default block size
+		}
+		return size;
+	}
+
 	public void setNameSuffix( final String suffix )
 	{
 		this.nameSuffix = suffix;
@@ -261,7 +348,7 @@ public abstract class BigWarpExporter <T>
 	@SuppressWarnings("hiding")
 	public <T> RandomAccessibleInterval<T> exportSource( SourceAndConverter<T> src )
 	{
-		final RealRandomAccessible< T > raiRaw = src.getSpimSource().getInterpolatedSource( 0, 0, interp );
+		final RealRandomAccessible< T > raiRaw = WarpedSource.exact( src.getSpimSource() ).getInterpolatedSource( 0, 0, interp );
 
 		// apply the transformations
 		final AffineRandomAccessible< T, AffineGet > rai = RealViews.affine(
@@ -377,8 +464,238 @@ public abstract class BigWarpExporter <T>
 		final Img< T > target = factory.create( itvl );
 		if( policy == ParallelizationPolicy.ITER )
 			return copyToImageStackIterOrder( raible, itvl, target, nThreads, progress );
-		else
+		else if( policy == ParallelizationPolicy.SLICE )
 			return copyToImageStackBySlice( raible, itvl, target, nThreads, progress );
+		else
+		{
+			// the target is ordered x,y,c,z - blocks hold a single channel
+			final int[] size = getBlockSize();
+			final int[] targetBlockSize = new int[] { size[ 0 ], size[ 1 ], 1, size[ 2 ] };
+			return copyToImageStackByBlock( raible, itvl, target, targetBlockSize, nThreads, progress );
+		}
+	}
+
+	public static < T extends NumericType<T> > RandomAccessibleInterval<T> copyToImageStackByBlock(
+			final RandomAccessible< T > raible,
+			final Interval itvl,
+			final ImgFactory<T> factory,
+			final int[] blockSize,
+			final int nThreads,
+			final ProgressWriter progress )
+	{
+		// create the image plus image
+		final Img< T > target = factory.create( itvl );
+		return copyToImageStackByBlock( raible, itvl, target, blockSize, nThreads, progress );
+	}
+
+	/**
+	 * Copies into the target block by block. Blocks are distributed over a
+	 * work-stealing pool, every thread reuses its own {@link RandomAccess}
+	 * (and with it its copy of the transform), and the progress is updated
+	 * whenever a block is done.
+	 *
+	 * @param ra the source, ordered x,y,z,c
+	 * @param itvl the output interval
+	 * @param target the target, ordered x,y,c,z
+	 * @param blockSize the block size in target dimensions
+	 * @param nThreads the number of threads
+	 * @param progress the progress writer
+	 * @return the target
+	 */
+	public static < T extends NumericType<T> > RandomAccessibleInterval<T> copyToImageStackByBlock(
+			final RandomAccessible< T > ra,
+			final Interval itvl,
+			final RandomAccessibleInterval<T> target,
+			final int[] blockSize,
+			final int nThreads,
+			final ProgressWriter progress )
+	{
+		progress.setProgress(0.0);
+		final MixedTransformView< T > raible = Views.permute( ra, 2, 3 );
+
+		final ThreadLocal< RandomAccess< T > > access = ThreadLocal.withInitial( raible::randomAccess );
+		processBlocks( getBlocks( target, blockSize ), block -> {
+			final RandomAccess< T > a = access.get();
+			final Cursor< T > c = Views.flatIterable( Views.interval( target, block ) ).localizingCursor();
+			while( c.hasNext() )
+			{
+				c.fwd();
+				a.setPosition( c );
+				c.get().set( a.get() );
+			}
+		}, nThreads, progress );
+
+		progress.setProgress(1.0);
+		return target;
+	}
+
+	/**
+	 * Renders all moving sources into an image stack, evaluating the
+	 * transform once per output pixel for all channels with a
+	 * {@link WarpedBlockRenderer}. The transform is exact unless a
+	 * {@link #setTransformSpacing(int) transform spacing} larger than one is
+	 * set.
+	 *
+	 * @param itvl the interval of the image stack, ordered x,y,c,z
+	 * @param factory the image factory
+	 * @param nThreads the number of threads
+	 * @return the image stack
+	 */
+	@SuppressWarnings( "unchecked" )
+	public < S extends NumericType< S > & NativeType< S > > RandomAccessibleInterval< S > renderToImageStack(
+			final Interval itvl,
+			final ImgFactory< S > factory,
+			final int nThreads )
+	{
+		buildTotalRenderTransform();
+		progress.setProgress(0.0);
+
+		final int numChannels = ( int ) itvl.dimension( 2 );
+		final List< Source< S > > channels = new ArrayList<>();
+		for( int i = 0; i < numChannels; i++ )
+			channels.add( ( Source< S > ) bwData.getMovingSourceForExport( i ).getSpimSource() );
+
+		final WarpedBlockRenderer< S > renderer = new WarpedBlockRenderer<>( channels, pixelRenderToPhysical, interp );
+		renderer.setTransformSpacing( transformSpacing );
+		renderer.setMaxPrefetchSize( WarpedBlockRenderer.DEFAULT_MAX_PREFETCH_SIZE / Math.max( 1, nThreads ) );
+		final ThreadLocal< WarpedBlockRenderer< S > > renderers = ThreadLocal.withInitial( renderer::copy );
+
+		// blocks are x,y,z, the target is x,y,c,z
+		final Img< S > target = factory.create( itvl );
+		final int[] size = getBlockSize();
+		final FinalInterval xyz = new FinalInterval( itvl.dimension( 0 ), itvl.dimension( 1 ), itvl.dimension( 3 ) );
+		processBlocks( getBlocks( xyz, size ), block -> {
+			final List< RandomAccessibleInterval< S > > targets = new ArrayList<>();
+			for( int c = 0; c < numChannels; c++ )
+				targets.add( Views.interval( Views.hyperSlice( target, 2, c ), block ) );
+
+			renderers.get().render( targets );
+		}, nThreads, progress );
+
+		progress.setProgress(1.0);
+		return target;
+	}
+
+	/**
+	 * Processes blocks on a work-stealing pool and updates the progress
+	 * whenever a block is done.
+	 *
+	 * @param blocks the blocks
+	 * @param action processes one block
+	 * @param nThreads the number of threads
+	 * @param progress the progress writer
+	 * @throws RuntimeException if processing a block fails, after which the
+	 *             remaining blocks are not processed
+	 */
+	public static void processBlocks(
+			final List< Interval > blocks,
+			final Consumer< Interval > action,
+			final int nThreads,
+			final ProgressWriter progress )
+	{
+		final ForkJoinPool pool = new ForkJoinPool( nThreads );
+		try
+		{
+			pool.invoke( new BlockTask( blocks, 0, blocks.size(), action, new AtomicLong(), progress ) );
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Splits an interval into blocks of the given size on a grid starting at
+	 * the interval's min. The first dimension varies fastest.
+	 *
+	 * @param interval the interval
+	 * @param blockSize the block size, dimensions beyond its length get size 1
+	 * @return the blocks
+	 */
+	public static List< Interval > getBlocks( final Interval interval, final int[] blockSize )
+	{
+		final int nd = interval.numDimensions();
+		final long[] numBlocks = new long[ nd ];
+		final long[] size = new long[ nd ];
+		for( int d = 0; d < nd; d++ )
+		{
+			size[ d ] = d < blockSize.length ? Math.max( 1, blockSize[ d ] ) : 1;
+			numBlocks[ d ] = ( interval.dimension( d ) + size[ d ] - 1 ) / size[ d ];
+		}
+
+		final List< Interval > blocks = new ArrayList<>();
+		final IntervalIterator it = new IntervalIterator( numBlocks );
+		final long[] min = new long[ nd ];
+		final long[] max = new long[ nd ];
+		while( it.hasNext() )
+		{
+			it.fwd();
+			for( int d = 0; d < nd; d++ )
+			{
+				min[ d ] = interval.min( d ) + it.getLongPosition( d ) * size[ d ];
+				max[ d ] = Math.min( interval.max( d ), min[ d ] + size[ d ] - 1 );
+			}
+			blocks.add( new FinalInterval( min, max ) );
+		}
+		return blocks;
+	}
+
+	/**
+	 * Processes a range of blocks, splitting the range in half until a single
+	 * block remains such that idle threads can steal work.
+	 */
+	private static class BlockTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final List< Interval > blocks;
+
+		private final int start;
+
+		private final int end;
+
+		private final Consumer< Interval > action;
+
+		private final AtomicLong numDone;
+
+		private final ProgressWriter progress;
+
+		BlockTask( final List< Interval > blocks, final int start, final int end,
+				final Consumer< Interval > action,
+				final AtomicLong numDone,
+				final ProgressWriter progress )
+		{
+			this.blocks = blocks;
+			this.start = start;
+			this.end = end;
+			this.action = action;
+			this.numDone = numDone;
+			this.progress = progress;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if( end - start > 1 )
+			{
+				final int mid = ( start + end ) >>> 1;
+				invokeAll(
+						new BlockTask( blocks, start, mid, action, numDone, progress ),
+						new BlockTask( blocks, mid, end, action, numDone, progress ) );
+				return;
+			}
+
+			if( end == start || Thread.currentThread().isInterrupted() )
+				return;
+
+			action.accept( blocks.get( start ) );
+
+			final long n = numDone.incrementAndGet();
+			synchronized ( progress )
+			{
+				progress.setProgress( 1.0 * n / blocks.size() );
+			}
+		}
 	}
 
 	public static < T extends NumericType<T> > RandomAccessibleInterval<T> copyToImageStackBySlice(
@@ -654,9 +971,6 @@ public abstract class BigWarpExporter <T>
 		final double[] w = new double[ N ];
 		Arrays.fill( w, 1.0 );
 
-		final double[] pt = new double[ nd ];
-		final double[] ptxfm = new double[ nd ];
-
 		final long[] unitInterval = new long[ nd ];
 		Arrays.fill( unitInterval, 2 );
 
@@ -668,21 +982,13 @@ public abstract class BigWarpExporter <T>
 			for( int d = 0; d < nd; d++ )
 			{
 				if( it.getLongPosition( d ) == 0 )
-					pt[ d ] = interval.min( d );
+					mvgPts[ d ][ i ] = interval.min( d );
 				else
-					pt[ d ] = interval.max( d );
-			}
-
-			xfm.apply( pt, ptxfm );
-
-			for( int d = 0; d < nd; d++ )
-			{
-				mvgPts[ d ][ i ] = pt[ d ];
-				tgtPts[ d ][ i ] = ptxfm[ d ];
+					mvgPts[ d ][ i ] = interval.max( d );
 			}
-
 			i++;
 		}
+		RealTransformBatch.apply( xfm, mvgPts, tgtPts, 0, N );
 
 		try
 		{
@@ -716,8 +1022,8 @@ public abstract class BigWarpExporter <T>
 							Intervals.maxAsLongArray(interval) );
 
 		final int nd = interval.numDimensions();
-		final double[] pt = new double[ nd ];
-		final double[] ptxfm = new double[ nd ];
+		final int N = 1 << nd;
+		final double[][] corners = new double[ nd ][ N ];
 
 		final long[] min = new long[ nd ];
 		final long[] max = new long[ nd ];
@@ -727,6 +1033,7 @@ public abstract class BigWarpExporter <T>
 		final long[] unitInterval = new long[ nd ];
 		Arrays.fill( unitInterval, 2 );
 
+		int i = 0;
 		final IntervalIterator it = new IntervalIterator( unitInterval );
 		while( it.hasNext() )
 		{
@@ -734,17 +1041,20 @@ public abstract class BigWarpExporter <T>
 			for( int d = 0; d < nd; d++ )
 			{
 				if( it.getLongPosition( d ) == 0 )
-					pt[ d ] = interval.min( d );
+					corners[ d ][ i ] = interval.min( d );
 				else
-					pt[ d ] = interval.max( d );
+					corners[ d ][ i ] = interval.max( d );
 			}
+			i++;
+		}
+		RealTransformBatch.apply( xfm, corners );
 
-			xfm.apply( pt, ptxfm );
-
+		for( i = 0; i < N; i++ )
+		{
 			for( int d = 0; d < nd; d++ )
 			{
-				final long lo = (long)Math.floor( ptxfm[d] );
-				final long hi = (long)Math.ceil( ptxfm[d] );
+				final long lo = (long)Math.floor( corners[ d ][ i ] );
+				final long hi = (long)Math.ceil( corners[ d ][ i ] );
 
 				if( lo < min[ d ])
 					min[ d ] = lo;
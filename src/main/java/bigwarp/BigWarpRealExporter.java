@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import bdv.export.ProgressWriter;
+import bdv.img.WarpedSource;
 import bdv.tools.brightness.ConverterSetup;
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
@@ -161,7 +162,7 @@ public class BigWarpRealExporter< T extends RealType< T > & NativeType< T >  > e
 
 		// in pixel space
 		@SuppressWarnings("unchecked")
-		final RealRandomAccessible<T> raiRaw = (RealRandomAccessible<T>)src.getInterpolatedSource(0, 0, interp);
+		final RealRandomAccessible<T> raiRaw = (RealRandomAccessible<T>)WarpedSource.exact(src).getInterpolatedSource(0, 0, interp);
 
 		// the transform from world to new pixel coordinates
 		final AffineTransform3D pixelToPhysical = pixelRenderToPhysical.copy().inverse();
@@ -220,9 +221,13 @@ public class BigWarpRealExporter< T extends RealType< T > & NativeType< T >  > e
 				dimensions[ 2 ] = numChannels; 						// c
 				dimensions[ 3 ] = outputInterval.dimension( 2 ); 	// z
 				final FinalInterval destIntervalPerm = new FinalInterval( dimensions );
-				final RandomAccessibleInterval< T > img = copyToImageStack(
-						raiStack,
-						destIntervalPerm, factory, nThreads );
+				final RandomAccessibleInterval< T > img;
+				if ( policy == ParallelizationPolicy.BLOCK )
+					img = renderToImageStack( destIntervalPerm, factory, nThreads );
+				else
+					img = copyToImageStack(
+							raiStack,
+							destIntervalPerm, factory, nThreads );
 				ip = ((ImagePlusImg<T,?>)img).getImagePlus();
 			}
 			else if ( outputInterval.numDimensions() == 2 )
@@ -233,6 +238,8 @@ public class BigWarpRealExporter< T extends RealType< T > & NativeType< T >  > e
 				dimensions[ 2 ] = numChannels; 						// c
 				dimensions[ 3 ] = 1; 								// z
 				final FinalInterval destIntervalPerm = new FinalInterval( dimensions );
+				// 2d exports extend the output by mirroring, which the block
+				// renderer does not do, so they always copy the warped stack
 				final RandomAccessibleInterval< T > img = copyToImageStack(
 						Views.addDimension( Views.extendMirrorDouble( raiStack )),
 						destIntervalPerm, factory, nThreads );
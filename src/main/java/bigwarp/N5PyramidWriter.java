@@ -0,0 +1,682 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import bdv.export.ProgressWriter;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.iterator.IntervalIterator;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Writes an image and its downsampled pyramid to an N5 container in a single
+ * pass.
+ * <p>
+ * Blocks of the full resolution level "s0" are written as they are rendered.
+ * Every completed block is immediately downsampled into the one block of the
+ * next level that contains it, and a block of a downsampled level is written
+ * (and downsampled further) as soon as all of its children are done. Only the
+ * blocks that are currently being assembled are held in memory, never a
+ * full level.
+ * <p>
+ * The downsampling factors are relative to the previous level and have to
+ * divide the block size, such that a block of one level maps to exactly one
+ * block of the next.
+ *
+ * @param <T> the pixel type
+ */
+public class N5PyramidWriter< T extends NativeType< T > >
+{
+	public enum DownsamplingMethod
+	{
+		AVERAGE, MODE
+	}
+
+	public static final int DEFAULT_MAX_BLOCKS_IN_FLIGHT = 64;
+
+	/**
+	 * The {@link #parseFactors(String, int) factors} for a single scale, the
+	 * default of exports.
+	 */
+	public static final String SINGLE_SCALE = "none";
+
+	/**
+	 * The {@link #parseFactors(String, int) factors} chosen by
+	 * {@link #automaticFactors(long[], int[])}.
+	 */
+	public static final String AUTOMATIC = "auto";
+
+	private final N5Writer n5;
+
+	private final String dataset;
+
+	private final int[] blockSize;
+
+	private final int[][] factors;
+
+	private final DownsamplingMethod method;
+
+	private final Compression compression;
+
+	private final T type;
+
+	private final int nd;
+
+	private final int numLevels;
+
+	private final long[][] dimensions;
+
+	private final long[][] gridDimensions;
+
+	private final List< ConcurrentHashMap< Long, PendingBlock< T > > > pending;
+
+	private DatasetAttributes[] attributes;
+
+	private int maxBlocksInFlight = DEFAULT_MAX_BLOCKS_IN_FLIGHT;
+
+	/**
+	 * @param n5 the writer
+	 * @param dataset the multiscale group, levels are written to "s0", "s1", ...
+	 * @param dimensions the dimensions of the full resolution level
+	 * @param blockSize the block size of all levels
+	 * @param factors the downsampling factors per level, relative to the
+	 *            previous level, may be null or empty for a single scale
+	 * @param method the downsampling method
+	 * @param compression the compression
+	 * @param type the pixel type
+	 */
+	public N5PyramidWriter(
+			final N5Writer n5,
+			final String dataset,
+			final long[] dimensions,
+			final int[] blockSize,
+			final int[][] factors,
+			final DownsamplingMethod method,
+			final Compression compression,
+			final T type )
+	{
+		this.n5 = n5;
+		this.dataset = dataset;
+		this.blockSize = blockSize;
+		this.factors = factors == null ? new int[ 0 ][] : factors;
+		this.method = method;
+		this.compression = compression;
+		this.type = type;
+
+		nd = dimensions.length;
+		numLevels = this.factors.length + 1;
+		if ( numLevels > 1 && !( type instanceof RealType ) )
+			throw new IllegalArgumentException( "Downsampling is only supported for real types, not " + type.getClass().getSimpleName() );
+
+		this.dimensions = new long[ numLevels ][];
+		this.gridDimensions = new long[ numLevels ][];
+		this.dimensions[ 0 ] = dimensions.clone();
+		for ( int l = 1; l < numLevels; l++ )
+		{
+			final int[] f = this.factors[ l - 1 ];
+			this.dimensions[ l ] = new long[ nd ];
+			for ( int d = 0; d < nd; d++ )
+			{
+				if ( f[ d ] < 1 || blockSize[ d ] % f[ d ] != 0 )
+					throw new IllegalArgumentException( String.format(
+							"Downsampling factor %d of level %d does not divide the block size %d",
+							f[ d ], l, blockSize[ d ] ) );
+
+				this.dimensions[ l ][ d ] = ( this.dimensions[ l - 1 ][ d ] + f[ d ] - 1 ) / f[ d ];
+			}
+		}
+
+		pending = new ArrayList<>();
+		for ( int l = 0; l < numLevels; l++ )
+		{
+			gridDimensions[ l ] = new long[ nd ];
+			for ( int d = 0; d < nd; d++ )
+				gridDimensions[ l ][ d ] = ( this.dimensions[ l ][ d ] + blockSize[ d ] - 1 ) / blockSize[ d ];
+
+			pending.add( new ConcurrentHashMap<>() );
+		}
+	}
+
+	/**
+	 * Downsampling factors of two that reduce the image until it fits into a
+	 * single block. Dimensions that already fit are not downsampled further.
+	 *
+	 * @param dimensions the full resolution dimensions
+	 * @param blockSize the block size
+	 * @return relative downsampling factors per level
+	 */
+	public static int[][] automaticFactors( final long[] dimensions, final int[] blockSize )
+	{
+		final int nd = dimensions.length;
+		final long[] dims = dimensions.clone();
+		final ArrayList< int[] > factors = new ArrayList<>();
+		while ( true )
+		{
+			final int[] f = new int[ nd ];
+			boolean any = false;
+			for ( int d = 0; d < nd; d++ )
+			{
+				f[ d ] = dims[ d ] > blockSize[ d ] && blockSize[ d ] % 2 == 0 ? 2 : 1;
+				any |= f[ d ] > 1;
+			}
+
+			if ( !any )
+				break;
+
+			for ( int d = 0; d < nd; d++ )
+				dims[ d ] = ( dims[ d ] + f[ d ] - 1 ) / f[ d ];
+
+			factors.add( f );
+		}
+		return factors.toArray( new int[ 0 ][] );
+	}
+
+	/**
+	 * Parses downsampling factors. Levels are separated by ";" and the
+	 * factors of a level by ",". A single factor is used for all dimensions.
+	 * The empty string and {@link #SINGLE_SCALE} mean a single scale,
+	 * {@link #AUTOMATIC} returns null, meaning
+	 * {@link #automaticFactors(long[], int[])}.
+	 *
+	 * @param arg the factors, for example "2,2,1;2,2,2"
+	 * @param nd the number of dimensions
+	 * @return the factors per level
+	 */
+	public static int[][] parseFactors( final String arg, final int nd )
+	{
+		if ( arg == null || arg.trim().equalsIgnoreCase( AUTOMATIC ) )
+			return null;
+
+		if ( arg.trim().isEmpty() || arg.trim().equalsIgnoreCase( SINGLE_SCALE ) )
+			return new int[ 0 ][];
+
+		final String[] levels = arg.trim().split( ";" );
+		final int[][] factors = new int[ levels.length ][ nd ];
+		for ( int l = 0; l < levels.length; l++ )
+		{
+			final String[] parts = levels[ l ].split( "," );
+			for ( int d = 0; d < nd; d++ )
+				factors[ l ][ d ] = Integer.parseInt( parts[ Math.min( d, parts.length - 1 ) ].trim() );
+		}
+		return factors;
+	}
+
+	public void setMaxBlocksInFlight( final int maxBlocksInFlight )
+	{
+		this.maxBlocksInFlight = Math.max( 1, maxBlocksInFlight );
+	}
+
+	public int numLevels()
+	{
+		return numLevels;
+	}
+
+	public long[] getDimensions( final int level )
+	{
+		return dimensions[ level ];
+	}
+
+	public String getLevelPath( final int level )
+	{
+		return dataset + "/s" + level;
+	}
+
+	public String[] getScalePaths()
+	{
+		final String[] paths = new String[ numLevels ];
+		for ( int l = 0; l < numLevels; l++ )
+			paths[ l ] = "s" + l;
+
+		return paths;
+	}
+
+	/**
+	 * @param level the level
+	 * @return the downsampling factors of a level relative to full resolution
+	 */
+	public long[] getAbsoluteFactors( final int level )
+	{
+		final long[] f = new long[ nd ];
+		Arrays.fill( f, 1 );
+		for ( int l = 0; l < level; l++ )
+			for ( int d = 0; d < nd; d++ )
+				f[ d ] *= factors[ l ][ d ];
+
+		return f;
+	}
+
+	/**
+	 * @param resolution the full resolution pixel spacing
+	 * @return the pixel spacing of every level
+	 */
+	public double[][] getScales( final double[] resolution )
+	{
+		final double[][] scales = new double[ numLevels ][ nd ];
+		for ( int l = 0; l < numLevels; l++ )
+		{
+			final long[] f = getAbsoluteFactors( l );
+			for ( int d = 0; d < nd; d++ )
+				scales[ l ][ d ] = resolution[ d ] * f[ d ];
+		}
+		return scales;
+	}
+
+	/**
+	 * A downsampled pixel is centered on the pixels it was computed from.
+	 *
+	 * @param resolution the full resolution pixel spacing
+	 * @param offset the full resolution offset
+	 * @return the offset of every level
+	 */
+	public double[][] getTranslations( final double[] resolution, final double[] offset )
+	{
+		final double[][] translations = new double[ numLevels ][ nd ];
+		for ( int l = 0; l < numLevels; l++ )
+		{
+			final long[] f = getAbsoluteFactors( l );
+			for ( int d = 0; d < nd; d++ )
+				translations[ l ][ d ] = offset[ d ] + resolution[ d ] * ( f[ d ] - 1 ) / 2.0;
+		}
+		return translations;
+	}
+
+	/**
+	 * Creates the datasets of all levels.
+	 */
+	public void createDatasets()
+	{
+		attributes = new DatasetAttributes[ numLevels ];
+		for ( int l = 0; l < numLevels; l++ )
+		{
+			attributes[ l ] = new DatasetAttributes( dimensions[ l ], blockSize, N5Utils.dataType( type ), compression );
+			n5.createDataset( getLevelPath( l ), attributes[ l ] );
+		}
+	}
+
+	/**
+	 * Fills full resolution blocks, for example by rendering them. Blocks
+	 * have the interval of the block in the full resolution level.
+	 *
+	 * @param <T> the pixel type
+	 */
+	@FunctionalInterface
+	public interface BlockRenderer< T >
+	{
+		/**
+		 * @param blocks one block per writer, all with the same interval
+		 */
+		void render( List< RandomAccessibleInterval< T > > blocks );
+	}
+
+	/**
+	 * Renders the full resolution image block by block with the given
+	 * executor and writes all levels.
+	 *
+	 * @param img the full resolution image, its min has to be zero
+	 * @param exec the executor
+	 * @param progress receives the fraction of full resolution blocks written
+	 * @throws InterruptedException if interrupted while waiting for blocks
+	 * @throws ExecutionException if rendering or writing a block failed
+	 */
+	public void write( final RandomAccessibleInterval< T > img, final ExecutorService exec, final ProgressWriter progress )
+			throws InterruptedException, ExecutionException
+	{
+		final BlockRenderer< T > copy = blocks -> LoopBuilder.setImages( Views.interval( img, blocks.get( 0 ) ), blocks.get( 0 ) )
+				.forEachPixel( ( s, t ) -> t.set( s ) );
+
+		write( Collections.singletonList( this ), () -> copy, exec, progress );
+	}
+
+	/**
+	 * Writes several images of the same size block by block, for example the
+	 * channels of an export, such that each block is rendered once for all
+	 * images.
+	 *
+	 * @param writers the writers, all with the same dimensions, block size
+	 *            and downsampling factors
+	 * @param renderers creates a renderer for every thread
+	 * @param exec the executor
+	 * @param progress receives the fraction of full resolution blocks
+	 *            written, may be null
+	 * @throws InterruptedException if interrupted while waiting for blocks
+	 * @throws ExecutionException if rendering or writing a block failed
+	 */
+	public static < T extends NativeType< T > > void write(
+			final List< N5PyramidWriter< T > > writers,
+			final Supplier< BlockRenderer< T > > renderers,
+			final ExecutorService exec,
+			final ProgressWriter progress ) throws InterruptedException, ExecutionException
+	{
+		for ( final N5PyramidWriter< T > w : writers )
+			if ( w.attributes == null )
+				w.createDatasets();
+
+		final N5PyramidWriter< T > first = writers.get( 0 );
+		final List< long[] > gridPositions = first.fullResolutionBlockOrder();
+		final ThreadLocal< BlockRenderer< T > > renderer = ThreadLocal.withInitial( renderers );
+		final Semaphore inFlight = new Semaphore( first.maxBlocksInFlight );
+		final AtomicLong numDone = new AtomicLong();
+		final List< Future< ? > > futures = new ArrayList<>();
+		for ( final long[] gridPosition : gridPositions )
+		{
+			inFlight.acquire();
+			futures.add( exec.submit( () -> {
+				try
+				{
+					final List< RandomAccessibleInterval< T > > blocks = new ArrayList<>();
+					for ( final N5PyramidWriter< T > w : writers )
+						blocks.add( w.createBlock( 0, gridPosition ) );
+
+					renderer.get().render( blocks );
+					for ( int i = 0; i < writers.size(); i++ )
+						writers.get( i ).writeBlock( 0, gridPosition, blocks.get( i ) );
+				}
+				finally
+				{
+					inFlight.release();
+				}
+
+				if ( progress != null )
+				{
+					final long n = numDone.incrementAndGet();
+					synchronized ( progress )
+					{
+						progress.setProgress( ( double ) n / gridPositions.size() );
+					}
+				}
+				return null;
+			} ) );
+		}
+
+		for ( final Future< ? > f : futures )
+			f.get();
+	}
+
+	/**
+	 * Writes a block of a level and, once all its siblings are written,
+	 * the block of the next level that contains it.
+	 * <p>
+	 * The block's min has to be the block's position in the level, i.e.
+	 * gridPosition times the block size.
+	 *
+	 * @param level the level
+	 * @param gridPosition the grid position of the block
+	 * @param block the block data
+	 */
+	public void writeBlock( final int level, final long[] gridPosition, final RandomAccessibleInterval< T > block )
+	{
+		if ( attributes == null )
+			throw new IllegalStateException( "call createDatasets first" );
+
+		N5Utils.saveBlock( block, n5, getLevelPath( level ), attributes[ level ], gridPosition );
+
+		final int next = level + 1;
+		if ( next >= numLevels )
+			return;
+
+		final int[] f = factors[ level ];
+		final long[] parentPosition = new long[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			parentPosition[ d ] = gridPosition[ d ] / f[ d ];
+
+		final PendingBlock< T > parent = pending.get( next ).computeIfAbsent(
+				linearIndex( gridDimensions[ next ], parentPosition ),
+				k -> new PendingBlock<>( createBlock( next, parentPosition ), numChildren( level, parentPosition ) ) );
+
+		downsample( block, parent.data, f );
+
+		if ( parent.remaining.decrementAndGet() == 0 )
+		{
+			pending.get( next ).remove( linearIndex( gridDimensions[ next ], parentPosition ) );
+			writeBlock( next, parentPosition, parent.data );
+		}
+	}
+
+	/**
+	 * @param level the level
+	 * @param gridPosition the grid position
+	 * @return an empty block at a grid position, with the min at its
+	 *         position in the level
+	 */
+	public RandomAccessibleInterval< T > createBlock( final int level, final long[] gridPosition )
+	{
+		final Interval itvl = blockInterval( level, gridPosition );
+		final ArrayImg< T, ? > block = new ArrayImgFactory<>( type ).create( itvl );
+		return Views.translate( block, itvl.minAsLongArray() );
+	}
+
+	/**
+	 * @param level the level
+	 * @param gridPosition the grid position
+	 * @return the interval of a block in a level
+	 */
+	public Interval blockInterval( final int level, final long[] gridPosition )
+	{
+		final long[] min = new long[ nd ];
+		final long[] max = new long[ nd ];
+		for ( int d = 0; d < nd; d++ )
+		{
+			min[ d ] = gridPosition[ d ] * blockSize[ d ];
+			max[ d ] = Math.min( dimensions[ level ][ d ], min[ d ] + blockSize[ d ] ) - 1;
+		}
+		return new FinalInterval( min, max );
+	}
+
+	/**
+	 * Full resolution blocks in the order of a depth first traversal of the
+	 * pyramid: the children of a block are visited one after the other, each
+	 * with all its descendants, before the next child. So at every level only
+	 * the parent of the blocks being written is partially assembled, apart
+	 * from the blocks in flight, even if the coarsest level is a single block.
+	 *
+	 * @return the grid positions in processing order
+	 */
+	public List< long[] > fullResolutionBlockOrder()
+	{
+		final List< long[] > order = new ArrayList<>();
+		final IntervalIterator coarse = new IntervalIterator( gridDimensions[ numLevels - 1 ] );
+		while ( coarse.hasNext() )
+		{
+			coarse.fwd();
+			addDescendants( numLevels - 1, coarse.positionAsLongArray(), order );
+		}
+		return order;
+	}
+
+	private void addDescendants( final int level, final long[] gridPosition, final List< long[] > order )
+	{
+		if ( level == 0 )
+		{
+			order.add( gridPosition );
+			return;
+		}
+
+		final int[] f = factors[ level - 1 ];
+		final long[] min = new long[ nd ];
+		final long[] max = new long[ nd ];
+		for ( int d = 0; d < nd; d++ )
+		{
+			min[ d ] = gridPosition[ d ] * f[ d ];
+			max[ d ] = Math.min( gridDimensions[ level - 1 ][ d ], min[ d ] + f[ d ] ) - 1;
+		}
+
+		final IntervalIterator children = new IntervalIterator( min, max );
+		while ( children.hasNext() )
+		{
+			children.fwd();
+			addDescendants( level - 1, children.positionAsLongArray(), order );
+		}
+	}
+
+	private int numChildren( final int childLevel, final long[] parentPosition )
+	{
+		final int[] f = factors[ childLevel ];
+		int n = 1;
+		for ( int d = 0; d < nd; d++ )
+			n *= ( int ) Math.min( f[ d ], gridDimensions[ childLevel ][ d ] - parentPosition[ d ] * f[ d ] );
+
+		return n;
+	}
+
+	private static long linearIndex( final long[] gridDimensions, final long[] position )
+	{
+		long i = 0;
+		for ( int d = gridDimensions.length - 1; d >= 0; d-- )
+			i = i * gridDimensions[ d ] + position[ d ];
+
+		return i;
+	}
+
+	/**
+	 * Downsamples a block into the part of the parent block it covers. Every
+	 * pixel of the parent is computed from pixels of a single child, so
+	 * children of the same parent write disjoint regions.
+	 */
+	private void downsample( final RandomAccessibleInterval< T > child, final RandomAccessibleInterval< T > parent, final int[] f )
+	{
+		final long[] min = new long[ nd ];
+		final long[] max = new long[ nd ];
+		for ( int d = 0; d < nd; d++ )
+		{
+			min[ d ] = child.min( d ) / f[ d ];
+			max[ d ] = child.max( d ) / f[ d ];
+		}
+
+		final RandomAccess< T > src = child.randomAccess();
+		final RandomAccess< T > dst = parent.randomAccess();
+		final IntervalIterator it = new IntervalIterator( min, max );
+		final long[] windowMin = new long[ nd ];
+		final long[] windowMax = new long[ nd ];
+		final boolean isInteger = type instanceof IntegerType;
+		final HashMap< Double, Integer > counts = new HashMap<>();
+		final HashMap< Long, Integer > integerCounts = new HashMap<>();
+		while ( it.hasNext() )
+		{
+			it.fwd();
+			for ( int d = 0; d < nd; d++ )
+			{
+				windowMin[ d ] = it.getLongPosition( d ) * f[ d ];
+				windowMax[ d ] = Math.min( child.max( d ), windowMin[ d ] + f[ d ] - 1 );
+			}
+
+			final IntervalIterator window = new IntervalIterator( windowMin, windowMax );
+			dst.setPosition( it );
+			final RealType< ? > out = ( RealType< ? > ) dst.get();
+			if ( method == DownsamplingMethod.MODE && isInteger )
+			{
+				integerCounts.clear();
+				long mode = 0;
+				int best = 0;
+				while ( window.hasNext() )
+				{
+					window.fwd();
+					src.setPosition( window );
+					final long v = ( ( IntegerType< ? > ) src.get() ).getIntegerLong();
+					final int c = integerCounts.merge( v, 1, Integer::sum );
+					if ( c > best )
+					{
+						best = c;
+						mode = v;
+					}
+				}
+				( ( IntegerType< ? > ) out ).setInteger( mode );
+			}
+			else if ( method == DownsamplingMethod.MODE )
+			{
+				counts.clear();
+				double mode = 0;
+				int best = 0;
+				while ( window.hasNext() )
+				{
+					window.fwd();
+					src.setPosition( window );
+					final double v = ( ( RealType< ? > ) src.get() ).getRealDouble();
+					final int c = counts.merge( v, 1, Integer::sum );
+					if ( c > best )
+					{
+						best = c;
+						mode = v;
+					}
+				}
+				out.setReal( mode );
+			}
+			else
+			{
+				double sum = 0;
+				long n = 0;
+				while ( window.hasNext() )
+				{
+					window.fwd();
+					src.setPosition( window );
+					sum += ( ( RealType< ? > ) src.get() ).getRealDouble();
+					n++;
+				}
+
+				final double avg = sum / n;
+				if ( isInteger )
+					out.setReal( Math.round( avg ) );
+				else
+					out.setReal( avg );
+			}
+		}
+	}
+
+	private static class PendingBlock< T extends NativeType< T > >
+	{
+		final RandomAccessibleInterval< T > data;
+
+		final AtomicInteger remaining;
+
+		PendingBlock( final RandomAccessibleInterval< T > data, final int numChildren )
+		{
+			this.data = data;
+			this.remaining = new AtomicInteger( numChildren );
+		}
+	}
+}
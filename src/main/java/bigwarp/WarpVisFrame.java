@@ -109,6 +109,10 @@ public class WarpVisFrame extends JDialog
 	final JSpinner toleranceSpinner;
 	final JSpinner maxIterSpinner;
 
+	// display
+	final JSpinner tpsApproxSpinner;
+	final JSpinner proxySpacingSpinner;
+
 	// bounding box
 	final JComboBox bboxMethodDropdown;
 	final JSpinner samplesPerDimSpinner;
@@ -293,9 +297,57 @@ public class WarpVisFrame extends JDialog
 		maxIterPanel.add( new JLabel( "Max iterations", SwingConstants.CENTER ), BorderLayout.WEST );
 		maxIterPanel.add( maxIterSpinner, BorderLayout.EAST );
 
+		final JPanel tpsApproxPanel = new JPanel();
+		tpsApproxSpinner = new JSpinner();
+		final SpinnerNumberModel approxmodel = new SpinnerNumberModel( 0.0, 0.0, 10.0, 0.05 );
+		tpsApproxSpinner.setModel( approxmodel );
+		tpsApproxSpinner.setToolTipText( "Error of the thin plate spline used for display (0 is exact). Exports are always exact." );
+		tpsApproxSpinner.addChangeListener( new ChangeListener()
+		{
+			@Override
+			public void stateChanged( ChangeEvent e )
+			{
+				bw.getBwTransform().setTpsApproximationError( (Double)tpsApproxSpinner.getValue() );
+				bw.restimateTransformation();
+			}
+		} );
+		tpsApproxPanel.add( new JLabel( "Display TPS error", SwingConstants.CENTER ), BorderLayout.WEST );
+		tpsApproxPanel.add( tpsApproxSpinner, BorderLayout.EAST );
+
 		inverseOptionsPanel.add( tolerancePanel, BorderLayout.NORTH );
 		inverseOptionsPanel.add( maxIterPanel, BorderLayout.SOUTH );
 
+		// display options
+		final JPanel displayOptionsPanel = new JPanel();
+		displayOptionsPanel.setLayout( new BorderLayout( 10, 10 ));
+
+		displayOptionsPanel.setBorder( BorderFactory.createCompoundBorder(
+				BorderFactory.createEmptyBorder( 4, 2, 4, 2 ),
+				BorderFactory.createCompoundBorder(
+						BorderFactory.createTitledBorder(
+								BorderFactory.createEtchedBorder(),
+								"Display options" ),
+						BorderFactory.createEmptyBorder( 2, 2, 2, 2 ) ) ) );
+
+		final JPanel proxyPanel = new JPanel();
+		proxySpacingSpinner = new JSpinner();
+		final SpinnerNumberModel proxymodel = new SpinnerNumberModel( 0.0, 0.0, 256.0, 1.0 );
+		proxySpacingSpinner.setModel( proxymodel );
+		proxySpacingSpinner.setToolTipText( "Grid spacing (in pixels) of the cached displacement field used for display (0 is off). Exports are always exact." );
+		proxySpacingSpinner.addChangeListener( new ChangeListener()
+		{
+			@Override
+			public void stateChanged( ChangeEvent e )
+			{
+				bw.setDisplacementProxySpacing( (Double)proxySpacingSpinner.getValue() );
+			}
+		} );
+		proxyPanel.add( new JLabel( "Displacement grid spacing", SwingConstants.CENTER ), BorderLayout.WEST );
+		proxyPanel.add( proxySpacingSpinner, BorderLayout.EAST );
+
+		displayOptionsPanel.add( tpsApproxPanel, BorderLayout.NORTH );
+		displayOptionsPanel.add( proxyPanel, BorderLayout.SOUTH );
+
 
 		// bounding box options
 		final JPanel bboxPanel = new JPanel();
@@ -402,19 +454,22 @@ public class WarpVisFrame extends JDialog
 		gbcContent.gridx = 0;
 		gbcContent.gridy = 5;
 		gbcContent.gridwidth = 3;
-		content.add( bboxPanel, gbcContent );
+		content.add( displayOptionsPanel, gbcContent );
 
 		gbcContent.gridy = 6;
-		content.add( maskOptionsPanel, gbcContent );
+		content.add( bboxPanel, gbcContent );
 
 		gbcContent.gridy = 7;
+		content.add( maskOptionsPanel, gbcContent );
+
+		gbcContent.gridy = 8;
 		final JPanel toggle2DPanel = new JPanel(new MigLayout("", "[grow][][grow]"));
 		final JCheckBox toggle2D = new JCheckBox("Is 2D");
 		toggle2DPanel.add(toggle2D, "cell 1 0");
 		toggle2D.addActionListener(e ->  bw.changeDimensionality(toggle2D.isSelected()) );
 		content.add(toggle2DPanel, gbcContent);
 
-		gbcContent.gridy = 8;
+		gbcContent.gridy = 9;
 		content.add( getAutoSaveOptionsPanel(), gbcContent );
 
 		setDefaultCloseOperation( WindowConstants.HIDE_ON_CLOSE );
@@ -0,0 +1,446 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bdv.img.WarpedSource;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.interpolation.InterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.ClampingNLinearInterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Renders blocks of warped moving sources for export.
+ * <p>
+ * For every block, the transform from output pixels to moving physical
+ * coordinates is evaluated on a coarse grid and interpolated trilinearly in
+ * between, after checking a few cell centers against the exact transform. The
+ * source region that the block needs is then copied into memory once and
+ * sampled from there.
+ * <p>
+ * Sources are sampled through their own interpolated view, such that their
+ * out-of-bounds values apply. Copied regions are taken from the
+ * nearest-neighbor view of the source and interpolated with the same
+ * (clamping) n-linear interpolation that BigDataViewer sources use.
+ * <p>
+ * All channels share a single evaluation of the transform, since all moving
+ * sources are warped by the same transform in BigWarp.
+ * <p>
+ * Instances are not thread safe, use {@link #copy()} for every thread.
+ *
+ * @param <T> the pixel type
+ */
+public class WarpedBlockRenderer< T extends NumericType< T > & NativeType< T > >
+{
+	public static final int DEFAULT_TRANSFORM_SPACING = 4;
+
+	public static final double DEFAULT_TOLERANCE = 0.1;
+
+	public static final long DEFAULT_MAX_PREFETCH_SIZE = 1 << 24;
+
+	private static final int NUM_CHECKS = 8;
+
+	private final List< RealRandomAccessible< T > > interpolated;
+
+	private final List< RandomAccessible< T > > rasters;
+
+	private final List< AffineTransform3D > physicalToSourcePixel;
+
+	private final RealTransform warp;
+
+	private final AffineTransform3D pixelToPhysical;
+
+	private final Interpolation interp;
+
+	private final T type;
+
+	private int spacing = DEFAULT_TRANSFORM_SPACING;
+
+	private double tolerance = DEFAULT_TOLERANCE;
+
+	private long maxPrefetchSize = DEFAULT_MAX_PREFETCH_SIZE;
+
+	private final double[] p = new double[ 3 ];
+
+	private final double[] q = new double[ 3 ];
+
+	private final double[] r = new double[ 3 ];
+
+	private final double[] physical = new double[ 3 ];
+
+	private double[] nodes = new double[ 0 ];
+
+	/**
+	 * @param sources the (possibly warped) moving sources, rendered at full
+	 *            resolution
+	 * @param pixelToPhysical the transform from output pixels to physical
+	 *            coordinates
+	 * @param interp the interpolation
+	 */
+	public WarpedBlockRenderer(
+			final List< ? extends Source< T > > sources,
+			final AffineTransform3D pixelToPhysical,
+			final Interpolation interp )
+	{
+		this.pixelToPhysical = pixelToPhysical;
+		this.interp = interp;
+		interpolated = new ArrayList<>();
+		rasters = new ArrayList<>();
+		physicalToSourcePixel = new ArrayList<>();
+
+		RealTransform warp = null;
+		for ( final Source< T > src : sources )
+		{
+			Source< T > inner = src;
+			if ( src instanceof WarpedSource )
+			{
+				final WarpedSource< T > ws = ( WarpedSource< T > ) src;
+				inner = ws.getWrappedSource();
+				if ( warp == null && ws.isTransformed() && ws.getTransform() != null )
+					warp = ws.getTransform().copy();
+			}
+
+			final AffineTransform3D srcXfm = new AffineTransform3D();
+			inner.getSourceTransform( 0, 0, srcXfm );
+			physicalToSourcePixel.add( srcXfm.inverse() );
+			interpolated.add( inner.getInterpolatedSource( 0, 0, interp ) );
+			rasters.add( Views.raster( inner.getInterpolatedSource( 0, 0, Interpolation.NEARESTNEIGHBOR ) ) );
+		}
+		this.warp = warp;
+		this.type = sources.get( 0 ).getType().createVariable();
+	}
+
+	private WarpedBlockRenderer( final WarpedBlockRenderer< T > other )
+	{
+		interpolated = other.interpolated;
+		rasters = other.rasters;
+		physicalToSourcePixel = new ArrayList<>();
+		for ( final AffineTransform3D a : other.physicalToSourcePixel )
+			physicalToSourcePixel.add( a.copy() );
+
+		warp = other.warp == null ? null : other.warp.copy();
+		pixelToPhysical = other.pixelToPhysical.copy();
+		interp = other.interp;
+		type = other.type.createVariable();
+		spacing = other.spacing;
+		tolerance = other.tolerance;
+		maxPrefetchSize = other.maxPrefetchSize;
+	}
+
+	public WarpedBlockRenderer< T > copy()
+	{
+		return new WarpedBlockRenderer<>( this );
+	}
+
+	public int numChannels()
+	{
+		return interpolated.size();
+	}
+
+	/**
+	 * Sets the spacing of the grid on which the transform is evaluated, in
+	 * output pixels. A spacing of one evaluates the transform at every pixel.
+	 *
+	 * @param spacing the spacing
+	 */
+	public void setTransformSpacing( final int spacing )
+	{
+		this.spacing = Math.max( 1, spacing );
+	}
+
+	/**
+	 * Sets the largest difference (in pixels of the first source) between the
+	 * interpolated and the exact transform that is accepted for a block.
+	 * Blocks where a cell center exceeds it are rendered with the exact
+	 * transform at every pixel.
+	 *
+	 * @param tolerance the tolerance
+	 */
+	public void setTolerance( final double tolerance )
+	{
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Sets the largest number of source pixels, summed over all channels,
+	 * copied into memory for a block. Blocks that need more are sampled
+	 * directly. Every thread renders with its own {@link #copy()}, so callers
+	 * that use several threads should divide the default between them.
+	 *
+	 * @param maxPrefetchSize the number of pixels
+	 */
+	public void setMaxPrefetchSize( final long maxPrefetchSize )
+	{
+		this.maxPrefetchSize = maxPrefetchSize;
+	}
+
+	/**
+	 * Renders one block of every channel.
+	 *
+	 * @param targets one target per channel, all with the interval of the
+	 *            block, 2D or 3D
+	 */
+	public void render( final List< ? extends RandomAccessibleInterval< T > > targets )
+	{
+		final Interval block = targets.get( 0 );
+		final int nd = block.numDimensions();
+		final long[] min = new long[ 3 ];
+		final long[] size = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			min[ d ] = d < nd ? block.min( d ) : 0;
+			size[ d ] = d < nd ? block.dimension( d ) : 1;
+		}
+
+		// the transform on the coarse grid, in moving physical coordinates
+		final int[] numNodes = new int[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			numNodes[ d ] = ( int ) ( ( size[ d ] - 1 + spacing - 1 ) / spacing ) + 1;
+
+		final int n = numNodes[ 0 ] * numNodes[ 1 ] * numNodes[ 2 ];
+		if ( spacing > 1 && nodes.length < 3 * n )
+			nodes = new double[ 3 * n ];
+
+		int i = 0;
+		for ( int z = 0; z < numNodes[ 2 ] && spacing > 1; z++ )
+			for ( int y = 0; y < numNodes[ 1 ]; y++ )
+				for ( int x = 0; x < numNodes[ 0 ]; x++ )
+				{
+					p[ 0 ] = min[ 0 ] + nodeOffset( x, size[ 0 ] );
+					p[ 1 ] = min[ 1 ] + nodeOffset( y, size[ 1 ] );
+					p[ 2 ] = min[ 2 ] + nodeOffset( z, size[ 2 ] );
+					toMoving( p, q );
+					System.arraycopy( q, 0, nodes, 3 * i++, 3 );
+				}
+
+		final boolean exact = spacing == 1 || !interpolationIsAccurate( min, size, numNodes );
+
+		// the source region every channel needs, if they fit together
+		final List< Interval > needed = new ArrayList<>();
+		long numNeeded = 0;
+		for ( int c = 0; c < interpolated.size() && !exact; c++ )
+		{
+			needed.add( sourceInterval( c, n ) );
+			numNeeded += Intervals.numElements( needed.get( c ) );
+		}
+
+		final boolean prefetch = !exact && numNeeded <= maxPrefetchSize;
+		final List< RealRandomAccess< T > > samplers = new ArrayList<>();
+		for ( int c = 0; c < interpolated.size(); c++ )
+			samplers.add( prefetch ? prefetched( c, needed.get( c ) ) : interpolated.get( c ).realRandomAccess() );
+
+		final List< RandomAccess< T > > outs = new ArrayList<>();
+		for ( final RandomAccessibleInterval< T > t : targets )
+			outs.add( t.randomAccess() );
+
+		final long[] pos = new long[ nd ];
+		for ( long z = 0; z < size[ 2 ]; z++ )
+			for ( long y = 0; y < size[ 1 ]; y++ )
+				for ( long x = 0; x < size[ 0 ]; x++ )
+				{
+					if ( exact )
+					{
+						p[ 0 ] = min[ 0 ] + x;
+						p[ 1 ] = min[ 1 ] + y;
+						p[ 2 ] = min[ 2 ] + z;
+						toMoving( p, q );
+					}
+					else
+						interpolate( x, y, z, size, numNodes, q );
+
+					pos[ 0 ] = min[ 0 ] + x;
+					pos[ 1 ] = min[ 1 ] + y;
+					if ( nd > 2 )
+						pos[ 2 ] = min[ 2 ] + z;
+
+					for ( int c = 0; c < outs.size(); c++ )
+					{
+						physicalToSourcePixel.get( c ).apply( q, r );
+						final RealRandomAccess< T > s = samplers.get( c );
+						s.setPosition( r );
+						final RandomAccess< T > o = outs.get( c );
+						o.setPosition( pos );
+						o.get().set( s.get() );
+					}
+				}
+	}
+
+	private long nodeOffset( final int node, final long size )
+	{
+		return Math.min( ( long ) node * spacing, size - 1 );
+	}
+
+	private void toMoving( final double[] pixel, final double[] moving )
+	{
+		if ( warp == null )
+			pixelToPhysical.apply( pixel, moving );
+		else
+		{
+			pixelToPhysical.apply( pixel, physical );
+			warp.apply( physical, moving );
+		}
+	}
+
+	/**
+	 * Trilinear interpolation of the coarse grid.
+	 */
+	private void interpolate( final long x, final long y, final long z, final long[] size, final int[] numNodes, final double[] out )
+	{
+		final int x0 = ( int ) Math.min( x / spacing, numNodes[ 0 ] - 2 < 0 ? 0 : numNodes[ 0 ] - 2 );
+		final int y0 = ( int ) Math.min( y / spacing, numNodes[ 1 ] - 2 < 0 ? 0 : numNodes[ 1 ] - 2 );
+		final int z0 = ( int ) Math.min( z / spacing, numNodes[ 2 ] - 2 < 0 ? 0 : numNodes[ 2 ] - 2 );
+		final double wx = weight( x, x0, size[ 0 ], numNodes[ 0 ] );
+		final double wy = weight( y, y0, size[ 1 ], numNodes[ 1 ] );
+		final double wz = weight( z, z0, size[ 2 ], numNodes[ 2 ] );
+		final int x1 = Math.min( x0 + 1, numNodes[ 0 ] - 1 );
+		final int y1 = Math.min( y0 + 1, numNodes[ 1 ] - 1 );
+		final int z1 = Math.min( z0 + 1, numNodes[ 2 ] - 1 );
+
+		final int sy = numNodes[ 0 ];
+		final int sz = numNodes[ 0 ] * numNodes[ 1 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			final double c00 = lerp( nodes[ 3 * ( x0 + y0 * sy + z0 * sz ) + d ], nodes[ 3 * ( x1 + y0 * sy + z0 * sz ) + d ], wx );
+			final double c10 = lerp( nodes[ 3 * ( x0 + y1 * sy + z0 * sz ) + d ], nodes[ 3 * ( x1 + y1 * sy + z0 * sz ) + d ], wx );
+			final double c01 = lerp( nodes[ 3 * ( x0 + y0 * sy + z1 * sz ) + d ], nodes[ 3 * ( x1 + y0 * sy + z1 * sz ) + d ], wx );
+			final double c11 = lerp( nodes[ 3 * ( x0 + y1 * sy + z1 * sz ) + d ], nodes[ 3 * ( x1 + y1 * sy + z1 * sz ) + d ], wx );
+			out[ d ] = lerp( lerp( c00, c10, wy ), lerp( c01, c11, wy ), wz );
+		}
+	}
+
+	private double weight( final long x, final int node, final long size, final int numNodes )
+	{
+		if ( numNodes < 2 )
+			return 0;
+
+		final long a = nodeOffset( node, size );
+		final long b = nodeOffset( node + 1, size );
+		return ( double ) ( x - a ) / ( b - a );
+	}
+
+	private static double lerp( final double a, final double b, final double w )
+	{
+		return a + w * ( b - a );
+	}
+
+	/**
+	 * Compares the interpolated transform with the exact one at the centers
+	 * of a few cells, in pixels of the first source.
+	 */
+	private boolean interpolationIsAccurate( final long[] min, final long[] size, final int[] numNodes )
+	{
+		final int numCells = Math.max( 1, numNodes[ 0 ] - 1 ) * Math.max( 1, numNodes[ 1 ] - 1 ) * Math.max( 1, numNodes[ 2 ] - 1 );
+		final int step = Math.max( 1, numCells / NUM_CHECKS );
+		final AffineTransform3D toSource = physicalToSourcePixel.get( 0 );
+		final double[] exact = new double[ 3 ];
+		final double[] approx = new double[ 3 ];
+		final long[] offset = new long[ 3 ];
+		for ( int cell = step / 2; cell < numCells; cell += step )
+		{
+			int rem = cell;
+			for ( int d = 0; d < 3; d++ )
+			{
+				final int nc = Math.max( 1, numNodes[ d ] - 1 );
+				final int ci = rem % nc;
+				rem /= nc;
+				offset[ d ] = ( nodeOffset( ci, size[ d ] ) + nodeOffset( ci + 1, size[ d ] ) ) / 2;
+				p[ d ] = min[ d ] + offset[ d ];
+			}
+
+			toMoving( p, q );
+			toSource.apply( q, exact );
+			interpolate( offset[ 0 ], offset[ 1 ], offset[ 2 ], size, numNodes, q );
+			toSource.apply( q, approx );
+			for ( int d = 0; d < 3; d++ )
+				if ( Math.abs( exact[ d ] - approx[ d ] ) > tolerance )
+					return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The source pixels a block needs: trilinear interpolation stays in the
+	 * bounding box of the grid nodes.
+	 */
+	private Interval sourceInterval( final int channel, final int numNodes )
+	{
+		final int nd = interpolated.get( channel ).numDimensions();
+		final double[] smin = new double[ nd ];
+		final double[] smax = new double[ nd ];
+		Arrays.fill( smin, Double.MAX_VALUE );
+		Arrays.fill( smax, -Double.MAX_VALUE );
+		final AffineTransform3D toSource = physicalToSourcePixel.get( channel );
+		for ( int i = 0; i < numNodes; i++ )
+		{
+			System.arraycopy( nodes, 3 * i, q, 0, 3 );
+			toSource.apply( q, r );
+			for ( int d = 0; d < nd; d++ )
+			{
+				smin[ d ] = Math.min( smin[ d ], r[ d ] );
+				smax[ d ] = Math.max( smax[ d ], r[ d ] );
+			}
+		}
+
+		final long[] min = new long[ nd ];
+		final long[] max = new long[ nd ];
+		for ( int d = 0; d < nd; d++ )
+		{
+			min[ d ] = ( long ) Math.floor( smin[ d ] );
+			max[ d ] = ( long ) Math.floor( smax[ d ] ) + 1;
+		}
+		return new FinalInterval( min, max );
+	}
+
+	private RealRandomAccess< T > prefetched( final int channel, final Interval needed )
+	{
+		final InterpolatorFactory< T, RandomAccessible< T > > factory;
+		if ( interp == Interpolation.NEARESTNEIGHBOR )
+			factory = new NearestNeighborInterpolatorFactory<>();
+		else
+			factory = new ClampingNLinearInterpolatorFactory<>();
+
+		final RandomAccessibleInterval< T > buffer = Views.translate(
+				new ArrayImgFactory<>( type ).create( needed ),
+				needed.minAsLongArray() );
+		LoopBuilder.setImages( Views.interval( rasters.get( channel ), needed ), buffer ).forEachPixel( ( s, t ) -> t.set( s ) );
+		return Views.interpolate( Views.extendBorder( buffer ), factory ).realRandomAccess();
+	}
+}
@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A growable array of doubles stored in fixed size chunks that can be
+ * shared with immutable snapshots.
+ * <p>
+ * {@link #freeze()} hands out the current chunks and marks all of them as
+ * shared. The next write to a shared chunk copies it first, so the frozen
+ * chunks are never modified and freezing costs one reference per chunk
+ * instead of a copy of the whole array.
+ * <p>
+ * This class is not thread safe, but frozen chunks may be read by any
+ * thread.
+ */
+final class ChunkedDoubleArray implements Serializable
+{
+	private static final long serialVersionUID = -1722040617786305414L;
+
+	static final int CHUNK_BITS = 10;
+
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private double[][] chunks;
+
+	// true if the chunk was handed out by freeze and must be copied before writing
+	private boolean[] shared;
+
+	ChunkedDoubleArray( final int capacity )
+	{
+		final int n = numChunks( Math.max( 1, capacity ) );
+		chunks = new double[ n ][];
+		shared = new boolean[ n ];
+		for ( int c = 0; c < n; c++ )
+			chunks[ c ] = new double[ CHUNK_SIZE ];
+	}
+
+	static int numChunks( final int size )
+	{
+		return ( size + CHUNK_MASK ) >> CHUNK_BITS;
+	}
+
+	static double get( final double[][] chunks, final int i )
+	{
+		return chunks[ i >> CHUNK_BITS ][ i & CHUNK_MASK ];
+	}
+
+	/**
+	 * Copies n values of frozen chunks starting at index from into dest.
+	 *
+	 * @param chunks the chunks
+	 * @param from the first index
+	 * @param dest the destination
+	 * @param destPos the first index in the destination
+	 * @param n the number of values
+	 */
+	static void copy( final double[][] chunks, int from, final double[] dest, int destPos, int n )
+	{
+		while ( n > 0 )
+		{
+			final int offset = from & CHUNK_MASK;
+			final int m = Math.min( n, CHUNK_SIZE - offset );
+			System.arraycopy( chunks[ from >> CHUNK_BITS ], offset, dest, destPos, m );
+			from += m;
+			destPos += m;
+			n -= m;
+		}
+	}
+
+	double get( final int i )
+	{
+		return chunks[ i >> CHUNK_BITS ][ i & CHUNK_MASK ];
+	}
+
+	void set( final int i, final double value )
+	{
+		final int c = i >> CHUNK_BITS;
+		if ( shared[ c ] )
+		{
+			chunks[ c ] = chunks[ c ].clone();
+			shared[ c ] = false;
+		}
+		chunks[ c ][ i & CHUNK_MASK ] = value;
+	}
+
+	void ensureCapacity( final int capacity )
+	{
+		final int n = numChunks( capacity );
+		final int m = chunks.length;
+		if ( n <= m )
+			return;
+
+		final int newLength = Math.max( n, m + ( m >> 1 ) );
+		chunks = Arrays.copyOf( chunks, newLength );
+		shared = Arrays.copyOf( shared, newLength );
+		for ( int c = m; c < newLength; c++ )
+			chunks[ c ] = new double[ CHUNK_SIZE ];
+	}
+
+	/**
+	 * Inserts a value at an index, moving the values at index and after, up
+	 * to size, by one. Capacity for size + 1 values must be ensured first.
+	 *
+	 * @param index the index
+	 * @param size the number of used values
+	 * @param value the value
+	 */
+	void insert( final int index, final int size, final double value )
+	{
+		for ( int i = size; i > index; i-- )
+			set( i, get( i - 1 ) );
+
+		set( index, value );
+	}
+
+	/**
+	 * Removes the value at an index, moving the values after it, up to size,
+	 * by one.
+	 *
+	 * @param index the index
+	 * @param size the number of used values
+	 */
+	void remove( final int index, final int size )
+	{
+		for ( int i = index + 1; i < size; i++ )
+			set( i - 1, get( i ) );
+	}
+
+	/**
+	 * Returns the current chunks. They will not be modified by later writes
+	 * to this array.
+	 *
+	 * @return the chunks
+	 */
+	double[][] freeze()
+	{
+		Arrays.fill( shared, true );
+		return chunks.clone();
+	}
+}
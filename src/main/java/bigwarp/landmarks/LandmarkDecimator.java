@@ -0,0 +1,745 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JDialog;
+import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
+
+import bigwarp.BigWarp;
+import bigwarp.transforms.BigWarpTransform;
+import ij.IJ;
+import ij.gui.GenericDialog;
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+
+/**
+ * Selects a subset of landmarks whose thin plate spline stays within a
+ * given distance of the thin plate spline of all landmarks.
+ * <p>
+ * Solving a thin plate spline costs O(n^3) and evaluating it O(n) for n
+ * landmarks, so dense automatically generated correspondences are slow (see
+ * {@link LandmarkGridGenerator#NUM_LANDMARKS_FOR_WARNING}). The full spline
+ * interpolates every landmark, so its value at a landmark is the moving
+ * point of that landmark and the error of a subset can be measured at all
+ * landmarks without solving the full spline. Between the landmarks the
+ * splines may still differ, so the error is also measured on a grid over
+ * the bounding box of the target points, against the full spline, or the
+ * spline of {@link #setMaxReferenceSize(int) maxReferenceSize} landmarks
+ * spread over the target space if there are more. The error of that spline
+ * at the landmarks is then added to the maximum error on the grid.
+ * <p>
+ * Landmarks are selected greedily. Starting from a few landmarks spread over
+ * the target space, the spline of the selection is solved, and the
+ * landmarks with the largest errors are added, a fraction of the selection
+ * at a time, until no error exceeds the maximum. Where only the grid exceeds
+ * it, the landmarks closest to the worst grid points are added. Points are
+ * in the layout
+ * of the transform solvers, {@code points[ d ][ i ]}, and the spline maps
+ * target to moving points as in {@link BigWarpTransform}.
+ */
+public class LandmarkDecimator
+{
+	public static final int DEFAULT_INITIAL_SIZE = 16;
+
+	public static final double DEFAULT_GROWTH = 0.25;
+
+	/**
+	 * Larger sets are not solved to measure the speedup, it is estimated,
+	 * and the grid is compared to the spline of a subset of this size.
+	 */
+	public static final int DEFAULT_MAX_REFERENCE_SIZE = 2000;
+
+	public static final int DEFAULT_NUM_GRID_POINTS = 4096;
+
+	private final double[][] movingPts;
+
+	private final double[][] targetPts;
+
+	private final int nd;
+
+	private final int n;
+
+	private int initialSize = DEFAULT_INITIAL_SIZE;
+
+	private double growth = DEFAULT_GROWTH;
+
+	private int maxReferenceSize = DEFAULT_MAX_REFERENCE_SIZE;
+
+	private int numGridPoints = DEFAULT_NUM_GRID_POINTS;
+
+	/**
+	 * @param movingPts the moving points, ndims x n
+	 * @param targetPts the target points, ndims x n
+	 */
+	public LandmarkDecimator( final double[][] movingPts, final double[][] targetPts )
+	{
+		this.movingPts = movingPts;
+		this.targetPts = targetPts;
+		nd = targetPts.length;
+		n = nd > 0 ? targetPts[ 0 ].length : 0;
+	}
+
+	public LandmarkDecimator( final LandmarkSnapshot landmarks )
+	{
+		this( landmarks.getMovingPoints(), landmarks.getTargetPoints() );
+	}
+
+	/**
+	 * @param initialSize the number of landmarks the first spline is solved
+	 *            for, at least ndims + 2
+	 */
+	public void setInitialSize( final int initialSize )
+	{
+		this.initialSize = initialSize;
+	}
+
+	/**
+	 * @param growth the fraction of the selection that is added per round
+	 */
+	public void setGrowth( final double growth )
+	{
+		this.growth = growth;
+	}
+
+	/**
+	 * @param maxReferenceSize the largest number of landmarks for which the
+	 *            full spline is solved to measure the speedup and the error
+	 *            on the grid
+	 */
+	public void setMaxReferenceSize( final int maxReferenceSize )
+	{
+		this.maxReferenceSize = maxReferenceSize;
+	}
+
+	/**
+	 * @param numGridPoints the approximate number of points of the grid
+	 *            over the bounding box of the target points at which the
+	 *            error is measured, in addition to the landmarks
+	 */
+	public void setNumGridPoints( final int numGridPoints )
+	{
+		this.numGridPoints = numGridPoints;
+	}
+
+	/**
+	 * Selects landmarks such that the spline of the selection maps every
+	 * target point to within maxError of its moving point, and every grid
+	 * point to within maxError of the reference spline.
+	 * <p>
+	 * Checks for interruption between solves, so that it can be cancelled
+	 * when run in the background.
+	 *
+	 * @param maxError the maximum displacement error
+	 * @return the selection and its errors, or null if the thread was
+	 *         interrupted
+	 */
+	public Result decimate( final double maxError )
+	{
+		final boolean[] selected = new boolean[ n ];
+		final double[] errors = new double[ n ];
+		final int minSize = nd + 2;
+		if ( n <= minSize )
+		{
+			Arrays.fill( selected, true );
+			return new Result( selected, errors, 0, 0, 0, 0, 0, 0, false, 0, n, 0 );
+		}
+
+		// the spline the grid is compared to
+		final boolean estimated = n > maxReferenceSize;
+		final boolean[] reference = new boolean[ n ];
+		final int referenceSize;
+		if ( estimated )
+			referenceSize = spreadOut( maxReferenceSize, reference );
+		else
+		{
+			Arrays.fill( reference, true );
+			referenceSize = n;
+		}
+
+		long t = System.nanoTime();
+		final ThinPlateR2LogRSplineKernelTransform referenceTps = solve( reference, referenceSize );
+		final long referenceSolveTime = System.nanoTime() - t;
+
+		t = System.nanoTime();
+		final double referenceError = errors( referenceTps, new double[ n ] );
+		final long referenceEvalTime = System.nanoTime() - t;
+
+		// a subset is only as close to the full spline as it is at the landmarks
+		final double gridTolerance = maxError + referenceError;
+
+		final double[][] grid = grid();
+		final double[][] expected = apply( referenceTps, grid );
+		final double[] gridErrors = new double[ grid.length ];
+
+		int m = spreadOut( Math.min( n, Math.max( minSize, initialSize ) ), selected );
+		int numSolves = 0;
+		long solveTime;
+		long evalTime;
+		double gridError;
+		while ( true )
+		{
+			if ( Thread.currentThread().isInterrupted() )
+				return null;
+
+			t = System.nanoTime();
+			final ThinPlateR2LogRSplineKernelTransform tps = solve( selected, m );
+			solveTime = System.nanoTime() - t;
+			numSolves++;
+
+			t = System.nanoTime();
+			final double max = errors( tps, errors );
+			evalTime = System.nanoTime() - t;
+
+			gridError = gridErrors( tps, grid, expected, gridErrors );
+			if ( m == n || ( max <= maxError && gridError <= gridTolerance ) )
+				break;
+
+			final int k = Math.max( 1, ( int ) Math.ceil( growth * m ) );
+			final int added = max > maxError
+					? addWorst( selected, errors, maxError, k )
+					: addClosest( selected, grid, gridErrors, gridTolerance, k );
+			if ( added == 0 )
+				break;
+
+			m += added;
+		}
+
+		// the speedup of the full spline over the selection
+		final long fullSolveTime;
+		final long fullEvalTime;
+		if ( estimated )
+		{
+			final double r = ( double ) n / m;
+			fullSolveTime = ( long ) ( solveTime * r * r * r );
+			fullEvalTime = ( long ) ( evalTime * r );
+		}
+		else
+		{
+			fullSolveTime = referenceSolveTime;
+			fullEvalTime = referenceEvalTime;
+		}
+
+		return new Result( selected, errors, numSolves, solveTime, evalTime, fullSolveTime, fullEvalTime, m, estimated,
+				gridError, referenceSize, referenceError );
+	}
+
+	/**
+	 * Selects landmarks by farthest point sampling of the target points.
+	 *
+	 * @return the number of selected landmarks
+	 */
+	private int spreadOut( final int k, final boolean[] selected )
+	{
+		final double[] dist = new double[ n ];
+		Arrays.fill( dist, Double.POSITIVE_INFINITY );
+		int next = 0;
+		for ( int s = 0; s < k; s++ )
+		{
+			selected[ next ] = true;
+			int farthest = -1;
+			for ( int i = 0; i < n; i++ )
+			{
+				if ( selected[ i ] )
+					continue;
+
+				double d2 = 0;
+				for ( int d = 0; d < nd; d++ )
+				{
+					final double v = targetPts[ d ][ i ] - targetPts[ d ][ next ];
+					d2 += v * v;
+				}
+				dist[ i ] = Math.min( dist[ i ], d2 );
+				if ( farthest < 0 || dist[ i ] > dist[ farthest ] )
+					farthest = i;
+			}
+			if ( farthest < 0 )
+				return s + 1;
+
+			next = farthest;
+		}
+		return k;
+	}
+
+	private ThinPlateR2LogRSplineKernelTransform solve( final boolean[] selected, final int m )
+	{
+		final double[][] src = new double[ nd ][ m ];
+		final double[][] tgt = new double[ nd ][ m ];
+		int j = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			if ( !selected[ i ] )
+				continue;
+
+			for ( int d = 0; d < nd; d++ )
+			{
+				src[ d ][ j ] = targetPts[ d ][ i ];
+				tgt[ d ][ j ] = movingPts[ d ][ i ];
+			}
+			j++;
+		}
+		return new ThinPlateR2LogRSplineKernelTransform( nd, src, tgt );
+	}
+
+	/**
+	 * @return the largest error
+	 */
+	private double errors( final ThinPlateR2LogRSplineKernelTransform tps, final double[] errors )
+	{
+		final double[] x = new double[ nd ];
+		final double[] y = new double[ nd ];
+		double max = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int d = 0; d < nd; d++ )
+				x[ d ] = targetPts[ d ][ i ];
+
+			tps.apply( x, y );
+			double e2 = 0;
+			for ( int d = 0; d < nd; d++ )
+			{
+				final double v = y[ d ] - movingPts[ d ][ i ];
+				e2 += v * v;
+			}
+			errors[ i ] = Math.sqrt( e2 );
+			max = Math.max( max, errors[ i ] );
+		}
+		return max;
+	}
+
+	/**
+	 * @return a grid over the bounding box of the target points,
+	 *         {@code grid[ i ][ d ]}
+	 */
+	private double[][] grid()
+	{
+		final double[] min = new double[ nd ];
+		final double[] max = new double[ nd ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+		for ( int d = 0; d < nd; d++ )
+			for ( int i = 0; i < n; i++ )
+			{
+				min[ d ] = Math.min( min[ d ], targetPts[ d ][ i ] );
+				max[ d ] = Math.max( max[ d ], targetPts[ d ][ i ] );
+			}
+
+		final int k = Math.max( 2, ( int ) Math.floor( Math.pow( numGridPoints, 1.0 / nd ) ) );
+		int size = 1;
+		for ( int d = 0; d < nd; d++ )
+			size *= k;
+
+		final double[][] grid = new double[ size ][ nd ];
+		for ( int i = 0; i < size; i++ )
+		{
+			int j = i;
+			for ( int d = 0; d < nd; d++ )
+			{
+				grid[ i ][ d ] = min[ d ] + ( max[ d ] - min[ d ] ) * ( j % k ) / ( k - 1 );
+				j /= k;
+			}
+		}
+		return grid;
+	}
+
+	private double[][] apply( final ThinPlateR2LogRSplineKernelTransform tps, final double[][] points )
+	{
+		final double[][] result = new double[ points.length ][ nd ];
+		for ( int i = 0; i < points.length; i++ )
+			tps.apply( points[ i ], result[ i ] );
+
+		return result;
+	}
+
+	/**
+	 * @return the largest distance between the spline and the reference at
+	 *         the grid points
+	 */
+	private double gridErrors( final ThinPlateR2LogRSplineKernelTransform tps, final double[][] grid,
+			final double[][] expected, final double[] errors )
+	{
+		final double[] y = new double[ nd ];
+		double max = 0;
+		for ( int i = 0; i < grid.length; i++ )
+		{
+			tps.apply( grid[ i ], y );
+			double e2 = 0;
+			for ( int d = 0; d < nd; d++ )
+			{
+				final double v = y[ d ] - expected[ i ][ d ];
+				e2 += v * v;
+			}
+			errors[ i ] = Math.sqrt( e2 );
+			max = Math.max( max, errors[ i ] );
+		}
+		return max;
+	}
+
+	/**
+	 * Adds the unselected landmarks closest to the grid points with the
+	 * largest errors above maxError.
+	 *
+	 * @return the number of added landmarks
+	 */
+	private int addClosest( final boolean[] selected, final double[][] grid, final double[] gridErrors,
+			final double maxError, final int k )
+	{
+		final List< Integer > candidates = new ArrayList<>();
+		for ( int i = 0; i < grid.length; i++ )
+			if ( gridErrors[ i ] > maxError )
+				candidates.add( i );
+
+		candidates.sort( ( a, b ) -> Double.compare( gridErrors[ b ], gridErrors[ a ] ) );
+		int added = 0;
+		for ( int j = 0; j < candidates.size() && added < k; j++ )
+		{
+			final double[] x = grid[ candidates.get( j ) ];
+			int closest = -1;
+			double closestDistance = Double.POSITIVE_INFINITY;
+			for ( int i = 0; i < n; i++ )
+			{
+				if ( selected[ i ] )
+					continue;
+
+				double d2 = 0;
+				for ( int d = 0; d < nd; d++ )
+				{
+					final double v = targetPts[ d ][ i ] - x[ d ];
+					d2 += v * v;
+				}
+				if ( d2 < closestDistance )
+				{
+					closest = i;
+					closestDistance = d2;
+				}
+			}
+			if ( closest < 0 )
+				break;
+
+			selected[ closest ] = true;
+			added++;
+		}
+		return added;
+	}
+
+	/**
+	 * Adds the unselected landmarks with the largest errors above maxError.
+	 *
+	 * @return the number of added landmarks
+	 */
+	private int addWorst( final boolean[] selected, final double[] errors, final double maxError, final int k )
+	{
+		final List< Integer > candidates = new ArrayList<>();
+		for ( int i = 0; i < n; i++ )
+			if ( !selected[ i ] && errors[ i ] > maxError )
+				candidates.add( i );
+
+		candidates.sort( ( a, b ) -> Double.compare( errors[ b ], errors[ a ] ) );
+		final int added = Math.min( k, candidates.size() );
+		for ( int j = 0; j < added; j++ )
+			selected[ candidates.get( j ) ] = true;
+
+		return added;
+	}
+
+	/**
+	 * The landmarks selected by {@link LandmarkDecimator#decimate(double)},
+	 * the errors of their spline at the landmarks and on the grid, and the
+	 * time it takes to solve and evaluate it compared to the spline of all
+	 * landmarks.
+	 */
+	public static class Result
+	{
+		private final boolean[] selected;
+
+		private final double[] errors;
+
+		private final int numSolves;
+
+		private final long solveTime;
+
+		private final long evalTime;
+
+		private final long fullSolveTime;
+
+		private final long fullEvalTime;
+
+		private final int numSelected;
+
+		private final boolean estimated;
+
+		private final double maxGridError;
+
+		private final int referenceSize;
+
+		private final double referenceError;
+
+		private Result( final boolean[] selected, final double[] errors, final int numSolves,
+				final long solveTime, final long evalTime, final long fullSolveTime, final long fullEvalTime,
+				final int numSelected, final boolean estimated, final double maxGridError, final int referenceSize,
+				final double referenceError )
+		{
+			this.selected = selected;
+			this.errors = errors;
+			this.numSolves = numSolves;
+			this.solveTime = solveTime;
+			this.evalTime = evalTime;
+			this.fullSolveTime = fullSolveTime;
+			this.fullEvalTime = fullEvalTime;
+			this.numSelected = numSelected == 0 ? selected.length : numSelected;
+			this.estimated = estimated;
+			this.maxGridError = maxGridError;
+			this.referenceSize = referenceSize;
+			this.referenceError = referenceError;
+		}
+
+		public boolean isSelected( final int i )
+		{
+			return selected[ i ];
+		}
+
+		/**
+		 * @return the indexes of the selected landmarks, in increasing order
+		 */
+		public int[] getSelected()
+		{
+			final int[] indexes = new int[ numSelected ];
+			int j = 0;
+			for ( int i = 0; i < selected.length; i++ )
+				if ( selected[ i ] )
+					indexes[ j++ ] = i;
+
+			return indexes;
+		}
+
+		public int numLandmarks()
+		{
+			return selected.length;
+		}
+
+		public int numSelected()
+		{
+			return numSelected;
+		}
+
+		/**
+		 * @param i the landmark
+		 * @return the distance between the moving point of the landmark and
+		 *         its target point transformed by the spline of the selection
+		 */
+		public double getError( final int i )
+		{
+			return errors[ i ];
+		}
+
+		public double getMaxError()
+		{
+			double max = 0;
+			for ( final double e : errors )
+				max = Math.max( max, e );
+
+			return max;
+		}
+
+		public double getRmsError()
+		{
+			double sum = 0;
+			for ( final double e : errors )
+				sum += e * e;
+
+			return errors.length == 0 ? 0 : Math.sqrt( sum / errors.length );
+		}
+
+		/**
+		 * @return the largest distance between the spline of the selection
+		 *         and the reference spline on the grid over the target points
+		 */
+		public double getMaxGridError()
+		{
+			return maxGridError;
+		}
+
+		/**
+		 * @return the number of landmarks of the reference spline, all
+		 *         landmarks unless there are more than maxReferenceSize
+		 */
+		public int getReferenceSize()
+		{
+			return referenceSize;
+		}
+
+		/**
+		 * @return the largest error of the reference spline at the
+		 *         landmarks, zero up to rounding if it is the full spline
+		 */
+		public double getReferenceError()
+		{
+			return referenceError;
+		}
+
+		public int getNumSolves()
+		{
+			return numSolves;
+		}
+
+		/**
+		 * @return the ratio of the times to solve the full spline and the
+		 *         spline of the selection
+		 */
+		public double getSolveSpeedup()
+		{
+			return solveTime == 0 ? 1 : ( double ) fullSolveTime / solveTime;
+		}
+
+		/**
+		 * @return the ratio of the times to evaluate the full spline and the
+		 *         spline of the selection
+		 */
+		public double getEvaluationSpeedup()
+		{
+			return evalTime == 0 ? 1 : ( double ) fullEvalTime / evalTime;
+		}
+
+		/**
+		 * @return true if the speedups were extrapolated from the selection
+		 *         with the O(n^3) cost of solving and the O(n) cost of
+		 *         evaluating, rather than measured
+		 */
+		public boolean isSpeedupEstimated()
+		{
+			return estimated;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "selected %d of %d landmarks in %d solves, max error %.4g, rms error %.4g, "
+					+ "max grid error %.4g against %d landmarks%s, solve %.1fx and evaluation %.1fx faster%s",
+					numSelected, selected.length, numSolves, getMaxError(), getRmsError(),
+					maxGridError, referenceSize, estimated ? String.format( " off by %.4g", referenceError ) : "",
+					getSolveSpeedup(), getEvaluationSpeedup(), estimated ? " (estimated)" : "" );
+		}
+	}
+
+	/**
+	 * Deactivates the active landmarks of a table that were not selected.
+	 *
+	 * @param ltm the table
+	 * @param landmarks the active landmarks the selection was made for
+	 * @param result the selection
+	 * @return the number of deactivated landmarks
+	 */
+	public static int deactivateUnselected( final LandmarkTableModel ltm, final LandmarkSnapshot landmarks, final Result result )
+	{
+		final int[] rows = new int[ landmarks.size() - result.numSelected() ];
+		int j = 0;
+		for ( int i = 0; i < landmarks.size(); i++ )
+			if ( !result.isSelected( i ) )
+				rows[ j++ ] = landmarks.getRow( i );
+
+		ltm.setIsActive( rows, false );
+		return rows.length;
+	}
+
+	/**
+	 * Asks for the maximum error, simplifies the active landmarks in the
+	 * background, and asks to deactivate the landmarks that were not
+	 * selected when done. Call on the event dispatch thread. The
+	 * simplification can be cancelled while it runs.
+	 *
+	 * @param bw the bigwarp instance
+	 */
+	public static void decimateFromDialog( final BigWarp< ? > bw )
+	{
+		if ( !BigWarpTransform.TPS.equals( bw.getBwTransform().getTransformType() ) )
+		{
+			IJ.showMessage( "Simplify landmarks", "Simplifying landmarks needs a thin plate spline transform." );
+			return;
+		}
+
+		final LandmarkTableModel ltm = bw.getLandmarkPanel().getTableModel();
+		final LandmarkSnapshot landmarks = ltm.snapshot();
+
+		final GenericDialog gd = new GenericDialog( "Simplify landmarks" );
+		gd.addMessage( "Deactivate landmarks that the transform does not need\nto stay within the maximum error of the "
+				+ landmarks.size() + " active landmarks,\nat the landmarks and on a grid over their bounding box." );
+		gd.addNumericField( "max error", 1.0, 4 );
+		gd.showDialog();
+
+		if ( gd.wasCanceled() )
+			return;
+
+		final double maxError = gd.getNextNumber();
+		final JOptionPane pane = new JOptionPane( "Simplifying " + landmarks.size() + " landmarks...",
+				JOptionPane.INFORMATION_MESSAGE, JOptionPane.DEFAULT_OPTION, null, new Object[] { "Cancel" } );
+		final JDialog progress = pane.createDialog( bw.getLandmarkFrame(), "Simplify landmarks" );
+		progress.setModal( false );
+
+		final SwingWorker< Result, Void > worker = new SwingWorker< Result, Void >()
+		{
+			@Override
+			protected Result doInBackground()
+			{
+				return new LandmarkDecimator( landmarks ).decimate( maxError );
+			}
+
+			@Override
+			protected void done()
+			{
+				progress.dispose();
+				if ( isCancelled() )
+					return;
+
+				final Result result;
+				try
+				{
+					result = get();
+				}
+				catch ( final InterruptedException | ExecutionException e )
+				{
+					IJ.error( "Simplify landmarks", "Simplifying landmarks failed: " + e.getMessage() );
+					return;
+				}
+
+				if ( result == null )
+					return;
+
+				final GenericDialog confirm = new GenericDialog( "Simplify landmarks" );
+				confirm.addMessage( result.toString().replace( ", ", ",\n" ) );
+				confirm.addMessage( "Deactivate " + ( result.numLandmarks() - result.numSelected() ) + " landmarks?" );
+				confirm.showDialog();
+
+				if ( !confirm.wasCanceled() )
+					deactivateUnselected( ltm, landmarks, result );
+			}
+		};
+
+		// pressing cancel or closing the dialog sets the value
+		pane.addPropertyChangeListener( JOptionPane.VALUE_PROPERTY, e -> worker.cancel( true ) );
+		worker.execute();
+		progress.setVisible( true );
+	}
+}
@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+/**
+ * An immutable view of the active landmarks of a {@link LandmarkStore} at
+ * some point in time.
+ * <p>
+ * Points are stored in the layout the transform solvers expect,
+ * {@code points[ d ][ i ]} is the d-th coordinate of the i-th active
+ * landmark. The arrays are shared between everyone holding the snapshot and
+ * are never written to by the store, so they must not be modified.
+ */
+public final class LandmarkSnapshot
+{
+	private final int ndims;
+
+	private final double[][] movingPts;
+
+	private final double[][] targetPts;
+
+	private final int[] rows;
+
+	private final long version;
+
+	LandmarkSnapshot( final int ndims, final double[][] movingPts, final double[][] targetPts, final int[] rows, final long version )
+	{
+		this.ndims = ndims;
+		this.movingPts = movingPts;
+		this.targetPts = targetPts;
+		this.rows = rows;
+		this.version = version;
+	}
+
+	public int numDimensions()
+	{
+		return ndims;
+	}
+
+	/**
+	 * @return the number of active landmarks
+	 */
+	public int size()
+	{
+		return rows.length;
+	}
+
+	/**
+	 * @return the version of the store this snapshot was taken from
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @return the moving points, must not be modified
+	 */
+	public double[][] getMovingPoints()
+	{
+		return movingPts;
+	}
+
+	/**
+	 * @return the target points, must not be modified
+	 */
+	public double[][] getTargetPoints()
+	{
+		return targetPts;
+	}
+
+	public double getMoving( final int i, final int d )
+	{
+		return movingPts[ d ][ i ];
+	}
+
+	public double getTarget( final int i, final int d )
+	{
+		return targetPts[ d ][ i ];
+	}
+
+	/**
+	 * Returns the row in the landmark table of the i-th active landmark.
+	 *
+	 * @param i index of the active landmark
+	 * @return the table row
+	 */
+	public int getRow( final int i )
+	{
+		return rows[ i ];
+	}
+}
@@ -0,0 +1,501 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * A uniform grid over the positions of landmarks in one space, used to find
+ * the landmarks near a point or inside a box without visiting every row.
+ * <p>
+ * Rows are referenced by their index in a {@link LandmarkStore}, and
+ * positions are read through {@link Coordinates} so that they are not
+ * stored twice. The index is updated incrementally: the owner must
+ * {@link #remove(int)} a row before its position changes and {@link #add(int)}
+ * it afterwards, and must call {@link #shiftRows(int, int)} when rows are
+ * inserted or removed. Rows with non-finite coordinates (unset points) are
+ * ignored.
+ * <p>
+ * The cell size adapts to the extent and number of points. It is
+ * recomputed, and all rows re-hashed, the first time the index is queried
+ * after the number of points doubled or dropped to a quarter since the last
+ * layout. Queries that would visit more cells than are occupied scan the
+ * occupied cells instead, so no query is slower than a linear scan.
+ * <p>
+ * This class is not thread safe.
+ */
+public class LandmarkSpatialIndex
+{
+	@FunctionalInterface
+	public interface Coordinates
+	{
+		double get( int row, int d );
+	}
+
+	// smaller indexes are kept in a single cell
+	private static final int MIN_LAYOUT_SIZE = 32;
+
+	private static final int BITS = 21;
+
+	private static final long OFFSET = 1L << ( BITS - 1 );
+
+	private final int ndims;
+
+	private final Coordinates coordinates;
+
+	private final HashMap< Long, Cell > cells = new HashMap<>();
+
+	private double cellSize = Double.POSITIVE_INFINITY;
+
+	private int size = 0;
+
+	private int layoutSize = 0;
+
+	// true if a point was added outside of the range of cells
+	private boolean stale = false;
+
+	private final long[] cell;
+
+	private final long[] lo;
+
+	private final long[] hi;
+
+	private final long[] pos;
+
+	/**
+	 * @param ndims the number of dimensions, at most 3
+	 * @param coordinates the positions of the rows
+	 */
+	public LandmarkSpatialIndex( final int ndims, final Coordinates coordinates )
+	{
+		if ( ndims > 3 )
+			throw new IllegalArgumentException( "At most 3 dimensions are supported, got " + ndims );
+
+		this.ndims = ndims;
+		this.coordinates = coordinates;
+		cell = new long[ ndims ];
+		lo = new long[ ndims ];
+		hi = new long[ ndims ];
+		pos = new long[ ndims ];
+	}
+
+	/**
+	 * @return the number of indexed rows
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	public double getCellSize()
+	{
+		return cellSize;
+	}
+
+	public void add( final int row )
+	{
+		if ( !isFinite( row ) )
+			return;
+
+		cells.computeIfAbsent( key( row ), k -> new Cell() ).add( row );
+		size++;
+	}
+
+	public void remove( final int row )
+	{
+		if ( !isFinite( row ) )
+			return;
+
+		final Long k = key( row );
+		final Cell c = cells.get( k );
+		if ( c != null && c.remove( row ) )
+		{
+			size--;
+			if ( c.size == 0 )
+				cells.remove( k );
+		}
+	}
+
+	/**
+	 * Adds delta to every indexed row greater than or equal to from.
+	 *
+	 * @param from the first row to shift
+	 * @param delta the shift
+	 */
+	public void shiftRows( final int from, final int delta )
+	{
+		for ( final Cell c : cells.values() )
+			for ( int i = 0; i < c.size; i++ )
+				if ( c.rows[ i ] >= from )
+					c.rows[ i ] += delta;
+	}
+
+	public void clear()
+	{
+		cells.clear();
+		size = 0;
+		layoutSize = 0;
+		cellSize = Double.POSITIVE_INFINITY;
+		stale = false;
+	}
+
+	/**
+	 * Returns the row closest to a point, or -1 if no row is closer than
+	 * maxDistance. Ties are broken in favor of the smaller row.
+	 *
+	 * @param pt the point
+	 * @param maxDistance the largest distance
+	 * @param filter only rows for which this is true are considered, may be null
+	 * @return the closest row
+	 */
+	public int nearest( final double[] pt, final double maxDistance, final IntPredicate filter )
+	{
+		ensureLayout();
+		final Nearest nearest = new Nearest( pt, maxDistance, filter );
+		if ( size == 0 )
+			return -1;
+
+		if ( Double.isInfinite( cellSize ) || cells.size() == 1 )
+		{
+			scanAll( nearest );
+			return nearest.row;
+		}
+
+		cellOf( pt, cell );
+		final int maxCells = cells.size();
+		for ( int r = 0;; r++ )
+		{
+			double n = 1;
+			for ( int d = 0; d < ndims; d++ )
+				n *= 2 * r + 1;
+
+			if ( n > maxCells )
+			{
+				scanAll( nearest );
+				break;
+			}
+
+			visitRing( r, nearest );
+
+			// points in the following rings are at least r * cellSize away
+			final double bound = r * cellSize;
+			if ( bound * bound > nearest.best )
+				break;
+		}
+		return nearest.row;
+	}
+
+	/**
+	 * Passes every row within radius of a point to an action.
+	 *
+	 * @param pt the point
+	 * @param radius the radius
+	 * @param action the action
+	 */
+	public void search( final double[] pt, final double radius, final IntConsumer action )
+	{
+		final double[] min = new double[ ndims ];
+		final double[] max = new double[ ndims ];
+		for ( int d = 0; d < ndims; d++ )
+		{
+			min[ d ] = pt[ d ] - radius;
+			max[ d ] = pt[ d ] + radius;
+		}
+
+		final double r2 = radius * radius;
+		search( min, max, row -> {
+			if ( distanceSquared( row, pt ) <= r2 )
+				action.accept( row );
+		} );
+	}
+
+	/**
+	 * Passes every row inside a box to an action.
+	 *
+	 * @param min the min corner of the box
+	 * @param max the max corner of the box
+	 * @param action the action
+	 */
+	public void search( final double[] min, final double[] max, final IntConsumer action )
+	{
+		ensureLayout();
+		if ( size == 0 )
+			return;
+
+		final IntConsumer inBox = row -> {
+			for ( int d = 0; d < ndims; d++ )
+			{
+				final double x = coordinates.get( row, d );
+				if ( x < min[ d ] || x > max[ d ] )
+					return;
+			}
+			action.accept( row );
+		};
+
+		cellOf( min, lo );
+		cellOf( max, hi );
+		double n = 1;
+		for ( int d = 0; d < ndims; d++ )
+			n *= hi[ d ] - lo[ d ] + 1;
+
+		if ( n > cells.size() )
+		{
+			for ( final Cell c : cells.values() )
+				c.forEach( inBox );
+			return;
+		}
+
+		System.arraycopy( lo, 0, pos, 0, ndims );
+		while ( true )
+		{
+			final Cell c = cells.get( key( pos ) );
+			if ( c != null )
+				c.forEach( inBox );
+
+			int d = 0;
+			while ( d < ndims && pos[ d ] == hi[ d ] )
+			{
+				pos[ d ] = lo[ d ];
+				d++;
+			}
+			if ( d == ndims )
+				break;
+
+			pos[ d ]++;
+		}
+	}
+
+	public double distanceSquared( final int row, final double[] pt )
+	{
+		double dist = 0;
+		for ( int d = 0; d < ndims; d++ )
+		{
+			final double diff = coordinates.get( row, d ) - pt[ d ];
+			dist += diff * diff;
+		}
+		return dist;
+	}
+
+	/**
+	 * Visits the cells at Chebyshev distance r from the cell in {@link #cell}.
+	 */
+	private void visitRing( final int r, final Nearest nearest )
+	{
+		for ( int d = 0; d < ndims; d++ )
+		{
+			lo[ d ] = cell[ d ] - r;
+			hi[ d ] = cell[ d ] + r;
+			pos[ d ] = lo[ d ];
+		}
+
+		while ( true )
+		{
+			boolean onRing = false;
+			for ( int d = 0; d < ndims; d++ )
+				onRing = onRing || pos[ d ] == lo[ d ] || pos[ d ] == hi[ d ];
+
+			if ( onRing )
+			{
+				final Cell c = cells.get( key( pos ) );
+				if ( c != null )
+					c.forEach( nearest );
+			}
+
+			int d = 0;
+			while ( d < ndims && pos[ d ] == hi[ d ] )
+			{
+				pos[ d ] = lo[ d ];
+				d++;
+			}
+			if ( d == ndims )
+				break;
+
+			pos[ d ]++;
+		}
+	}
+
+	private void scanAll( final Nearest nearest )
+	{
+		for ( final Cell c : cells.values() )
+			c.forEach( nearest );
+	}
+
+	private void ensureLayout()
+	{
+		if ( stale || ( size >= MIN_LAYOUT_SIZE && size > 2 * layoutSize ) || size < layoutSize / 4 )
+			layout();
+	}
+
+	private void layout()
+	{
+		final int[] rows = new int[ size ];
+		int k = 0;
+		for ( final Cell c : cells.values() )
+			for ( int i = 0; i < c.size; i++ )
+				rows[ k++ ] = c.rows[ i ];
+
+		final double[] min = new double[ ndims ];
+		final double[] max = new double[ ndims ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+		for ( final int row : rows )
+			for ( int d = 0; d < ndims; d++ )
+			{
+				final double x = coordinates.get( row, d );
+				min[ d ] = Math.min( min[ d ], x );
+				max[ d ] = Math.max( max[ d ], x );
+			}
+
+		double maxExtent = 0;
+		for ( int d = 0; d < ndims; d++ )
+			maxExtent = Math.max( maxExtent, max[ d ] - min[ d ] );
+
+		if ( size < MIN_LAYOUT_SIZE || maxExtent <= 0 )
+			cellSize = Double.POSITIVE_INFINITY;
+		else
+		{
+			// about 2^ndims points per cell for uniformly spread points,
+			// flat point sets are treated as having a small thickness
+			double volume = 1;
+			for ( int d = 0; d < ndims; d++ )
+				volume *= Math.max( max[ d ] - min[ d ], 1e-3 * maxExtent );
+
+			cellSize = 2 * Math.pow( volume / size, 1.0 / ndims );
+			cellSize = Math.max( cellSize, maxExtent / OFFSET );
+		}
+
+		cells.clear();
+		stale = false;
+		size = 0;
+		for ( final int row : rows )
+			add( row );
+
+		layoutSize = size;
+	}
+
+	private boolean isFinite( final int row )
+	{
+		for ( int d = 0; d < ndims; d++ )
+			if ( !Double.isFinite( coordinates.get( row, d ) ) )
+				return false;
+
+		return true;
+	}
+
+	private Long key( final int row )
+	{
+		for ( int d = 0; d < ndims; d++ )
+		{
+			final long c = ( long ) Math.floor( coordinates.get( row, d ) / cellSize );
+			if ( c < -OFFSET || c >= OFFSET )
+				stale = true;
+
+			pos[ d ] = c;
+		}
+		return key( pos );
+	}
+
+	private Long key( final long[] c )
+	{
+		long k = 0;
+		for ( int d = 0; d < ndims; d++ )
+		{
+			final long cd = Math.min( Math.max( c[ d ], -OFFSET ), OFFSET - 1 ) + OFFSET;
+			k |= cd << ( BITS * d );
+		}
+		return k;
+	}
+
+	private void cellOf( final double[] pt, final long[] c )
+	{
+		for ( int d = 0; d < ndims; d++ )
+			c[ d ] = Math.min( Math.max( ( long ) Math.floor( pt[ d ] / cellSize ), -OFFSET ), OFFSET - 1 );
+	}
+
+	private class Nearest implements IntConsumer
+	{
+		final double[] pt;
+
+		final IntPredicate filter;
+
+		double best;
+
+		int row = -1;
+
+		Nearest( final double[] pt, final double maxDistance, final IntPredicate filter )
+		{
+			this.pt = pt;
+			this.filter = filter;
+			best = maxDistance * maxDistance;
+		}
+
+		@Override
+		public void accept( final int i )
+		{
+			if ( filter != null && !filter.test( i ) )
+				return;
+
+			final double dist = distanceSquared( i, pt );
+			if ( dist < best || ( dist == best && row >= 0 && i < row ) )
+			{
+				best = dist;
+				row = i;
+			}
+		}
+	}
+
+	private static class Cell
+	{
+		int[] rows = new int[ 4 ];
+
+		int size = 0;
+
+		void add( final int row )
+		{
+			if ( size == rows.length )
+				rows = Arrays.copyOf( rows, 2 * size );
+
+			rows[ size++ ] = row;
+		}
+
+		boolean remove( final int row )
+		{
+			for ( int i = 0; i < size; i++ )
+				if ( rows[ i ] == row )
+				{
+					rows[ i ] = rows[ --size ];
+					return true;
+				}
+
+			return false;
+		}
+
+		void forEach( final IntConsumer action )
+		{
+			for ( int i = 0; i < size; i++ )
+				action.accept( rows[ i ] );
+		}
+	}
+}
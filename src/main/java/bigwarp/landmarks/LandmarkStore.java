@@ -0,0 +1,714 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * Column oriented storage for the rows of a {@link LandmarkTableModel}.
+ * <p>
+ * Coordinates are kept in one {@link ChunkedDoubleArray} per dimension for
+ * the moving, target and warped points, and the per-row flags in
+ * {@link BitSet}s, so that the store needs about {@code 3 * ndims * 8} bytes
+ * per landmark and no per-point objects. Unset moving or target points have
+ * infinite coordinates.
+ * <p>
+ * The state of the store is handed to other threads through
+ * {@link #publish()}, which returns an immutable
+ * {@link LandmarkTableSnapshot} that shares unchanged coordinate chunks with
+ * the store. The active landmarks are handed to transform solvers through
+ * {@link #snapshot()}, which is shared by every caller until the next
+ * modification of the moving or target points or the active rows. Changes
+ * to the warped points or flags do not invalidate it.
+ * <p>
+ * The positions of the moving, target and warped points are also kept in
+ * {@link LandmarkSpatialIndex}es that are updated with every edit, and
+ * are used for nearest-landmark and range queries.
+ * <p>
+ * This class is not thread safe, the owning {@link LandmarkTableModel}
+ * synchronizes access. Published snapshots may be read by any thread.
+ */
+public class LandmarkStore implements Serializable
+{
+	private static final long serialVersionUID = 2817472413536165328L;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final int ndims;
+
+	private int size;
+
+	private int capacity;
+
+	// one array per dimension
+	private final ChunkedDoubleArray[] moving;
+
+	private final ChunkedDoubleArray[] target;
+
+	private final ChunkedDoubleArray[] warped;
+
+	private String[] names;
+
+	private final BitSet active;
+
+	private final BitSet hasWarped;
+
+	private final BitSet needsInverse;
+
+	private final BitSet unreliable;
+
+	private int numActive;
+
+	private long version;
+
+	// incremented with every change that is visible in a published snapshot
+	private long modCount;
+
+	private transient LandmarkTableSnapshot published;
+
+	// true if names is referenced by the published snapshot, which reads
+	// the first sharedNames entries
+	private transient boolean namesShared;
+
+	private transient int sharedNames;
+
+	private transient boolean flagsModified;
+
+	// shared by published snapshots until the points they depend on change
+	private transient LandmarkTableSnapshot.Lazy< LandmarkSnapshot > activeLandmarks;
+
+	private transient LandmarkTableSnapshot.Lazy< LandmarkSpatialIndex > publishedMovingIndex;
+
+	private transient LandmarkTableSnapshot.Lazy< LandmarkSpatialIndex > publishedTargetIndex;
+
+	private transient LandmarkTableSnapshot.Lazy< LandmarkSpatialIndex > publishedDisplayIndex;
+
+	private transient LandmarkSpatialIndex movingIndex;
+
+	private transient LandmarkSpatialIndex targetIndex;
+
+	// only rows that have a warped point
+	private transient LandmarkSpatialIndex warpedIndex;
+
+	public LandmarkStore( final int ndims )
+	{
+		this( ndims, INITIAL_CAPACITY );
+	}
+
+	public LandmarkStore( final int ndims, final int initialCapacity )
+	{
+		this.ndims = ndims;
+		capacity = Math.max( 1, initialCapacity );
+		moving = new ChunkedDoubleArray[ ndims ];
+		target = new ChunkedDoubleArray[ ndims ];
+		warped = new ChunkedDoubleArray[ ndims ];
+		for ( int d = 0; d < ndims; d++ )
+		{
+			moving[ d ] = new ChunkedDoubleArray( capacity );
+			target[ d ] = new ChunkedDoubleArray( capacity );
+			warped[ d ] = new ChunkedDoubleArray( capacity );
+		}
+		names = new String[ capacity ];
+
+		active = new BitSet( capacity );
+		hasWarped = new BitSet( capacity );
+		needsInverse = new BitSet( capacity );
+		unreliable = new BitSet( capacity );
+		createIndexes();
+	}
+
+	private void createIndexes()
+	{
+		movingIndex = new LandmarkSpatialIndex( ndims, ( row, d ) -> moving[ d ].get( row ) );
+		targetIndex = new LandmarkSpatialIndex( ndims, ( row, d ) -> target[ d ].get( row ) );
+		warpedIndex = new LandmarkSpatialIndex( ndims, ( row, d ) -> warped[ d ].get( row ) );
+	}
+
+	private void readObject( final ObjectInputStream in ) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		createIndexes();
+		for ( int i = 0; i < size; i++ )
+		{
+			movingIndex.add( i );
+			targetIndex.add( i );
+			if ( hasWarped.get( i ) )
+				warpedIndex.add( i );
+		}
+	}
+
+	public int numDimensions()
+	{
+		return ndims;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public int numActive()
+	{
+		return numActive;
+	}
+
+	/**
+	 * Returns a counter that is incremented whenever the moving or target
+	 * points, or the set of active rows change.
+	 *
+	 * @return the version
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Inserts a row with unset moving and target points and no name at the
+	 * given index. The new row is not active.
+	 *
+	 * @param index the index of the new row
+	 */
+	public void insertRow( final int index )
+	{
+		if ( index < 0 || index > size )
+			throw new IndexOutOfBoundsException( "index " + index + " for size " + size );
+
+		ensureCapacity( size + 1 );
+		for ( int d = 0; d < ndims; d++ )
+		{
+			moving[ d ].insert( index, size, Double.POSITIVE_INFINITY );
+			target[ d ].insert( index, size, Double.POSITIVE_INFINITY );
+			warped[ d ].insert( index, size, Double.NaN );
+		}
+		unshareNames( index );
+		System.arraycopy( names, index, names, index + 1, size - index );
+		names[ index ] = null;
+
+		insertBit( active, index, size );
+		insertBit( hasWarped, index, size );
+		insertBit( needsInverse, index, size );
+		insertBit( unreliable, index, size );
+
+		// the new row is unset, so it is not indexed
+		movingIndex.shiftRows( index, 1 );
+		targetIndex.shiftRows( index, 1 );
+		warpedIndex.shiftRows( index, 1 );
+
+		size++;
+		rowsModified();
+	}
+
+	/**
+	 * Appends a row.
+	 *
+	 * @param movingPt the moving point
+	 * @param targetPt the target point
+	 * @param isActive whether the row is active
+	 */
+	public void addRow( final double[] movingPt, final double[] targetPt, final boolean isActive )
+	{
+		final int row = size;
+		insertRow( row );
+		set( true, row, movingPt );
+		set( false, row, targetPt );
+		setActive( row, isActive );
+	}
+
+	public void removeRow( final int index )
+	{
+		if ( index < 0 || index >= size )
+			throw new IndexOutOfBoundsException( "index " + index + " for size " + size );
+
+		movingIndex.remove( index );
+		targetIndex.remove( index );
+		if ( hasWarped.get( index ) )
+			warpedIndex.remove( index );
+
+		movingIndex.shiftRows( index + 1, -1 );
+		targetIndex.shiftRows( index + 1, -1 );
+		warpedIndex.shiftRows( index + 1, -1 );
+
+		for ( int d = 0; d < ndims; d++ )
+		{
+			moving[ d ].remove( index, size );
+			target[ d ].remove( index, size );
+			warped[ d ].remove( index, size );
+		}
+		unshareNames( index );
+		System.arraycopy( names, index + 1, names, index, size - index - 1 );
+		names[ size - 1 ] = null;
+
+		if ( active.get( index ) )
+			numActive--;
+
+		removeBit( active, index, size );
+		removeBit( hasWarped, index, size );
+		removeBit( needsInverse, index, size );
+		removeBit( unreliable, index, size );
+
+		size--;
+		rowsModified();
+	}
+
+	public void clear()
+	{
+		unshareNames( 0 );
+		Arrays.fill( names, 0, size, null );
+		size = 0;
+		numActive = 0;
+		active.clear();
+		hasWarped.clear();
+		needsInverse.clear();
+		unreliable.clear();
+		movingIndex.clear();
+		targetIndex.clear();
+		warpedIndex.clear();
+		rowsModified();
+	}
+
+	public String getName( final int row )
+	{
+		return names[ row ];
+	}
+
+	public void setName( final int row, final String name )
+	{
+		unshareNames( row );
+		names[ row ] = name;
+		modCount++;
+	}
+
+	public double get( final boolean isMoving, final int row, final int d )
+	{
+		return isMoving ? moving[ d ].get( row ) : target[ d ].get( row );
+	}
+
+	public double getMoving( final int row, final int d )
+	{
+		return moving[ d ].get( row );
+	}
+
+	public double getTarget( final int row, final int d )
+	{
+		return target[ d ].get( row );
+	}
+
+	/**
+	 * Copies a moving or target point into a destination array. Only the
+	 * first {@code min( dest.length, numDimensions() )} coordinates are
+	 * copied.
+	 *
+	 * @param isMoving copy the moving point if true, the target point otherwise
+	 * @param row the row
+	 * @param dest the destination
+	 */
+	public void copy( final boolean isMoving, final int row, final double[] dest )
+	{
+		final ChunkedDoubleArray[] pts = isMoving ? moving : target;
+		final int n = Math.min( dest.length, ndims );
+		for ( int d = 0; d < n; d++ )
+			dest[ d ] = pts[ d ].get( row );
+	}
+
+	public void set( final boolean isMoving, final int row, final double[] pt )
+	{
+		final ChunkedDoubleArray[] pts = isMoving ? moving : target;
+		final LandmarkSpatialIndex index = index( isMoving );
+		index.remove( row );
+		for ( int d = 0; d < ndims; d++ )
+			pts[ d ].set( row, pt[ d ] );
+
+		index.add( row );
+		pointsModified( isMoving );
+	}
+
+	public void set( final boolean isMoving, final int row, final int d, final double value )
+	{
+		final LandmarkSpatialIndex index = index( isMoving );
+		index.remove( row );
+		( isMoving ? moving : target )[ d ].set( row, value );
+		index.add( row );
+		pointsModified( isMoving );
+	}
+
+	/**
+	 * @param isMoving check the moving point if true, the target point otherwise
+	 * @param row the row
+	 * @return true if the point is unset
+	 */
+	public boolean isPending( final boolean isMoving, final int row )
+	{
+		return Double.isInfinite( get( isMoving, row, 0 ) );
+	}
+
+	public double getWarped( final int row, final int d )
+	{
+		return warped[ d ].get( row );
+	}
+
+	public void copyWarped( final int row, final double[] dest )
+	{
+		final int n = Math.min( dest.length, ndims );
+		for ( int d = 0; d < n; d++ )
+			dest[ d ] = warped[ d ].get( row );
+	}
+
+	/**
+	 * Sets the warped point of a row and flags the row as having one.
+	 *
+	 * @param row the row
+	 * @param pt the warped point
+	 */
+	public void setWarped( final int row, final double[] pt )
+	{
+		if ( hasWarped.get( row ) )
+			warpedIndex.remove( row );
+		else
+			flagsModified = true;
+
+		for ( int d = 0; d < ndims; d++ )
+			warped[ d ].set( row, pt[ d ] );
+
+		hasWarped.set( row );
+		warpedIndex.add( row );
+		publishedDisplayIndex = null;
+		modCount++;
+	}
+
+	public boolean hasWarped( final int row )
+	{
+		return hasWarped.get( row );
+	}
+
+	public void setHasWarped( final int row, final boolean value )
+	{
+		if ( hasWarped.get( row ) == value )
+			return;
+
+		hasWarped.set( row, value );
+		if ( value )
+			warpedIndex.add( row );
+		else
+			warpedIndex.remove( row );
+
+		flagsModified = true;
+		publishedDisplayIndex = null;
+		modCount++;
+	}
+
+	public boolean isActive( final int row )
+	{
+		return active.get( row );
+	}
+
+	public void setActive( final int row, final boolean isActive )
+	{
+		if ( active.get( row ) == isActive )
+			return;
+
+		active.set( row, isActive );
+		numActive += isActive ? 1 : -1;
+		flagsModified = true;
+		modified();
+	}
+
+	/**
+	 * Returns the index of the given row among the active rows, or -1 if the
+	 * row is not active.
+	 *
+	 * @param row the row
+	 * @return the active index
+	 */
+	public int activeIndex( final int row )
+	{
+		if ( !active.get( row ) )
+			return -1;
+
+		return active.get( 0, row ).cardinality();
+	}
+
+	public boolean needsInverse( final int row )
+	{
+		return needsInverse.get( row );
+	}
+
+	public void setNeedsInverse( final int row, final boolean value )
+	{
+		needsInverse.set( row, value );
+	}
+
+	public void clearNeedsInverse()
+	{
+		needsInverse.clear();
+	}
+
+	public boolean isUnreliable( final int row )
+	{
+		return unreliable.get( row );
+	}
+
+	public void setUnreliable( final int row, final boolean value )
+	{
+		if ( unreliable.get( row ) == value )
+			return;
+
+		unreliable.set( row, value );
+		flagsModified = true;
+		modCount++;
+	}
+
+	/**
+	 * Returns an immutable snapshot of the current state of this store. The
+	 * same snapshot is returned until the store is modified.
+	 *
+	 * @return the snapshot
+	 */
+	public LandmarkTableSnapshot publish()
+	{
+		if ( published != null && published.getModCount() == modCount )
+			return published;
+
+		final double[][][] mvg = new double[ ndims ][][];
+		final double[][][] tgt = new double[ ndims ][][];
+		final double[][][] wrp = new double[ ndims ][][];
+		for ( int d = 0; d < ndims; d++ )
+		{
+			mvg[ d ] = moving[ d ].freeze();
+			tgt[ d ] = target[ d ].freeze();
+			wrp[ d ] = warped[ d ].freeze();
+		}
+
+		// rows are only appended to the names between most snapshots, so the
+		// array is shared until an earlier entry changes
+		namesShared = true;
+		sharedNames = size;
+
+		// flags are copied only if they changed
+		final BitSet publishedActive, publishedHasWarped, publishedUnreliable;
+		if ( published == null || flagsModified )
+		{
+			publishedActive = ( BitSet ) active.clone();
+			publishedHasWarped = ( BitSet ) hasWarped.clone();
+			publishedUnreliable = ( BitSet ) unreliable.clone();
+		}
+		else
+		{
+			publishedActive = published.active;
+			publishedHasWarped = published.hasWarped;
+			publishedUnreliable = published.unreliable;
+		}
+
+		if ( activeLandmarks == null )
+			activeLandmarks = new LandmarkTableSnapshot.Lazy<>();
+		if ( publishedMovingIndex == null )
+			publishedMovingIndex = new LandmarkTableSnapshot.Lazy<>();
+		if ( publishedTargetIndex == null )
+			publishedTargetIndex = new LandmarkTableSnapshot.Lazy<>();
+		if ( publishedDisplayIndex == null )
+			publishedDisplayIndex = new LandmarkTableSnapshot.Lazy<>();
+
+		published = new LandmarkTableSnapshot( ndims, size, numActive, version, modCount,
+				mvg, tgt, wrp, names, publishedActive, publishedHasWarped, publishedUnreliable,
+				activeLandmarks, publishedMovingIndex, publishedTargetIndex, publishedDisplayIndex );
+
+		flagsModified = false;
+		return published;
+	}
+
+	/**
+	 * Returns the active landmarks. The snapshot is shared until the next
+	 * change to the moving or target points or the active rows.
+	 *
+	 * @return the snapshot
+	 */
+	public LandmarkSnapshot snapshot()
+	{
+		return publish().getActiveLandmarks();
+	}
+
+	/**
+	 * Returns the row whose point is closest to pt, or -1 if no point is
+	 * closer than maxDistance.
+	 * <p>
+	 * If displayWarped is true, moving points are located where they are
+	 * displayed in the fixed space, i.e. at their warped point if they have
+	 * one and at their target point otherwise.
+	 *
+	 * @param pt the point
+	 * @param isMoving search the moving points if true, the target points otherwise
+	 * @param displayWarped search moving points at their display position in fixed space
+	 * @param maxDistance the largest distance
+	 * @return the closest row or -1
+	 */
+	public int nearest( final double[] pt, final boolean isMoving, final boolean displayWarped, final double maxDistance )
+	{
+		if ( !( isMoving && displayWarped ) )
+			return index( isMoving ).nearest( pt, maxDistance, null );
+
+		final int w = warpedIndex.nearest( pt, maxDistance, null );
+		final int t = targetIndex.nearest( pt, maxDistance, row -> !hasWarped.get( row ) );
+		if ( w < 0 || t < 0 )
+			return Math.max( w, t );
+
+		final double dw = warpedIndex.distanceSquared( w, pt );
+		final double dt = targetIndex.distanceSquared( t, pt );
+		if ( dw < dt || ( dw == dt && w < t ) )
+			return w;
+		else
+			return t;
+	}
+
+	/**
+	 * Passes every row whose point lies within radius of pt to an action,
+	 * see {@link #nearest(double[], boolean, boolean, double)}.
+	 *
+	 * @param pt the point
+	 * @param radius the radius
+	 * @param isMoving search the moving points if true, the target points otherwise
+	 * @param displayWarped search moving points at their display position in fixed space
+	 * @param action the action
+	 */
+	public void search( final double[] pt, final double radius, final boolean isMoving, final boolean displayWarped, final IntConsumer action )
+	{
+		if ( !( isMoving && displayWarped ) )
+			index( isMoving ).search( pt, radius, action );
+		else
+		{
+			warpedIndex.search( pt, radius, action );
+			targetIndex.search( pt, radius, row -> {
+				if ( !hasWarped.get( row ) )
+					action.accept( row );
+			} );
+		}
+	}
+
+	/**
+	 * Passes every row whose point lies inside a box to an action, see
+	 * {@link #nearest(double[], boolean, boolean, double)}.
+	 *
+	 * @param min the min corner
+	 * @param max the max corner
+	 * @param isMoving search the moving points if true, the target points otherwise
+	 * @param displayWarped search moving points at their display position in fixed space
+	 * @param action the action
+	 */
+	public void search( final double[] min, final double[] max, final boolean isMoving, final boolean displayWarped, final IntConsumer action )
+	{
+		if ( !( isMoving && displayWarped ) )
+			index( isMoving ).search( min, max, action );
+		else
+		{
+			warpedIndex.search( min, max, action );
+			targetIndex.search( min, max, row -> {
+				if ( !hasWarped.get( row ) )
+					action.accept( row );
+			} );
+		}
+	}
+
+	private LandmarkSpatialIndex index( final boolean isMoving )
+	{
+		return isMoving ? movingIndex : targetIndex;
+	}
+
+	private void modified()
+	{
+		version++;
+		modCount++;
+		activeLandmarks = null;
+	}
+
+	private void pointsModified( final boolean isMoving )
+	{
+		if ( isMoving )
+			publishedMovingIndex = null;
+		else
+		{
+			publishedTargetIndex = null;
+			publishedDisplayIndex = null;
+		}
+		modified();
+	}
+
+	private void rowsModified()
+	{
+		flagsModified = true;
+		publishedMovingIndex = null;
+		publishedTargetIndex = null;
+		publishedDisplayIndex = null;
+		modified();
+	}
+
+	private void ensureCapacity( final int minCapacity )
+	{
+		if ( minCapacity <= capacity )
+			return;
+
+		final int newCapacity = Math.max( minCapacity, capacity + ( capacity >> 1 ) );
+		for ( int d = 0; d < ndims; d++ )
+		{
+			moving[ d ].ensureCapacity( newCapacity );
+			target[ d ].ensureCapacity( newCapacity );
+			warped[ d ].ensureCapacity( newCapacity );
+		}
+		names = Arrays.copyOf( names, newCapacity );
+		namesShared = false;
+		capacity = newCapacity;
+	}
+
+	/**
+	 * Copies the names before an entry at or after index is written, if
+	 * the published snapshot reads that entry.
+	 *
+	 * @param index the first entry to be written
+	 */
+	private void unshareNames( final int index )
+	{
+		if ( namesShared && index < sharedNames )
+		{
+			names = names.clone();
+			namesShared = false;
+		}
+	}
+
+	private static void insertBit( final BitSet bits, final int index, final int size )
+	{
+		final BitSet tail = bits.get( index, size );
+		bits.clear( index, size + 1 );
+		for ( int i = tail.nextSetBit( 0 ); i >= 0; i = tail.nextSetBit( i + 1 ) )
+			bits.set( index + 1 + i );
+	}
+
+	private static void removeBit( final BitSet bits, final int index, final int size )
+	{
+		final BitSet tail = bits.get( index + 1, size );
+		bits.clear( index, size );
+		for ( int i = tail.nextSetBit( 0 ); i >= 0; i = tail.nextSetBit( i + 1 ) )
+			bits.set( index + i );
+	}
+}
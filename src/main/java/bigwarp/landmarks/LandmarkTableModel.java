@@ -39,8 +39,8 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
@@ -103,37 +103,27 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	protected int nextRowP = 0;
 	protected int nextRowQ = 0;
 
-	protected int numActive = 0;
+	// the names, the moving, target and warped points, and whether rows are active,
+	// have a warped point, need an inverse or have an unreliable warped point
+	protected LandmarkStore store;
 
-	protected ArrayList<String> 	names;
-	protected ArrayList<Boolean>	activeList;
-	protected ArrayList<Double[]>	movingPts;
-	protected ArrayList<Double[]>	targetPts;
+	// the state of the store after the last edit, read without locking
+	protected transient volatile LandmarkTableSnapshot published;
 
-	// this list contains as many elemnts as the table, and
-	// contains a unique integer >= 0 if the row is active, or -1 otherwise
-	protected ArrayList<Integer> tableIndexToActiveIndex;
+	// set while many edits are made at once to publish only after the last one
+	protected boolean deferPublish = false;
 
 	protected boolean pointUpdatePending = false; //
 	protected boolean pointUpdatePendingMoving = false; //
-	protected Double[] pointToOverride;	// hold a backup of a point for fallback
+	protected double[] pointToOverride;	// hold a backup of a point for fallback
 
 	// keeps track of whether points have been updated
-	protected ArrayList<Boolean> doesPointHaveAndNeedWarp;
 	protected ArrayList<Integer> indicesOfChangedPoints;
 	protected boolean			 elementDeleted = false;
-	protected ArrayList<Boolean> needsInverse;
-
-	// true for a row if, after the transform is updated,
-	// the warped point has a higher error than the specified tolerance
-	protected ArrayList<Boolean> movingDisplayPointUnreliable;
 
 	// the transformation
 	protected ThinPlateR2LogRSplineKernelTransform estimatedXfm;
 
-	// keeps track of warped points so we don't always have to do it on the fly
-	protected ArrayList<Double[]> warpedPoints;
-
 
 	// inverse iterations
 	protected int maxInverseIterations = 500;
@@ -148,12 +138,19 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 	protected double[] tmp;
 
+	// computes warped points in parallel, created when first needed
+	protected transient WarpedPointUpdater warpedPointUpdater;
+
+	protected long warpedPointRequests = 0;
+
+	protected long lastPublishedWarpedPointRequest = 0;
+
 	// keep track of edits for undo's and redo's
 	protected LandmarkUndoManager undoRedoManager;
 
 	protected BigWarpMessageAnimator message;
 
-	protected boolean modifiedSinceLastSave;
+	protected volatile boolean modifiedSinceLastSave;
 
 	final static String[] columnNames3d = new String[]
 			{
@@ -181,14 +178,10 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		Arrays.fill( PENDING_PT, Double.POSITIVE_INFINITY );
 		lastPoint = PENDING_PT;
 
-		names = new ArrayList<>();
-		activeList = new ArrayList<>();
-		tableIndexToActiveIndex = new ArrayList<>();
+		store = new LandmarkStore( ndims );
+		published = store.publish();
 
-		movingPts = new ArrayList<Double[]>();
-		targetPts = new ArrayList<Double[]>();
-
-		pointToOverride = new Double[ ndims ];
+		pointToOverride = new double[ ndims ];
 		Arrays.fill( pointToOverride, Double.POSITIVE_INFINITY );
 
 		if( ndims == 2 ){
@@ -198,11 +191,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			columnNames = columnNames3d;
 		}
 
-		warpedPoints = new ArrayList<Double[]>();
-		doesPointHaveAndNeedWarp = new ArrayList<Boolean>();
-		movingDisplayPointUnreliable = new ArrayList<Boolean>();
 		indicesOfChangedPoints  = new ArrayList<Integer>();
-		needsInverse = new ArrayList<Boolean>();
 
 		setTableListener();
 
@@ -242,8 +231,8 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			System.out.println("");
 			for( int d = 0; d < ndims; d++ )
 			{
-				System.out.print( " " + (movingPts.get( i )[ ndims + d ].doubleValue() - estimatedXfm.getSourceLandmarks()[ d ][ i ]) );
-				System.out.print( " " + (targetPts.get( i )[ ndims + d ].doubleValue() - estimatedXfm.getSourceLandmarks()[ d ][ i ]) );
+				System.out.print( " " + (store.getMoving( i, d ) - estimatedXfm.getSourceLandmarks()[ d ][ i ]) );
+				System.out.print( " " + (store.getTarget( i, d ) - estimatedXfm.getSourceLandmarks()[ d ][ i ]) );
 			}
 		}
 	}
@@ -260,8 +249,8 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		String str = "";
 		for( int i = 0; i < numRows; i++ )
 		{
-			str += Arrays.toString( movingPts.get( i ) ) + " -> " +
-					Arrays.toString( targetPts.get( i )) + "\n";
+			str += Arrays.toString( getMovingPoint( i ) ) + " -> " +
+					Arrays.toString( getFixedPoint( i )) + "\n";
 		}
 		return str;
 	}
@@ -273,7 +262,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		{
 			for( int d = 0; d < ndims; d++ )
 			{
-				if ( targetPts.get( i )[ d ].doubleValue() != estimatedXfm.getSourceLandmarks()[ d ][ i ] )
+				if ( store.getTarget( i, d ) != estimatedXfm.getSourceLandmarks()[ d ][ i ] )
 				{
 					System.out.println("Wrong for pt: " + i );
 					return false;
@@ -329,26 +318,18 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 	public void restorePendingUpdate( )
 	{
-		ArrayList< Double[] > pts;
-
 		int i = 0;
-		if( pointUpdatePendingMoving )
-		{
-			i = nextRowP;
-			pts = movingPts;
-		}
-		else
-		{
-			i = nextRowQ;
-			pts = movingPts;
-		}
-
-		for( int d = 0; d < ndims; d++ )
-			pts.get( i )[ d ] = pointToOverride[ d ];
+		synchronized( this ) {
+			if( pointUpdatePendingMoving )
+				i = nextRowP;
+			else
+				i = nextRowQ;
 
-		activeList.set( i, true );
-		buildTableToActiveIndex();
-		pointUpdatePending = false;
+			store.set( true, i, pointToOverride );
+			store.setActive( i, true );
+			pointUpdatePending = false;
+			publish();
+		}
 
 		fireTableRowsUpdated( i, i );
 	}
@@ -367,15 +348,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 	public int getActiveRowCount()
 	{
-		return numActive;
-
-//		//TODO consider keeping track of this actively instead of recomputing
-//		int N = 0;
-//		for( Boolean b : activeList )
-//			if( b )
-//				N++;
-//
-//		return N;
+		return published.numActive();
 	}
 
 	@Override
@@ -383,28 +356,45 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		return columnNames[col];
 	}
 
+	/**
+	 * Returns a copy of the moving or target points. Changes to the returned
+	 * points are not reflected in this table, use
+	 * {@link #setPoint(int, boolean, double[], RealTransform)} instead.
+	 *
+	 * @param moving return the moving points if true, the target points otherwise
+	 * @return a copy of the points
+	 * @deprecated use {@link #copyPointSafe(double[], int, boolean)} or {@link #snapshot()}
+	 */
+	@Deprecated
 	public ArrayList<Double[]> getPoints( boolean moving ) {
-		if( moving )
-			return movingPts;
-		else
-			return targetPts;
-	}
+		final LandmarkTableSnapshot s = published;
+		final ArrayList< Double[] > out = new ArrayList<>( s.getRowCount() );
+		for( int i = 0; i < s.getRowCount(); i++ )
+			out.add( getPoint( s, moving, i ) );
 
+		return out;
+	}
 
-	public ArrayList<String> getNames()
+	/**
+	 * @return an unmodifiable list of the row names
+	 */
+	public List<String> getNames()
 	{
-		return names;
+		return published.getNames();
 	}
 
 	public void setColumnName( int row, String name )
 	{
-		names.set( row, name );
+		synchronized( this ) {
+			store.setName( row, name );
+			publish();
+		}
 		fireTableCellUpdated( row, NAMECOLUMN );
 	}
 
 	public boolean getIsActive( int row )
 	{
-		return activeList.get( row );
+		return published.isActive( row );
 	}
 
 	public void setIsActive( int row, boolean isActive )
@@ -413,44 +403,64 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			if( isRowUnpaired( row ) && isActive )
 			{
 				if( message != null )
-					message.showMessage( "Can't activate unpaired row ( " + names.get( row ) + " )" );
+					message.showMessage( "Can't activate unpaired row ( " + store.getName( row ) + " )" );
 				return;
 			}
 
-			activeList.set( row, isActive );
-			buildTableToActiveIndex();
+			store.setActive( row, isActive );
+			publish();
 		}
 
-		if( activeList.get( row ) != isActive )
+		if( store.isActive( row ) != isActive )
 		{
 			fireTableCellUpdated( row, ACTIVECOLUMN );
 			modifiedSinceLastSave = true;
 		}
 	}
 
-	private void buildTableToActiveIndex()
+	/**
+	 * Sets whether several rows are active, publishing and notifying
+	 * listeners once instead of once per row. Unpaired rows are not
+	 * activated.
+	 *
+	 * @param rows the rows
+	 * @param isActive whether the rows are active
+	 */
+	public void setIsActive( int[] rows, boolean isActive )
 	{
-		synchronized(this) {
-			tableIndexToActiveIndex.clear();
-
-			int N = 0;
-			int j = 0;
-			for( int i = 0; i < getRowCount(); i++ )
+		boolean changed = false;
+		synchronized( this ) {
+			for( final int row : rows )
 			{
-				if( isActive( i ))
+				if( isActive && isRowUnpaired( row ) )
+					continue;
+
+				if( store.isActive( row ) != isActive )
 				{
-	//				tableIndexToActiveIndex.set( i, j++ );
-					tableIndexToActiveIndex.add( j++ );
-					N++;
+					store.setActive( row, isActive );
+					changed = true;
 				}
 			}
-			numActive = N;
+			publish();
+		}
+
+		if( changed )
+		{
+			fireTableDataChanged();
+			modifiedSinceLastSave = true;
 		}
 	}
 
+	/**
+	 * Returns the index of a row among the active rows, i.e. its index in
+	 * the {@link #snapshot()}, or -1 if the row is not active.
+	 *
+	 * @param tableIndex the row
+	 * @return the active index
+	 */
 	public int getActiveIndex( int tableIndex )
 	{
-		return tableIndexToActiveIndex.get( tableIndex );
+		return published.getActiveIndex( tableIndex );
 	}
 
 	@Override
@@ -465,17 +475,30 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	}
 
 	public boolean isActive( int i ){
-		if( i < 0 || i >= getRowCount() ){
+		final LandmarkTableSnapshot s = published;
+		if( i < 0 || i >= s.getRowCount() ){
 			return false;
 		}else{
-			return (Boolean)getValueAt(i,1);
+			return s.isActive( i );
 		}
 	}
 
 	public void clear()
 	{
-		for( int i = getRowCount() - 1; i >= 0; i-- )
-			deleteRow( i );
+		synchronized( this ) {
+			// publish once instead of after every row
+			deferPublish = true;
+			try
+			{
+				for( int i = getRowCount() - 1; i >= 0; i-- )
+					deleteRow( i );
+			}
+			finally
+			{
+				deferPublish = false;
+				publish();
+			}
+		}
 	}
 
 	public void deleteRow( int i )
@@ -490,23 +513,16 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	public void deleteRowHelper( int i )
 	{
 		synchronized( this ) {
-			if( i >= names.size() )
+			if( i >= store.size() )
 			{
 				return;
 			}
 
-			names.remove(i);
-			movingPts.remove(i);
-			targetPts.remove(i);
-			activeList.remove(i);
+			store.removeRow(i);
 
 			if (indicesOfChangedPoints.contains(i))
 				indicesOfChangedPoints.remove(indicesOfChangedPoints.indexOf(i));
 
-			doesPointHaveAndNeedWarp.remove(i);
-			movingDisplayPointUnreliable.remove(i);
-			warpedPoints.remove(i);
-
 			numRows--;
 
 			pointUpdatePending = isUpdatePending();
@@ -514,10 +530,9 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			nextRowP = numRows;
 			nextRowQ = numRows;
 
+			publish();
 			fireTableRowsDeleted(i, i);
 			modifiedSinceLastSave = true;
-
-			buildTableToActiveIndex();
 		}
 	}
 
@@ -531,8 +546,8 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	public boolean isRowUnpaired( final int i )
 	{
 		for( int d = 0; d < ndims; d++ )
-			if( Double.isInfinite( movingPts.get( i )[ d ] ) ||
-				Double.isInfinite( targetPts.get( i )[ d ] ))
+			if( Double.isInfinite( store.getMoving( i, d ) ) ||
+				Double.isInfinite( store.getTarget( i, d ) ))
 					return true;
 
 		return false;
@@ -545,7 +560,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	 */
 	public boolean isUpdatePending()
 	{
-		for( int i = 0; i < movingPts.size(); i++ )
+		for( int i = 0; i < store.size(); i++ )
 			if( isRowUnpaired( i ))
 				return true;
 
@@ -572,7 +587,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			for ( int i = lastAddedIndex; i < numRows; i++ )
 			{
 				// moving image
-				if ( Double.isInfinite( movingPts.get( i )[ 0 ] ) )
+				if ( store.isPending( true, i ) )
 				{
 					pointUpdatePendingMoving = true;
 
@@ -584,7 +599,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 				}
 
 				// target image
-				if ( Double.isInfinite( targetPts.get( i )[ 0 ] ) )
+				if ( store.isPending( false, i ) )
 				{
 					pointUpdatePendingMoving = true;
 
@@ -622,9 +637,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	}
 
 	public Boolean isWarped(int i) {
-		synchronized (this) {
-			return doesPointHaveAndNeedWarp.get(i);
-		}
+		return published.isWarped(i);
 	}
 
 	public void updateWarpedPoint( int i, double[] pt )
@@ -633,25 +646,23 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			if( pt == null )
 				return;
 
-			for ( int d = 0; d < ndims; d++ )
-				warpedPoints.get( i )[ d ] = pt[ d ];
-
-			doesPointHaveAndNeedWarp.set( i, true );
+			store.setWarped( i, pt );
+			publish();
 		}
 	}
 
 	public void printWarpedPoints()
 	{
 		String s = "";
-		final int N = doesPointHaveAndNeedWarp.size();
+		final int N = store.size();
 		for( int i = 0; i < N; i++ )
 		{
-			if( doesPointHaveAndNeedWarp.get( i ))
+			if( store.hasWarped( i ))
 			{
 //				String s = "" + i + " : ";
 				s += String.format("%04d : ", i);
 				for ( int d = 0; d < ndims; d++ )
-					s += String.format("%f\t", warpedPoints.get( i )[ d ] );
+					s += String.format("%f\t", store.getWarped( i, d ) );
 
 				s+="\n";
 			}
@@ -659,40 +670,80 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		System.out.println( s );
 	}
 
+	/**
+	 * Returns a copy of the warped points.
+	 *
+	 * @return a copy of the warped points
+	 * @deprecated use {@link #copyWarpedPointSafe(double[], int)}
+	 */
+	@Deprecated
 	public ArrayList< Double[] > getWarpedPoints()
 	{
-		return warpedPoints;
+		final LandmarkTableSnapshot s = published;
+		final ArrayList< Double[] > out = new ArrayList<>( s.getRowCount() );
+		for( int i = 0; i < s.getRowCount(); i++ )
+		{
+			final Double[] p = new Double[ ndims ];
+			for( int d = 0; d < ndims; d++ )
+				p[ d ] = s.getWarped( i, d );
+
+			out.add( p );
+		}
+		return out;
 	}
 
+	/**
+	 * @return a copy of the flags indicating which rows have a warped point
+	 * @deprecated use {@link #isWarped(int)}
+	 */
+	@Deprecated
 	public ArrayList<Boolean> getChangedSinceWarp()
 	{
-		return doesPointHaveAndNeedWarp;
+		final LandmarkTableSnapshot s = published;
+		final ArrayList< Boolean > out = new ArrayList<>( s.getRowCount() );
+		for( int i = 0; i < s.getRowCount(); i++ )
+			out.add( s.isWarped( i ) );
+
+		return out;
 	}
 
 	public void resetWarpedPoint( int i )
 	{
-		if ( activeList.get( i ) )
-			doesPointHaveAndNeedWarp.set( i, false );
+		synchronized( this ) {
+			if ( store.isActive( i ) )
+				store.setHasWarped( i, false );
+
+			publish();
+		}
 	}
 
 	public void resetWarpedPoints()
 	{
-		for ( int i = 0; i < doesPointHaveAndNeedWarp.size(); i++ )
-			resetWarpedPoint( i );
+		synchronized( this ) {
+			for ( int i = 0; i < store.size(); i++ )
+				if ( store.isActive( i ) )
+					store.setHasWarped( i, false );
+
+			publish();
+		}
 	}
 
 	public void resetNeedsInverse(){
-		Collections.fill( needsInverse, false );
+		synchronized( this ) {
+			store.clearNeedsInverse();
+		}
 	}
 
 	public void setNeedsInverse( int i )
 	{
-		needsInverse.set( i, true );
+		synchronized( this ) {
+			store.setNeedsInverse( i, true );
+		}
 	}
 
 	public boolean rowNeedsWarning( int row )
 	{
-		return movingDisplayPointUnreliable.get( row );
+		return published.isUnreliable( row );
 	}
 
 	protected void firePointUpdated( int row, boolean isMoving )
@@ -705,24 +756,12 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	private void addEmptyRow( int index )
 	{
 		synchronized(this) {
-			final Double[] movingPt = new Double[ ndims ];
-			final Double[] targetPt = new Double[ ndims ];
-
-			Arrays.fill( targetPt, Double.POSITIVE_INFINITY );
-			Arrays.fill( movingPt, Double.POSITIVE_INFINITY );
-
-			movingPts.add( index, movingPt );
-			targetPts.add( index, targetPt );
-
-			names.add( index, nextName( index ));
-			activeList.add( index, false );
-			warpedPoints.add( index, new Double[ ndims ] );
-			doesPointHaveAndNeedWarp.add( index, false );
-			movingDisplayPointUnreliable.add( index, false );
-			tableIndexToActiveIndex.add( -1 );
+			store.insertRow( index );
+			store.setName( index, nextName( index ) );
 
 			numRows++;
 			modifiedSinceLastSave = true;
+			publish();
 		}
 
 		fireTableRowsInserted( index, index );
@@ -812,30 +851,15 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 				}
 				else
 				{
-					if ( isMoving )
-						oldpt = toPrimitive( movingPts.get( index ) );
-					else
-						oldpt = toPrimitive( targetPts.get( index ) );
+					oldpt = new double[ ndims ];
+					store.copy( isMoving, index, oldpt );
 				}
 			}
 
-			ArrayList< Double[] > pts;
-
 			/********************
 			 * Update the point *
 			 ********************/
-			// get the relevant list of points (moving or target)
-			if( isMoving )
-				pts = movingPts;
-			else
-				pts = targetPts;
-
-			// create a new point and add it
-			final Double[] exPts = new Double[ ndims ];
-			for( int i = 0; i < ndims; i++ ){
-				exPts[ i ] = pt[ i ];
-			}
-			pts.set( index, exPts );
+			store.set( isMoving, index, pt );
 
 			/************************************************
 			 * Determine if we have to update warped points *
@@ -875,6 +899,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			updateNextRows( index );
 
 			activateRow( index );
+			publish();
 		}
 
 		firePointUpdated( index, isMoving );
@@ -884,10 +909,9 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 	public void setLastPoint( int i, boolean isMoving )
 	{
-		if( isMoving )
-			lastPoint = toPrimitive( movingPts.get( i ) );
-		else
-			lastPoint = toPrimitive( targetPts.get( i ) );
+		final double[] p = new double[ ndims ];
+		store.copy( isMoving, i, p );
+		lastPoint = p;
 	}
 
 	public void resetLastPoint()
@@ -898,20 +922,122 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	/**
 	 * Looks through the table for points where there is a point in moving space but not fixed space.
 	 * For any such landmarks that are found, compute the inverse transform and add the result to the fixed points line.
+	 * <p>
+	 * The points are copied while holding the lock of this table, the inverses are
+	 * computed in parallel by the {@link #getWarpedPointUpdater() warped point updater}
+	 * without holding it, and the results are stored at once afterwards. Results are
+	 * discarded if the landmarks changed in the meantime, or if the results of a
+	 * later call were stored already.
 	 *
 	 *  @param xfm the new transformation
 	 */
 	public void updateAllWarpedPoints( final InvertibleRealTransform xfm )
 	{
+		if ( xfm == null )
+			return;
+
 		final InvertibleRealTransform xfmToUse;
 		if (xfm instanceof InvertibleWrapped2DTransformAs3D && ndims == 2)
 			xfmToUse = ((InvertibleWrapped2DTransformAs3D) xfm).transform;
 		else
 			xfmToUse = xfm;
 
-		for ( int i = 0; i < numRows; i++ )
-			if ( !isFixedPoint( i ) && isMovingPoint( i ) )
-				computeWarpedPoint( i, xfmToUse );
+		final long version;
+		final long request;
+		final int[] rows;
+		final double[][] points;
+		final double[][] guesses;
+		synchronized( this ) {
+			version = store.getVersion();
+			request = ++warpedPointRequests;
+
+			int n = 0;
+			for ( int i = 0; i < numRows; i++ )
+				if ( store.isPending( false, i ) && !store.isPending( true, i ) )
+					n++;
+
+			rows = new int[ n ];
+			points = new double[ n ][ ndims ];
+			guesses = new double[ n ][];
+			int k = 0;
+			for ( int i = 0; i < numRows; i++ )
+				if ( store.isPending( false, i ) && !store.isPending( true, i ) )
+				{
+					rows[ k ] = i;
+					store.copy( true, i, points[ k ] );
+
+					// start from the previous warped point
+					if ( store.hasWarped( i ) )
+					{
+						guesses[ k ] = new double[ ndims ];
+						store.copyWarped( i, guesses[ k ] );
+					}
+					k++;
+				}
+		}
+
+		if ( rows.length == 0 )
+			return;
+
+		final double[][] warped = new double[ rows.length ][ ndims ];
+		final double[] residuals = new double[ rows.length ];
+		final WarpedPointUpdater updater = getWarpedPointUpdater();
+		try
+		{
+			updater.solve( xfmToUse, points, guesses, inverseThreshold, maxInverseIterations, warped, residuals );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			return;
+		}
+		catch ( final ExecutionException e )
+		{
+			logger.error( "Could not update warped points", e );
+			return;
+		}
+
+		final List< String > unreliable = new ArrayList<>();
+		synchronized( this ) {
+			if ( store.getVersion() != version || request < lastPublishedWarpedPointRequest )
+			{
+				logger.debug( "landmarks changed while updating warped points, discarding the results" );
+				return;
+			}
+
+			lastPublishedWarpedPointRequest = request;
+			for ( int k = 0; k < rows.length; k++ )
+			{
+				final boolean isUnreliable = residuals[ k ] > inverseThreshold;
+				store.setWarped( rows[ k ], warped[ k ] );
+				store.setUnreliable( rows[ k ], isUnreliable );
+				if ( isUnreliable )
+					unreliable.add( store.getName( rows[ k ] ) );
+			}
+			publish();
+		}
+
+		logger.trace( String.format( "updated %d warped points, %d warm started", rows.length, updater.getNumWarmStarts() ) );
+		if ( !unreliable.isEmpty() && message != null )
+			message.showMessage( String.format(
+					"Warning: location of moving point %s in warped space is innacurate", String.join( ", ", unreliable ) ) );
+	}
+
+	public WarpedPointUpdater getWarpedPointUpdater()
+	{
+		synchronized( this ) {
+			if ( warpedPointUpdater == null )
+				warpedPointUpdater = WarpedPointUpdater.create();
+
+			return warpedPointUpdater;
+		}
+	}
+
+	public void setWarpedPointUpdater( final WarpedPointUpdater warpedPointUpdater )
+	{
+		synchronized( this ) {
+			this.warpedPointUpdater = warpedPointUpdater;
+		}
 	}
 
 	/**
@@ -937,9 +1063,10 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			// TODO pass a transform here as argument - don't use estimatedXfm stored here
 
 			// TODO Perhaps move this into its own thread. and expose the parameters for solving the inverse.
-			if ( !isFixedPoint( i ) && isMovingPoint( i ) && xfm != null )
+			if ( store.isPending( false, i ) && !store.isPending( true, i ) && xfm != null )
 			{
-				final double[] tgt = toPrimitive( movingPts.get( i ) );
+				final double[] tgt = new double[ ndims ];
+				store.copy( true, i, tgt );
 
 				final double[] warpedPt = new double[ ndims ];
 				xfm.applyInverse( warpedPt, tgt );
@@ -951,12 +1078,12 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 					if( error > inverseThreshold )
 					{
-						movingDisplayPointUnreliable.set( i, true );
+						store.setUnreliable( i, true );
 						message.showMessage( String.format(
-							"Warning: location of moving point %s in warped space is innacurate", names.get( i )));
+							"Warning: location of moving point %s in warped space is innacurate", store.getName( i )));
 					}
 					else
-						movingDisplayPointUnreliable.set( i, false );
+						store.setUnreliable( i, false );
 				}
 
 				// TODO should check for failure or non-convergence here
@@ -964,6 +1091,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 				// BUT - it's not clear what to do upon failure
 				updateWarpedPoint( i, warpedPt );
 			}
+			publish();
 		}
 	}
 
@@ -978,20 +1106,53 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	}
 	public int getIndexNearestTo( double[] pt, boolean isMoving )
 	{
-		Double[] p;
-		double minDist = Double.MAX_VALUE;
-		int minIndex = -1;
-		for( int i = 0; i < numRows; i++ )
-		{
-			p = getPoint( isMoving, i );
-			final double thisdist = squaredDistance( p, pt );
-			if( thisdist < minDist )
-			{
-				minDist = thisdist;
-				minIndex = i;
-			}
+		return getIndexNearestTo( pt, isMoving, false, Double.POSITIVE_INFINITY );
+	}
+
+	/**
+	 * Returns the index of the landmark closest to a point, or -1 if there
+	 * is no landmark closer than maxDistance.
+	 *
+	 * @param pt the point
+	 * @param isMoving search the moving points if true, the fixed points otherwise
+	 * @param isTransformed if true and isMoving, moving points are located at
+	 *   their warped point if they have one, and at their fixed point otherwise
+	 * @param maxDistance the largest distance
+	 * @return the index of the closest landmark, or -1
+	 */
+	public int getIndexNearestTo( double[] pt, boolean isMoving, boolean isTransformed, double maxDistance )
+	{
+		synchronized( this ) {
+			return store.nearest( pt, isMoving, isTransformed, maxDistance );
 		}
-		return minIndex;
+	}
+
+	/**
+	 * Returns the indices of the landmarks within a distance of a point.
+	 *
+	 * @param pt the point
+	 * @param radius the distance
+	 * @param isMoving search the moving points if true, the fixed points otherwise
+	 * @param isTransformed see {@link #getIndexNearestTo(double[], boolean, boolean, double)}
+	 * @return the sorted indices
+	 */
+	public int[] getIndicesWithin( double[] pt, double radius, boolean isMoving, boolean isTransformed )
+	{
+		return published.getIndicesWithin( pt, radius, isMoving, isTransformed );
+	}
+
+	/**
+	 * Returns the indices of the landmarks inside a box.
+	 *
+	 * @param min the min corner of the box
+	 * @param max the max corner of the box
+	 * @param isMoving search the moving points if true, the fixed points otherwise
+	 * @param isTransformed see {@link #getIndexNearestTo(double[], boolean, boolean, double)}
+	 * @return the sorted indices
+	 */
+	public int[] getIndicesInBox( double[] min, double[] max, boolean isMoving, boolean isTransformed )
+	{
+		return published.getIndicesInBox( min, max, isMoving, isTransformed );
 	}
 
 	public double squaredDistance( Double[] p, double[] q )
@@ -1006,20 +1167,11 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 	public int getIndexNearestTo( RealLocalizable pt, boolean isMoving )
 	{
-		Double[] p;
-		double minDist = Double.MAX_VALUE;
-		int minIndex = -1;
-		for( int i = 0; i < numRows; i++ )
-		{
-			p = getPoint( isMoving, i );
-			final double thisdist = squaredDistance( p, pt );
-			if( thisdist < minDist )
-			{
-				minDist = thisdist;
-				minIndex = i;
-			}
-		}
-		return minIndex;
+		final double[] p = new double[ ndims ];
+		for( int d = 0; d < ndims; d++ )
+			p[ d ] = pt.getDoublePosition( d );
+
+		return getIndexNearestTo( p, isMoving );
 	}
 
 	public double squaredDistance( Double[] p, RealLocalizable q )
@@ -1032,57 +1184,75 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		return dist;
 	}
 
+	/**
+	 * Returns a copy of a moving or target point. Changes to the returned
+	 * point are not reflected in this table.
+	 *
+	 * @param isMoving return the moving point if true, the target point otherwise
+	 * @param index the row
+	 * @return a copy of the point
+	 */
 	public Double[] getPoint( boolean isMoving, int index )
 	{
-		if ( isMoving )
-			return movingPts.get( index );
-		else
-			return targetPts.get( index );
+		return getPoint( published, isMoving, index );
+	}
+
+	private Double[] getPoint( final LandmarkTableSnapshot s, final boolean isMoving, final int index )
+	{
+		final Double[] p = new Double[ ndims ];
+		for( int d = 0; d < ndims; d++ )
+			p[ d ] = s.get( isMoving, index, d );
+
+		return p;
 	}
 
 	public Double[] getMovingPoint( int index )
 	{
-		return movingPts.get( index );
+		return getPoint( true, index );
 	}
 
 	public Double[] getFixedPoint( int index )
 	{
-		return targetPts.get( index );
+		return getPoint( false, index );
 	}
 
+	/**
+	 * @return a copy of the moving points
+	 * @deprecated use {@link #getMovingPointsCopy()} or {@link #snapshot()}
+	 */
+	@Deprecated
 	public ArrayList< Double[] > getMovingPoints()
 	{
-		return movingPts;
+		return getPoints( true );
 	}
 
+	/**
+	 * @return a copy of the target points
+	 * @deprecated use {@link #getFixedPointsCopy()} or {@link #snapshot()}
+	 */
+	@Deprecated
 	public ArrayList< Double[] > getFixedPoints()
 	{
-		return targetPts;
+		return getPoints( false );
 	}
 
 	public ArrayList<double[]> getMovingPointsCopy()
 	{
-		final ArrayList< double[] > out = new ArrayList<double[]>();
-		for( final Double[] p : movingPts )
-		{
-			final double[] q = new double[ ndims ];
-			for( int d = 0; d < ndims; d++ )
-				q[d] = p[d];
-
-			out.add( q );
-		}
-		return out;
+		return getPointsCopy( published, true );
 	}
 
 	public ArrayList<double[]> getFixedPointsCopy()
 	{
-		final ArrayList< double[] > out = new ArrayList<double[]>();
-		for( final Double[] p : targetPts )
+		return getPointsCopy( published, false );
+	}
+
+	private ArrayList<double[]> getPointsCopy( final LandmarkTableSnapshot s, final boolean isMoving )
+	{
+		final ArrayList< double[] > out = new ArrayList<double[]>( s.getRowCount() );
+		for( int i = 0; i < s.getRowCount(); i++ )
 		{
 			final double[] q = new double[ ndims ];
-			for( int d = 0; d < ndims; d++ )
-				q[d] = p[d];
-
+			s.copy( isMoving, i, q );
 			out.add( q );
 		}
 		return out;
@@ -1090,12 +1260,12 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 	public boolean isMovingPoint( int index )
 	{
-		return !Double.isInfinite( movingPts.get( index )[ 0 ] );
+		return published.isMovingPoint( index );
 	}
 
 	public boolean isFixedPoint( int index )
 	{
-		return !Double.isInfinite( targetPts.get( index )[ 0 ] );
+		return published.isFixedPoint( index );
 	}
 
 	public boolean isFixedPoint( int index, boolean isMoving )
@@ -1114,24 +1284,23 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 			for( int d = 0; d < ndims; d++ )
 			{
-				if( !isMovingPoint( index ) )
+				if( store.isPending( true, index ) )
 				{
 					activate = false;
 					break;
 				}
-				if( !isFixedPoint( index ) )
+				if( store.isPending( false, index ) )
 				{
 					activate = false;
 					break;
 				}
 			}
-			changed = activate != activeList.get( index );
+			changed = activate != store.isActive( index );
 
 			if ( changed )
-			{
-				activeList.set( index, activate );
-				buildTableToActiveIndex();
-			}
+				store.setActive( index, activate );
+
+			publish();
 		}
 
 		if ( changed )
@@ -1159,7 +1328,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			try
 			{
 				// Increment the index in the name of the previous row
-				i = 1 + Integer.parseInt( names.get( index - 1 ).replaceAll( "Pt-", "" ));
+				i = 1 + Integer.parseInt( store.getName( index - 1 ).replaceAll( "Pt-", "" ));
 			}
 			catch ( final Exception e ){}
 
@@ -1225,7 +1394,21 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 	public static LandmarkTableModel loadFromCsv( File f, boolean invert ) throws IOException
 	{
-		final CSVReader reader = new CSVReader( new FileReader( f.getAbsolutePath() ) );
+		return loadFromCsv( new FileReader( f.getAbsolutePath() ), invert );
+	}
+
+	/**
+	 * Creates a table of the dimensionality of the landmarks in csv format
+	 * read from a reader, which is closed.
+	 *
+	 * @param in the reader
+	 * @param invert invert the moving and target point sets
+	 * @return the table, null if the rows are neither 2d nor 3d landmarks
+	 * @throws IOException an exception
+	 */
+	public static LandmarkTableModel loadFromCsv( Reader in, boolean invert ) throws IOException
+	{
+		final CSVReader reader = new CSVReader( in );
 		List< String[] > rows = null;
 		try
 		{
@@ -1234,6 +1417,9 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		}
 		catch ( final CsvException e ) {}
 
+		if ( rows == null || rows.isEmpty() )
+			return null;
+
 		LandmarkTableModel ltm = null;
 		if ( rows.get( 0 ).length == 6 )
 			ltm = new LandmarkTableModel( 2 );
@@ -1301,11 +1487,11 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 				if( row.length != expectedRowLength  )
 					throw new IOException( "Invalid file - not enough columns" );
 
-				names.add( row[ 0 ] );
-				activeList.add( Boolean.parseBoolean( row[ 1 ]) );
+				if( i == 0 && ndims != store.numDimensions() )
+					store = new LandmarkStore( ndims, rows.size() );
 
-				final Double[] movingPt = new Double[ ndims ];
-				final Double[] targetPt = new Double[ ndims ];
+				final double[] movingPt = new double[ ndims ];
+				final double[] targetPt = new double[ ndims ];
 
 				int k = 2;
 				for( int d = 0; d < ndims; d++ )
@@ -1314,27 +1500,20 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 				for( int d = 0; d < ndims; d++ )
 					targetPt[ d ] = Double.parseDouble( row[ k++ ]);
 
+				final boolean isActive = Boolean.parseBoolean( row[ 1 ] );
 				if( invert )
-				{
-					movingPts.add( targetPt );
-					targetPts.add( movingPt );
-				}
+					store.addRow( targetPt, movingPt, isActive );
 				else
-				{
-					movingPts.add( movingPt );
-					targetPts.add( targetPt );
-				}
+					store.addRow( movingPt, targetPt, isActive );
 
-				warpedPoints.add( new Double[ ndims ] );
-				doesPointHaveAndNeedWarp.add( false );
-				movingDisplayPointUnreliable.add( false );
+				store.setName( i, row[ 0 ] );
 				i++;
 			}
 
 			this.ndims = ndims;
 			numRows = i;
 			updateNextRows( 0 );
-			buildTableToActiveIndex();
+			publish();
 	//		initTransformation();
 		}
 
@@ -1345,7 +1524,48 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 	public int numActive()
 	{
-		return numActive;
+		return published.numActive();
+	}
+
+	/**
+	 * Returns the active landmarks. The returned snapshot is immutable and
+	 * is shared by all callers until the landmarks change, so repeated
+	 * calls do not copy any points.
+	 * <p>
+	 * This method does not wait for edits in progress, see
+	 * {@link #getTableSnapshot()}.
+	 *
+	 * @return the active landmarks
+	 */
+	public LandmarkSnapshot snapshot()
+	{
+		return published.getActiveLandmarks();
+	}
+
+	/**
+	 * Returns an immutable view of every row of this table as of the last
+	 * completed edit.
+	 * <p>
+	 * Edits publish a new snapshot before they return and before listeners
+	 * are notified, and this method never waits for edits in progress, so
+	 * painters, solvers and the auto saver can read the table while points
+	 * are being edited.
+	 *
+	 * @return the snapshot
+	 */
+	public LandmarkTableSnapshot getTableSnapshot()
+	{
+		return published;
+	}
+
+	/**
+	 * Publishes the current state of the store, must be called while
+	 * holding the lock of this table at the end of every edit.
+	 */
+	protected void publish()
+	{
+		if ( !deferPublish )
+			published = store.publish();
 	}
 
 	/**
@@ -1359,18 +1579,12 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	 * @return true if the point was copied
 	 */
 	public boolean copyPointSafe(double[] point, int index, boolean moving) {
-		synchronized (this) {
-			if (index >= getRowCount())
-				return false;
-
-			for (int d = 0; (d < point.length) && d < ndims; d++)
-				if (moving)
-					point[d] = movingPts.get(index)[d];
-				else
-					point[d] = targetPts.get(index)[d];
+		final LandmarkTableSnapshot s = published;
+		if (index >= s.getRowCount())
+			return false;
 
-			return true;
-		}
+		s.copy(moving, index, point);
+		return true;
 	}
 
 	/**
@@ -1383,15 +1597,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	 * @return true if the point was copied
 	 */
 	public boolean copyMovingPointSafe(double[] point, int index) {
-		synchronized (this) {
-			if (index >= movingPts.size())
-				return false;
-
-			for (int d = 0; (d < point.length) && d < ndims; d++)
-					point[d] = movingPts.get(index)[d];
-
-			return true;
-		}
+		return copyPointSafe(point, index, true);
 	}
 
 	/**
@@ -1404,15 +1610,12 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	 * @return true if the point was copied
 	 */
 	public boolean copyWarpedPointSafe(double[] point, int index) {
-		synchronized (this) {
-			if (index >= warpedPoints.size())
-				return false;
-
-			for (int d = 0; (d < point.length) && d < ndims; d++)
-					point[d] = warpedPoints.get(index)[d];
+		final LandmarkTableSnapshot s = published;
+		if (index >= s.getRowCount())
+			return false;
 
-			return true;
-		}
+		s.copyWarped(index, point);
+		return true;
 	}
 
 	/**
@@ -1425,145 +1628,136 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	 * @return true if the point was copied
 	 */
 	public boolean copyTargetPointSafe(double[] point, int index) {
-		synchronized (this) {
-			if (index >= targetPts.size())
-				return false;
-
-			for (int d = 0; (d < point.length) && d < ndims; d++)
-					point[d] = targetPts.get(index)[d];
-
-			return true;
-		}
+		return copyPointSafe(point, index, false);
 	}
 
 	public void copyMovingLandmarks(int tableIndex, double[][] destination) {
-		synchronized (this) {
-			for (int i = 0; i < this.numRows && i < destination.length; i++)
-				for (int d = 0; d < ndims && d < destination[i].length; d++)
-					destination[i][d] = movingPts.get(i)[d];
-		}
+		final LandmarkTableSnapshot s = published;
+		for (int i = 0; i < s.getRowCount() && i < destination.length; i++)
+			s.copy(true, i, destination[i]);
 	}
 
 	public void copyWarpedMovingLandmarks(int tableIndex, double[][] destination) {
-		synchronized (this) {
-			for (int i = 0; i < this.numRows && i < destination.length; i++)
-				for (int d = 0; d < ndims && d < destination[i].length; d++)
-					destination[i][d] = warpedPoints.get(i)[d];
-		}
+		final LandmarkTableSnapshot s = published;
+		for (int i = 0; i < s.getRowCount() && i < destination.length; i++)
+			s.copyWarped(i, destination[i]);
 	}
 
 	public void copyTargetLandmarks(double[][] destination) {
-		synchronized (this) {
-			for (int i = 0; i < this.numRows && i < destination.length; i++)
-				for (int d = 0; d < ndims && d < destination[i].length; d++)
-					destination[i][d] = targetPts.get(i)[d];
-		}
+		final LandmarkTableSnapshot s = published;
+		for (int i = 0; i < s.getRowCount() && i < destination.length; i++)
+			s.copy(false, i, destination[i]);
 	}
 
 	public void copyLandmarks( int tableIndex, double[][] movingLandmarks, double[][] targetLandmarks )
 	{
-		synchronized( this ) {
-			if( numActive != movingLandmarks[0].length )
-			{
-				System.out.println( "copy landmarks INCONSISTENCY");
-			}
+		final LandmarkTableSnapshot s = published;
+		if( s.numActive() != movingLandmarks[0].length )
+		{
+			System.out.println( "copy landmarks INCONSISTENCY");
+		}
 
-			if ( activeList.get( tableIndex ) )
+		if ( s.isActive( tableIndex ) )
+		{
+			final int activeIndex = s.getActiveIndex( tableIndex );
+			for ( int d = 0; d < ndims; d++ )
 			{
-				final int activeIndex = getActiveIndex( tableIndex );
-				for ( int d = 0; d < ndims; d++ )
-				{
-					movingLandmarks[ d ][ activeIndex ] = movingPts.get( tableIndex )[ d ];
-					targetLandmarks[ d ][ activeIndex ] = targetPts.get( tableIndex )[ d ];
-				}
+				movingLandmarks[ d ][ activeIndex ] = s.getMoving( tableIndex, d );
+				targetLandmarks[ d ][ activeIndex ] = s.getTarget( tableIndex, d );
 			}
 		}
 	}
 
+	/**
+	 * Copies the active landmarks into the given arrays.
+	 * <p>
+	 * Prefer {@link #snapshot()}, which shares the points between solves
+	 * instead of copying them every time.
+	 *
+	 * @param movingLandmarks the moving point destination, ndims x numActive
+	 * @param targetLandmarks the target point destination, ndims x numActive
+	 */
 	public void copyLandmarks( double[][] movingLandmarks, double[][] targetLandmarks )
 	{
+		final LandmarkSnapshot s = snapshot();
 		logger.trace(
-				String.format("copyLandmarks. nActive=%d.  sizes = %d x %d ; %d x %d ", numActive,
+				String.format("copyLandmarks. nActive=%d.  sizes = %d x %d ; %d x %d ", s.size(),
 						movingLandmarks.length, movingLandmarks[0].length,
 						targetLandmarks.length, targetLandmarks[0].length));
 
-		synchronized(this) {
-			int k = 0;
-			for ( int i = 0; i < this.numRows; i++ )
-			{
-				if ( activeList.get( i ) )
-				{
-					for ( int d = 0; d < ndims; d++ )
-					{
-						movingLandmarks[ d ][ k ] = movingPts.get( i )[ d ];
-						targetLandmarks[ d ][ k ] = targetPts.get( i )[ d ];
-					}
-					k++;
-				}
-			}
+		final int n = Math.min( s.size(), movingLandmarks[ 0 ].length );
+		for ( int d = 0; d < ndims; d++ )
+		{
+			System.arraycopy( s.getMovingPoints()[ d ], 0, movingLandmarks[ d ], 0, n );
+			System.arraycopy( s.getTargetPoints()[ d ], 0, targetLandmarks[ d ], 0, n );
 		}
 	}
 
 	@Deprecated
 	public void initTransformation()
 	{
-		final int numActive = numActive();
 		// TODO: better to pass a factory here so the transformation can be any
 		// CoordinateTransform ( not just a TPS )
-		final double[][] mvgPts = new double[ ndims ][ numActive ];
-		final double[][] tgtPts = new double[ ndims ][ numActive ];
-
-		copyLandmarks( mvgPts, tgtPts );
+		final LandmarkSnapshot s = snapshot();
 
 		// need to find the "inverse TPS" so exchange moving and tgt
-		estimatedXfm = new ThinPlateR2LogRSplineKernelTransform( ndims, tgtPts, mvgPts );
+		estimatedXfm = new ThinPlateR2LogRSplineKernelTransform( ndims, s.getTargetPoints(), s.getMovingPoints() );
 	}
 
 	/**
-	 * Saves the table to a file
+	 * Saves the table to a file. The rows are read from the last published
+	 * snapshot, so edits are not blocked while the file is written.
+	 *
 	 * @param f the file
 	 * @throws IOException an exception
 	 */
 	public void save( File f ) throws IOException
 	{
-		final CSVWriter csvWriter = new CSVWriter(new FileWriter( f.getAbsoluteFile() ));
+		// clear the flag first so that edits made while saving are saved next time
+		modifiedSinceLastSave = false;
+		final LandmarkTableSnapshot s = published;
+		final int N = s.getRowCount();
+		final List<String[]> rows = new ArrayList<String[]>( N );
 
-		synchronized(this) {
-			final int N = names.size();
-			final List<String[]> rows = new ArrayList<String[]>( N );
+		final int rowLength = 2 * ndims + 2;
+		for( int i = 0; i < N; i++ )
+		{
+			final String[] row = new String[ rowLength ];
+			row[ 0 ] = s.getName( i );
+			row[ 1 ] = Boolean.toString( s.isActive( i ) );
 
-			final int rowLength = 2 * ndims + 2;
-			for( int i = 0; i < N; i++ )
-			{
-				final String[] row = new String[ rowLength ];
-				row[ 0 ] = names.get( i );
-				row[ 1 ] = activeList.get( i ).toString();
+			int k = 2;
+			int j = 0;
+			while( j < ndims )
+				row[ k++ ] = Double.toString( s.getMoving( i, j++ ) );
 
-				int k = 2;
-				int j = 0;
-				while( j < ndims )
-					row[ k++ ] = movingPts.get( i )[ j++ ].toString();
+			j = 0;
+			while( j < ndims )
+				row[ k++ ] = Double.toString( s.getTarget( i, j++ ) );
 
-				j = 0;
-				while( j < ndims )
-					row[ k++ ] = targetPts.get( i )[ j++ ].toString();
+			rows.add( row );
+		}
 
-				rows.add( row );
-			}
+		try ( final CSVWriter csvWriter = new CSVWriter(new FileWriter( f.getAbsoluteFile() )) )
+		{
 			csvWriter.writeAll( rows );
-			csvWriter.close();
-			modifiedSinceLastSave = false;
+		}
+		catch( final IOException e )
+		{
+			modifiedSinceLastSave = true;
+			throw e;
 		}
 	}
 
 	public JsonElement toJson()
 	{
+		final LandmarkTableSnapshot s = published;
 		final Gson gson = new GsonBuilder().serializeSpecialFloatingPointValues().create();
 		final JsonObject out = new JsonObject();
-		final JsonElement mvgPtsObj = gson.toJsonTree(getMovingPoints(), new TypeToken<List<Double[]> >() {}.getType());
-		final JsonElement fixedPtsObj = gson.toJsonTree(getFixedPoints(), new TypeToken<List<Double[]> >() {}.getType());
-		final JsonElement activeObj = gson.toJsonTree( activeList );
-		final JsonElement namesObj = gson.toJsonTree( names );
+		final JsonElement mvgPtsObj = gson.toJsonTree(getPointsCopy( s, true ), new TypeToken<List<double[]> >() {}.getType());
+		final JsonElement fixedPtsObj = gson.toJsonTree(getPointsCopy( s, false ), new TypeToken<List<double[]> >() {}.getType());
+		final JsonElement activeObj = gson.toJsonTree( getActiveList( s ) );
+		final JsonElement namesObj = gson.toJsonTree( s.getNames() );
 
 		out.add("type", new JsonPrimitive("BigWarpLandmarks"));
 		out.add("numDimensions", new JsonPrimitive( ndims ));
@@ -1575,7 +1769,17 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		return out;
 	}
 
+	private List<Boolean> getActiveList( final LandmarkTableSnapshot s )
+	{
+		final List< Boolean > out = new ArrayList<>( s.getRowCount() );
+		for( int i = 0; i < s.getRowCount(); i++ )
+			out.add( s.isActive( i ) );
+
+		return out;
+	}
+
 	public void fromJson( File f )
+
 	{
 		final Gson gson = new Gson();
 		final OpenOption[] options = new OpenOption[]{StandardOpenOption.READ};
@@ -1605,35 +1809,28 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 			numRows = namesArr.size();
 			final int ndims = landmarks.get("numDimensions").getAsInt();
+			if( ndims != store.numDimensions() )
+				store = new LandmarkStore( ndims, numRows );
 
+			final double[] movingPt = new double[ ndims ];
+			final double[] targetPt = new double[ ndims ];
 			for( int i = 0; i < numRows; i++ )
 			{
-
-				names.add( namesArr.get(i).getAsString() );
-				activeList.add( activeArr.get(i).getAsBoolean() );
-
 				final JsonElement mvg = mvgArr.get( i );
 				final JsonElement fixed = fixedArr.get( i );
-				final Double[] movingPt = new Double[ ndims ];
-				final Double[] targetPt = new Double[ ndims ];
-
 				for( int d = 0; d < ndims; d++ )
 				{
 					movingPt[ d ] = mvg.getAsJsonArray().get(d).getAsDouble();
 					targetPt[ d ] = fixed.getAsJsonArray().get(d).getAsDouble();
 				}
 
-				movingPts.add( movingPt );
-				targetPts.add( targetPt );
-
-				warpedPoints.add( new Double[ ndims ] );
-				doesPointHaveAndNeedWarp.add( false );
-				movingDisplayPointUnreliable.add( false );
+				store.addRow( movingPt, targetPt, activeArr.get(i).getAsBoolean() );
+				store.setName( i, namesArr.get(i).getAsString() );
 			}
 
 			this.ndims = ndims;
 			updateNextRows( 0 );
-			buildTableToActiveIndex();
+			publish();
 		}
 
 		for( int i = 0; i < numRows; i++ )
@@ -1663,7 +1860,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 			if( col == NAMECOLUMN )
 			{
-				names.set(row, (String)value );
+				store.setName( row, (String)value );
 			}
 			else if( col == ACTIVECOLUMN )
 			{
@@ -1671,15 +1868,14 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			}
 			else if( col < 2 + ndims )
 			{
-				final Double[] thesePts = movingPts.get(row);
-				thesePts[ col - 2 ] = ((Double)value).doubleValue();
+				store.set( true, row, col - 2, ((Double)value).doubleValue() );
 			}
 			else
 			{
-				final Double[] thesePts = targetPts.get(row);
-				thesePts[ col - ndims - 2 ] = ((Double)value).doubleValue();
+				store.set( false, row, col - ndims - 2, ((Double)value).doubleValue() );
 			}
 
+			publish();
 		}
 
         fireTableCellUpdated(row, col);
@@ -1688,16 +1884,17 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	@Override
 	public Object getValueAt( int rowIndex, int columnIndex )
 	{
-		if( rowIndex >= names.size() )
+		final LandmarkTableSnapshot s = published;
+		if( rowIndex >= s.getRowCount() )
 			return null;
 		else if ( columnIndex == NAMECOLUMN )
-			return names.get( rowIndex );
+			return s.getName( rowIndex );
 		else if ( columnIndex == ACTIVECOLUMN )
-			return activeList.get( rowIndex );
+			return s.isActive( rowIndex );
 		else if( columnIndex < 2 + ndims )
-			return movingPts.get( rowIndex )[ columnIndex - 2 ];
+			return s.getMoving( rowIndex, columnIndex - 2 );
 		else
-			return targetPts.get( rowIndex )[ columnIndex - ndims - 2 ];
+			return s.getTarget( rowIndex, columnIndex - ndims - 2 );
 	}
 
 	/**
@@ -1719,23 +1916,19 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	{
 		final LandmarkTableModel inv = new LandmarkTableModel( ndims );
 
-		final int N = this.getRowCount();
+		final LandmarkTableSnapshot s = published;
+		final int N = s.getRowCount();
 
 		final double[] tmp = new double[ ndims ];
 		for ( int i = 0; i < N; i++ )
 		{
-			final Double[] thisMoving = movingPts.get( i );
-			final Double[] thisTarget = targetPts.get( i );
-
-			for ( int d = 0; d < ndims; d++ )
-				tmp[ d ] = thisMoving[ d ];
-
+			s.copy( true, i, tmp );
 			inv.add( tmp, false, null );
 
-			for ( int d = 0; d < ndims; d++ )
-				tmp[ d ] = thisTarget[ d ];
+			s.copy( false, i, tmp );
 
 			inv.setPoint( i, true, tmp, null );
+
 		}
 
 		return inv;
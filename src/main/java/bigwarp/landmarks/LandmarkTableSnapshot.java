@@ -0,0 +1,378 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable view of every row of a {@link LandmarkStore} at some point
+ * in time: the names, the moving, target and warped points, and the flags.
+ * <p>
+ * Snapshots are published by the store after each edit and can be read by
+ * any thread without locking. They share the coordinate chunks that did not
+ * change with the store and with each other (see {@link ChunkedDoubleArray}),
+ * so publishing a snapshot after moving a single point copies one chunk per
+ * dimension instead of the whole table.
+ * <p>
+ * The active landmarks and the spatial indexes used for range queries are
+ * computed the first time they are asked for, and are passed on to later
+ * snapshots as long as the points they depend on do not change.
+ */
+public final class LandmarkTableSnapshot
+{
+	private final int ndims;
+
+	private final int numRows;
+
+	private final int numActive;
+
+	private final long version;
+
+	private final long modCount;
+
+	// [ d ][ chunk ][ offset ]
+	private final double[][][] moving;
+
+	private final double[][][] target;
+
+	private final double[][][] warped;
+
+	// may be longer than numRows and be appended to by the store
+	private final String[] names;
+
+	// passed on to the next snapshot by the store if they do not change
+	final BitSet active;
+
+	final BitSet hasWarped;
+
+	final BitSet unreliable;
+
+	private final Lazy< LandmarkSnapshot > activeLandmarks;
+
+	private final Lazy< LandmarkSpatialIndex > movingIndex;
+
+	private final Lazy< LandmarkSpatialIndex > targetIndex;
+
+	private final Lazy< LandmarkSpatialIndex > displayIndex;
+
+	LandmarkTableSnapshot( final int ndims, final int numRows, final int numActive, final long version, final long modCount,
+			final double[][][] moving, final double[][][] target, final double[][][] warped,
+			final String[] names, final BitSet active, final BitSet hasWarped, final BitSet unreliable,
+			final Lazy< LandmarkSnapshot > activeLandmarks,
+			final Lazy< LandmarkSpatialIndex > movingIndex,
+			final Lazy< LandmarkSpatialIndex > targetIndex,
+			final Lazy< LandmarkSpatialIndex > displayIndex )
+	{
+		this.ndims = ndims;
+		this.numRows = numRows;
+		this.numActive = numActive;
+		this.version = version;
+		this.modCount = modCount;
+		this.moving = moving;
+		this.target = target;
+		this.warped = warped;
+		this.names = names;
+		this.active = active;
+		this.hasWarped = hasWarped;
+		this.unreliable = unreliable;
+		this.activeLandmarks = activeLandmarks;
+		this.movingIndex = movingIndex;
+		this.targetIndex = targetIndex;
+		this.displayIndex = displayIndex;
+	}
+
+	public int numDimensions()
+	{
+		return ndims;
+	}
+
+	public int getRowCount()
+	{
+		return numRows;
+	}
+
+	public int numActive()
+	{
+		return numActive;
+	}
+
+	/**
+	 * @return the version of the moving and target points and active rows,
+	 *   see {@link LandmarkStore#getVersion()}
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @return a counter that differs between snapshots of different states of the store
+	 */
+	public long getModCount()
+	{
+		return modCount;
+	}
+
+	public String getName( final int row )
+	{
+		return names[ row ];
+	}
+
+	/**
+	 * @return an unmodifiable list of the row names
+	 */
+	public List< String > getNames()
+	{
+		return Collections.unmodifiableList( Arrays.asList( names ).subList( 0, numRows ) );
+	}
+
+	public boolean isActive( final int row )
+	{
+		return active.get( row );
+	}
+
+	public boolean isWarped( final int row )
+	{
+		return hasWarped.get( row );
+	}
+
+	public boolean isUnreliable( final int row )
+	{
+		return unreliable.get( row );
+	}
+
+	public boolean isMovingPoint( final int row )
+	{
+		return !Double.isInfinite( getMoving( row, 0 ) );
+	}
+
+	public boolean isFixedPoint( final int row )
+	{
+		return !Double.isInfinite( getTarget( row, 0 ) );
+	}
+
+	public double get( final boolean isMoving, final int row, final int d )
+	{
+		return ChunkedDoubleArray.get( isMoving ? moving[ d ] : target[ d ], row );
+	}
+
+	public double getMoving( final int row, final int d )
+	{
+		return ChunkedDoubleArray.get( moving[ d ], row );
+	}
+
+	public double getTarget( final int row, final int d )
+	{
+		return ChunkedDoubleArray.get( target[ d ], row );
+	}
+
+	public double getWarped( final int row, final int d )
+	{
+		return ChunkedDoubleArray.get( warped[ d ], row );
+	}
+
+	/**
+	 * Copies a moving or target point into a destination array, see
+	 * {@link LandmarkStore#copy(boolean, int, double[])}.
+	 *
+	 * @param isMoving copy the moving point if true, the target point otherwise
+	 * @param row the row
+	 * @param dest the destination
+	 */
+	public void copy( final boolean isMoving, final int row, final double[] dest )
+	{
+		copy( isMoving ? moving : target, row, dest );
+	}
+
+	public void copyWarped( final int row, final double[] dest )
+	{
+		copy( warped, row, dest );
+	}
+
+	/**
+	 * Copies the point of a row where it is displayed, see
+	 * {@link LandmarkStore#nearest(double[], boolean, boolean, double)}.
+	 *
+	 * @param isMoving copy the moving point if true, the target point otherwise
+	 * @param displayWarped copy moving points at their display position in fixed space
+	 * @param row the row
+	 * @param dest the destination
+	 */
+	public void copyDisplayed( final boolean isMoving, final boolean displayWarped, final int row, final double[] dest )
+	{
+		if ( !isMoving )
+			copy( target, row, dest );
+		else if ( !displayWarped )
+			copy( moving, row, dest );
+		else
+			copy( hasWarped.get( row ) ? warped : target, row, dest );
+	}
+
+	/**
+	 * Returns the index of a row among the active rows, or -1 if the row is
+	 * not active.
+	 *
+	 * @param row the row
+	 * @return the active index
+	 */
+	public int getActiveIndex( final int row )
+	{
+		if ( !active.get( row ) )
+			return -1;
+
+		return active.get( 0, row ).cardinality();
+	}
+
+	/**
+	 * Returns the active landmarks in the layout transform solvers expect.
+	 * The result is shared by every snapshot with the same
+	 * {@link #getVersion() version}.
+	 *
+	 * @return the active landmarks
+	 */
+	public LandmarkSnapshot getActiveLandmarks()
+	{
+		return activeLandmarks.get( this::createActiveLandmarks );
+	}
+
+	/**
+	 * Returns the sorted rows whose point is within a distance of pt.
+	 *
+	 * @param pt the point
+	 * @param radius the distance
+	 * @param isMoving search the moving points if true, the target points otherwise
+	 * @param displayWarped search moving points at their display position in fixed space
+	 * @return the sorted rows
+	 */
+	public int[] getIndicesWithin( final double[] pt, final double radius, final boolean isMoving, final boolean displayWarped )
+	{
+		final LandmarkSpatialIndex index = index( isMoving, displayWarped );
+		final IntStream.Builder out = IntStream.builder();
+		synchronized ( index )
+		{
+			index.search( pt, radius, out );
+		}
+		return out.build().sorted().toArray();
+	}
+
+	/**
+	 * Returns the sorted rows whose point lies inside a box.
+	 *
+	 * @param min the min corner
+	 * @param max the max corner
+	 * @param isMoving search the moving points if true, the target points otherwise
+	 * @param displayWarped search moving points at their display position in fixed space
+	 * @return the sorted rows
+	 */
+	public int[] getIndicesInBox( final double[] min, final double[] max, final boolean isMoving, final boolean displayWarped )
+	{
+		final LandmarkSpatialIndex index = index( isMoving, displayWarped );
+		final IntStream.Builder out = IntStream.builder();
+		synchronized ( index )
+		{
+			index.search( min, max, out );
+		}
+		return out.build().sorted().toArray();
+	}
+
+	private LandmarkSpatialIndex index( final boolean isMoving, final boolean displayWarped )
+	{
+		if ( !isMoving )
+			return targetIndex.get( () -> createIndex( ( row, d ) -> getTarget( row, d ) ) );
+		else if ( !displayWarped )
+			return movingIndex.get( () -> createIndex( ( row, d ) -> getMoving( row, d ) ) );
+		else
+			return displayIndex.get( () -> createIndex(
+					( row, d ) -> hasWarped.get( row ) ? getWarped( row, d ) : getTarget( row, d ) ) );
+	}
+
+	private LandmarkSpatialIndex createIndex( final LandmarkSpatialIndex.Coordinates coordinates )
+	{
+		final LandmarkSpatialIndex index = new LandmarkSpatialIndex( ndims, coordinates );
+		for ( int i = 0; i < numRows; i++ )
+			index.add( i );
+
+		return index;
+	}
+
+	private LandmarkSnapshot createActiveLandmarks()
+	{
+		final double[][] mvg = new double[ ndims ][ numActive ];
+		final double[][] tgt = new double[ ndims ][ numActive ];
+		final int[] rows = new int[ numActive ];
+
+		// copy runs of consecutive active rows at once
+		int k = 0;
+		int start = active.nextSetBit( 0 );
+		while ( start >= 0 && start < numRows )
+		{
+			final int end = Math.min( active.nextClearBit( start ), numRows );
+			final int n = end - start;
+			for ( int d = 0; d < ndims; d++ )
+			{
+				ChunkedDoubleArray.copy( moving[ d ], start, mvg[ d ], k, n );
+				ChunkedDoubleArray.copy( target[ d ], start, tgt[ d ], k, n );
+			}
+
+			for ( int i = start; i < end; i++ )
+				rows[ k++ ] = i;
+
+			start = active.nextSetBit( end );
+		}
+		return new LandmarkSnapshot( ndims, mvg, tgt, rows, version );
+	}
+
+	private void copy( final double[][][] pts, final int row, final double[] dest )
+	{
+		final int n = Math.min( dest.length, ndims );
+		for ( int d = 0; d < n; d++ )
+			dest[ d ] = ChunkedDoubleArray.get( pts[ d ], row );
+	}
+
+	/**
+	 * A value computed on first use that can be shared between snapshots.
+	 */
+	static final class Lazy< T >
+	{
+		private volatile T value;
+
+		T get( final Supplier< T > supplier )
+		{
+			T v = value;
+			if ( v == null )
+			{
+				synchronized ( this )
+				{
+					v = value;
+					if ( v == null )
+						value = v = supplier.get();
+				}
+			}
+			return v;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bigwarp.transforms.NewtonInverseSolver;
+import net.imglib2.realtransform.InvertibleRealTransform;
+import net.imglib2.realtransform.RealTransformBatch;
+
+/**
+ * Computes the warped positions of moving points, i.e. the inverse of a
+ * transform at the moving points, in parallel.
+ * <p>
+ * Every task works on a copy of the transform. A point with a previous
+ * warped position is solved with Newton iterations starting from it, which
+ * usually converges in a few iterations after the transform changed
+ * slightly. Points without one, or whose warm started solve does not
+ * converge, use the transform's own inverse.
+ */
+public class WarpedPointUpdater
+{
+	public static final double DEFAULT_JACOBIAN_STEP = 1e-3;
+
+	private static final int MIN_POINTS_PER_TASK = 16;
+
+	private static final int TASKS_PER_THREAD = 4;
+
+	private final ExecutorService executor;
+
+	private final int parallelism;
+
+	private double jacobianStep = DEFAULT_JACOBIAN_STEP;
+
+	private final AtomicInteger numWarmStarts = new AtomicInteger();
+
+	private final AtomicInteger numColdStarts = new AtomicInteger();
+
+	/**
+	 * @param executor runs the tasks
+	 * @param parallelism the number of threads of the executor
+	 */
+	public WarpedPointUpdater( final ExecutorService executor, final int parallelism )
+	{
+		this.executor = executor;
+		this.parallelism = Math.max( 1, parallelism );
+	}
+
+	/**
+	 * Creates an updater that runs on a pool of daemon threads, one per
+	 * processor.
+	 *
+	 * @return the updater
+	 */
+	public static WarpedPointUpdater create()
+	{
+		final int nThreads = Runtime.getRuntime().availableProcessors();
+		final AtomicInteger threadCount = new AtomicInteger();
+		final ExecutorService exec = Executors.newFixedThreadPool( nThreads, r -> {
+			final Thread t = new Thread( r, "bigwarp-warped-points-" + threadCount.getAndIncrement() );
+			t.setDaemon( true );
+			return t;
+		} );
+		return new WarpedPointUpdater( exec, nThreads );
+	}
+
+	/**
+	 * @param jacobianStep the finite difference step used to estimate the
+	 *            Jacobian of the transform, in physical units
+	 */
+	public void setJacobianStep( final double jacobianStep )
+	{
+		this.jacobianStep = jacobianStep;
+	}
+
+	/**
+	 * @return the number of points of the last call to {@link #solve} whose
+	 *         warm started solve converged
+	 */
+	public int getNumWarmStarts()
+	{
+		return numWarmStarts.get();
+	}
+
+	/**
+	 * @return the number of points of the last call to {@link #solve} that
+	 *         were solved with the transform's inverse
+	 */
+	public int getNumColdStarts()
+	{
+		return numColdStarts.get();
+	}
+
+	/**
+	 * Finds x such that xfm( x ) = points[ k ] for every k.
+	 *
+	 * @param xfm the transform
+	 * @param points the moving points
+	 * @param guesses the previous warped points, null entries have none
+	 * @param tolerance the largest residual of a warm started solve
+	 * @param maxIterations the maximum number of Newton iterations
+	 * @param warped receives the warped points
+	 * @param residuals receives the distance between xfm( warped[ k ] ) and points[ k ]
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws ExecutionException if a task failed
+	 */
+	public void solve( final InvertibleRealTransform xfm, final double[][] points, final double[][] guesses,
+			final double tolerance, final int maxIterations,
+			final double[][] warped, final double[] residuals ) throws InterruptedException, ExecutionException
+	{
+		numWarmStarts.set( 0 );
+		numColdStarts.set( 0 );
+
+		final int numPoints = points.length;
+		final int numTasks = Math.min( parallelism * TASKS_PER_THREAD, ( numPoints + MIN_POINTS_PER_TASK - 1 ) / MIN_POINTS_PER_TASK );
+		if ( numTasks <= 1 )
+		{
+			solve( xfm.copy(), points, guesses, tolerance, maxIterations, warped, residuals, 0, numPoints );
+			return;
+		}
+
+		final List< Future< ? > > futures = new ArrayList<>( numTasks );
+		try
+		{
+			for ( int i = 0; i < numTasks; i++ )
+			{
+				final int start = ( int ) ( ( long ) i * numPoints / numTasks );
+				final int end = ( int ) ( ( long ) ( i + 1 ) * numPoints / numTasks );
+				futures.add( executor.submit( () -> solve( xfm.copy(), points, guesses, tolerance, maxIterations, warped, residuals, start, end ) ) );
+			}
+
+			for ( final Future< ? > f : futures )
+				f.get();
+		}
+		finally
+		{
+			for ( final Future< ? > f : futures )
+				f.cancel( true );
+		}
+	}
+
+	private void solve( final InvertibleRealTransform xfm, final double[][] points, final double[][] guesses,
+			final double tolerance, final int maxIterations,
+			final double[][] warped, final double[] residuals,
+			final int start, final int end )
+	{
+		final int nd = points.length > 0 ? points[ 0 ].length : 0;
+		final int n = Math.max( nd, Math.max( xfm.numSourceDimensions(), xfm.numTargetDimensions() ) );
+		final NewtonInverseSolver newton = new NewtonInverseSolver( xfm, n, jacobianStep );
+
+		final double[] y = new double[ n ];
+		final double[] x = new double[ n ];
+		int warm = 0;
+		int k = start;
+		for ( ; k < end; k++ )
+		{
+			if ( Thread.currentThread().isInterrupted() )
+				break;
+
+			System.arraycopy( points[ k ], 0, y, 0, nd );
+			for ( int d = nd; d < n; d++ )
+				x[ d ] = 0;
+
+			boolean converged = false;
+			if ( guesses[ k ] != null )
+			{
+				System.arraycopy( guesses[ k ], 0, x, 0, nd );
+				converged = newton.solve( y, x, tolerance, maxIterations ) >= 0;
+			}
+
+			if ( converged )
+				warm++;
+			else
+				xfm.applyInverse( x, y );
+
+			System.arraycopy( x, 0, warped[ k ], 0, nd );
+		}
+		numWarmStarts.addAndGet( warm );
+		numColdStarts.addAndGet( k - start - warm );
+
+		// residuals of all solved points with one batch evaluation
+		final int m = k - start;
+		final double[][] xs = new double[ n ][ m ];
+		for ( int i = 0; i < m; i++ )
+			for ( int d = 0; d < nd; d++ )
+				xs[ d ][ i ] = warped[ start + i ][ d ];
+
+		RealTransformBatch.apply( xfm, xs, xs, 0, m );
+		for ( int i = 0; i < m; i++ )
+		{
+			double r = 0;
+			for ( int d = 0; d < nd; d++ )
+				r += ( xs[ d ][ i ] - points[ start + i ][ d ] ) * ( xs[ d ][ i ] - points[ start + i ][ d ] );
+
+			residuals[ start + i ] = Math.sqrt( r );
+		}
+	}
+}
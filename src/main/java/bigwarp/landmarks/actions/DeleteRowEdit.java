@@ -36,8 +36,11 @@ public class DeleteRowEdit extends AbstractPointEdit
 		super( ltm );
 		this.index = index;
 		
-		movingPt = LandmarkTableModel.toPrimitive( ltm.getPoints( true ).get( index ) );
-		targetPt = LandmarkTableModel.toPrimitive( ltm.getPoints( false ).get( index ) );
+		movingPt = new double[ ltm.getNumdims() ];
+		targetPt = new double[ ltm.getNumdims() ];
+		ltm.copyPointSafe( movingPt, index, true );
+		ltm.copyPointSafe( targetPt, index, false );
+
 	}
 
 	@Override
@@ -23,7 +23,6 @@ package bigwarp.scripts;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 
 import bigwarp.landmarks.LandmarkTableModel;
 
@@ -75,12 +74,17 @@ public class RescaleLandmarks
 
 	public static void scaleLandmarks( LandmarkTableModel ltm, double[] scales, boolean isMoving )
 	{
-		ArrayList< Double[] > pts = ltm.getPoints( isMoving );
+		final int nd = ltm.getNumdims();
+		final int offset = isMoving ? 2 : 2 + nd;
+		final double[] pt = new double[ nd ];
 		for( int i = 0; i < ltm.getRowCount(); i++ )
 		{
-			scale( pts.get(i), scales );
+			ltm.copyPointSafe( pt, i, isMoving );
+			for( int d = 0; d < nd; d++ )
+				ltm.setValueAt( pt[ d ] * scales[ d ], i, offset + d );
 		}
 	}
+
 	
 	public static void scale( Double[] point, double[] scale )
 	{
@@ -0,0 +1,209 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A minimal client of a {@link TransformServer}, for use from java and for
+ * testing. Instances are thread safe.
+ */
+public class TransformClient
+{
+	private final String base;
+
+	public TransformClient( final int port )
+	{
+		this( "localhost", port );
+	}
+
+	public TransformClient( final String host, final int port )
+	{
+		base = "http://" + host + ":" + port;
+	}
+
+	/**
+	 * Loads the transformation of a landmarks or settings file the server
+	 * can read, if the server allows loading from paths.
+	 *
+	 * @param path the file
+	 * @param type the transformation type, or null
+	 * @return the id of the transformation
+	 * @throws IOException if the request failed
+	 */
+	public String load( final Path path, final String type ) throws IOException
+	{
+		String query = "?path=" + encode( path.toAbsolutePath().toString() );
+		if ( type != null )
+			query += "&type=" + encode( type );
+
+		return id( request( "POST", "/transforms" + query, null, null ) );
+	}
+
+	/**
+	 * Uploads landmarks or settings and loads their transformation.
+	 *
+	 * @param content the file content
+	 * @param type the transformation type, or null
+	 * @return the id of the transformation
+	 * @throws IOException if the request failed
+	 */
+	public String upload( final byte[] content, final String type ) throws IOException
+	{
+		final String query = type == null ? "" : "?type=" + encode( type );
+		return id( request( "POST", "/transforms" + query, TransformServer.BINARY, content ) );
+	}
+
+	public JsonObject describe( final String id ) throws IOException
+	{
+		return JsonParser.parseString( new String( request( "GET", "/transforms/" + id, null, null ), StandardCharsets.UTF_8 ) ).getAsJsonObject();
+	}
+
+	/**
+	 * Transforms points from target to moving space.
+	 *
+	 * @param id the transformation
+	 * @param points interleaved coordinates
+	 * @return the transformed interleaved coordinates
+	 * @throws IOException if the request failed
+	 */
+	public double[] forward( final String id, final double[] points ) throws IOException
+	{
+		return points( "/transforms/" + id + "/forward", points );
+	}
+
+	/**
+	 * Transforms points from moving to target space.
+	 *
+	 * @param id the transformation
+	 * @param points interleaved coordinates
+	 * @return the transformed interleaved coordinates
+	 * @throws IOException if the request failed
+	 */
+	public double[] inverse( final String id, final double[] points ) throws IOException
+	{
+		return points( "/transforms/" + id + "/inverse", points );
+	}
+
+	/**
+	 * Renders a block of the server's source in target space.
+	 *
+	 * @param id the transformation
+	 * @param offset the physical position of the first pixel
+	 * @param spacing the physical pixel spacing
+	 * @param size the size in pixels
+	 * @return the values, channel after channel, x fastest
+	 * @throws IOException if the request failed
+	 */
+	public float[] render( final String id, final double[] offset, final double[] spacing, final long[] size ) throws IOException
+	{
+		final String query = "?offset=" + join( offset ) + "&spacing=" + join( spacing ) + "&size=" + join( size );
+		final ByteBuffer buffer = ByteBuffer.wrap( request( "GET", "/transforms/" + id + "/render" + query, null, null ) ).order( ByteOrder.LITTLE_ENDIAN );
+		final float[] out = new float[ buffer.remaining() / 4 ];
+		buffer.asFloatBuffer().get( out );
+		return out;
+	}
+
+	private double[] points( final String path, final double[] points ) throws IOException
+	{
+		final ByteBuffer in = ByteBuffer.allocate( 8 * points.length ).order( ByteOrder.LITTLE_ENDIAN );
+		in.asDoubleBuffer().put( points );
+
+		final ByteBuffer res = ByteBuffer.wrap( request( "POST", path, TransformServer.BINARY, in.array() ) ).order( ByteOrder.LITTLE_ENDIAN );
+		final double[] out = new double[ res.remaining() / 8 ];
+		res.asDoubleBuffer().get( out );
+		return out;
+	}
+
+	private byte[] request( final String method, final String path, final String contentType, final byte[] body ) throws IOException
+	{
+		final HttpURLConnection c = ( HttpURLConnection ) new URL( base + path ).openConnection();
+		c.setRequestMethod( method );
+		if ( body != null )
+		{
+			c.setDoOutput( true );
+			c.setRequestProperty( "Content-Type", contentType );
+			c.setFixedLengthStreamingMode( body.length );
+			try ( final OutputStream os = c.getOutputStream() )
+			{
+				os.write( body );
+			}
+		}
+
+		final int status = c.getResponseCode();
+		if ( status >= 400 )
+		{
+			final InputStream err = c.getErrorStream();
+			final String message = err == null ? "" : new String( TransformServer.readAll( err ), StandardCharsets.UTF_8 );
+			if ( err != null )
+				err.close();
+			throw new IOException( method + " " + path + " failed with " + status + ": " + message );
+		}
+
+		if ( status == 204 )
+			return new byte[ 0 ];
+
+		try ( final InputStream is = c.getInputStream() )
+		{
+			return TransformServer.readAll( is );
+		}
+	}
+
+	private static String id( final byte[] response )
+	{
+		return JsonParser.parseString( new String( response, StandardCharsets.UTF_8 ) ).getAsJsonObject().get( "id" ).getAsString();
+	}
+
+	private static String encode( final String s ) throws UnsupportedEncodingException
+	{
+		return URLEncoder.encode( s, "UTF-8" );
+	}
+
+	private static String join( final double[] values )
+	{
+		final StringBuilder sb = new StringBuilder();
+		for ( int i = 0; i < values.length; i++ )
+			sb.append( i > 0 ? "," : "" ).append( values[ i ] );
+		return sb.toString();
+	}
+
+	private static String join( final long[] values )
+	{
+		final StringBuilder sb = new StringBuilder();
+		for ( int i = 0; i < values.length; i++ )
+			sb.append( i > 0 ? "," : "" ).append( values[ i ] );
+		return sb.toString();
+	}
+}
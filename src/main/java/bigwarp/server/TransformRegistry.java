@@ -0,0 +1,312 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.transforms.BigWarpTransform;
+import bigwarp.transforms.SolvedTransformCache;
+import net.imglib2.realtransform.InvertibleRealTransform;
+import net.imglib2.realtransform.InvertibleWrapped2DTransformAs3D;
+
+/**
+ * Solved BigWarp transformations, keyed by the content of the landmarks they
+ * were solved from.
+ * <p>
+ * Landmarks are accepted as csv, as landmarks or transform json, and as
+ * BigWarp settings / project json, in which case the landmarks and type of
+ * the "Transform" entry are used. Masks of settings files are ignored since
+ * they depend on image sources.
+ * <p>
+ * The id of a transformation is the SHA-256 of the landmark file content and
+ * the transformation type, so loading an unchanged file again, from whatever
+ * path, returns the transformation that was solved the first time. Concurrent
+ * loads of the same content solve it once.
+ */
+public class TransformRegistry
+{
+	private final ConcurrentHashMap< String, CompletableFuture< Entry > > entries = new ConcurrentHashMap<>();
+
+	private double inverseTolerance = 0.1;
+
+	private int inverseMaxIterations = 200;
+
+	public void setInverseParameters( final double tolerance, final int maxIterations )
+	{
+		this.inverseTolerance = tolerance;
+		this.inverseMaxIterations = maxIterations;
+	}
+
+	/**
+	 * Loads and solves the transformation of a landmarks or settings file,
+	 * unless a file with the same content was loaded before.
+	 *
+	 * @param path the file
+	 * @param type the transformation type, null for the type of a settings
+	 *            file or thin plate spline
+	 * @return the entry
+	 * @throws IOException if the file could not be read or solved
+	 */
+	public Entry load( final Path path, final String type ) throws IOException
+	{
+		return load( Files.readAllBytes( path ), type );
+	}
+
+	/**
+	 * Solves the transformation of landmarks or settings in csv or json
+	 * format, unless the same content was loaded before.
+	 *
+	 * @param content the file content
+	 * @param type the transformation type, null for the type of a settings
+	 *            file or thin plate spline
+	 * @return the entry
+	 * @throws IOException if the content could not be parsed or solved
+	 */
+	public Entry load( final byte[] content, final String type ) throws IOException
+	{
+		final JsonObject json = isJson( content ) ? parseJson( content ) : null;
+		final String resolvedType = type != null ? type : json != null ? jsonType( json ) : BigWarpTransform.TPS;
+		final String id = hash( content, resolvedType );
+
+		final CompletableFuture< Entry > future = new CompletableFuture<>();
+		final CompletableFuture< Entry > existing = entries.putIfAbsent( id, future );
+		if ( existing == null )
+		{
+			try
+			{
+				future.complete( solve( id, json != null ? jsonLandmarks( json ) : csvLandmarks( content ), resolvedType ) );
+			}
+			catch ( final Throwable e )
+			{
+				// let later requests retry
+				entries.remove( id, future );
+				future.completeExceptionally( e );
+			}
+		}
+
+		try
+		{
+			return ( existing == null ? future : existing ).get();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			if ( e.getCause() instanceof IOException )
+				throw ( IOException ) e.getCause();
+
+			throw new IOException( e.getCause().getMessage(), e.getCause() );
+		}
+	}
+
+	/**
+	 * @param id the id
+	 * @return the solved entry with the given id, or null
+	 */
+	public Entry get( final String id )
+	{
+		final CompletableFuture< Entry > f = entries.get( id );
+		return f == null || !f.isDone() || f.isCompletedExceptionally() ? null : f.join();
+	}
+
+	public boolean remove( final String id )
+	{
+		return entries.remove( id ) != null;
+	}
+
+	public List< Entry > entries()
+	{
+		final List< Entry > out = new ArrayList<>();
+		for ( final CompletableFuture< Entry > f : entries.values() )
+			if ( f.isDone() && !f.isCompletedExceptionally() )
+				out.add( f.join() );
+
+		return out;
+	}
+
+	private Entry solve( final String id, final LandmarkTableModel ltm, final String type )
+	{
+		final long start = System.nanoTime();
+		final BigWarpTransform bwTransform = new BigWarpTransform( ltm, type );
+		bwTransform.setInverseTolerance( inverseTolerance );
+		bwTransform.setInverseMaxIterations( inverseMaxIterations );
+		bwTransform.setSolvedTransformCache( SolvedTransformCache.getDefault() );
+		final InvertibleRealTransform transform = bwTransform.getTransformation( false );
+		return new Entry( id, type, ltm, transform, System.nanoTime() - start );
+	}
+
+	private static LandmarkTableModel csvLandmarks( final byte[] content ) throws IOException
+	{
+		final LandmarkTableModel ltm = LandmarkTableModel.loadFromCsv(
+				new InputStreamReader( new ByteArrayInputStream( content ), StandardCharsets.UTF_8 ), false );
+		if ( ltm == null )
+			throw new IOException( "landmarks are neither 2d nor 3d" );
+
+		return ltm;
+	}
+
+	/**
+	 * The transform object of a json file: the "Transform" of settings, or
+	 * the file itself if it has landmarks, or bare landmarks wrapped into one.
+	 */
+	private static JsonObject transformJson( final JsonObject json ) throws IOException
+	{
+		if ( json.has( "Transform" ) )
+			return json.get( "Transform" ).getAsJsonObject();
+		else if ( json.has( "landmarks" ) )
+			return json;
+		else if ( json.has( "movingPoints" ) )
+		{
+			final JsonObject out = new JsonObject();
+			out.add( "landmarks", json );
+			return out;
+		}
+		throw new IOException( "json has no landmarks" );
+	}
+
+	private static LandmarkTableModel jsonLandmarks( final JsonObject json ) throws IOException
+	{
+		final JsonObject transform = transformJson( json );
+		final JsonElement nd = transform.get( "landmarks" ).getAsJsonObject().get( "numDimensions" );
+		if ( nd == null )
+			throw new IOException( "landmarks have no numDimensions" );
+
+		final LandmarkTableModel ltm = new LandmarkTableModel( nd.getAsInt() );
+		ltm.fromJson( transform );
+		return ltm;
+	}
+
+	private static String jsonType( final JsonObject json ) throws IOException
+	{
+		final JsonObject transform = transformJson( json );
+		if ( transform.has( "type" ) )
+		{
+			final String type = transform.get( "type" ).getAsString();
+			if ( !type.equals( "BigWarpLandmarks" ) )
+				return type;
+		}
+		return BigWarpTransform.TPS;
+	}
+
+	private static boolean isJson( final byte[] content )
+	{
+		for ( final byte b : content )
+			if ( !Character.isWhitespace( b ) )
+				return b == '{';
+
+		return false;
+	}
+
+	private static JsonObject parseJson( final byte[] content ) throws IOException
+	{
+		try
+		{
+			return JsonParser.parseString( new String( content, StandardCharsets.UTF_8 ) ).getAsJsonObject();
+		}
+		catch ( final JsonParseException | IllegalStateException e )
+		{
+			throw new IOException( "invalid json: " + e.getMessage(), e );
+		}
+	}
+
+	public static String hash( final byte[] content, final String type )
+	{
+		try
+		{
+			final MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+			digest.update( content );
+			digest.update( ( byte ) 0 );
+			digest.update( type.getBytes( StandardCharsets.UTF_8 ) );
+
+			final StringBuilder sb = new StringBuilder();
+			for ( final byte b : digest.digest() )
+				sb.append( String.format( "%02x", b ) );
+
+			return sb.toString();
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			// every java platform supports SHA-256
+			throw new RuntimeException( e );
+		}
+	}
+
+	public static class Entry
+	{
+		public final String id;
+
+		public final String type;
+
+		public final int numDimensions;
+
+		public final LandmarkTableModel landmarks;
+
+		/**
+		 * The transformation from target to moving space, with the
+		 * dimensionality of the landmarks.
+		 */
+		public final InvertibleRealTransform transform;
+
+		public final long solveNanos;
+
+		public Entry( final String id, final String type, final LandmarkTableModel landmarks, final InvertibleRealTransform transform, final long solveNanos )
+		{
+			this.id = id;
+			this.type = type;
+			this.numDimensions = landmarks.getNumdims();
+			this.landmarks = landmarks;
+			this.transform = transform;
+			this.solveNanos = solveNanos;
+		}
+
+		/**
+		 * @return a copy of the transformation acting on 3d points, for
+		 *         rendering
+		 */
+		public InvertibleRealTransform transform3d()
+		{
+			final InvertibleRealTransform copy = transform.copy();
+			return numDimensions == 2 ? new InvertibleWrapped2DTransformAs3D( copy ) : copy;
+		}
+	}
+}
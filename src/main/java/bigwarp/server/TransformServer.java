@@ -0,0 +1,734 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.DataType;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import bdv.img.WarpedSource;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import bigwarp.BigWarpData;
+import bigwarp.BigWarpInit;
+import bigwarp.WarpedBlockRenderer;
+import bigwarp.server.TransformRegistry.Entry;
+import bigwarp.transforms.PointStreamTransformer;
+import bigwarp.transforms.PointStreamTransformer.PointReader;
+import bigwarp.transforms.PointStreamTransformer.PointWriter;
+import bigwarp.transforms.PointStreamTransformer.Statistics;
+import bigwarp.transforms.PointStreams;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * A local http server that keeps solved BigWarp transformations in memory so
+ * that pipelines can transform points and render warped blocks without
+ * starting a jvm and solving the transformation for every call.
+ * <p>
+ * The server only listens on the loopback interface, and only answers
+ * requests whose {@code Host} is localhost and that have no {@code Origin},
+ * so that web pages can not use it through the browser, not even by DNS
+ * rebinding. It has no other authentication. Endpoints:
+ * <ul>
+ * <li>{@code POST /transforms[?type=<type>]} with the landmarks or settings
+ * file as body, or {@code POST /transforms?path=<file>[&type=<type>]} if
+ * {@link #setAllowPaths(boolean) allowed}: loads and solves a
+ * transformation, see {@link TransformRegistry}, and responds with its
+ * id.</li>
+ * <li>{@code GET /transforms}, {@code GET /transforms/<id>},
+ * {@code DELETE /transforms/<id>}: lists, describes and removes
+ * transformations.</li>
+ * <li>{@code POST /transforms/<id>/forward} and
+ * {@code POST /transforms/<id>/inverse}: transforms points from target to
+ * moving space and back. The body holds interleaved little endian float64
+ * coordinates, or float32 with {@code ?type=float32}, or one point per line
+ * with content type {@code text/csv}. The response has the same format.
+ * Inverse requests accept {@code tolerance}, {@code max-iterations} and
+ * {@code max-seed-distance}.</li>
+ * <li>{@code GET /transforms/<id>/render?offset=x,y[,z]&spacing=x,y[,z]&size=x,y[,z]}:
+ * renders the configured source warped into target space on the given grid
+ * and responds with little endian float32 values, channel after channel, x
+ * fastest.</li>
+ * <li>{@code GET /status}</li>
+ * </ul>
+ * Errors are reported with a status code and a plain text message.
+ */
+public class TransformServer
+{
+	public static final int DEFAULT_PORT = 8765;
+
+	public static final String BINARY = "application/octet-stream";
+
+	public static final String CSV = "text/csv";
+
+	public static final String JSON = "application/json";
+
+	/**
+	 * Points per batch of a point request, so that large requests are
+	 * transformed in parallel.
+	 */
+	public static final int POINT_BATCH_SIZE = 4096;
+
+	public static final long DEFAULT_MAX_RENDER_BYTES = 1L << 28;
+
+	static
+	{
+		// without it, small responses wait for the client's delayed ack
+		if ( System.getProperty( "sun.net.httpserver.nodelay" ) == null )
+			System.setProperty( "sun.net.httpserver.nodelay", "true" );
+	}
+
+	private final TransformRegistry registry;
+
+	private final HttpServer server;
+
+	private final ExecutorService requestExec;
+
+	private final ExecutorService pointExec;
+
+	private List< Source< ? > > sources;
+
+	private Interpolation interp = Interpolation.NLINEAR;
+
+	private long maxRenderBytes = DEFAULT_MAX_RENDER_BYTES;
+
+	private boolean allowPaths = false;
+
+	private final long startTime = System.currentTimeMillis();
+
+	/**
+	 * @param registry the transformations
+	 * @param port the port on the loopback interface, 0 for any free port
+	 * @param numThreads the number of threads for requests and for the
+	 *            points of large requests
+	 * @throws IOException if the port could not be bound
+	 */
+	public TransformServer( final TransformRegistry registry, final int port, final int numThreads ) throws IOException
+	{
+		this.registry = registry;
+		server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+		requestExec = Executors.newFixedThreadPool( Math.max( 1, numThreads ) );
+		pointExec = Executors.newFixedThreadPool( Math.max( 1, numThreads ) );
+		server.setExecutor( requestExec );
+		server.createContext( "/transforms", this::handleTransforms );
+		server.createContext( "/status", this::handleStatus );
+	}
+
+	/**
+	 * Sets the channels rendered by the render endpoint, in moving space.
+	 *
+	 * @param sources the sources, with real pixel types
+	 */
+	public void setSources( final List< ? extends Source< ? > > sources )
+	{
+		for ( final Source< ? > src : sources )
+			if ( !( src.getType() instanceof RealType ) || !( src.getType() instanceof NativeType ) )
+				throw new IllegalArgumentException( "can only render sources of native real types, not " + src.getType().getClass() );
+
+		this.sources = new ArrayList<>( sources );
+	}
+
+	public void setInterpolation( final Interpolation interp )
+	{
+		this.interp = interp;
+	}
+
+	public void setMaxRenderBytes( final long maxRenderBytes )
+	{
+		this.maxRenderBytes = maxRenderBytes;
+	}
+
+	/**
+	 * Sets whether transformations can be loaded from a path, which lets
+	 * every local process read the files of the user running the server.
+	 *
+	 * @param allowPaths whether to allow loading from paths
+	 */
+	public void setAllowPaths( final boolean allowPaths )
+	{
+		this.allowPaths = allowPaths;
+	}
+
+	public TransformRegistry getRegistry()
+	{
+		return registry;
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	public void stop()
+	{
+		server.stop( 0 );
+		requestExec.shutdown();
+		pointExec.shutdown();
+	}
+
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	private void handleTransforms( final HttpExchange ex ) throws IOException
+	{
+		try
+		{
+			checkLocal( ex );
+			final String[] parts = ex.getRequestURI().getPath().replaceAll( "^/+|/+$", "" ).split( "/+" );
+			final String method = ex.getRequestMethod();
+			if ( parts.length == 1 )
+			{
+				if ( method.equals( "GET" ) )
+					list( ex );
+				else if ( method.equals( "POST" ) )
+					load( ex );
+				else
+					throw new RequestException( 405, "use GET or POST" );
+				return;
+			}
+
+			final Entry entry = registry.get( parts[ 1 ] );
+			if ( entry == null )
+				throw new RequestException( 404, "no transformation " + parts[ 1 ] );
+
+			if ( parts.length == 2 )
+			{
+				if ( method.equals( "GET" ) )
+					sendJson( ex, describe( entry ) );
+				else if ( method.equals( "DELETE" ) )
+				{
+					registry.remove( entry.id );
+					send( ex, 204, null, new byte[ 0 ] );
+				}
+				else
+					throw new RequestException( 405, "use GET or DELETE" );
+			}
+			else if ( parts.length == 3 && parts[ 2 ].equals( "forward" ) && method.equals( "POST" ) )
+				transformPoints( ex, entry, false );
+			else if ( parts.length == 3 && parts[ 2 ].equals( "inverse" ) && method.equals( "POST" ) )
+				transformPoints( ex, entry, true );
+			else if ( parts.length == 3 && parts[ 2 ].equals( "render" ) && method.equals( "GET" ) )
+				render( ex, entry );
+			else
+				throw new RequestException( 404, "unknown endpoint " + method + " " + ex.getRequestURI().getPath() );
+		}
+		catch ( final RequestException e )
+		{
+			sendError( ex, e.status, e.getMessage() );
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			sendError( ex, 500, e.getMessage() != null ? e.getMessage() : e.toString() );
+		}
+		finally
+		{
+			ex.close();
+		}
+	}
+
+	private void handleStatus( final HttpExchange ex ) throws IOException
+	{
+		try
+		{
+			checkLocal( ex );
+			final JsonObject status = new JsonObject();
+			status.addProperty( "transforms", registry.entries().size() );
+			status.addProperty( "channels", sources == null ? 0 : sources.size() );
+			status.addProperty( "uptimeSeconds", ( System.currentTimeMillis() - startTime ) / 1000 );
+			sendJson( ex, status );
+		}
+		catch ( final RequestException e )
+		{
+			sendError( ex, e.status, e.getMessage() );
+		}
+		finally
+		{
+			ex.close();
+		}
+	}
+
+	/**
+	 * Rejects requests from browsers, which send an {@code Origin} with
+	 * cross-origin requests, and requests for other host names, which a
+	 * page could resolve to the loopback address.
+	 */
+	private static void checkLocal( final HttpExchange ex ) throws RequestException
+	{
+		if ( ex.getRequestHeaders().containsKey( "Origin" ) )
+			throw new RequestException( 403, "requests with an Origin are not allowed" );
+
+		final String host = ex.getRequestHeaders().getFirst( "Host" );
+		if ( host == null || !isLocalHost( host ) )
+			throw new RequestException( 403, "the Host must be localhost" );
+	}
+
+	static boolean isLocalHost( final String hostHeader )
+	{
+		final String h = hostHeader.trim().toLowerCase();
+		final String name;
+		if ( h.startsWith( "[" ) )
+			name = h.indexOf( ']' ) > 0 ? h.substring( 0, h.indexOf( ']' ) + 1 ) : h;
+		else
+			name = h.indexOf( ':' ) >= 0 ? h.substring( 0, h.indexOf( ':' ) ) : h;
+
+		return name.equals( "localhost" ) || name.equals( "127.0.0.1" ) || name.equals( "[::1]" );
+	}
+
+	private void list( final HttpExchange ex ) throws IOException
+	{
+		final JsonArray out = new JsonArray();
+		for ( final Entry e : registry.entries() )
+			out.add( describe( e ) );
+
+		send( ex, 200, JSON, out.toString().getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	private void load( final HttpExchange ex ) throws IOException, RequestException
+	{
+		final Map< String, String > query = query( ex );
+		final String path = query.get( "path" );
+		final byte[] body = readAll( ex.getRequestBody() );
+		if ( path != null && !allowPaths )
+			throw new RequestException( 403, "loading from paths is disabled, send the file as body or start the server with --allow-paths" );
+
+		if ( path == null && body.length == 0 )
+			throw new RequestException( 400, "give the landmarks as body" );
+
+		final Entry entry;
+		try
+		{
+			entry = path != null ? registry.load( Paths.get( path ), query.get( "type" ) ) : registry.load( body, query.get( "type" ) );
+		}
+		catch ( final IOException | IllegalArgumentException e )
+		{
+			throw new RequestException( 400, "could not load transformation: " + e.getMessage() );
+		}
+		sendJson( ex, describe( entry ) );
+	}
+
+	private void transformPoints( final HttpExchange ex, final Entry entry, final boolean inverse ) throws IOException, RequestException
+	{
+		final Map< String, String > query = query( ex );
+		final int nd = entry.numDimensions;
+		final byte[] body = readAll( ex.getRequestBody() );
+		final String contentType = ex.getRequestHeaders().getFirst( "Content-Type" );
+		final boolean csv = contentType != null && contentType.startsWith( CSV );
+
+		final PointReader reader;
+		final PointWriter writer;
+		final ByteArrayOutputStream out = new ByteArrayOutputStream( body.length );
+		if ( csv )
+		{
+			reader = new PointStreams.CsvPointReader( new BufferedReader( new InputStreamReader( new ByteArrayInputStream( body ), StandardCharsets.UTF_8 ) ), nd, null );
+			writer = new PointStreams.CsvPointWriter( new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) ), nd, null );
+		}
+		else
+		{
+			final DataType dataType = "float32".equalsIgnoreCase( query.get( "type" ) ) ? DataType.FLOAT32 : DataType.FLOAT64;
+			final int pointBytes = nd * ( dataType == DataType.FLOAT32 ? 4 : 8 );
+			if ( body.length % pointBytes != 0 )
+				throw new RequestException( 400, "body of " + body.length + " bytes is not a multiple of " + pointBytes + " bytes per point" );
+
+			reader = new PointStreams.BinaryPointReader( Channels.newChannel( new ByteArrayInputStream( body ) ), nd, dataType, ByteOrder.LITTLE_ENDIAN, body.length / pointBytes );
+			writer = new PointStreams.BinaryPointWriter( Channels.newChannel( out ), nd, dataType, ByteOrder.LITTLE_ENDIAN );
+		}
+
+		final PointStreamTransformer transformer = new PointStreamTransformer( entry.transform, nd );
+		transformer.setInverse( inverse );
+		transformer.setBatchSize( POINT_BATCH_SIZE );
+		try
+		{
+			transformer.setInverseParameters(
+					Double.parseDouble( query.getOrDefault( "tolerance", "0.1" ) ),
+					Integer.parseInt( query.getOrDefault( "max-iterations", "200" ) ) );
+			if ( query.containsKey( "max-seed-distance" ) )
+				transformer.setMaxSeedDistance( Double.parseDouble( query.get( "max-seed-distance" ) ) );
+		}
+		catch ( final NumberFormatException e )
+		{
+			throw new RequestException( 400, "invalid number: " + e.getMessage() );
+		}
+
+		final Statistics stats;
+		try
+		{
+			stats = transformer.transform( reader, writer, pointExec );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( e );
+		}
+		catch ( final Exception e )
+		{
+			final Throwable cause = e.getCause() != null ? e.getCause() : e;
+			throw new RequestException( 400, "could not transform points: " + cause.getMessage() );
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		ex.getResponseHeaders().set( "X-Points", Long.toString( stats.numPoints ) );
+		ex.getResponseHeaders().set( "X-Not-Converged", Long.toString( stats.numNotConverged ) );
+		ex.getResponseHeaders().set( "X-Failed", Long.toString( stats.numFailed ) );
+		send( ex, 200, csv ? CSV : BINARY, out.toByteArray() );
+	}
+
+	private void render( final HttpExchange ex, final Entry entry ) throws IOException, RequestException
+	{
+		if ( sources == null || sources.isEmpty() )
+			throw new RequestException( 409, "the server has no source to render" );
+
+		final Map< String, String > query = query( ex );
+		final long[] size = parseLongs( query, "size", null );
+		final int nd = size.length;
+		if ( nd != 2 && nd != 3 )
+			throw new RequestException( 400, "size must be 2d or 3d" );
+
+		final double[] offset = parseDoubles( query, "offset", new double[ nd ] );
+		final double[] spacing = parseDoubles( query, "spacing", ones( nd ) );
+		if ( offset.length != nd || spacing.length != nd )
+			throw new RequestException( 400, "offset, spacing and size need the same number of dimensions" );
+
+		long numBytes = 4 * sources.size();
+		try
+		{
+			for ( final long s : size )
+			{
+				if ( s <= 0 )
+					throw new RequestException( 400, "size must be positive" );
+				numBytes = Math.multiplyExact( numBytes, s );
+			}
+		}
+		catch ( final ArithmeticException e )
+		{
+			numBytes = Long.MAX_VALUE;
+		}
+		// the block is rendered into one array
+		if ( numBytes > maxRenderBytes || numBytes > Integer.MAX_VALUE - 8 )
+			throw new RequestException( 413, "block is larger than " + Math.min( maxRenderBytes, Integer.MAX_VALUE - 8 ) + " bytes" );
+
+		final Interpolation interpolation;
+		try
+		{
+			interpolation = query.containsKey( "interpolation" ) ? Interpolation.valueOf( query.get( "interpolation" ) ) : interp;
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			throw new RequestException( 400, "unknown interpolation " + query.get( "interpolation" ) );
+		}
+
+		final AffineTransform3D pixelToPhysical = new AffineTransform3D();
+		pixelToPhysical.set(
+				spacing[ 0 ], 0, 0, offset[ 0 ],
+				0, spacing[ 1 ], 0, offset[ 1 ],
+				0, 0, nd > 2 ? spacing[ 2 ] : 1, nd > 2 ? offset[ 2 ] : 0 );
+
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		final byte[] data = renderBlock( ( List ) sources, entry, pixelToPhysical, interpolation, size, ( int ) numBytes );
+
+		ex.getResponseHeaders().set( "X-Dimensions", join( size ) );
+		ex.getResponseHeaders().set( "X-Channels", Integer.toString( sources.size() ) );
+		send( ex, 200, BINARY, data );
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > byte[] renderBlock(
+			final List< Source< T > > sources,
+			final Entry entry,
+			final AffineTransform3D pixelToPhysical,
+			final Interpolation interpolation,
+			final long[] size,
+			final int numBytes )
+	{
+		final List< WarpedSource< T > > warped = new ArrayList<>();
+		for ( final Source< T > src : sources )
+		{
+			final WarpedSource< T > ws = new WarpedSource<>( src, "warped" );
+			ws.updateTransform( entry.transform3d() );
+			ws.setIsTransformed( true );
+			warped.add( ws );
+		}
+
+		final WarpedBlockRenderer< T > renderer = new WarpedBlockRenderer<>( warped, pixelToPhysical, interpolation );
+		final List< RandomAccessibleInterval< T > > blocks = new ArrayList<>();
+		for ( final Source< T > src : sources )
+			blocks.add( new ArrayImgFactory<>( src.getType().createVariable() ).create( size ) );
+
+		renderer.render( blocks );
+
+		final ByteBuffer buffer = ByteBuffer.allocate( numBytes ).order( ByteOrder.LITTLE_ENDIAN );
+		for ( final RandomAccessibleInterval< T > block : blocks )
+			for ( final T t : Views.flatIterable( block ) )
+				buffer.putFloat( t.getRealFloat() );
+
+		return buffer.array();
+	}
+
+	private static JsonObject describe( final Entry e )
+	{
+		final JsonObject out = new JsonObject();
+		out.addProperty( "id", e.id );
+		out.addProperty( "type", e.type );
+		out.addProperty( "numDimensions", e.numDimensions );
+		out.addProperty( "numLandmarks", e.landmarks.getActiveRowCount() );
+		out.addProperty( "solveMillis", e.solveNanos * 1e-6 );
+		return out;
+	}
+
+	private static Map< String, String > query( final HttpExchange ex ) throws UnsupportedEncodingException
+	{
+		final Map< String, String > out = new HashMap<>();
+		final String query = ex.getRequestURI().getRawQuery();
+		if ( query == null )
+			return out;
+
+		for ( final String kv : query.split( "&" ) )
+		{
+			if ( kv.isEmpty() )
+				continue;
+
+			final int eq = kv.indexOf( '=' );
+			final String key = URLDecoder.decode( eq < 0 ? kv : kv.substring( 0, eq ), "UTF-8" );
+			final String value = eq < 0 ? "" : URLDecoder.decode( kv.substring( eq + 1 ), "UTF-8" );
+			out.put( key, value );
+		}
+		return out;
+	}
+
+	private static long[] parseLongs( final Map< String, String > query, final String key, final long[] defaultValue ) throws RequestException
+	{
+		final String value = query.get( key );
+		if ( value == null )
+		{
+			if ( defaultValue == null )
+				throw new RequestException( 400, "missing parameter " + key );
+			return defaultValue;
+		}
+
+		try
+		{
+			final String[] parts = value.split( "," );
+			final long[] out = new long[ parts.length ];
+			for ( int i = 0; i < parts.length; i++ )
+				out[ i ] = Long.parseLong( parts[ i ].trim() );
+			return out;
+		}
+		catch ( final NumberFormatException e )
+		{
+			throw new RequestException( 400, "invalid " + key + ": " + value );
+		}
+	}
+
+	private static double[] parseDoubles( final Map< String, String > query, final String key, final double[] defaultValue ) throws RequestException
+	{
+		final String value = query.get( key );
+		if ( value == null )
+			return defaultValue;
+
+		try
+		{
+			final String[] parts = value.split( "," );
+			final double[] out = new double[ parts.length ];
+			for ( int i = 0; i < parts.length; i++ )
+				out[ i ] = Double.parseDouble( parts[ i ].trim() );
+			return out;
+		}
+		catch ( final NumberFormatException e )
+		{
+			throw new RequestException( 400, "invalid " + key + ": " + value );
+		}
+	}
+
+	private static double[] ones( final int n )
+	{
+		final double[] out = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+			out[ i ] = 1;
+		return out;
+	}
+
+	private static String join( final long[] values )
+	{
+		final StringBuilder sb = new StringBuilder();
+		for ( int i = 0; i < values.length; i++ )
+		{
+			if ( i > 0 )
+				sb.append( ',' );
+			sb.append( values[ i ] );
+		}
+		return sb.toString();
+	}
+
+	static byte[] readAll( final InputStream in ) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buf = new byte[ 65536 ];
+		int n;
+		while ( ( n = in.read( buf ) ) > 0 )
+			out.write( buf, 0, n );
+
+		return out.toByteArray();
+	}
+
+	private static void sendJson( final HttpExchange ex, final JsonObject json ) throws IOException
+	{
+		send( ex, 200, JSON, json.toString().getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	private static void sendError( final HttpExchange ex, final int status, final String message ) throws IOException
+	{
+		send( ex, status, "text/plain; charset=utf-8", ( message == null ? "" : message ).getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	private static void send( final HttpExchange ex, final int status, final String contentType, final byte[] body ) throws IOException
+	{
+		if ( contentType != null )
+			ex.getResponseHeaders().set( "Content-Type", contentType );
+
+		ex.sendResponseHeaders( status, body.length == 0 ? -1 : body.length );
+		if ( body.length > 0 )
+			try ( final OutputStream os = ex.getResponseBody() )
+			{
+				os.write( body );
+			}
+	}
+
+	private static class RequestException extends Exception
+	{
+		private static final long serialVersionUID = 4203938531318421542L;
+
+		private final int status;
+
+		public RequestException( final int status, final String message )
+		{
+			super( message );
+			this.status = status;
+		}
+	}
+
+	private static class Options
+	{
+		@Parameter( names = { "--port", "-p" }, description = "Port on localhost, 0 for any free port" )
+		private int port = DEFAULT_PORT;
+
+		@Parameter( names = { "--threads", "-j" }, description = "Number of threads" )
+		private int numThreads = Runtime.getRuntime().availableProcessors();
+
+		@Parameter( names = { "--landmarks", "-l" }, description = "Landmarks or settings files to load at startup" )
+		private List< String > landmarks = new ArrayList<>();
+
+		@Parameter( names = { "--type", "-t" }, description = "Transformation type of the landmarks loaded at startup" )
+		private String type;
+
+		@Parameter( names = { "--source", "-s" }, description = "Uri of the moving image to render, e.g. an image file or n5 dataset" )
+		private String source;
+
+		@Parameter( names = { "--interpolation" }, description = "Default interpolation of rendering {NLINEAR,NEARESTNEIGHBOR}" )
+		private String interpolation = "NLINEAR";
+
+		@Parameter( names = { "--tolerance" }, description = "Tolerance of inverse transformations" )
+		private double tolerance = 0.1;
+
+		@Parameter( names = { "--max-iterations" }, description = "Maximum iterations of inverse transformations" )
+		private int maxIterations = 200;
+
+		@Parameter( names = { "--allow-paths" }, description = "Allow loading transformations from paths, which lets every local process read your files through the server" )
+		private boolean allowPaths = false;
+
+		@Parameter( names = { "--help", "-h" }, help = true )
+		private boolean help;
+	}
+
+	public static void main( final String[] args ) throws Exception
+	{
+		final Options options = new Options();
+		final JCommander jCommander = new JCommander( options );
+		jCommander.setProgramName( "bigwarp-server" );
+		jCommander.parse( args );
+		if ( options.help )
+		{
+			jCommander.usage();
+			return;
+		}
+
+		final TransformRegistry registry = new TransformRegistry();
+		registry.setInverseParameters( options.tolerance, options.maxIterations );
+		for ( final String path : options.landmarks )
+		{
+			final Entry e = registry.load( Paths.get( path ), options.type );
+			System.out.println( String.format( "loaded %s as %s (%s, %.0f ms)", path, e.id, e.type, e.solveNanos * 1e-6 ) );
+		}
+
+		final TransformServer server = new TransformServer( registry, options.port, options.numThreads );
+		server.setInterpolation( Interpolation.valueOf( options.interpolation ) );
+		server.setAllowPaths( options.allowPaths );
+		if ( options.source != null )
+			server.setSources( loadSources( options.source ) );
+
+		server.start();
+		System.out.println( "listening on http://localhost:" + server.getPort() );
+	}
+
+	private static < T > List< Source< T > > loadSources( final String uri ) throws Exception
+	{
+		final BigWarpData< T > data = BigWarpInit.initData();
+		return new ArrayList<>( BigWarpInit.createSources( data, uri, 0, true ).keySet() );
+	}
+}
@@ -40,11 +40,21 @@ import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 
 
+/**
+ * Renders a grid, optionally warped by a transform.
+ * <p>
+ * An access reuses its buffers and value and evaluates its own copy of the
+ * warp, so it must only be used by one thread.
+ */
 public class GridRealRandomAccess< T extends RealType<T>> extends AbstractRealLocalizable implements RealRandomAccess< T >
 {
 
 	protected RealTransform warp;
 
+	private final double[] pt;
+
+	private double[] warpRes;
+
 	private T value;
 	private GRID_TYPE method = GRID_TYPE.MOD;
 
@@ -68,12 +78,26 @@ public class GridRealRandomAccess< T extends RealType<T>> extends AbstractRealLo
 	{
 		super( dimensions.length );
 		this.value = value;
-		if( warp != null )
-			this.warp = warp.copy();
+		pt = new double[ dimensions.length ];
+		setWarp( warp );
 
 		this.method = method;
 		is2d = ( dimensions.length == 2 || dimensions[2] == 0 );
 	}
+
+	public void setWarp( final RealTransform warp )
+	{
+		if( warp != null )
+		{
+			this.warp = warp.copy();
+			warpRes = new double[ warp.numTargetDimensions() ];
+		}
+		else
+		{
+			this.warp = null;
+			warpRes = null;
+		}
+	}
 	
 	
 	public static void main( String[] args )
@@ -121,30 +145,28 @@ public class GridRealRandomAccess< T extends RealType<T>> extends AbstractRealLo
 	@Override
 	public T get() 
 	{
-		double[] mypt = new double[ this.numDimensions() ];
-		this.localize( mypt );
-		
-		switch( method )
-		{
-		case LINE:
-			return getLine( mypt );
-		default:
-			return getMod( mypt );
-		}
-	}
+		this.localize( pt );
 
-	private T getLine( double[] pt )
-	{
-		double[] warpRes;
+		final double[] res;
 		if( warp != null )
 		{
-			warpRes = new double[ warp.numTargetDimensions() ];
 			warp.apply( pt, warpRes );
+			res = warpRes;
 		}
 		else
+			res = pt;
+
+		switch( method )
 		{
-			warpRes = pt;
+		case LINE:
+			return getLine( res );
+		default:
+			return getMod( res );
 		}
+	}
+
+	private T getLine( final double[] warpRes )
+	{
 		int nd = warpRes.length;
 		if( is2d )
 			nd = 2;
@@ -177,31 +199,19 @@ public class GridRealRandomAccess< T extends RealType<T>> extends AbstractRealLo
 			
 		}
 
-		T out = value.copy();
 		if( val < gridWidth )
 		{
 			// we want out to have a peak value of 255
 			// Note: val takes a max value of gridHalfWidth
-			out.setReal( val * ( 255.0 / gridHalfWidth) );
+			value.setReal( val * ( 255.0 / gridHalfWidth) );
 		}else
-			out.setZero();
+			value.setZero();
 
-		return out;
+		return value;
 	}
 
-	private T getMod( double[] pt )
+	private T getMod( final double[] warpRes )
 	{
-		double[] warpRes;
-		if( warp != null )
-		{
-			warpRes = new double[ warp.numTargetDimensions() ];
-			warp.apply( pt, warpRes );
-		}
-		else
-		{
-			warpRes = pt;
-		}
-
 		double val = 0.0;
 		for( int d = 0; d < warpRes.length; d++ )
 		{
@@ -210,9 +220,8 @@ public class GridRealRandomAccess< T extends RealType<T>> extends AbstractRealLo
 
 			val += tmp;
 		}
-		T out = value.copy();
-		out.setReal( val );
-		return out;
+		value.setReal( val );
+		return value;
 	}
 
 	private boolean withinRad( double[] pt1, double[] pt2, double rad )
@@ -233,27 +242,15 @@ public class GridRealRandomAccess< T extends RealType<T>> extends AbstractRealLo
 	
 	public RealRandomAccess<T> copy() 
 	{
-		if( warp == null )
-		{
-			GridRealRandomAccess< T > ra =  new GridRealRandomAccess< T >( new double[ position.length ], value.copy(), 
-					null, this.method  );
-			ra.gridSpacing = this.gridSpacing;
-			ra.gridWidth = this.gridWidth;
-			ra.gridHalfWidth = this.gridHalfWidth;
-			return ra;
-		}
-		else
-		{
-			GridRealRandomAccess< T > ra = new GridRealRandomAccess< T >( new double[ position.length ], value.copy(), 
-					warp, this.method  );
-			ra.gridSpacing = this.gridSpacing;
-			ra.gridWidth = this.gridWidth;
-			ra.gridHalfWidth = this.gridHalfWidth;
-			return ra;
-		}
-
+		GridRealRandomAccess< T > ra = new GridRealRandomAccess< T >( new double[ position.length ], value.copy(), 
+				warp, this.method  );
+		ra.gridSpacing = this.gridSpacing;
+		ra.gridWidth = this.gridWidth;
+		ra.gridHalfWidth = this.gridHalfWidth;
+		return ra;
 	}
 
+
 	public RealRandomAccess<T> copyRandomAccess() 
 	{
 		return copy();
@@ -21,9 +21,6 @@
  */
 package bigwarp.source;
 
-import org.ejml.data.DMatrixRMaj;
-import org.ejml.dense.row.CommonOps_DDRM;
-
 import net.imglib2.AbstractRealInterval;
 import net.imglib2.AbstractRealLocalizable;
 import net.imglib2.Interval;
@@ -32,10 +29,17 @@ import net.imglib2.RealInterval;
 import net.imglib2.RealLocalizable;
 import net.imglib2.RealRandomAccess;
 import net.imglib2.RealRandomAccessibleRealInterval;
-import net.imglib2.realtransform.AffineTransform;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.realtransform.RealTransformAnalyticDerivatives;
 import net.imglib2.realtransform.inverse.DifferentiableRealTransform;
 import net.imglib2.type.numeric.RealType;
 
+/**
+ * The determinant of the jacobian of a transform.
+ * <p>
+ * An access reuses its buffers and value and holds its own copy of the
+ * transform, so it must only be used by one thread.
+ */
 public class JacobianDeterminantRandomAccess< T extends RealType<T>> extends AbstractRealLocalizable implements RealRandomAccess< T >
 {
 	protected DifferentiableRealTransform transform;
@@ -81,14 +85,38 @@ public class JacobianDeterminantRandomAccess< T extends RealType<T>> extends Abs
 		localize( x3 );
 		System.arraycopy(x3, 0, x, 0, x.length);
 
-		final AffineTransform jacobian = transform.jacobian( x );
-		final DMatrixRMaj jacMtx = new DMatrixRMaj();
-		jacMtx.data = jacobian.getRowPackedCopy(); 
-		value.setReal( CommonOps_DDRM.det( jacMtx ) );
+		if ( transform instanceof RealTransformAnalyticDerivatives )
+			value.setReal( ( ( RealTransformAnalyticDerivatives ) transform ).determinant( x ) );
+		else
+			value.setReal( determinant( transform.jacobian( x ) ) );
 
 		return value;
 	}
 
+	/**
+	 * Returns the determinant of the linear part of an affine in closed form.
+	 *
+	 * @param jacobian the affine
+	 * @return its determinant, NaN for more than three dimensions
+	 */
+	public static double determinant( final AffineGet jacobian )
+	{
+		switch( jacobian.numDimensions() )
+		{
+		case 1:
+			return jacobian.get( 0, 0 );
+		case 2:
+			return jacobian.get( 0, 0 ) * jacobian.get( 1, 1 ) - jacobian.get( 0, 1 ) * jacobian.get( 1, 0 );
+		case 3:
+			return jacobian.get( 0, 0 ) * ( jacobian.get( 1, 1 ) * jacobian.get( 2, 2 ) - jacobian.get( 1, 2 ) * jacobian.get( 2, 1 ) )
+					- jacobian.get( 0, 1 ) * ( jacobian.get( 1, 0 ) * jacobian.get( 2, 2 ) - jacobian.get( 1, 2 ) * jacobian.get( 2, 0 ) )
+					+ jacobian.get( 0, 2 ) * ( jacobian.get( 1, 0 ) * jacobian.get( 2, 1 ) - jacobian.get( 1, 1 ) * jacobian.get( 2, 0 ) );
+		default:
+			return Double.NaN;
+		}
+	}
+
+
 	public RealRandomAccess<T> copy() 
 	{
 		return new JacobianDeterminantRandomAccess<T>(new double[x.length], value.copy(), transform);
@@ -79,10 +79,9 @@ public class JacobianDeterminantSource< T extends RealType< T >> implements Sour
 		int ndims = lm.getNumdims();
 		double[] pt = new double[ ndims ];
 		
-		for( Double[] movingPt : lm.getPoints( true ) )
+		for( int i = 0; i < lm.getRowCount(); i++ )
 		{
-			for( int d = 0; d < ndims; d++ )
-				pt[ d ] = movingPt[ d ];
+			lm.copyMovingPointSafe( pt, i );
 			
 			jacDetImg.ra.setPosition(  pt );
 			double val = jacDetImg.ra.get().getRealDouble();
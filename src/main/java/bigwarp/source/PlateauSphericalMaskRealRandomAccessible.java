@@ -39,6 +39,7 @@ import com.google.gson.stream.JsonWriter;
 import mpicbg.spim.data.XmlHelpers;
 import net.imglib2.*;
 import net.imglib2.position.FunctionRealRandomAccessible;
+import net.imglib2.realtransform.BoundedMask;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Intervals;
 import org.jdom2.Element;
@@ -49,7 +50,7 @@ import java.util.List;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
-public class PlateauSphericalMaskRealRandomAccessible implements RealRandomAccessible< DoubleType >
+public class PlateauSphericalMaskRealRandomAccessible implements RealRandomAccessible< DoubleType >, BoundedMask
 {
 	transient private BiConsumer< RealLocalizable, DoubleType > pfun;
 	transient private FunctionRealRandomAccessible< DoubleType > rra;
@@ -77,6 +78,12 @@ public class PlateauSphericalMaskRealRandomAccessible implements RealRandomAcces
 	private static final double PIon2 = Math.PI / 2.0;
 	private static final double PI = Math.PI;
 
+	/*
+	 * Math.exp underflows to exactly zero for arguments below -746,
+	 * so the Gaussian falloff is zero beyond this many (Gaussian) sigmas.
+	 */
+	private static final double GAUSS_ZERO = Math.sqrt( 2 * 746.0 );
+
 	public static enum FalloffShape
 	{
 		COSINE( it -> new CosineFalloff( it ) ),
@@ -282,6 +289,116 @@ public class PlateauSphericalMaskRealRandomAccessible implements RealRandomAcces
 	}
 
 
+	/**
+	 * Returns the distance from the center beyond which this mask is exactly zero.
+	 *
+	 * @return the outer radius
+	 */
+	public double getOuterRadius()
+	{
+		if ( fallOffShape == FalloffShape.GAUSSIAN )
+			return plateauR + GAUSS_ZERO / Math.sqrt( gaussInvSqrSigma );
+		else
+			return plateauR + sigma;
+	}
+
+	@Override
+	public RealInterval getSupport()
+	{
+		final double r = getOuterRadius();
+		final double[] min = new double[ nd ];
+		final double[] max = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+		{
+			min[ d ] = center.getDoublePosition( d ) - r;
+			max[ d ] = center.getDoublePosition( d ) + r;
+		}
+		return new FinalRealInterval( min, max );
+	}
+
+	@Override
+	public double constantValue( final double[] position )
+	{
+		final int n = Math.min( nd, position.length );
+		double r2 = 0;
+		for ( int d = 0; d < nd; ++d )
+		{
+			final double diff = ( d < n ? position[ d ] : 0 ) - center.getDoublePosition( d );
+			r2 += diff * diff;
+		}
+		return constantValue( r2 );
+	}
+
+	@Override
+	public double constantValue( final RealLocalizable position )
+	{
+		final int n = Math.min( nd, position.numDimensions() );
+		double r2 = 0;
+		for ( int d = 0; d < nd; ++d )
+		{
+			final double diff = ( d < n ? position.getDoublePosition( d ) : 0 ) - center.getDoublePosition( d );
+			r2 += diff * diff;
+		}
+		return constantValue( r2 );
+	}
+
+	@Override
+	public void gradient( final double[] position, final double[] gradient )
+	{
+		final int n = Math.min( nd, position.length );
+		double r2 = 0;
+		for ( int d = 0; d < nd; ++d )
+		{
+			final double diff = ( d < n ? position[ d ] : 0 ) - center.getDoublePosition( d );
+			r2 += diff * diff;
+		}
+
+		final double r = Math.sqrt( r2 );
+		final double t = r - plateauR;
+		final double df;
+		if ( r2 <= plateauR2 || constantValue( r2 ) == 0 )
+			df = 0;
+		else
+		{
+			switch ( fallOffShape )
+			{
+			case LINEAR:
+				df = -1 / sigma;
+				break;
+			case GAUSSIAN:
+				df = -t * gaussInvSqrSigma * Math.exp( -0.5 * t * t * gaussInvSqrSigma );
+				break;
+			default:
+				df = -0.5 * PI / sigma * Math.sin( t * PI / sigma );
+			}
+		}
+
+		// d/dx f(r) = f'(r) (x - c) / r
+		for ( int d = 0; d < gradient.length; ++d )
+			gradient[ d ] = df == 0 || d >= nd ? 0 : df * ( ( d < n ? position[ d ] : 0 ) - center.getDoublePosition( d ) ) / r;
+	}
+
+	/*
+	 * Mirrors the comparisons of the falloff functions exactly, so that a
+	 * constant returned here is the value the falloff would compute.
+	 */
+	private double constantValue( final double r2 )
+	{
+		if ( r2 <= plateauR2 )
+			return 1;
+
+		switch ( fallOffShape )
+		{
+		case LINEAR:
+			final double d = plateauR + sigma;
+			return r2 >= d * d ? 0 : Double.NaN;
+		case GAUSSIAN:
+			return Math.sqrt( r2 ) - plateauR >= GAUSS_ZERO / Math.sqrt( gaussInvSqrSigma ) ? 0 : Double.NaN;
+		default:
+			return Math.sqrt( r2 ) >= plateauR + sigma ? 0 : Double.NaN;
+		}
+	}
+
 	final public static double squaredDistance( final RealLocalizable position1, final RealLocalizable position2 )
 	{
 		double dist = 0;
@@ -24,12 +24,16 @@ package bigwarp.source;
 import net.imglib2.AbstractRealLocalizable;
 import net.imglib2.Localizable;
 import net.imglib2.RealLocalizable;
-import net.imglib2.RealPoint;
 import net.imglib2.RealRandomAccess;
 import net.imglib2.realtransform.RealTransform;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.util.Util;
 
+/**
+ * The distance between a warp and a baseline transform.
+ * <p>
+ * An access reuses its buffers and value and evaluates its own copy of the
+ * warp, so it must only be used by one thread.
+ */
 public class WarpMagnitudeRandomAccess< T extends RealType<T>> extends AbstractRealLocalizable implements RealRandomAccess< T >
 {
 
@@ -37,12 +41,10 @@ public class WarpMagnitudeRandomAccess< T extends RealType<T>> extends AbstractR
 	RealTransform baseline;
 	
 	T value;
-	
-	final double[] warpRes;
-	final double[] baseRes;
 
-	final RealPoint warpResPt;
-	final RealPoint baseResPt;
+	private final double[] pt;
+	private double[] warpRes;
+	private final double[] baseRes;
 
 	protected WarpMagnitudeRandomAccess( double[] dimensions )
 	{
@@ -52,47 +54,53 @@ public class WarpMagnitudeRandomAccess< T extends RealType<T>> extends AbstractR
 	protected WarpMagnitudeRandomAccess( double[] dimensions, T value, RealTransform warp, RealTransform baseline )
 	{
 		super( dimensions.length );
-		if( warp != null)
-		{
-			this.warp = warp.copy();
-		}
-
 		if( baseline != null )
 		{
 			this.baseline = baseline.copy();
 		}
 		this.value = value;
-		warpRes = new double[ numDimensions() ]; 
-		baseRes = new double[ numDimensions() ]; 
+		pt = new double[ numDimensions() ];
+		baseRes = new double[ numDimensions() ];
+		setWarp( warp );
+	}
 
-		warpResPt = RealPoint.wrap( warpRes );
-		baseResPt = RealPoint.wrap( baseRes );
+	void setWarp( final RealTransform warp )
+	{
+		if( warp != null )
+		{
+			this.warp = warp.copy();
+			warpRes = new double[ Math.max( numDimensions(), warp.numTargetDimensions() ) ];
+		}
+		else
+			this.warp = null;
 	}
 
 	@Override
 	public T get() 
 	{
-		T out = value.copy();
 		if( warp == null || baseline == null )
 		{
-			out.setZero();
-			return out;
+			value.setZero();
+			return value;
 		}
 
+		localize( pt );
+
 		// apply the warp
-		warp.apply( this, warpResPt );
+		warp.apply( pt, warpRes );
 
 		// apply the baseline transform
-		baseline.apply( this, baseResPt );
+		baseline.apply( pt, baseRes );
 
 		double dist = 0.0;
-		for( int d = 0; d < warpRes.length; d++ )
+		for( int d = 0; d < baseRes.length; d++ )
 			dist += ( warpRes[ d ] - baseRes[ d ] ) * ( warpRes[ d ] - baseRes[ d ] );  
 
-		out.setReal( Math.sqrt( dist ));
+		value.setReal( Math.sqrt( dist ));
 
-		return out;
+		return value;
 	}
+
 	
 	private boolean withinRad( double[] pt1, double[] pt2, double rad )
 	{
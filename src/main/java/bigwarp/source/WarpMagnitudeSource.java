@@ -87,10 +87,9 @@ public class WarpMagnitudeSource< T extends RealType< T >> implements Source< T
 		int ndims = lm.getNumdims();
 		double[] pt = new double[ ndims ];
 		
-		for( Double[] movingPt : lm.getPoints( true ) )
+		for( int i = 0; i < lm.getRowCount(); i++ )
 		{
-			for( int d = 0; d < ndims; d++ )
-				pt[ d ] = movingPt[ d ];
+			lm.copyMovingPointSafe( pt, i );
 			
 			warpMagImg.ra.setPosition(  pt );
 			double val = warpMagImg.ra.get().getRealDouble();
@@ -103,7 +102,7 @@ public class WarpMagnitudeSource< T extends RealType< T >> implements Source< T
 	
 	public void setWarp( RealTransform warp )
 	{
-		warpMagImg.ra.warp = warp;
+		warpMagImg.ra.setWarp( warp );
 	}
 	
 	public void setBaseline( RealTransform baseline )
@@ -33,12 +33,7 @@ public abstract class AbstractTransformSolver<T extends InvertibleRealTransform>
 
 	public T solve(final LandmarkTableModel landmarkTable, final int indexChanged) {
 
-		int numActive = landmarkTable.numActive();
-		int ndims = landmarkTable.getNumdims();
-		double[][] mvgPts = new double[ndims][numActive];
-		double[][] tgtPts = new double[ndims][numActive];
-		landmarkTable.copyLandmarks(mvgPts, tgtPts);
-
-		return solve(mvgPts, tgtPts);
+		return solve(landmarkTable.snapshot());
 	}
+
 }
@@ -28,6 +28,7 @@ import bdv.util.BoundedRange;
 import bdv.viewer.SourceAndConverter;
 import bdv.viewer.animate.SimilarityModel3D;
 import bigwarp.BigWarpData;
+import bigwarp.landmarks.LandmarkSnapshot;
 import bigwarp.landmarks.LandmarkTableModel;
 import bigwarp.source.PlateauSphericalMaskRealRandomAccessible;
 import ij.IJ;
@@ -51,12 +52,15 @@ import net.imglib2.converter.Converters;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.ApproximateThinplateSplineTransform;
 import net.imglib2.realtransform.InverseRealTransform;
 import net.imglib2.realtransform.InvertibleRealTransform;
 import net.imglib2.realtransform.InvertibleWrapped2DTransformAs3D;
 import net.imglib2.realtransform.MaskedSimilarityTransform.Interpolators;
+import net.imglib2.realtransform.RealTransform;
 import net.imglib2.realtransform.ThinplateSplineTransform;
 import net.imglib2.realtransform.Translation2D;
+import net.imglib2.realtransform.WendlandRbfTransform;
 import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
@@ -64,6 +68,7 @@ import net.imglib2.type.numeric.real.DoubleType;
 public class BigWarpTransform
 {
 	public static final String TPS = "Thin Plate Spline";
+	public static final String WENDLAND = "Wendland RBF";
 	public static final String AFFINE = "Affine";
 	public static final String SIMILARITY = "Similarity";
 	public static final String ROTATION = "Rotation";
@@ -88,6 +93,10 @@ public class BigWarpTransform
 
 	private int maxIterations = 1000;
 
+	private double tpsApproximationError = 0;
+
+	private boolean incrementalSolve = false;
+
 	private RealRandomAccessible<? extends RealType<?>> lambdaRaw;
 
 	private RealRandomAccessible<? extends RealType<?>> lambda;
@@ -100,6 +109,8 @@ public class BigWarpTransform
 
 	private AbstractTransformSolver<?> solver;
 
+	private SolvedTransformCache solvedTransformCache;
+
 	public BigWarpTransform( final LandmarkTableModel tableModel )
 	{
 		this( tableModel, TPS );
@@ -180,7 +191,11 @@ public class BigWarpTransform
 	{
 		if ( transformType.equals( TPS ) )
 		{
-			solver = new TpsTransformSolver();
+			solver = incrementalSolve ? new IncrementalTpsTransformSolver() : new TpsTransformSolver();
+		}
+		else if ( transformType.equals( WENDLAND ) )
+		{
+			solver = new WendlandRbfTransformSolver();
 		}
 		else
 		{
@@ -203,6 +218,25 @@ public class BigWarpTransform
 		}
 	}
 
+	/**
+	 * Sets whether thin plate splines are solved with an
+	 * {@link IncrementalTpsTransformSolver}, which reuses the previous solution
+	 * when landmarks are edited one at a time. This pays off for interactive
+	 * editing only, one-off solves use a {@link TpsTransformSolver}.
+	 *
+	 * @param incrementalSolve whether to solve incrementally
+	 */
+	public void setIncrementalSolve( final boolean incrementalSolve )
+	{
+		this.incrementalSolve = incrementalSolve;
+		updateSolver();
+	}
+
+	public boolean isIncrementalSolve()
+	{
+		return incrementalSolve;
+	}
+
 	public void setInverseTolerance( double inverseTolerance )
 	{
 		this.inverseTolerance = inverseTolerance;
@@ -223,6 +257,39 @@ public class BigWarpTransform
 		return maxIterations;
 	}
 
+	/**
+	 * Sets the error of the thin plate spline used for rendering, see
+	 * {@link #approximateForRendering(InvertibleRealTransform)}.
+	 *
+	 * @param tpsApproximationError the largest error of any coordinate, zero
+	 *            for exact evaluation
+	 */
+	public void setTpsApproximationError( final double tpsApproximationError )
+	{
+		this.tpsApproximationError = tpsApproximationError;
+	}
+
+	public double getTpsApproximationError()
+	{
+		return tpsApproximationError;
+	}
+
+	/**
+	 * Sets the cache that full solves of unmasked thin plate splines and
+	 * Wendland RBF transforms are read from and written to.
+	 *
+	 * @param solvedTransformCache the cache, or null to always solve
+	 */
+	public void setSolvedTransformCache( final SolvedTransformCache solvedTransformCache )
+	{
+		this.solvedTransformCache = solvedTransformCache;
+	}
+
+	public SolvedTransformCache getSolvedTransformCache()
+	{
+		return solvedTransformCache;
+	}
+
 	public void setTransformType( final String transformType )
 	{
 		this.transformType = transformType;
@@ -247,7 +314,7 @@ public class BigWarpTransform
 
 	public boolean isNonlinear()
 	{
-		return getTransformType().equals(BigWarpTransform.TPS);
+		return getTransformType().equals(BigWarpTransform.TPS) || getTransformType().equals(BigWarpTransform.WENDLAND);
 	}
 
 	public InvertibleRealTransform getTransformation()
@@ -268,13 +335,12 @@ public class BigWarpTransform
 	public InvertibleRealTransform getTransformation( final int index, final boolean force3D )
 	{
 		InvertibleRealTransform invXfm = null;
-		if( transformType.equals( TPS ))
+		if( isNonlinear() )
 		{
-			final WrappedIterativeInvertibleRealTransform<?> tpsXfm = (WrappedIterativeInvertibleRealTransform< ? >) solver.solve( tableModel, index );
-			tpsXfm.getOptimzer().setMaxIters(maxIterations);
-			tpsXfm.getOptimzer().setTolerance(inverseTolerance);
-			tpsXfm.getOptimzer().setBeta(0.5);
-			tpsXfm.getOptimzer().setMaxStep(1000);
+			final WrappedIterativeInvertibleRealTransform<?> tpsXfm = index < 0 && solvedTransformCache != null && !isMasked()
+					? solveCached()
+					: (WrappedIterativeInvertibleRealTransform< ? >) solver.solve( tableModel, index );
+			configureInverse( tpsXfm );
 			invXfm = tpsXfm;
 		}
 		else
@@ -291,20 +357,93 @@ public class BigWarpTransform
 		return invXfm;
 	}
 
-	public void fitModel( final Model<?> model )
+	/**
+	 * Reads the transform for the active landmarks from the cache, or solves
+	 * and stores it if the cache has none.
+	 */
+	private WrappedIterativeInvertibleRealTransform< ? > solveCached()
+	{
+		final LandmarkSnapshot s = tableModel.snapshot();
+		if ( s.size() < solvedTransformCache.getMinLandmarks() )
+			return ( WrappedIterativeInvertibleRealTransform< ? > ) solver.solve( s );
+
+		final byte[] key = SolvedTransformCache.key( transformType, s, solverParameters() );
+		final RealTransform cached = solvedTransformCache.load( key );
+		if ( cached != null )
+			return new WrappedIterativeInvertibleRealTransform<>( cached );
+
+		final WrappedIterativeInvertibleRealTransform< ? > xfm = ( WrappedIterativeInvertibleRealTransform< ? > ) solver.solve( s );
+		solvedTransformCache.store( key, xfm );
+		return xfm;
+	}
+
+	/**
+	 * @return the parameters of the solver that change the solved transform
+	 */
+	private double[] solverParameters()
+	{
+		if ( solver instanceof WendlandRbfTransformSolver )
+		{
+			final WendlandRbfTransformSolver rbf = ( WendlandRbfTransformSolver ) solver;
+			return new double[] { rbf.getSupportRadius(), rbf.getNeighbors(), rbf.getTolerance() };
+		}
+		return new double[ 0 ];
+	}
+
+	private void configureInverse( final WrappedIterativeInvertibleRealTransform< ? > xfm )
 	{
-		final int numActive = tableModel.numActive();
+		xfm.getOptimzer().setMaxIters( maxIterations );
+		xfm.getOptimzer().setTolerance( inverseTolerance );
+		xfm.getOptimzer().setBeta( 0.5 );
+		xfm.getOptimzer().setMaxStep( 1000 );
+	}
 
-		final double[][] mvgPts = new double[ ndims ][ numActive ];
-		final double[][] tgtPts = new double[ ndims ][ numActive ];
+	/**
+	 * Returns a transform for rendering the moving image that evaluates the
+	 * thin plate spline of the given transform approximately with the
+	 * {@link #getTpsApproximationError() approximation error}. Returns the
+	 * given transform if it is not a (unmasked) thin plate spline or if the
+	 * approximation error is zero. Exports should use the exact transform.
+	 *
+	 * @param xfm a transform returned by {@link #getTransformation()}
+	 * @return the transform for rendering
+	 */
+	public InvertibleRealTransform approximateForRendering( final InvertibleRealTransform xfm )
+	{
+		if ( tpsApproximationError <= 0 )
+			return xfm;
 
-		tableModel.copyLandmarks( mvgPts, tgtPts );
+		if ( xfm instanceof InvertibleWrapped2DTransformAs3D )
+		{
+			final InvertibleRealTransform approx = approximateForRendering( ( ( InvertibleWrapped2DTransformAs3D ) xfm ).getTransform() );
+			return approx == ( ( InvertibleWrapped2DTransformAs3D ) xfm ).getTransform() ? xfm : new InvertibleWrapped2DTransformAs3D( approx );
+		}
 
-		final double[] w = new double[ numActive ];
+		if ( xfm instanceof WrappedIterativeInvertibleRealTransform )
+		{
+			final RealTransform fwd = ( ( WrappedIterativeInvertibleRealTransform< ? > ) xfm ).getTransform();
+			if ( fwd instanceof ThinplateSplineTransform && !( fwd instanceof ApproximateThinplateSplineTransform ) )
+			{
+				final WrappedIterativeInvertibleRealTransform< ApproximateThinplateSplineTransform > approx = new WrappedIterativeInvertibleRealTransform<>(
+						new ApproximateThinplateSplineTransform( ( ( ThinplateSplineTransform ) fwd ).getKernelTransform(), tpsApproximationError ) );
+				configureInverse( approx );
+				return approx;
+			}
+		}
+
+		return xfm;
+	}
+
+	public void fitModel( final Model<?> model )
+	{
+		final LandmarkSnapshot landmarks = tableModel.snapshot();
+
+		final double[] w = new double[ landmarks.size() ];
 		Arrays.fill( w, 1.0 );
 
 		try {
-			model.fit( mvgPts, tgtPts, w );
+			model.fit( landmarks.getMovingPoints(), landmarks.getTargetPoints(), w );
+
 		} catch (final NotEnoughDataPointsException e) {
 			e.printStackTrace();
 		} catch (final IllDefinedDataPointsException e) {
@@ -352,7 +491,7 @@ public class BigWarpTransform
 
 	public InvertibleCoordinateTransform getCoordinateTransform()
 	{
-		if( !transformType.equals( TPS ))
+		if( !isNonlinear() )
 		{
 			final WrappedCoordinateTransform wct = (WrappedCoordinateTransform)( unwrap2d( getTransformation() ));
 			return wct.getTransform();
@@ -383,6 +522,10 @@ public class BigWarpTransform
 		{
 			return affine3d( getTpsBase(), out );
 		}
+		else if( transformType.equals( WENDLAND ))
+		{
+			return affine3d( affinePartOfTpsHC(), out );
+		}
 		else
 		{
 			if( ndims == 2 )
@@ -425,6 +568,16 @@ public class BigWarpTransform
 		return null;
 	}
 
+	public WendlandRbfTransform getWendland()
+	{
+		if( transformType.equals( WENDLAND ))
+		{
+			final WrappedIterativeInvertibleRealTransform<?> wiirt = (WrappedIterativeInvertibleRealTransform<?>)( unwrap2d( getTransformation()) );
+			return ((WendlandRbfTransform)wiirt.getTransform());
+		}
+		return null;
+	}
+
 	public void printAffine()
 	{
 		if( IJ.getInstance() != null )
@@ -470,7 +623,7 @@ public class BigWarpTransform
 	public String affineToString()
 	{
 		String s = "";
-		if( getTransformType().equals( TPS ))
+		if( isNonlinear() )
 		{
 			final double[][] affine = affinePartOfTpsHC();
 			for( int r = 0; r < affine.length; r++ )
@@ -487,7 +640,7 @@ public class BigWarpTransform
 	}
 
 	/**
-	 * Returns the affine part of the thin plate spline model,
+	 * Returns the affine part of the thin plate spline or Wendland model,
 	 * as a matrix in homogeneous coordinates.
 	 *
 	 * double[i][:] contains the i^th row of the matrix.
@@ -496,6 +649,16 @@ public class BigWarpTransform
 	 */
 	public double[][] affinePartOfTpsHC()
 	{
+		if( transformType.equals( WENDLAND ))
+		{
+			final double[][] affine = getWendland().getAffine();
+			final double[][] mtx = new double[ affine.length ][];
+			for( int r = 0; r < affine.length; r++ )
+				mtx[ r ] = affine[ r ].clone();
+
+			return mtx;
+		}
+
 		int nr = 3;
 		int nc = 4;
 		double[][] mtx = null;
@@ -654,6 +817,25 @@ public class BigWarpTransform
 		return out;
 	}
 
+	/**
+	 * @param mtx a 2d or 3d affine in homogeneous coordinates, rows first
+	 * @param out the affine to set
+	 * @return the 3d affine, the identity in z for 2d affines
+	 */
+	public static AffineTransform3D affine3d( double[][] mtx, AffineTransform3D out )
+	{
+		out.identity();
+		final int nd = mtx.length;
+		for( int r = 0; r < nd; r++ )
+		{
+			for( int c = 0; c < nd; c++ )
+				out.set( mtx[ r ][ c ], r, c );
+
+			out.set( mtx[ r ][ nd ], r, 3 );
+		}
+		return out;
+	}
+
 	public static AffineTransform3D affine3d( ThinPlateR2LogRSplineKernelTransform tps, AffineTransform3D out )
 	{
 		final double[][] tpsAffine = tps.getAffine();
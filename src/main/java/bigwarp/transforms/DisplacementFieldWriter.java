@@ -0,0 +1,362 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.Localizable;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.iterator.IntervalIterator;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.RealTransformBatch;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Computes the displacement field of a {@link RealTransform} block by block
+ * and writes every block to an n5 dataset as soon as it is done.
+ * <p>
+ * The field is never held in memory as a whole. At most
+ * {@link #setMaxBlocksInFlight(int)} blocks exist at any time, so the
+ * memory needed is bounded by that number times the block size, not by
+ * the size of the field.
+ * <p>
+ * The vector axis is the first axis of the dataset, as for ngff and the n5
+ * displacement field format, or the last axis, as for slicer. Displacements
+ * can be quantized to integer types, see {@link #setQuantization(double)}.
+ *
+ * @param <T> the type of the dataset
+ */
+public class DisplacementFieldWriter< T extends NativeType< T > & RealType< T > >
+{
+	protected final RealTransform transform;
+
+	protected final long[] dimensions;
+
+	protected final double[] spacing;
+
+	protected final double[] offset;
+
+	protected final T type;
+
+	protected final int nd;
+
+	private boolean vectorAxisLast = false;
+
+	private double multiplier = 1.0;
+
+	private boolean quantize = false;
+
+	private int maxBlocksInFlight = 2 * Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param transform the transform
+	 * @param dimensions the spatial dimensions of the field
+	 * @param spacing the physical spacing of the field
+	 * @param offset the physical offset of the field
+	 * @param type the type of the dataset
+	 */
+	public DisplacementFieldWriter(
+			final RealTransform transform,
+			final long[] dimensions,
+			final double[] spacing,
+			final double[] offset,
+			final T type )
+	{
+		this.transform = transform;
+		this.dimensions = dimensions;
+		this.spacing = spacing;
+		this.offset = offset;
+		this.type = type;
+		nd = dimensions.length;
+	}
+
+	/**
+	 * Store the vector axis last, as slicer expects it, instead of first.
+	 *
+	 * @param vectorAxisLast whether the vector axis is last
+	 */
+	public void setVectorAxisLast( final boolean vectorAxisLast )
+	{
+		this.vectorAxisLast = vectorAxisLast;
+	}
+
+	/**
+	 * Store displacements divided by the multiplier and rounded to the
+	 * nearest integer, clamped to the range of the type.
+	 *
+	 * @param multiplier the quantization multiplier
+	 */
+	public void setQuantization( final double multiplier )
+	{
+		this.multiplier = multiplier;
+		this.quantize = true;
+	}
+
+	/**
+	 * Sets the number of blocks that are computed or written at the same
+	 * time, bounding the memory used.
+	 *
+	 * @param maxBlocksInFlight the maximum number of blocks
+	 */
+	public void setMaxBlocksInFlight( final int maxBlocksInFlight )
+	{
+		this.maxBlocksInFlight = Math.max( 1, maxBlocksInFlight );
+	}
+
+	/**
+	 * The multiplier that keeps the error of quantized displacement vectors
+	 * with nd components below maxError. Rounding errs by at most half the
+	 * multiplier per component.
+	 *
+	 * @param nd the number of vector components
+	 * @param maxError the maximum error of a displacement vector
+	 * @return the multiplier
+	 */
+	public static double quantizationMultiplier( final int nd, final double maxError )
+	{
+		return 2 * Math.sqrt( maxError * maxError / nd );
+	}
+
+	/**
+	 * @return the dimensions of the dataset including the vector axis
+	 */
+	public long[] getDatasetDimensions()
+	{
+		final long[] dims = new long[ nd + 1 ];
+		if ( vectorAxisLast )
+		{
+			System.arraycopy( dimensions, 0, dims, 0, nd );
+			dims[ nd ] = nd;
+		}
+		else
+		{
+			dims[ 0 ] = nd;
+			System.arraycopy( dimensions, 0, dims, 1, nd );
+		}
+		return dims;
+	}
+
+	/**
+	 * Creates the dataset and writes the field block by block.
+	 *
+	 * @param n5 the writer
+	 * @param dataset the dataset
+	 * @param spatialBlockSize the spatial block size, the vector axis is
+	 *            not split
+	 * @param compression the compression
+	 * @param exec the executor that computes and writes the blocks
+	 * @return the attributes of the dataset
+	 * @throws InterruptedException if interrupted while waiting for blocks
+	 * @throws ExecutionException if computing or writing a block failed
+	 */
+	public DatasetAttributes write(
+			final N5Writer n5,
+			final String dataset,
+			final int[] spatialBlockSize,
+			final Compression compression,
+			final ExecutorService exec ) throws InterruptedException, ExecutionException
+	{
+		final int vectorAxis = vectorAxisLast ? nd : 0;
+		final int spatialStart = vectorAxisLast ? 0 : 1;
+
+		final int[] blockSize = new int[ nd + 1 ];
+		blockSize[ vectorAxis ] = nd;
+		System.arraycopy( spatialBlockSize, 0, blockSize, spatialStart, nd );
+
+		final DatasetAttributes attributes = new DatasetAttributes( getDatasetDimensions(), blockSize,
+				N5Utils.dataType( type ), compression );
+		n5.createDataset( dataset, attributes );
+
+		final long[] gridDimensions = new long[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			gridDimensions[ d ] = ( dimensions[ d ] + spatialBlockSize[ d ] - 1 ) / spatialBlockSize[ d ];
+
+		final ThreadLocal< RealTransform > transforms = ThreadLocal.withInitial( transform::copy );
+		final Semaphore inFlight = new Semaphore( maxBlocksInFlight );
+		final List< Future< ? > > futures = new ArrayList<>();
+		final LocalizingIntervalIterator grid = new LocalizingIntervalIterator( gridDimensions );
+		while ( grid.hasNext() )
+		{
+			grid.fwd();
+			final long[] spatialPosition = grid.positionAsLongArray();
+
+			inFlight.acquire();
+			futures.add( exec.submit( () -> {
+				try
+				{
+					final long[] min = new long[ nd ];
+					final long[] max = new long[ nd ];
+					for ( int d = 0; d < nd; d++ )
+					{
+						min[ d ] = spatialPosition[ d ] * spatialBlockSize[ d ];
+						max[ d ] = Math.min( min[ d ] + spatialBlockSize[ d ], dimensions[ d ] ) - 1;
+					}
+
+					final long[] gridPosition = new long[ nd + 1 ];
+					final long[] blockMin = new long[ nd + 1 ];
+					System.arraycopy( spatialPosition, 0, gridPosition, spatialStart, nd );
+					System.arraycopy( min, 0, blockMin, spatialStart, nd );
+
+					final ArrayImg< T, ? > block = computeBlock( transforms.get(), new FinalInterval( min, max ) );
+					N5Utils.saveBlock( Views.translate( block, blockMin ), n5, dataset, attributes, gridPosition );
+				}
+				finally
+				{
+					inFlight.release();
+				}
+				return null;
+			} ) );
+		}
+
+		for ( final Future< ? > f : futures )
+			f.get();
+
+		return attributes;
+	}
+
+	/**
+	 * Computes the displacements for an interval of the spatial grid. The
+	 * transform is evaluated once per position for all vector components, for
+	 * one line along the first axis at a time with {@link RealTransformBatch}.
+	 *
+	 * @param xfm the transform, used by the calling thread only
+	 * @param interval the spatial interval
+	 * @return the block with zero min, the vector axis first or last
+	 */
+	protected ArrayImg< T, ? > computeBlock( final RealTransform xfm, final FinalInterval interval )
+	{
+		final ArrayImg< T, ? > block = createBlock( interval );
+		final RandomAccess< T > access = block.randomAccess();
+
+		final int ns = Math.max( nd, xfm.numSourceDimensions() );
+		final int nt = Math.max( nd, xfm.numTargetDimensions() );
+		final int length = ( int ) interval.dimension( 0 );
+		final double[][] xs = new double[ ns ][ length ];
+		final double[][] ys = new double[ nt ][ length ];
+		final double[] x = new double[ ns ];
+		final double[] y = new double[ nt ];
+
+		final long[] lineMax = interval.maxAsLongArray();
+		lineMax[ 0 ] = interval.min( 0 );
+		final FinalInterval lines = new FinalInterval( interval.minAsLongArray(), lineMax );
+		final IntervalIterator it = new LocalizingIntervalIterator( lines );
+		while ( it.hasNext() )
+		{
+			it.fwd();
+			for ( int i = 0; i < length; i++ )
+			{
+				xs[ 0 ][ i ] = offset[ 0 ] + spacing[ 0 ] * ( it.getLongPosition( 0 ) + i );
+				for ( int d = 1; d < nd; d++ )
+					xs[ d ][ i ] = offset[ d ] + spacing[ d ] * it.getLongPosition( d );
+			}
+
+			RealTransformBatch.apply( xfm, xs, ys, 0, length );
+
+			setPosition( it, interval, x, access );
+			for ( int i = 0; i < length; i++ )
+			{
+				access.setPosition( it.getLongPosition( 0 ) + i - interval.min( 0 ), vectorAxisLast ? 0 : 1 );
+				for ( int d = 0; d < ns; d++ )
+					x[ d ] = xs[ d ][ i ];
+				for ( int d = 0; d < nt; d++ )
+					y[ d ] = ys[ d ][ i ];
+
+				store( access, x, y );
+			}
+		}
+		return block;
+	}
+
+	/**
+	 * @param interval the spatial interval
+	 * @return an empty block for the interval, the vector axis first or last
+	 */
+	protected ArrayImg< T, ? > createBlock( final Interval interval )
+	{
+		final long[] blockDimensions = new long[ nd + 1 ];
+		final int spatialStart = vectorAxisLast ? 0 : 1;
+		blockDimensions[ vectorAxisLast ? nd : 0 ] = nd;
+		for ( int d = 0; d < nd; d++ )
+			blockDimensions[ spatialStart + d ] = interval.dimension( d );
+
+		return new ArrayImgFactory<>( type ).create( blockDimensions );
+	}
+
+	/**
+	 * Computes the physical location of a grid position and moves the access
+	 * of the block containing the interval there.
+	 *
+	 * @param position the grid position
+	 * @param interval the interval of the block
+	 * @param x receives the physical location
+	 * @param access the access of the block
+	 */
+	protected void setPosition( final Localizable position, final Interval interval, final double[] x, final RandomAccess< T > access )
+	{
+		final int spatialStart = vectorAxisLast ? 0 : 1;
+		for ( int d = 0; d < nd; d++ )
+		{
+			final long p = position.getLongPosition( d );
+			x[ d ] = offset[ d ] + spacing[ d ] * p;
+			access.setPosition( p - interval.min( d ), spatialStart + d );
+		}
+	}
+
+	/**
+	 * Stores the displacement y - x at the spatial position of the access.
+	 *
+	 * @param access the access
+	 * @param x the location
+	 * @param y the transformed location
+	 */
+	protected void store( final RandomAccess< T > access, final double[] x, final double[] y )
+	{
+		final int vectorAxis = vectorAxisLast ? nd : 0;
+		final T t = access.get();
+		for ( int d = 0; d < nd; d++ )
+		{
+			access.setPosition( d, vectorAxis );
+			final double v = y[ d ] - x[ d ];
+			if ( quantize )
+				access.get().setReal( Math.max( t.getMinValue(), Math.min( t.getMaxValue(), Math.round( v / multiplier ) ) ) );
+			else
+				access.get().setReal( v );
+		}
+	}
+}
@@ -0,0 +1,786 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import net.imglib2.realtransform.ThinplateSplineTransform;
+import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
+
+/**
+ * A thin plate spline solver that keeps the inverse of the kernel system
+ * from the previous solve and updates it when the landmarks change only
+ * slightly.
+ * <p>
+ * The active landmarks passed to {@link #solve(double[][], double[][])} are
+ * compared to the landmarks of the previous solve. If a few landmarks were
+ * moved, or a single landmark was added or removed (this includes
+ * (de)activating a row in the landmark table), the inverse of the system
+ * matrix
+ *
+ * <pre>
+ * [ 0  P^T ]
+ * [ P  K   ]
+ * </pre>
+ *
+ * is updated with a rank-two (Woodbury), bordering, or Schur-complement
+ * update in O(n^2) operations rather than re-solved from scratch in O(n^3).
+ * Moving a point in the moving image only changes the right-hand side of the
+ * system, so the matrix is not updated at all in that case.
+ * <p>
+ * The solver falls back to a full solve whenever the change can not be
+ * expressed as one of the above updates, when an update is numerically
+ * unsafe, when the interpolation residual at an updated landmark exceeds the
+ * tolerance, and after {@link #getMaxIncrementalUpdates()} consecutive
+ * updates. Landmark sets that are too small or too large (the inverse needs
+ * O(n^2) memory) are solved as {@link TpsTransformSolver} does.
+ * <p>
+ * Instances are safe to share between threads.
+ */
+public class IncrementalTpsTransformSolver extends TpsTransformSolver
+{
+	/**
+	 * The inverse for this many 3d landmarks takes about 290 MB.
+	 */
+	public static final int DEFAULT_MAX_LANDMARKS = 6000;
+
+	public static final int DEFAULT_MAX_INCREMENTAL_UPDATES = 256;
+
+	public static final double DEFAULT_TOLERANCE = 1e-6;
+
+	/**
+	 * The largest number of moved landmarks that are applied as updates.
+	 */
+	private static final int MAX_MOVED = 4;
+
+	private static final double SINGULAR_TOLERANCE = 1e-12;
+
+	/**
+	 * Same as the kernel in {@link ThinPlateR2LogRSplineKernelTransform}.
+	 */
+	private static final double EPS = 1e-8;
+
+	private int maxLandmarks = DEFAULT_MAX_LANDMARKS;
+
+	private int maxIncrementalUpdates = DEFAULT_MAX_INCREMENTAL_UPDATES;
+
+	private double tolerance = DEFAULT_TOLERANCE;
+
+	private boolean valid = false;
+
+	private int ndims;
+
+	// the size of the polynomial block of the system, ndims + 1
+	private int m;
+
+	// the number of landmarks in the system
+	private int n;
+
+	private int capacity;
+
+	// the source landmarks of the tps (the bigwarp target points)
+	private double[][] src;
+
+	// the target landmarks of the tps (the bigwarp moving points)
+	private double[][] dst;
+
+	// the inverse of the system matrix, the polynomial block comes first
+	private double[][] inverse;
+
+	private double[] colA;
+
+	private double[] colB;
+
+	private double[] colU;
+
+	// landmarks whose interpolation residual is checked after an update
+	private final int[] touched = new int[ MAX_MOVED ];
+
+	private int numTouched;
+
+	private int numUpdates;
+
+	private ThinPlateR2LogRSplineKernelTransform current;
+
+	private int numFullSolves = 0;
+
+	private int numIncrementalSolves = 0;
+
+	/**
+	 * Sets the largest number of landmarks for which the inverse of the
+	 * system matrix is kept. The inverse is dense and takes
+	 * 8 ( n + ndims + 1 )^2 bytes for n landmarks, larger sets are solved
+	 * from scratch every time.
+	 *
+	 * @param maxLandmarks the largest number of landmarks
+	 */
+	public void setMaxLandmarks( final int maxLandmarks )
+	{
+		this.maxLandmarks = maxLandmarks;
+	}
+
+	public int getMaxLandmarks()
+	{
+		return maxLandmarks;
+	}
+
+	public void setMaxIncrementalUpdates( final int maxIncrementalUpdates )
+	{
+		this.maxIncrementalUpdates = maxIncrementalUpdates;
+	}
+
+	public int getMaxIncrementalUpdates()
+	{
+		return maxIncrementalUpdates;
+	}
+
+	/**
+	 * Sets the largest interpolation residual at an updated landmark,
+	 * relative to the magnitude of its coordinates, that is accepted before
+	 * falling back to a full solve.
+	 *
+	 * @param tolerance the relative tolerance
+	 */
+	public void setTolerance( final double tolerance )
+	{
+		this.tolerance = tolerance;
+	}
+
+	public double getTolerance()
+	{
+		return tolerance;
+	}
+
+	public int getNumFullSolves()
+	{
+		return numFullSolves;
+	}
+
+	public int getNumIncrementalSolves()
+	{
+		return numIncrementalSolves;
+	}
+
+	/**
+	 * Discards the stored system, the next solve will be a full solve.
+	 */
+	public synchronized void reset()
+	{
+		valid = false;
+		current = null;
+		inverse = null;
+		src = null;
+		dst = null;
+		capacity = 0;
+	}
+
+	@Override
+	public synchronized WrappedIterativeInvertibleRealTransform< ? > solve( final double[][] mvgPts, final double[][] tgtPts )
+	{
+		final int nd = tgtPts.length;
+		final int np = nd > 0 ? tgtPts[ 0 ].length : 0;
+		if ( np <= nd + 1 || np > maxLandmarks )
+		{
+			reset();
+			return super.solve( mvgPts, tgtPts );
+		}
+
+		if ( valid && nd == ndims && numUpdates < maxIncrementalUpdates && update( mvgPts, tgtPts ) )
+		{
+			if ( current == null )
+				current = kernelTransform();
+
+			if ( current != null )
+			{
+				numIncrementalSolves++;
+				return wrap( current );
+			}
+		}
+
+		numFullSolves++;
+		if ( rebuild( mvgPts, tgtPts ) )
+			current = kernelTransform();
+		else
+			current = null;
+
+		if ( current == null )
+		{
+			// singular or badly conditioned, let jitk deal with it
+			reset();
+			return super.solve( mvgPts, tgtPts );
+		}
+
+		return wrap( current );
+	}
+
+	private static WrappedIterativeInvertibleRealTransform< ThinplateSplineTransform > wrap( final ThinPlateR2LogRSplineKernelTransform tps )
+	{
+		return new WrappedIterativeInvertibleRealTransform< ThinplateSplineTransform >( new ThinplateSplineTransform( tps ) );
+	}
+
+	/**
+	 * Updates the stored system to the given landmarks.
+	 *
+	 * @return false if a full solve is necessary
+	 */
+	private boolean update( final double[][] mvgPts, final double[][] tgtPts )
+	{
+		final int np = tgtPts[ 0 ].length;
+		final int minN = Math.min( n, np );
+
+		int prefix = 0;
+		while ( prefix < minN && equal( prefix, prefix, mvgPts, tgtPts ) )
+			prefix++;
+
+		int suffix = 0;
+		while ( suffix < minN - prefix && equal( n - 1 - suffix, np - 1 - suffix, mvgPts, tgtPts ) )
+			suffix++;
+
+		numTouched = 0;
+		if ( np == n )
+		{
+			if ( prefix == n )
+				return true;
+
+			int numMoved = 0;
+			for ( int i = prefix; i < n - suffix; i++ )
+				if ( !equal( i, i, mvgPts, tgtPts ) )
+					numMoved++;
+
+			if ( numMoved > MAX_MOVED )
+				return false;
+
+			for ( int i = prefix; i < n - suffix; i++ )
+				if ( !equal( i, i, mvgPts, tgtPts ) && !move( i, mvgPts, tgtPts ) )
+					return false;
+		}
+		else if ( np == n + 1 && prefix + suffix == n )
+		{
+			if ( !insert( prefix, mvgPts, tgtPts ) )
+				return false;
+		}
+		else if ( np == n - 1 && prefix + suffix == np )
+		{
+			if ( !remove( prefix ) )
+				return false;
+		}
+		else
+			return false;
+
+		numUpdates++;
+		current = null;
+		return true;
+	}
+
+	private boolean equal( final int i, final int j, final double[][] mvgPts, final double[][] tgtPts )
+	{
+		for ( int d = 0; d < ndims; d++ )
+			if ( src[ d ][ i ] != tgtPts[ d ][ j ] || dst[ d ][ i ] != mvgPts[ d ][ j ] )
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Moves the ith landmark with a rank-two update of the inverse.
+	 */
+	private boolean move( final int i, final double[][] mvgPts, final double[][] tgtPts )
+	{
+		boolean srcMoved = false;
+		for ( int d = 0; d < ndims; d++ )
+			srcMoved = srcMoved || src[ d ][ i ] != tgtPts[ d ][ i ];
+
+		if ( srcMoved )
+		{
+			final int N = m + n;
+			final int s = m + i;
+
+			// the change of column s of the system matrix
+			final double[] u = colU;
+			for ( int d = 0; d < ndims; d++ )
+				u[ d ] = tgtPts[ d ][ i ] - src[ d ][ i ];
+
+			u[ ndims ] = 0;
+			for ( int k = 0; k < n; k++ )
+			{
+				if ( k == i )
+					u[ m + k ] = 0;
+				else
+					u[ m + k ] = kernel( tgtPts, i, src, k ) - kernel( src, i, src, k );
+			}
+
+			final double[] a = colA;
+			final double[] b = colB;
+			for ( int j = 0; j < N; j++ )
+			{
+				final double[] row = inverse[ j ];
+				a[ j ] = row[ s ];
+
+				double bj = 0;
+				for ( int k = 0; k < N; k++ )
+					bj += row[ k ] * u[ k ];
+
+				b[ j ] = bj;
+			}
+
+			final double as = a[ s ];
+			final double c = 1 + b[ s ];
+			double ub = 0;
+			for ( int k = 0; k < N; k++ )
+				ub += u[ k ] * b[ k ];
+
+			// the determinant of the 2x2 capacitance matrix
+			final double det = c * c - as * ub;
+			if ( Math.abs( det ) <= SINGULAR_TOLERANCE * Math.max( c * c, Math.abs( as * ub ) ) )
+				return false;
+
+			for ( int j = 0; j < N; j++ )
+			{
+				final double aj = a[ j ] / det;
+				final double bj = b[ j ] / det;
+				final double[] row = inverse[ j ];
+				for ( int k = 0; k < N; k++ )
+					row[ k ] -= aj * ( c * b[ k ] - ub * a[ k ] ) + bj * ( c * a[ k ] - as * b[ k ] );
+			}
+		}
+
+		for ( int d = 0; d < ndims; d++ )
+		{
+			src[ d ][ i ] = tgtPts[ d ][ i ];
+			dst[ d ][ i ] = mvgPts[ d ][ i ];
+		}
+
+		touched[ numTouched++ ] = i;
+		return true;
+	}
+
+	/**
+	 * Inserts a landmark at index i by bordering the inverse.
+	 */
+	private boolean insert( final int i, final double[][] mvgPts, final double[][] tgtPts )
+	{
+		ensureCapacity( n + 1 );
+
+		final int N = m + n;
+		final int s = m + i;
+
+		// the new column of the system matrix
+		final double[] v = colU;
+		double vmax = 1;
+		for ( int d = 0; d < ndims; d++ )
+		{
+			v[ d ] = tgtPts[ d ][ i ];
+			vmax = Math.max( vmax, Math.abs( v[ d ] ) );
+		}
+		v[ ndims ] = 1;
+		for ( int k = 0; k < n; k++ )
+		{
+			v[ m + k ] = kernel( tgtPts, i, src, k );
+			vmax = Math.max( vmax, Math.abs( v[ m + k ] ) );
+		}
+
+		final double[] q = colB;
+		double sigma = 0;
+		for ( int j = 0; j < N; j++ )
+		{
+			final double[] row = inverse[ j ];
+			double qj = 0;
+			for ( int k = 0; k < N; k++ )
+				qj += row[ k ] * v[ k ];
+
+			q[ j ] = qj;
+			sigma -= v[ j ] * qj;
+		}
+
+		// the schur complement of the new (zero) diagonal entry
+		if ( Math.abs( sigma ) <= SINGULAR_TOLERANCE * vmax )
+			return false;
+
+		for ( int j = 0; j < N; j++ )
+		{
+			final double qj = q[ j ] / sigma;
+			final double[] row = inverse[ j ];
+			for ( int k = 0; k < N; k++ )
+				row[ k ] += qj * q[ k ];
+		}
+
+		// make room for row and column s
+		final double[] spare = inverse[ N ];
+		for ( int j = N; j > s; j-- )
+			inverse[ j ] = inverse[ j - 1 ];
+
+		inverse[ s ] = spare;
+		for ( int j = 0; j <= N; j++ )
+			if ( j != s )
+				System.arraycopy( inverse[ j ], s, inverse[ j ], s + 1, N - s );
+
+		for ( int j = 0; j <= N; j++ )
+		{
+			if ( j == s )
+				continue;
+
+			final double val = -q[ j < s ? j : j - 1 ] / sigma;
+			inverse[ j ][ s ] = val;
+			spare[ j ] = val;
+		}
+		spare[ s ] = 1 / sigma;
+
+		for ( int d = 0; d < ndims; d++ )
+		{
+			System.arraycopy( src[ d ], i, src[ d ], i + 1, n - i );
+			System.arraycopy( dst[ d ], i, dst[ d ], i + 1, n - i );
+			src[ d ][ i ] = tgtPts[ d ][ i ];
+			dst[ d ][ i ] = mvgPts[ d ][ i ];
+		}
+		n++;
+
+		touched[ numTouched++ ] = i;
+		return true;
+	}
+
+	/**
+	 * Removes the landmark at index i with a Schur complement update of the
+	 * inverse.
+	 */
+	private boolean remove( final int i )
+	{
+		final int N = m + n;
+		final int s = m + i;
+
+		final double bss = inverse[ s ][ s ];
+		double rowMax = 0;
+		for ( int k = 0; k < N; k++ )
+			rowMax = Math.max( rowMax, Math.abs( inverse[ s ][ k ] ) );
+
+		if ( Math.abs( bss ) <= SINGULAR_TOLERANCE * rowMax )
+			return false;
+
+		final double[] a = colA;
+		for ( int j = 0; j < N; j++ )
+			a[ j ] = inverse[ j ][ s ];
+
+		for ( int j = 0; j < N; j++ )
+		{
+			final double aj = a[ j ] / bss;
+			final double[] row = inverse[ j ];
+			for ( int k = 0; k < N; k++ )
+				row[ k ] -= aj * a[ k ];
+		}
+
+		final double[] spare = inverse[ s ];
+		for ( int j = s; j < N - 1; j++ )
+			inverse[ j ] = inverse[ j + 1 ];
+
+		inverse[ N - 1 ] = spare;
+		for ( int j = 0; j < N - 1; j++ )
+			System.arraycopy( inverse[ j ], s + 1, inverse[ j ], s, N - 1 - s );
+
+		for ( int d = 0; d < ndims; d++ )
+		{
+			System.arraycopy( src[ d ], i + 1, src[ d ], i, n - 1 - i );
+			System.arraycopy( dst[ d ], i + 1, dst[ d ], i, n - 1 - i );
+		}
+		n--;
+
+		return true;
+	}
+
+	/**
+	 * Builds the system matrix for the given landmarks and inverts it.
+	 *
+	 * @return false if the system is singular
+	 */
+	private boolean rebuild( final double[][] mvgPts, final double[][] tgtPts )
+	{
+		valid = false;
+		current = null;
+		numUpdates = 0;
+		numTouched = 0;
+
+		if ( ndims != tgtPts.length )
+		{
+			ndims = tgtPts.length;
+			m = ndims + 1;
+			capacity = 0;
+		}
+
+		n = 0;
+		ensureCapacity( tgtPts[ 0 ].length );
+		n = tgtPts[ 0 ].length;
+
+		for ( int d = 0; d < ndims; d++ )
+		{
+			System.arraycopy( tgtPts[ d ], 0, src[ d ], 0, n );
+			System.arraycopy( mvgPts[ d ], 0, dst[ d ], 0, n );
+		}
+
+		final int N = m + n;
+		for ( int j = 0; j < m; j++ )
+			for ( int k = 0; k < m; k++ )
+				inverse[ j ][ k ] = 0;
+
+		for ( int i = 0; i < n; i++ )
+		{
+			final int s = m + i;
+			for ( int d = 0; d < ndims; d++ )
+			{
+				inverse[ s ][ d ] = src[ d ][ i ];
+				inverse[ d ][ s ] = src[ d ][ i ];
+			}
+			inverse[ s ][ ndims ] = 1;
+			inverse[ ndims ][ s ] = 1;
+
+			inverse[ s ][ s ] = 0;
+			for ( int k = i + 1; k < n; k++ )
+			{
+				final double val = kernel( src, i, src, k );
+				inverse[ s ][ m + k ] = val;
+				inverse[ m + k ][ s ] = val;
+			}
+		}
+
+		valid = invertInPlace( inverse, N );
+		return valid;
+	}
+
+	/**
+	 * Computes the tps coefficients from the stored inverse.
+	 *
+	 * @return the transform, or null if the interpolation residual at a
+	 *         recently updated landmark is too large
+	 */
+	private ThinPlateR2LogRSplineKernelTransform kernelTransform()
+	{
+		final int N = m + n;
+
+		final double[][] disp = new double[ ndims ][ n ];
+		for ( int d = 0; d < ndims; d++ )
+			for ( int k = 0; k < n; k++ )
+				disp[ d ][ k ] = dst[ d ][ k ] - src[ d ][ k ];
+
+		// coefficients, ordered as the rows of the system
+		final double[][] coefs = new double[ N ][ ndims ];
+		for ( int j = 0; j < N; j++ )
+		{
+			final double[] row = inverse[ j ];
+			for ( int d = 0; d < ndims; d++ )
+			{
+				final double[] dispd = disp[ d ];
+				double sum = 0;
+				for ( int k = 0; k < n; k++ )
+					sum += row[ m + k ] * dispd[ k ];
+
+				coefs[ j ][ d ] = sum;
+			}
+		}
+
+		final double[][] srcCopy = new double[ ndims ][ n ];
+		for ( int d = 0; d < ndims; d++ )
+			System.arraycopy( src[ d ], 0, srcCopy[ d ], 0, n );
+
+		final double[][] aMatrix = new double[ ndims ][ ndims ];
+		final double[] bVector = new double[ ndims ];
+		for ( int d = 0; d < ndims; d++ )
+		{
+			for ( int j = 0; j < ndims; j++ )
+				aMatrix[ d ][ j ] = coefs[ j ][ d ];
+
+			bVector[ d ] = coefs[ ndims ][ d ];
+		}
+
+		// jitk stores the knot weights interleaved, landmark-major
+		final double[] weights = new double[ n * ndims ];
+		for ( int k = 0; k < n; k++ )
+			for ( int d = 0; d < ndims; d++ )
+				weights[ k * ndims + d ] = coefs[ m + k ][ d ];
+
+		for ( int t = 0; t < numTouched; t++ )
+			if ( !checkResidual( touched[ t ], coefs, disp ) )
+				return null;
+
+		numTouched = 0;
+		return new ThinPlateR2LogRSplineKernelTransform( srcCopy, aMatrix, bVector, weights );
+	}
+
+	private boolean checkResidual( final int i, final double[][] coefs, final double[][] disp )
+	{
+		double scale = 1;
+		for ( int d = 0; d < ndims; d++ )
+			scale = Math.max( scale, Math.max( Math.abs( src[ d ][ i ] ), Math.abs( dst[ d ][ i ] ) ) );
+
+		final double[] val = new double[ ndims ];
+		for ( int k = 0; k < n; k++ )
+		{
+			final double u = kernel( src, i, src, k );
+			for ( int d = 0; d < ndims; d++ )
+				val[ d ] += u * coefs[ m + k ][ d ];
+		}
+
+		for ( int d = 0; d < ndims; d++ )
+		{
+			double v = val[ d ] + coefs[ ndims ][ d ];
+			for ( int j = 0; j < ndims; j++ )
+				v += coefs[ j ][ d ] * src[ j ][ i ];
+
+			if ( Math.abs( v - disp[ d ][ i ] ) > tolerance * scale )
+				return false;
+		}
+		return true;
+	}
+
+	private void ensureCapacity( final int numLandmarks )
+	{
+		if ( numLandmarks <= capacity )
+			return;
+
+		// never grow past the largest system that is updated incrementally
+		final int grown = Math.min( Math.max( 16, capacity + capacity / 2 ), maxLandmarks );
+		final int newCapacity = Math.max( numLandmarks, grown );
+		final int N = m + n;
+		final int newN = m + newCapacity;
+
+		// release every old row once it is copied, so that the old and the new
+		// inverse are not both alive in full
+		final double[][] newInverse = new double[ newN ][];
+		for ( int j = 0; j < newN; j++ )
+		{
+			newInverse[ j ] = new double[ newN ];
+			if ( inverse != null && j < N )
+			{
+				System.arraycopy( inverse[ j ], 0, newInverse[ j ], 0, N );
+				inverse[ j ] = null;
+			}
+		}
+
+		final double[][] newSrc = new double[ ndims ][ newCapacity ];
+		final double[][] newDst = new double[ ndims ][ newCapacity ];
+		if ( src != null && src.length == ndims )
+		{
+			for ( int d = 0; d < ndims; d++ )
+			{
+				System.arraycopy( src[ d ], 0, newSrc[ d ], 0, n );
+				System.arraycopy( dst[ d ], 0, newDst[ d ], 0, n );
+			}
+		}
+
+		inverse = newInverse;
+		src = newSrc;
+		dst = newDst;
+		colA = new double[ newN ];
+		colB = new double[ newN ];
+		colU = new double[ newN ];
+		capacity = newCapacity;
+	}
+
+	private double kernel( final double[][] p, final int i, final double[][] q, final int k )
+	{
+		double r2 = 0;
+		for ( int d = 0; d < ndims; d++ )
+		{
+			final double diff = p[ d ][ i ] - q[ d ][ k ];
+			r2 += diff * diff;
+		}
+
+		final double r = Math.sqrt( r2 );
+		return r > EPS ? r2 * Math.log( r ) : 0;
+	}
+
+	/**
+	 * Inverts the upper left N x N block of a matrix in place with
+	 * Gauss-Jordan elimination and partial pivoting.
+	 *
+	 * @param a the matrix
+	 * @param N the size of the block
+	 * @return false if the matrix is singular
+	 */
+	static boolean invertInPlace( final double[][] a, final int N )
+	{
+		double max = 0;
+		for ( int j = 0; j < N; j++ )
+			for ( int k = 0; k < N; k++ )
+				max = Math.max( max, Math.abs( a[ j ][ k ] ) );
+
+		final double tol = SINGULAR_TOLERANCE * max;
+		final int[] pivots = new int[ N ];
+		for ( int k = 0; k < N; k++ )
+		{
+			int p = k;
+			double pmax = Math.abs( a[ k ][ k ] );
+			for ( int j = k + 1; j < N; j++ )
+			{
+				final double v = Math.abs( a[ j ][ k ] );
+				if ( v > pmax )
+				{
+					pmax = v;
+					p = j;
+				}
+			}
+
+			if ( pmax <= tol )
+				return false;
+
+			pivots[ k ] = p;
+			if ( p != k )
+			{
+				final double[] t = a[ p ];
+				a[ p ] = a[ k ];
+				a[ k ] = t;
+			}
+
+			final double[] pivotRow = a[ k ];
+			final double pivinv = 1.0 / pivotRow[ k ];
+			pivotRow[ k ] = 1.0;
+			for ( int l = 0; l < N; l++ )
+				pivotRow[ l ] *= pivinv;
+
+			for ( int j = 0; j < N; j++ )
+			{
+				if ( j == k )
+					continue;
+
+				final double[] row = a[ j ];
+				final double f = row[ k ];
+				if ( f == 0 )
+					continue;
+
+				row[ k ] = 0;
+				for ( int l = 0; l < N; l++ )
+					row[ l ] -= f * pivotRow[ l ];
+			}
+		}
+
+		// undo the row interchanges by swapping columns
+		for ( int k = N - 1; k >= 0; k-- )
+		{
+			final int p = pivots[ k ];
+			if ( p != k )
+			{
+				for ( int j = 0; j < N; j++ )
+				{
+					final double t = a[ j ][ p ];
+					a[ j ][ p ] = a[ j ][ k ];
+					a[ j ][ k ] = t;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,341 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.FloatArray;
+import net.imglib2.img.basictypes.ShortArray;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Writes the displacement field of the inverse of a transform, solving for
+ * the inverse at every grid position with Newton iterations on the forward
+ * transform.
+ * <p>
+ * Unlike evaluating an iterative inverse independently at every position,
+ * positions are visited in scanline order and each solve starts from the
+ * solution at the previous position, or at the start of the previous row,
+ * reusing its Jacobian. Neighboring solutions differ by about one grid
+ * spacing, so most positions converge in one or two iterations. The first
+ * position of a block starts from an initial guess, usually the inverse of
+ * the affine part of the thin plate spline. Only when a warm started solve
+ * does not converge is the solve repeated from the initial guess.
+ * <p>
+ * The number of iterations and the residual of every position can be
+ * written to additional datasets, see {@link #setWriteDiagnostics(boolean)},
+ * and are summarized by {@link #getStatistics()}.
+ *
+ * @param <T> the type of the dataset
+ */
+public class InverseDisplacementFieldWriter< T extends NativeType< T > & RealType< T > > extends DisplacementFieldWriter< T >
+{
+	public static final String RESIDUAL_SUFFIX = "_residual";
+
+	public static final String ITERATIONS_SUFFIX = "_iterations";
+
+	private final AffineGet initialGuess;
+
+	private final double tolerance;
+
+	private final int maxIterations;
+
+	private final double step;
+
+	private boolean writeDiagnostics = false;
+
+	private N5Writer n5;
+
+	private String dataset;
+
+	private int[] spatialBlockSize;
+
+	private DatasetAttributes residualAttributes;
+
+	private DatasetAttributes iterationAttributes;
+
+	private final AtomicLong numPositions = new AtomicLong();
+
+	private final AtomicLong numIterations = new AtomicLong();
+
+	private final AtomicLong numColdStarts = new AtomicLong();
+
+	private final AtomicLong numNotConverged = new AtomicLong();
+
+	private final DoubleAccumulator maxResidual = new DoubleAccumulator( Math::max, 0 );
+
+	/**
+	 * @param forward the transform to invert
+	 * @param initialGuess approximates the inverse, the identity if null
+	 * @param tolerance the maximum distance between the forward transform of
+	 *            the solution and the grid position
+	 * @param maxIterations the maximum number of iterations per position
+	 * @param dimensions the spatial dimensions of the field
+	 * @param spacing the physical spacing of the field
+	 * @param offset the physical offset of the field
+	 * @param type the type of the dataset
+	 */
+	public InverseDisplacementFieldWriter(
+			final RealTransform forward,
+			final AffineGet initialGuess,
+			final double tolerance,
+			final int maxIterations,
+			final long[] dimensions,
+			final double[] spacing,
+			final double[] offset,
+			final T type )
+	{
+		super( forward, dimensions, spacing, offset, type );
+		this.initialGuess = initialGuess;
+		this.tolerance = tolerance;
+		this.maxIterations = maxIterations;
+
+		double minSpacing = Double.MAX_VALUE;
+		for ( final double s : spacing )
+			minSpacing = Math.min( minSpacing, s );
+
+		// finite difference step for the Jacobian
+		step = 1e-3 * minSpacing;
+	}
+
+	/**
+	 * Also write the number of iterations and the residual of every position
+	 * to the datasets with {@link #ITERATIONS_SUFFIX} and
+	 * {@link #RESIDUAL_SUFFIX}. Positions that did not converge have a
+	 * negative number of iterations.
+	 *
+	 * @param writeDiagnostics whether to write the diagnostics
+	 */
+	public void setWriteDiagnostics( final boolean writeDiagnostics )
+	{
+		this.writeDiagnostics = writeDiagnostics;
+	}
+
+	@Override
+	public DatasetAttributes write(
+			final N5Writer n5,
+			final String dataset,
+			final int[] spatialBlockSize,
+			final Compression compression,
+			final ExecutorService exec ) throws InterruptedException, ExecutionException
+	{
+		this.n5 = n5;
+		this.dataset = dataset;
+		this.spatialBlockSize = spatialBlockSize;
+		if ( writeDiagnostics )
+		{
+			final int[] blk = new int[ nd ];
+			System.arraycopy( spatialBlockSize, 0, blk, 0, nd );
+			residualAttributes = new DatasetAttributes( dimensions, blk, N5Utils.dataType( new FloatType() ), compression );
+			iterationAttributes = new DatasetAttributes( dimensions, blk, N5Utils.dataType( new ShortType() ), compression );
+			n5.createDataset( dataset + RESIDUAL_SUFFIX, residualAttributes );
+			n5.createDataset( dataset + ITERATIONS_SUFFIX, iterationAttributes );
+		}
+		return super.write( n5, dataset, spatialBlockSize, compression, exec );
+	}
+
+	@Override
+	protected ArrayImg< T, ? > computeBlock( final RealTransform xfm, final FinalInterval interval )
+	{
+		final ArrayImg< T, ? > block = createBlock( interval );
+		final RandomAccess< T > access = block.randomAccess();
+
+		final long[] diagnosticDimensions = writeDiagnostics ? interval.dimensionsAsLongArray() : new long[ nd ];
+		final ArrayImg< FloatType, FloatArray > residuals = writeDiagnostics ? ArrayImgs.floats( diagnosticDimensions ) : null;
+		final ArrayImg< ShortType, ShortArray > iterations = writeDiagnostics ? ArrayImgs.shorts( diagnosticDimensions ) : null;
+		final RandomAccess< FloatType > residualAccess = writeDiagnostics ? residuals.randomAccess() : null;
+		final RandomAccess< ShortType > iterationAccess = writeDiagnostics ? iterations.randomAccess() : null;
+
+		final int n = Math.max( nd, Math.max( xfm.numSourceDimensions(), xfm.numTargetDimensions() ) );
+		final NewtonInverseSolver solver = new NewtonInverseSolver( xfm, n, step );
+
+		// the grid position, the solution at the previous position and at
+		// the start of the previous row and their Jacobians
+		final double[] y = new double[ n ];
+		final double[] x = new double[ n ];
+		final double[] previous = new double[ n ];
+		final double[] rowStart = new double[ n ];
+		final double[][] previousJacobian = new double[ n ][ n ];
+		final double[][] rowStartJacobian = new double[ n ][ n ];
+		boolean hasPrevious = false;
+		boolean hasRowStart = false;
+
+		long blockIterations = 0;
+		long blockColdStarts = 0;
+		long blockNotConverged = 0;
+		double blockMaxResidual = 0;
+
+		final LocalizingIntervalIterator it = new LocalizingIntervalIterator( interval );
+		while ( it.hasNext() )
+		{
+			it.fwd();
+			setPosition( it, interval, y, access );
+
+			final boolean newRow = it.getLongPosition( 0 ) == interval.min( 0 );
+			final boolean warm = newRow ? hasRowStart : hasPrevious;
+			int iters;
+			if ( warm )
+			{
+				System.arraycopy( newRow ? rowStart : previous, 0, x, 0, n );
+				solver.setJacobian( newRow ? rowStartJacobian : previousJacobian );
+				iters = solver.solve( y, x, tolerance, maxIterations );
+			}
+			else
+				iters = -1;
+
+			if ( iters < 0 )
+			{
+				if ( warm )
+					blockColdStarts++;
+
+				coldStart( y, x );
+				solver.invalidateJacobian();
+				iters = solver.solve( y, x, tolerance, maxIterations );
+			}
+
+			if ( iters < 0 )
+			{
+				blockNotConverged++;
+				blockIterations += maxIterations;
+			}
+			else
+			{
+				blockIterations += iters;
+
+				System.arraycopy( x, 0, previous, 0, n );
+				solver.getJacobian( previousJacobian );
+				hasPrevious = true;
+				if ( newRow )
+				{
+					System.arraycopy( x, 0, rowStart, 0, n );
+					solver.getJacobian( rowStartJacobian );
+					hasRowStart = true;
+				}
+			}
+
+			// the displacement of the inverse maps y to x
+			store( access, y, x );
+
+			final double residual = solver.getResidual();
+			blockMaxResidual = Math.max( blockMaxResidual, residual );
+			if ( writeDiagnostics )
+			{
+				for ( int d = 0; d < nd; d++ )
+				{
+					residualAccess.setPosition( it.getLongPosition( d ) - interval.min( d ), d );
+					iterationAccess.setPosition( it.getLongPosition( d ) - interval.min( d ), d );
+				}
+				residualAccess.get().setReal( residual );
+				iterationAccess.get().setReal( iters < 0 ? -maxIterations : Math.min( iters, Short.MAX_VALUE ) );
+			}
+		}
+
+		numPositions.addAndGet( Intervals.numElements( interval ) );
+		numIterations.addAndGet( blockIterations );
+		numColdStarts.addAndGet( blockColdStarts );
+		numNotConverged.addAndGet( blockNotConverged );
+		maxResidual.accumulate( blockMaxResidual );
+
+		if ( writeDiagnostics )
+		{
+			final long[] gridPosition = new long[ nd ];
+			for ( int d = 0; d < nd; d++ )
+				gridPosition[ d ] = interval.min( d ) / spatialBlockSize[ d ];
+
+			N5Utils.saveBlock( Views.translate( residuals, interval.minAsLongArray() ), n5, dataset + RESIDUAL_SUFFIX, residualAttributes, gridPosition );
+			N5Utils.saveBlock( Views.translate( iterations, interval.minAsLongArray() ), n5, dataset + ITERATIONS_SUFFIX, iterationAttributes, gridPosition );
+		}
+
+		return block;
+	}
+
+	private void coldStart( final double[] y, final double[] x )
+	{
+		if ( initialGuess == null )
+			System.arraycopy( y, 0, x, 0, x.length );
+		else
+			initialGuess.apply( y, x );
+	}
+
+	/**
+	 * @return a summary of the iterations and residuals of all positions
+	 *         written so far
+	 */
+	public Statistics getStatistics()
+	{
+		return new Statistics( numPositions.get(), numIterations.get(), numColdStarts.get(), numNotConverged.get(), maxResidual.get() );
+	}
+
+	public static class Statistics
+	{
+		public final long numPositions;
+
+		public final long numIterations;
+
+		public final long numColdStarts;
+
+		public final long numNotConverged;
+
+		public final double maxResidual;
+
+		public Statistics( final long numPositions, final long numIterations, final long numColdStarts, final long numNotConverged, final double maxResidual )
+		{
+			this.numPositions = numPositions;
+			this.numIterations = numIterations;
+			this.numColdStarts = numColdStarts;
+			this.numNotConverged = numNotConverged;
+			this.maxResidual = maxResidual;
+		}
+
+		public double meanIterations()
+		{
+			return numPositions == 0 ? 0 : ( double ) numIterations / numPositions;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "%d positions, %.2f iterations per position, %d cold starts, %d not converged, max residual %g",
+					numPositions, meanIterations(), numColdStarts, numNotConverged, maxResidual );
+		}
+	}
+}
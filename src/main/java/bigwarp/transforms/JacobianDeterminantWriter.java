@@ -0,0 +1,334 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.RealTransformAnalyticDerivatives;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Computes the determinant of the jacobian of a {@link RealTransform} block
+ * by block, writes it and a map of folds, the locations where the
+ * determinant is negative, to n5 datasets, and summarizes it.
+ * <p>
+ * Jacobians are computed analytically with
+ * {@link RealTransformAnalyticDerivatives}. As for the
+ * {@link DisplacementFieldWriter}, at most {@link #setMaxBlocksInFlight(int)}
+ * blocks exist at any time.
+ */
+public class JacobianDeterminantWriter
+{
+	protected final RealTransform transform;
+
+	protected final long[] dimensions;
+
+	protected final double[] spacing;
+
+	protected final double[] offset;
+
+	protected final int nd;
+
+	private int maxBlocksInFlight = 2 * Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param transform the transform
+	 * @param dimensions the dimensions of the grid
+	 * @param spacing the physical spacing of the grid
+	 * @param offset the physical offset of the grid
+	 */
+	public JacobianDeterminantWriter(
+			final RealTransform transform,
+			final long[] dimensions,
+			final double[] spacing,
+			final double[] offset )
+	{
+		this.transform = transform;
+		this.dimensions = dimensions;
+		this.spacing = spacing;
+		this.offset = offset;
+		nd = dimensions.length;
+	}
+
+	/**
+	 * Sets the number of blocks that are computed or written at the same
+	 * time, bounding the memory used.
+	 *
+	 * @param maxBlocksInFlight the maximum number of blocks
+	 */
+	public void setMaxBlocksInFlight( final int maxBlocksInFlight )
+	{
+		this.maxBlocksInFlight = Math.max( 1, maxBlocksInFlight );
+	}
+
+	/**
+	 * Computes the determinants block by block, writes them and the fold map
+	 * and stores the statistics as attributes of the datasets.
+	 *
+	 * @param n5 the writer
+	 * @param determinantDataset the float32 dataset of determinants, or null
+	 *            to not write them
+	 * @param foldDataset the uint8 dataset that is 1 where the determinant is
+	 *            negative and 0 elsewhere, or null to not write it
+	 * @param blockSize the block size
+	 * @param compression the compression
+	 * @param exec the executor that computes and writes the blocks
+	 * @return the statistics of the determinant
+	 * @throws InterruptedException if interrupted while waiting for blocks
+	 * @throws ExecutionException if computing or writing a block failed
+	 */
+	public Statistics write(
+			final N5Writer n5,
+			final String determinantDataset,
+			final String foldDataset,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec ) throws InterruptedException, ExecutionException
+	{
+		final DatasetAttributes detAttributes = new DatasetAttributes( dimensions, blockSize, DataType.FLOAT32, compression );
+		final DatasetAttributes foldAttributes = new DatasetAttributes( dimensions, blockSize, DataType.UINT8, compression );
+		if ( determinantDataset != null )
+			n5.createDataset( determinantDataset, detAttributes );
+		if ( foldDataset != null )
+			n5.createDataset( foldDataset, foldAttributes );
+
+		final long[] gridDimensions = new long[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			gridDimensions[ d ] = ( dimensions[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ];
+
+		final ThreadLocal< RealTransformAnalyticDerivatives > derivatives = ThreadLocal.withInitial(
+				() -> new RealTransformAnalyticDerivatives( transform.copy() ) );
+		final Semaphore inFlight = new Semaphore( maxBlocksInFlight );
+		final List< Future< Statistics > > futures = new ArrayList<>();
+		final LocalizingIntervalIterator grid = new LocalizingIntervalIterator( gridDimensions );
+		while ( grid.hasNext() )
+		{
+			grid.fwd();
+			final long[] gridPosition = grid.positionAsLongArray();
+
+			inFlight.acquire();
+			futures.add( exec.submit( () -> {
+				try
+				{
+					final long[] min = new long[ nd ];
+					final long[] max = new long[ nd ];
+					for ( int d = 0; d < nd; d++ )
+					{
+						min[ d ] = gridPosition[ d ] * blockSize[ d ];
+						max[ d ] = Math.min( min[ d ] + blockSize[ d ], dimensions[ d ] ) - 1;
+					}
+					final FinalInterval interval = new FinalInterval( min, max );
+
+					final float[] values = new float[ ( int ) interval.size() ];
+					final Statistics stats = computeBlock( derivatives.get(), interval, values );
+
+					if ( determinantDataset != null )
+					{
+						final ArrayImg< FloatType, FloatArray > det = ArrayImgs.floats( values, interval.dimensionsAsLongArray() );
+						N5Utils.saveBlock( Views.translate( det, min ), n5, determinantDataset, detAttributes, gridPosition );
+					}
+
+					if ( foldDataset != null )
+					{
+						final byte[] folds = new byte[ values.length ];
+						for ( int i = 0; i < values.length; i++ )
+							folds[ i ] = ( byte ) ( values[ i ] < 0 ? 1 : 0 );
+
+						final ArrayImg< UnsignedByteType, ByteArray > foldImg = ArrayImgs.unsignedBytes( folds, interval.dimensionsAsLongArray() );
+						N5Utils.saveBlock( Views.translate( foldImg, min ), n5, foldDataset, foldAttributes, gridPosition );
+					}
+					return stats;
+				}
+				finally
+				{
+					inFlight.release();
+				}
+			} ) );
+		}
+
+		final Statistics stats = new Statistics();
+		for ( final Future< Statistics > f : futures )
+			stats.add( f.get() );
+
+		if ( determinantDataset != null )
+			stats.writeAttributes( n5, determinantDataset );
+		if ( foldDataset != null )
+			stats.writeAttributes( n5, foldDataset );
+
+		return stats;
+	}
+
+	/**
+	 * Computes the determinants for an interval of the grid.
+	 *
+	 * @param derivatives the derivatives, used by the calling thread only
+	 * @param interval the interval
+	 * @param values receives the determinants in flat iteration order
+	 * @return the statistics of the block
+	 */
+	protected Statistics computeBlock( final RealTransformAnalyticDerivatives derivatives, final FinalInterval interval, final float[] values )
+	{
+		final Statistics stats = new Statistics();
+		final double[] x = new double[ Math.max( nd, derivatives.numSourceDimensions() ) ];
+		final LocalizingIntervalIterator it = new LocalizingIntervalIterator( interval );
+		int i = 0;
+		while ( it.hasNext() )
+		{
+			it.fwd();
+			for ( int d = 0; d < nd; d++ )
+				x[ d ] = offset[ d ] + spacing[ d ] * it.getLongPosition( d );
+
+			final double det = derivatives.determinant( x );
+			values[ i++ ] = ( float ) det;
+			stats.add( det );
+		}
+		return stats;
+	}
+
+	/**
+	 * Summary statistics of jacobian determinants. NaN values, that occur
+	 * for more than three dimensions, are not counted.
+	 */
+	public static class Statistics
+	{
+		public static final String MIN_KEY = "min";
+
+		public static final String MAX_KEY = "max";
+
+		public static final String MEAN_KEY = "mean";
+
+		public static final String NEGATIVE_FRACTION_KEY = "negativeFraction";
+
+		private double min = Double.POSITIVE_INFINITY;
+
+		private double max = Double.NEGATIVE_INFINITY;
+
+		private double sum = 0;
+
+		private long count = 0;
+
+		private long numNegative = 0;
+
+		public void add( final double det )
+		{
+			if ( Double.isNaN( det ) )
+				return;
+
+			min = Math.min( min, det );
+			max = Math.max( max, det );
+			sum += det;
+			count++;
+			if ( det < 0 )
+				numNegative++;
+		}
+
+		public void add( final Statistics other )
+		{
+			min = Math.min( min, other.min );
+			max = Math.max( max, other.max );
+			sum += other.sum;
+			count += other.count;
+			numNegative += other.numNegative;
+		}
+
+		public double getMin()
+		{
+			return min;
+		}
+
+		public double getMax()
+		{
+			return max;
+		}
+
+		public double getMean()
+		{
+			return count == 0 ? Double.NaN : sum / count;
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * @return the number of locations where the transform folds
+		 */
+		public long getNumNegative()
+		{
+			return numNegative;
+		}
+
+		/**
+		 * @return the fraction of locations where the transform folds
+		 */
+		public double getNegativeFraction()
+		{
+			return count == 0 ? 0 : ( double ) numNegative / count;
+		}
+
+		/**
+		 * Stores the statistics as attributes of a dataset, if any
+		 * determinant was counted.
+		 *
+		 * @param n5 the writer
+		 * @param dataset the dataset
+		 */
+		protected void writeAttributes( final N5Writer n5, final String dataset )
+		{
+			if ( count == 0 )
+				return;
+
+			n5.setAttribute( dataset, MIN_KEY, min );
+			n5.setAttribute( dataset, MAX_KEY, max );
+			n5.setAttribute( dataset, MEAN_KEY, getMean() );
+			n5.setAttribute( dataset, NEGATIVE_FRACTION_KEY, getNegativeFraction() );
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "min %f max %f mean %f folded %d of %d (%.4f%%)",
+					min, max, getMean(), numNegative, count, 100 * getNegativeFraction() );
+		}
+	}
+}
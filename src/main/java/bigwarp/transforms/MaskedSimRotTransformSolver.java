@@ -32,6 +32,7 @@ import mpicbg.models.RigidModel3D;
 import mpicbg.models.SimilarityModel2D;
 import net.imglib2.RealLocalizable;
 import net.imglib2.RealRandomAccessible;
+import net.imglib2.realtransform.AffineInterpolationTable;
 import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.InvertibleRealTransform;
@@ -39,6 +40,7 @@ import net.imglib2.realtransform.MaskedSimilarityTransform;
 import net.imglib2.realtransform.MaskedSimilarityTransform.Interpolators;
 import net.imglib2.realtransform.MaskedSimilarityTransform2D;
 import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.RealTransformBatch;
 import net.imglib2.realtransform.RealTransformSequence;
 import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
 import net.imglib2.type.numeric.RealType;
@@ -51,6 +53,8 @@ public class MaskedSimRotTransformSolver<T extends RealType<T>> extends Abstract
 	private final double[] center;
 	private final Interpolators interp;
 	private final int ndims;
+	private int tableSize = AffineInterpolationTable.DEFAULT_SIZE;
+	private boolean blendTable = true;
 
 	public MaskedSimRotTransformSolver( AbstractTransformSolver<?> solver, RealRandomAccessible<T> lambda, double[] center, Interpolators interp )
 	{
@@ -90,6 +94,19 @@ public class MaskedSimRotTransformSolver<T extends RealType<T>> extends Abstract
 		return String.format( "MaskedSolver.  center %s; interp: %s ", Arrays.toString( center ), this.interp.toString() );
 	}
 
+	/**
+	 * Sets how finely the interpolation between the identity and the
+	 * similarity is tabulated at every solve.
+	 *
+	 * @param size the number of table entries
+	 * @param blend whether to blend neighboring entries linearly
+	 */
+	public void setInterpolationTable( final int size, final boolean blend )
+	{
+		this.tableSize = size;
+		this.blendTable = blend;
+	}
+
 	public void setCenter( double[] c )
 	{
 		// assume center is always longer than c
@@ -112,12 +129,14 @@ public class MaskedSimRotTransformSolver<T extends RealType<T>> extends Abstract
 		{
 			final AffineTransform2D sim = new AffineTransform2D();
 			BigWarpTransform.affine2d( ( AbstractAffineModel2D ) interpSolver.getModel(), sim );
-			msim = new MaskedSimilarityTransform2D( sim, lambda, center, interp );
+			final AffineInterpolationTable table = MaskedSimilarityTransform2D.interpolationTable( sim, center, interp, tableSize, blendTable );
+			msim = new MaskedSimilarityTransform2D( sim, lambda, center, interp, table );
 		}
 		else
 		{
 			final AffineTransform3D sim = BigWarpTransform.toAffine3D( ( AbstractAffineModel3D ) interpSolver.getModel() );
-			msim = new MaskedSimilarityTransform( sim, lambda, center, interp );
+			final AffineInterpolationTable table = MaskedSimilarityTransform.interpolationTable( sim, center, interp, tableSize, blendTable );
+			msim = new MaskedSimilarityTransform( sim, lambda, center, interp, table );
 		}
 
 		final double[][] xfmTgt = transformPoints( msim, tgtPts );
@@ -134,33 +153,14 @@ public class MaskedSimRotTransformSolver<T extends RealType<T>> extends Abstract
 	public WrappedIterativeInvertibleRealTransform<?> solve(
 			final LandmarkTableModel landmarkTable )
 	{
-		final int numActive = landmarkTable.numActive();
-		final int nd = landmarkTable.getNumdims();
-		final double[][] mvgPts = new double[ nd ][ numActive ];
-		final double[][] tgtPts = new double[ nd ][ numActive ];
-		landmarkTable.copyLandmarks( mvgPts, tgtPts ); // synchronized
-		return solve( mvgPts, tgtPts );
+		return solve( landmarkTable.snapshot() );
 	}
 
+
 	private static double[][] transformPoints( RealTransform xfm, double[][] pts )
 	{
-		final int nd = pts.length;
-		final int np = pts[0].length;
-
-		final double[] tmp = new double[nd];
-		final double[][] out = new double[ nd ][ np ];
-
-		for( int i = 0; i < np; i++ )
-		{
-			for( int d = 0; d < nd; d++ )
-				tmp[d] = pts[d][i];
-
-			xfm.apply(tmp,tmp);
-
-			for( int d = 0; d < nd; d++ )
-				out[d][i] = tmp[d];
-		}
-
+		final double[][] out = new double[ pts.length ][ pts[0].length ];
+		RealTransformBatch.apply( xfm, pts, out, 0, pts[0].length );
 		return out;
 	}
 }
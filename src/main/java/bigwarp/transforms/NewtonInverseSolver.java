@@ -0,0 +1,258 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import net.imglib2.realtransform.RealTransform;
+
+/**
+ * Solves forward(x) = y with Newton iterations and a backtracking line
+ * search. The Jacobian is estimated with forward differences and kept
+ * between solves, it is only estimated again when a step does not reduce
+ * the residual enough, so consecutive solves for nearby targets are cheap.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class NewtonInverseSolver
+{
+	private final RealTransform forward;
+
+	private final int n;
+
+	private final double step;
+
+	private final double[] fx;
+
+	private final double[] fh;
+
+	private final double[] xh;
+
+	private final double[] r;
+
+	private final double[] dx;
+
+	private final double[][] jacobian;
+
+	private final double[][] lu;
+
+	private boolean jacobianValid = false;
+
+	private boolean jacobianFresh = false;
+
+	private double residual;
+
+	/**
+	 * @param forward the forward transform
+	 * @param n the number of dimensions
+	 * @param step the finite difference step for the Jacobian
+	 */
+	public NewtonInverseSolver( final RealTransform forward, final int n, final double step )
+	{
+		this.forward = forward;
+		this.n = n;
+		this.step = step;
+		fx = new double[ n ];
+		fh = new double[ n ];
+		xh = new double[ n ];
+		r = new double[ n ];
+		dx = new double[ n ];
+		jacobian = new double[ n ][ n ];
+		lu = new double[ n ][ n ];
+	}
+
+	public void setJacobian( final double[][] j )
+	{
+		for ( int i = 0; i < n; i++ )
+			System.arraycopy( j[ i ], 0, jacobian[ i ], 0, n );
+
+		jacobianValid = true;
+		jacobianFresh = false;
+	}
+
+	public void getJacobian( final double[][] j )
+	{
+		for ( int i = 0; i < n; i++ )
+			System.arraycopy( jacobian[ i ], 0, j[ i ], 0, n );
+	}
+
+	public void invalidateJacobian()
+	{
+		jacobianValid = false;
+	}
+
+	public double getResidual()
+	{
+		return residual;
+	}
+
+	/**
+	 * @param y the target
+	 * @param x the starting point, receives the solution
+	 * @param tolerance the tolerance
+	 * @param maxIterations the maximum number of iterations
+	 * @return the number of iterations, or -1 if not converged
+	 */
+	public int solve( final double[] y, final double[] x, final double tolerance, final int maxIterations )
+	{
+		residual = residual( y, x, fx );
+		for ( int i = 0; i < maxIterations; i++ )
+		{
+			if ( residual <= tolerance )
+				return i;
+
+			if ( !jacobianValid )
+				estimateJacobian( x );
+
+			if ( !newtonStep( y, x ) )
+			{
+				// a stale Jacobian may be to blame
+				if ( jacobianFresh )
+					return -1;
+
+				estimateJacobian( x );
+				if ( !newtonStep( y, x ) )
+					return -1;
+			}
+		}
+		return residual <= tolerance ? maxIterations : -1;
+	}
+
+	/*
+	 * Takes a step along the Newton direction, halving it until the
+	 * residual decreases. Marks the Jacobian stale if the decrease is
+	 * small and returns false if there is none.
+	 */
+	private boolean newtonStep( final double[] y, final double[] x )
+	{
+		for ( int d = 0; d < n; d++ )
+			r[ d ] = y[ d ] - fx[ d ];
+
+		if ( !solveLinear( r, dx ) )
+		{
+			jacobianValid = false;
+			return false;
+		}
+
+		double t = 1;
+		while ( t > 1e-4 )
+		{
+			for ( int d = 0; d < n; d++ )
+				xh[ d ] = x[ d ] + t * dx[ d ];
+
+			final double rh = residual( y, xh, fh );
+			if ( rh < residual )
+			{
+				if ( rh > 0.5 * residual )
+					jacobianValid = false;
+
+				System.arraycopy( xh, 0, x, 0, n );
+				System.arraycopy( fh, 0, fx, 0, n );
+				residual = rh;
+				jacobianFresh = false;
+				return true;
+			}
+			t *= 0.5;
+		}
+		jacobianValid = false;
+		return false;
+	}
+
+	private void estimateJacobian( final double[] x )
+	{
+		System.arraycopy( x, 0, xh, 0, n );
+		for ( int c = 0; c < n; c++ )
+		{
+			xh[ c ] = x[ c ] + step;
+			forward.apply( xh, fh );
+			for ( int d = 0; d < n; d++ )
+				jacobian[ d ][ c ] = ( fh[ d ] - fx[ d ] ) / step;
+
+			xh[ c ] = x[ c ];
+		}
+		jacobianValid = true;
+		jacobianFresh = true;
+	}
+
+	/*
+	 * Solves jacobian * out = b by Gaussian elimination with partial
+	 * pivoting.
+	 */
+	private boolean solveLinear( final double[] b, final double[] out )
+	{
+		for ( int i = 0; i < n; i++ )
+		{
+			System.arraycopy( jacobian[ i ], 0, lu[ i ], 0, n );
+			out[ i ] = b[ i ];
+		}
+
+		for ( int c = 0; c < n; c++ )
+		{
+			int p = c;
+			for ( int i = c + 1; i < n; i++ )
+				if ( Math.abs( lu[ i ][ c ] ) > Math.abs( lu[ p ][ c ] ) )
+					p = i;
+
+			if ( Math.abs( lu[ p ][ c ] ) < 1e-12 )
+				return false;
+
+			if ( p != c )
+			{
+				final double[] tmp = lu[ p ];
+				lu[ p ] = lu[ c ];
+				lu[ c ] = tmp;
+				final double tb = out[ p ];
+				out[ p ] = out[ c ];
+				out[ c ] = tb;
+			}
+
+			for ( int i = c + 1; i < n; i++ )
+			{
+				final double f = lu[ i ][ c ] / lu[ c ][ c ];
+				for ( int j = c; j < n; j++ )
+					lu[ i ][ j ] -= f * lu[ c ][ j ];
+
+				out[ i ] -= f * out[ c ];
+			}
+		}
+
+		for ( int i = n - 1; i >= 0; i-- )
+		{
+			double s = out[ i ];
+			for ( int j = i + 1; j < n; j++ )
+				s -= lu[ i ][ j ] * out[ j ];
+
+			out[ i ] = s / lu[ i ][ i ];
+		}
+		return true;
+	}
+
+	private double residual( final double[] y, final double[] x, final double[] f )
+	{
+		forward.apply( x, f );
+		double s = 0;
+		for ( int d = 0; d < n; d++ )
+		{
+			final double e = f[ d ] - y[ d ];
+			s += e * e;
+		}
+		return Math.sqrt( s );
+	}
+}
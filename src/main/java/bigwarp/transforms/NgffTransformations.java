@@ -489,6 +489,48 @@ public class NgffTransformations
 			e.printStackTrace();
 		}
 
+		return saveFieldMetadataNgff( n5Writer, dataset, inputCoordinates, outputCoordinates, type, spacing, offset );
+	}
+
+	/**
+	 * Writes the ngff metadata of a displacement field that has already been
+	 * written to the dataset, for example by a {@link DisplacementFieldWriter}.
+	 *
+	 * @param n5 the writer
+	 * @param dataset the dataset
+	 * @param inName the name of the input coordinate system
+	 * @param outName the name of the output coordinate system
+	 * @param spacing the spacing of the field
+	 * @param offset the offset of the field
+	 * @param unit the spatial unit
+	 * @return the displacement field transformation
+	 */
+	public static DisplacementFieldCoordinateTransform<?> saveDisplacementFieldMetadata(
+			final N5Writer n5,
+			final String dataset,
+			final String inName,
+			final String outName,
+			final double[] spacing,
+			final double[] offset,
+			final String unit )
+	{
+		final String[] axisNames = ( spacing.length == 2 ) ? new String[] { "x", "y" } : new String[] { "x", "y", "z"};
+		final CoordinateSystem inputCoordinates = new CoordinateSystem( inName, Axis.space( unit, axisNames ) );
+		final CoordinateSystem outputCoordinates = new CoordinateSystem( outName, Axis.space( unit, axisNames ) );
+
+		return (DisplacementFieldCoordinateTransform<?>)saveFieldMetadataNgff( n5, dataset, inputCoordinates, outputCoordinates,
+				TransformField.DISPLACEMENT, spacing, offset );
+	}
+
+	private static <T extends NativeType<T> & RealType<T>> CoordinateTransform<?> saveFieldMetadataNgff(
+			final N5Writer n5Writer,
+			final String dataset,
+			final CoordinateSystem inputCoordinates,
+			final CoordinateSystem outputCoordinates,
+			final TransformField type,
+			final double[] spacing,
+			final double[] offset ) {
+
 		final String vecFieldCsName =  inputCoordinates.getName();
 		final CoordinateSystem[] cs = new CoordinateSystem[] {
 				createVectorFieldCoordinateSystem( vecFieldCsName, inputCoordinates, type ) };
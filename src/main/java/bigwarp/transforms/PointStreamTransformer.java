@@ -0,0 +1,535 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import bdv.export.ProgressWriter;
+import net.imglib2.realtransform.InvertibleRealTransform;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.RealTransformBatch;
+
+/**
+ * Transforms a stream of points in parallel batches and writes the results
+ * in input order as soon as they are done.
+ * <p>
+ * The points are never held in memory as a whole. At most
+ * {@link #setMaxBatchesInFlight(int)} batches of {@link #setBatchSize(int)}
+ * points exist at any time and their buffers are reused, so the memory
+ * needed does not depend on the number of points.
+ * <p>
+ * The inverse is solved with {@link NewtonInverseSolver}, starting from the
+ * solution of the previous point of the batch if it is closer than
+ * {@link #setMaxSeedDistance(double)}. For spatially sorted points most
+ * solves then need one or two iterations. The first point of every batch,
+ * and every point whose warm started solve does not converge, falls back to
+ * the inverse of the transform.
+ * <p>
+ * Points that can not be transformed are written as NaN.
+ */
+public class PointStreamTransformer
+{
+	public static final int DEFAULT_BATCH_SIZE = 65536;
+
+	/**
+	 * Reads points with interleaved coordinates.
+	 */
+	public static interface PointReader extends Closeable
+	{
+		/**
+		 * @return the number of dimensions of the points
+		 */
+		public int numDimensions();
+
+		/**
+		 * @return the number of points, or -1 if not known in advance
+		 */
+		public long size();
+
+		/**
+		 * Reads the next points.
+		 *
+		 * @param points receives the interleaved coordinates
+		 * @param maxPoints the maximum number of points to read
+		 * @return the number of points read, zero at the end of the stream
+		 * @throws IOException if reading fails
+		 */
+		public int read( double[] points, int maxPoints ) throws IOException;
+	}
+
+	/**
+	 * Writes points with interleaved coordinates.
+	 */
+	public static interface PointWriter extends Closeable
+	{
+		/**
+		 * Writes the next points.
+		 *
+		 * @param points the interleaved coordinates
+		 * @param numPoints the number of points
+		 * @throws IOException if writing fails
+		 */
+		public void write( double[] points, int numPoints ) throws IOException;
+	}
+
+	protected final RealTransform transform;
+
+	protected final int nd;
+
+	private boolean inverse = false;
+
+	private double tolerance = 0.1;
+
+	private int maxIterations = 200;
+
+	private double jacobianStep = 1e-3;
+
+	private double maxSeedDistance = Double.POSITIVE_INFINITY;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private int maxBatchesInFlight = 2 * Runtime.getRuntime().availableProcessors();
+
+	private ProgressWriter progress = null;
+
+	private long progressInterval = 10_000_000;
+
+	/**
+	 * @param transform the transform
+	 * @param nd the number of dimensions of the points
+	 */
+	public PointStreamTransformer( final RealTransform transform, final int nd )
+	{
+		this.transform = transform;
+		this.nd = nd;
+	}
+
+	/**
+	 * Apply the inverse of the transform, it must be an
+	 * {@link InvertibleRealTransform}.
+	 *
+	 * @param inverse whether to apply the inverse
+	 */
+	public void setInverse( final boolean inverse )
+	{
+		if ( inverse && !( transform instanceof InvertibleRealTransform ) )
+			throw new IllegalArgumentException( "transform is not invertible: " + transform.getClass().getName() );
+
+		this.inverse = inverse;
+	}
+
+	/**
+	 * Sets the tolerance and maximum number of iterations of warm started
+	 * inverse solves. Solves that fall back to the inverse of the transform
+	 * use its own settings.
+	 *
+	 * @param tolerance the tolerance
+	 * @param maxIterations the maximum number of iterations
+	 */
+	public void setInverseParameters( final double tolerance, final int maxIterations )
+	{
+		this.tolerance = tolerance;
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @param jacobianStep the finite difference step for the Jacobian of
+	 *            warm started inverse solves
+	 */
+	public void setJacobianStep( final double jacobianStep )
+	{
+		this.jacobianStep = jacobianStep;
+	}
+
+	/**
+	 * Sets the distance between consecutive points up to which the inverse
+	 * solve starts from the solution of the previous point. Zero disables
+	 * warm starts, which is faster for points in random order.
+	 *
+	 * @param maxSeedDistance the maximum distance
+	 */
+	public void setMaxSeedDistance( final double maxSeedDistance )
+	{
+		this.maxSeedDistance = maxSeedDistance;
+	}
+
+	/**
+	 * @param batchSize the number of points transformed by one task
+	 */
+	public void setBatchSize( final int batchSize )
+	{
+		this.batchSize = Math.max( 1, batchSize );
+	}
+
+	/**
+	 * Sets the number of batches that are read, transformed or written at
+	 * the same time, bounding the memory used.
+	 *
+	 * @param maxBatchesInFlight the maximum number of batches
+	 */
+	public void setMaxBatchesInFlight( final int maxBatchesInFlight )
+	{
+		this.maxBatchesInFlight = Math.max( 1, maxBatchesInFlight );
+	}
+
+	/**
+	 * Reports the number of points and points per second every interval
+	 * points.
+	 *
+	 * @param progress the progress writer, may be null
+	 * @param interval the number of points between reports
+	 */
+	public void setProgressWriter( final ProgressWriter progress, final long interval )
+	{
+		this.progress = progress;
+		this.progressInterval = Math.max( 1, interval );
+	}
+
+	/**
+	 * Transforms all points of the reader and writes them to the writer.
+	 * Neither is closed.
+	 *
+	 * @param reader the reader
+	 * @param writer the writer
+	 * @param exec the executor that transforms the batches
+	 * @return the statistics
+	 * @throws IOException if reading or writing fails
+	 * @throws InterruptedException if interrupted while waiting for batches
+	 * @throws ExecutionException if transforming a batch failed
+	 */
+	public Statistics transform(
+			final PointReader reader,
+			final PointWriter writer,
+			final ExecutorService exec ) throws IOException, InterruptedException, ExecutionException
+	{
+		if ( reader.numDimensions() != nd )
+			throw new IllegalArgumentException( "points have " + reader.numDimensions() + " dimensions, expected " + nd );
+
+		// workers are checked out per batch rather than kept per thread, so
+		// that none outlive this call in the threads of a long-lived executor.
+		// There are at most as many as batches in flight.
+		final ConcurrentLinkedQueue< Worker > idle = new ConcurrentLinkedQueue<>();
+		final ArrayDeque< Batch > free = new ArrayDeque<>();
+		final ArrayDeque< Future< Batch > > pending = new ArrayDeque<>();
+		final Statistics stats = new Statistics();
+		final long start = System.nanoTime();
+		long nextReport = progressInterval;
+		try
+		{
+			while ( true )
+			{
+				final Batch batch = free.isEmpty() ? new Batch( batchSize * nd ) : free.poll();
+				batch.size = reader.read( batch.points, batchSize );
+				if ( batch.size <= 0 )
+					break;
+
+				pending.add( exec.submit( () -> {
+					final Worker w = idle.poll();
+					final Worker worker = w != null ? w : new Worker();
+					try
+					{
+						return worker.process( batch );
+					}
+					finally
+					{
+						idle.offer( worker );
+					}
+				} ) );
+				while ( pending.size() >= maxBatchesInFlight || ( !pending.isEmpty() && pending.peek().isDone() ) )
+				{
+					final Batch done = pending.poll().get();
+					writer.write( done.points, done.size );
+					stats.add( done );
+					free.add( done );
+				}
+
+				if ( progress != null && stats.numPoints >= nextReport )
+				{
+					stats.nanos = System.nanoTime() - start;
+					progress.out().println( stats.numPoints + " points, " + String.format( "%.0f", stats.pointsPerSecond() ) + " points/s" );
+					nextReport = stats.numPoints + progressInterval;
+				}
+			}
+
+			while ( !pending.isEmpty() )
+			{
+				final Batch done = pending.poll().get();
+				writer.write( done.points, done.size );
+				stats.add( done );
+			}
+		}
+		finally
+		{
+			for ( final Future< Batch > f : pending )
+				f.cancel( true );
+		}
+
+		stats.nanos = System.nanoTime() - start;
+		return stats;
+	}
+
+	/**
+	 * Transforms points in place, used by one thread at a time.
+	 */
+	protected class Worker
+	{
+		protected final RealTransform xfm = transform.copy();
+
+		protected final int n = Math.max( nd, Math.max( xfm.numSourceDimensions(), xfm.numTargetDimensions() ) );
+
+		protected final NewtonInverseSolver newton = inverse ? new NewtonInverseSolver( xfm, n, jacobianStep ) : null;
+
+		protected final double[] x = new double[ n ];
+
+		protected final double[] y = new double[ n ];
+
+		protected final double[] previous = new double[ n ];
+
+		protected final double[] fx = new double[ n ];
+
+		protected double[][] xs = new double[ n ][ 0 ];
+
+		protected double[][] ys = new double[ n ][ 0 ];
+
+		protected Batch process( final Batch batch )
+		{
+			batch.reset();
+			if ( inverse )
+				processInverse( batch );
+			else
+				processForward( batch );
+
+			return batch;
+		}
+
+		/**
+		 * Transforms the batch with {@link RealTransformBatch}, or point by
+		 * point if that fails.
+		 */
+		protected void processForward( final Batch batch )
+		{
+			final double[] p = batch.points;
+			final int size = batch.size;
+			if ( xs[ 0 ].length < size )
+			{
+				xs = new double[ n ][ size ];
+				ys = new double[ n ][ size ];
+			}
+
+			for ( int k = 0; k < size; k++ )
+				for ( int d = 0; d < nd; d++ )
+					xs[ d ][ k ] = p[ k * nd + d ];
+
+			try
+			{
+				RealTransformBatch.apply( xfm, xs, ys, 0, size );
+				for ( int k = 0; k < size; k++ )
+					for ( int d = 0; d < nd; d++ )
+						p[ k * nd + d ] = ys[ d ][ k ];
+				return;
+			}
+			catch ( final RuntimeException e )
+			{
+				// find the points that fail one by one below
+			}
+
+			for ( int k = 0; k < size; k++ )
+			{
+				final int o = k * nd;
+				System.arraycopy( p, o, x, 0, nd );
+				try
+				{
+					xfm.apply( x, y );
+					System.arraycopy( y, 0, p, o, nd );
+				}
+				catch ( final RuntimeException e )
+				{
+					batch.numFailed++;
+					for ( int d = 0; d < nd; d++ )
+						p[ o + d ] = Double.NaN;
+				}
+			}
+		}
+
+		protected void processInverse( final Batch batch )
+		{
+			final InvertibleRealTransform ixfm = ( InvertibleRealTransform ) xfm;
+			final double[] p = batch.points;
+			final double maxSeedDistanceSquared = maxSeedDistance * maxSeedDistance;
+			boolean seeded = false;
+			for ( int k = 0; k < batch.size; k++ )
+			{
+				final int o = k * nd;
+				double dist = 0;
+				for ( int d = 0; d < nd; d++ )
+				{
+					y[ d ] = p[ o + d ];
+					dist += ( y[ d ] - previous[ d ] ) * ( y[ d ] - previous[ d ] );
+					previous[ d ] = y[ d ];
+				}
+
+				// x still holds the solution for the previous point
+				int iterations = -1;
+				if ( seeded && dist <= maxSeedDistanceSquared )
+					iterations = newton.solve( y, x, tolerance, maxIterations );
+
+				double residual;
+				if ( iterations >= 0 )
+				{
+					batch.numWarmStarts++;
+					batch.numIterations += iterations;
+					residual = newton.getResidual();
+				}
+				else
+				{
+					batch.numColdStarts++;
+					try
+					{
+						ixfm.applyInverse( x, y );
+						xfm.apply( x, fx );
+						residual = 0;
+						for ( int d = 0; d < nd; d++ )
+							residual += ( fx[ d ] - y[ d ] ) * ( fx[ d ] - y[ d ] );
+						residual = Math.sqrt( residual );
+					}
+					catch ( final RuntimeException e )
+					{
+						residual = Double.NaN;
+					}
+					newton.invalidateJacobian();
+				}
+
+				if ( Double.isNaN( residual ) )
+				{
+					batch.numFailed++;
+					seeded = false;
+					for ( int d = 0; d < n; d++ )
+						x[ d ] = d < nd ? Double.NaN : 0;
+				}
+				else
+				{
+					if ( residual > tolerance )
+						batch.numNotConverged++;
+					batch.maxResidual = Math.max( batch.maxResidual, residual );
+					seeded = true;
+				}
+				System.arraycopy( x, 0, p, o, nd );
+			}
+		}
+	}
+
+	/**
+	 * A batch of points and the counts of its transformation.
+	 */
+	protected static class Batch
+	{
+		protected final double[] points;
+
+		protected int size;
+
+		protected long numWarmStarts;
+
+		protected long numColdStarts;
+
+		protected long numIterations;
+
+		protected long numNotConverged;
+
+		protected long numFailed;
+
+		protected double maxResidual;
+
+		protected Batch( final int capacity )
+		{
+			points = new double[ capacity ];
+		}
+
+		protected void reset()
+		{
+			numWarmStarts = 0;
+			numColdStarts = 0;
+			numIterations = 0;
+			numNotConverged = 0;
+			numFailed = 0;
+			maxResidual = 0;
+		}
+	}
+
+	public static class Statistics
+	{
+		public long numPoints;
+
+		public long numWarmStarts;
+
+		public long numColdStarts;
+
+		public long numIterations;
+
+		public long numNotConverged;
+
+		public long numFailed;
+
+		public double maxResidual;
+
+		public long nanos;
+
+		protected void add( final Batch batch )
+		{
+			numPoints += batch.size;
+			numWarmStarts += batch.numWarmStarts;
+			numColdStarts += batch.numColdStarts;
+			numIterations += batch.numIterations;
+			numNotConverged += batch.numNotConverged;
+			numFailed += batch.numFailed;
+			maxResidual = Math.max( maxResidual, batch.maxResidual );
+		}
+
+		public double seconds()
+		{
+			return nanos / 1e9;
+		}
+
+		public double pointsPerSecond()
+		{
+			return nanos == 0 ? 0 : numPoints / seconds();
+		}
+
+		@Override
+		public String toString()
+		{
+			String s = String.format( "%d points in %.2f s, %.0f points/s", numPoints, seconds(), pointsPerSecond() );
+			if ( numWarmStarts + numColdStarts > 0 )
+				s += String.format( ", %d warm starts (%.2f iterations each), %d cold starts, %d not converged, max residual %g",
+						numWarmStarts, numWarmStarts == 0 ? 0.0 : ( double ) numIterations / numWarmStarts,
+						numColdStarts, numNotConverged, maxResidual );
+			if ( numFailed > 0 )
+				s += String.format( ", %d failed", numFailed );
+			return s;
+		}
+	}
+}
@@ -0,0 +1,602 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DoubleArrayDataBlock;
+import org.janelia.saalfeldlab.n5.FloatArrayDataBlock;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import bigwarp.transforms.PointStreamTransformer.PointReader;
+import bigwarp.transforms.PointStreamTransformer.PointWriter;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Readers and writers of point streams for {@link PointStreamTransformer}.
+ * <ul>
+ * <li>csv files with one point per row,</li>
+ * <li>binary files of interleaved float32 or float64 coordinates without
+ * header,</li>
+ * <li>n5 datasets with dimensions [nd, numPoints].</li>
+ * </ul>
+ */
+public class PointStreams
+{
+	private PointStreams()
+	{}
+
+	/**
+	 * Opens a csv file, the number of dimensions is the number of columns of
+	 * the first point.
+	 *
+	 * @param path the file
+	 * @param hasHeader whether the first row is a header
+	 * @return the reader
+	 * @throws IOException if the file can not be read
+	 */
+	public static CsvPointReader csvReader( final Path path, final boolean hasHeader ) throws IOException
+	{
+		final BufferedReader reader = Files.newBufferedReader( path, StandardCharsets.UTF_8 );
+		try
+		{
+			final String header = hasHeader ? reader.readLine() : null;
+			reader.mark( 1 << 16 );
+			final String first = reader.readLine();
+			reader.reset();
+			final int nd = first == null ? 0 : first.split( "," ).length;
+			return new CsvPointReader( reader, nd, header );
+		}
+		catch ( final IOException e )
+		{
+			reader.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Counts the rows of a csv file without parsing them.
+	 *
+	 * @param path the file
+	 * @param hasHeader whether the first row is a header
+	 * @return the number of points
+	 * @throws IOException if the file can not be read
+	 */
+	public static long countCsvPoints( final Path path, final boolean hasHeader ) throws IOException
+	{
+		try ( final BufferedReader reader = Files.newBufferedReader( path, StandardCharsets.UTF_8 ) )
+		{
+			long n = 0;
+			String line;
+			while ( ( line = reader.readLine() ) != null )
+				if ( !line.trim().isEmpty() )
+					n++;
+
+			return hasHeader ? Math.max( 0, n - 1 ) : n;
+		}
+	}
+
+	/**
+	 * @param path the file, replaced if it exists
+	 * @param nd the number of dimensions
+	 * @param header the header row, or null
+	 * @return the writer
+	 * @throws IOException if the file can not be created
+	 */
+	public static CsvPointWriter csvWriter( final Path path, final int nd, final String header ) throws IOException
+	{
+		return new CsvPointWriter( Files.newBufferedWriter( path, StandardCharsets.UTF_8 ), nd, header );
+	}
+
+	/**
+	 * @param path the file
+	 * @param nd the number of dimensions
+	 * @param dataType {@link DataType#FLOAT32} or {@link DataType#FLOAT64}
+	 * @param order the byte order
+	 * @return the reader
+	 * @throws IOException if the file can not be opened
+	 */
+	public static BinaryPointReader binaryReader( final Path path, final int nd, final DataType dataType, final ByteOrder order ) throws IOException
+	{
+		final FileChannel channel = FileChannel.open( path, StandardOpenOption.READ );
+		final long bytesPerPoint = ( long ) nd * bytes( dataType );
+		return new BinaryPointReader( channel, nd, dataType, order, channel.size() / bytesPerPoint );
+	}
+
+	/**
+	 * @param path the file, replaced if it exists
+	 * @param nd the number of dimensions
+	 * @param dataType {@link DataType#FLOAT32} or {@link DataType#FLOAT64}
+	 * @param order the byte order
+	 * @return the writer
+	 * @throws IOException if the file can not be created
+	 */
+	public static BinaryPointWriter binaryWriter( final Path path, final int nd, final DataType dataType, final ByteOrder order ) throws IOException
+	{
+		final FileChannel channel = FileChannel.open( path,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE );
+		return new BinaryPointWriter( channel, nd, dataType, order );
+	}
+
+	private static int bytes( final DataType dataType )
+	{
+		if ( dataType == DataType.FLOAT32 )
+			return 4;
+		else if ( dataType == DataType.FLOAT64 )
+			return 8;
+		else
+			throw new IllegalArgumentException( "unsupported data type: " + dataType );
+	}
+
+	/**
+	 * Reads rows of comma separated coordinates. Empty rows are skipped,
+	 * columns after the first nd are ignored.
+	 */
+	public static class CsvPointReader implements PointReader
+	{
+		private final BufferedReader reader;
+
+		private final int nd;
+
+		private final String header;
+
+		public CsvPointReader( final BufferedReader reader, final int nd, final String header )
+		{
+			this.reader = reader;
+			this.nd = nd;
+			this.header = header;
+		}
+
+		/**
+		 * @return the header row, or null
+		 */
+		public String getHeader()
+		{
+			return header;
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return nd;
+		}
+
+		@Override
+		public long size()
+		{
+			return -1;
+		}
+
+		@Override
+		public int read( final double[] points, final int maxPoints ) throws IOException
+		{
+			int k = 0;
+			String line;
+			while ( k < maxPoints && ( line = reader.readLine() ) != null )
+			{
+				if ( line.trim().isEmpty() )
+					continue;
+
+				final int o = k * nd;
+				int start = 0;
+				for ( int d = 0; d < nd; d++ )
+				{
+					int end = line.indexOf( ',', start );
+					if ( end < 0 )
+					{
+						if ( d < nd - 1 )
+							throw new IOException( "expected " + nd + " columns: " + line );
+						end = line.length();
+					}
+					try
+					{
+						points[ o + d ] = Double.parseDouble( line.substring( start, end ) );
+					}
+					catch ( final NumberFormatException e )
+					{
+						throw new IOException( "could not parse point: " + line, e );
+					}
+					start = end + 1;
+				}
+				k++;
+			}
+			return k;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Writes one row of comma separated coordinates per point.
+	 */
+	public static class CsvPointWriter implements PointWriter
+	{
+		private final BufferedWriter writer;
+
+		private final int nd;
+
+		private final StringBuilder line = new StringBuilder();
+
+		public CsvPointWriter( final BufferedWriter writer, final int nd, final String header ) throws IOException
+		{
+			this.writer = writer;
+			this.nd = nd;
+			if ( header != null )
+			{
+				writer.write( header );
+				writer.newLine();
+			}
+		}
+
+		@Override
+		public void write( final double[] points, final int numPoints ) throws IOException
+		{
+			for ( int k = 0; k < numPoints; k++ )
+			{
+				line.setLength( 0 );
+				final int o = k * nd;
+				for ( int d = 0; d < nd; d++ )
+				{
+					if ( d > 0 )
+						line.append( ',' );
+					line.append( points[ o + d ] );
+				}
+				writer.append( line );
+				writer.newLine();
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Reads interleaved float32 or float64 coordinates.
+	 */
+	public static class BinaryPointReader implements PointReader
+	{
+		private final ReadableByteChannel channel;
+
+		private final int nd;
+
+		private final DataType dataType;
+
+		private final ByteOrder order;
+
+		private final long size;
+
+		private ByteBuffer buffer = null;
+
+		/**
+		 * @param channel the channel
+		 * @param nd the number of dimensions
+		 * @param dataType {@link DataType#FLOAT32} or {@link DataType#FLOAT64}
+		 * @param order the byte order
+		 * @param size the number of points, or -1 if not known
+		 */
+		public BinaryPointReader( final ReadableByteChannel channel, final int nd, final DataType dataType, final ByteOrder order, final long size )
+		{
+			bytes( dataType );
+			this.channel = channel;
+			this.nd = nd;
+			this.dataType = dataType;
+			this.order = order;
+			this.size = size;
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return nd;
+		}
+
+		@Override
+		public long size()
+		{
+			return size;
+		}
+
+		@Override
+		public int read( final double[] points, final int maxPoints ) throws IOException
+		{
+			final int bytesPerPoint = nd * bytes( dataType );
+			final int length = maxPoints * bytesPerPoint;
+			if ( buffer == null || buffer.capacity() < length )
+				buffer = ByteBuffer.allocateDirect( length ).order( order );
+
+			buffer.clear();
+			buffer.limit( length );
+			while ( buffer.hasRemaining() )
+				if ( channel.read( buffer ) < 0 )
+					break;
+
+			if ( buffer.position() % bytesPerPoint != 0 )
+				throw new IOException( "file ends within a point" );
+
+			buffer.flip();
+			final int n = buffer.remaining() / bytesPerPoint;
+			if ( dataType == DataType.FLOAT32 )
+			{
+				final FloatBuffer values = buffer.asFloatBuffer();
+				for ( int i = 0; i < n * nd; i++ )
+					points[ i ] = values.get( i );
+			}
+			else
+				buffer.asDoubleBuffer().get( points, 0, n * nd );
+
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes interleaved float32 or float64 coordinates.
+	 */
+	public static class BinaryPointWriter implements PointWriter
+	{
+		private final WritableByteChannel channel;
+
+		private final int nd;
+
+		private final DataType dataType;
+
+		private final ByteOrder order;
+
+		private ByteBuffer buffer = null;
+
+		/**
+		 * @param channel the channel
+		 * @param nd the number of dimensions
+		 * @param dataType {@link DataType#FLOAT32} or {@link DataType#FLOAT64}
+		 * @param order the byte order
+		 */
+		public BinaryPointWriter( final WritableByteChannel channel, final int nd, final DataType dataType, final ByteOrder order )
+		{
+			bytes( dataType );
+			this.channel = channel;
+			this.nd = nd;
+			this.dataType = dataType;
+			this.order = order;
+		}
+
+		@Override
+		public void write( final double[] points, final int numPoints ) throws IOException
+		{
+			final int length = numPoints * nd * bytes( dataType );
+			if ( buffer == null || buffer.capacity() < length )
+				buffer = ByteBuffer.allocateDirect( length ).order( order );
+
+			buffer.clear();
+			buffer.limit( length );
+			if ( dataType == DataType.FLOAT32 )
+			{
+				final FloatBuffer values = buffer.asFloatBuffer();
+				for ( int i = 0; i < numPoints * nd; i++ )
+					values.put( i, ( float ) points[ i ] );
+			}
+			else
+			{
+				final DoubleBuffer values = buffer.asDoubleBuffer();
+				values.put( points, 0, numPoints * nd );
+			}
+
+			while ( buffer.hasRemaining() )
+				channel.write( buffer );
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads points from an n5 dataset of any real type with dimensions [nd,
+	 * numPoints]. The container is not closed.
+	 */
+	public static class N5PointReader implements PointReader
+	{
+		private final RandomAccessibleInterval< ? extends RealType< ? > > img;
+
+		private final int nd;
+
+		private final long size;
+
+		private long position = 0;
+
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		public N5PointReader( final N5Reader n5, final String dataset ) throws IOException
+		{
+			img = ( RandomAccessibleInterval ) N5Utils.open( n5, dataset );
+			if ( img.numDimensions() != 2 )
+				throw new IOException( "expected a dataset with dimensions [nd, numPoints]: " + dataset );
+
+			nd = ( int ) img.dimension( 0 );
+			size = img.dimension( 1 );
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return nd;
+		}
+
+		@Override
+		public long size()
+		{
+			return size;
+		}
+
+		@Override
+		public int read( final double[] points, final int maxPoints ) throws IOException
+		{
+			final int n = ( int ) Math.min( maxPoints, size - position );
+			if ( n <= 0 )
+				return 0;
+
+			int i = 0;
+			final long[] min = new long[] { img.min( 0 ), img.min( 1 ) + position };
+			final long[] max = new long[] { img.max( 0 ), min[ 1 ] + n - 1 };
+			for ( final RealType< ? > t : Views.flatIterable( Views.interval( img, min, max ) ) )
+				points[ i++ ] = t.getRealDouble();
+
+			position += n;
+			return n;
+		}
+
+		@Override
+		public void close()
+		{}
+	}
+
+	/**
+	 * Writes points to a new float32 or float64 n5 dataset with dimensions
+	 * [nd, numPoints] and blocks of [nd, blockSize]. The number of points
+	 * must be known in advance. The container is not closed.
+	 */
+	public static class N5PointWriter implements PointWriter
+	{
+		private final N5Writer n5;
+
+		private final String dataset;
+
+		private final DatasetAttributes attributes;
+
+		private final int nd;
+
+		private final long numPoints;
+
+		private final int blockSize;
+
+		private final double[] block;
+
+		private int blockPoints = 0;
+
+		private long gridPosition = 0;
+
+		public N5PointWriter(
+				final N5Writer n5,
+				final String dataset,
+				final int nd,
+				final long numPoints,
+				final int blockSize,
+				final DataType dataType,
+				final Compression compression )
+		{
+			bytes( dataType );
+			this.n5 = n5;
+			this.dataset = dataset;
+			this.nd = nd;
+			this.numPoints = numPoints;
+			this.blockSize = blockSize;
+			block = new double[ nd * blockSize ];
+			attributes = new DatasetAttributes( new long[] { nd, numPoints }, new int[] { nd, blockSize }, dataType, compression );
+			n5.createDataset( dataset, attributes );
+		}
+
+		@Override
+		public void write( final double[] points, final int numPoints ) throws IOException
+		{
+			int k = 0;
+			while ( k < numPoints )
+			{
+				final int n = Math.min( numPoints - k, blockSize - blockPoints );
+				System.arraycopy( points, k * nd, block, blockPoints * nd, n * nd );
+				blockPoints += n;
+				k += n;
+				if ( blockPoints == blockSize )
+					flush();
+			}
+		}
+
+		private void flush()
+		{
+			if ( blockPoints == 0 )
+				return;
+
+			final int length = blockPoints * nd;
+			final int[] size = new int[] { nd, blockPoints };
+			final long[] position = new long[] { 0, gridPosition };
+			if ( attributes.getDataType() == DataType.FLOAT32 )
+			{
+				final float[] data = new float[ length ];
+				for ( int i = 0; i < length; i++ )
+					data[ i ] = ( float ) block[ i ];
+				n5.writeBlock( dataset, attributes, new FloatArrayDataBlock( size, position, data ) );
+			}
+			else
+				n5.writeBlock( dataset, attributes, new DoubleArrayDataBlock( size, position, Arrays.copyOf( block, length ) ) );
+
+			gridPosition++;
+			blockPoints = 0;
+		}
+
+		/**
+		 * Writes the last, partial block.
+		 *
+		 * @throws IOException if fewer or more points were written than the
+		 *             dataset holds
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			final long written = gridPosition * blockSize + blockPoints;
+			flush();
+			if ( written != numPoints )
+				throw new IOException( "wrote " + written + " points to a dataset of " + numPoints + " points: " + dataset );
+		}
+	}
+}
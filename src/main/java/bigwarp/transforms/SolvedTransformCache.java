@@ -0,0 +1,496 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import bigwarp.landmarks.LandmarkSnapshot;
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.ThinplateSplineTransform;
+import net.imglib2.realtransform.WendlandRbfTransform;
+import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
+
+/**
+ * Stores the coefficients of solved thin plate splines and Wendland RBF
+ * transforms in compact binary files, so that the same landmarks need not be
+ * solved again.
+ * <p>
+ * Entries are identified by a {@link #key(String, LandmarkSnapshot, double...)
+ * key}, the SHA-256 hash of the active landmarks, the transformation type and
+ * the parameters of the solver. A cache either keeps one file per key in a
+ * directory, like the {@link #getDefault() user cache}, or a single file
+ * {@link #nextTo(File) next to} a landmarks or settings file that holds the
+ * last solved transform. Every file starts with its key, so a file that
+ * belongs to other landmarks, is truncated, or was written by another version
+ * is a miss and is overwritten by the next {@link #store(byte[], RealTransform)
+ * store}.
+ * <p>
+ * A directory cache keeps at most {@link #setMaxEntries(int) a number of}
+ * files and deletes the least recently used ones beyond that whenever it
+ * stores a transform. Loading an entry counts as a use.
+ * <p>
+ * Errors reading or writing the cache are never thrown, they only cost the
+ * solve that the cache would have saved.
+ */
+public class SolvedTransformCache
+{
+	/**
+	 * The system property with the directory of the {@link #getDefault()
+	 * default} cache, "none" disables it.
+	 */
+	public static final String DIRECTORY_PROPERTY = "bigwarp.cache.dir";
+
+	public static final String SUFFIX = ".bwsolved";
+
+	/**
+	 * Fewer landmarks are solved faster than the cache is read.
+	 */
+	public static final int DEFAULT_MIN_LANDMARKS = 256;
+
+	/**
+	 * The number of files a directory cache keeps, a few tens of MB for
+	 * thousands of landmarks.
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+
+	private static final int MAGIC = 0x42575354; // "BWST"
+
+	private static final int VERSION = 1;
+
+	private static final byte TPS = 1;
+
+	private static final byte WENDLAND = 2;
+
+	private static final byte HAS_AFFINE = 1;
+
+	private static final byte HAS_TRANSLATION = 2;
+
+	private final Path directory;
+
+	private final Path file;
+
+	private int minLandmarks = DEFAULT_MIN_LANDMARKS;
+
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+	private final AtomicInteger numHits = new AtomicInteger();
+
+	private final AtomicInteger numMisses = new AtomicInteger();
+
+	/**
+	 * @param directory the directory that holds one file per key
+	 */
+	public SolvedTransformCache( final Path directory )
+	{
+		this( directory, null );
+	}
+
+	private SolvedTransformCache( final Path directory, final Path file )
+	{
+		this.directory = directory;
+		this.file = file;
+	}
+
+	/**
+	 * Returns a cache with a single file next to the given landmarks or
+	 * settings file, named like it with the {@link #SUFFIX} appended.
+	 *
+	 * @param landmarksOrSettings the landmarks or settings file
+	 * @return the cache
+	 */
+	public static SolvedTransformCache nextTo( final File landmarksOrSettings )
+	{
+		final File f = landmarksOrSettings.getAbsoluteFile();
+		return new SolvedTransformCache( null, new File( f.getParentFile(), f.getName() + SUFFIX ).toPath() );
+	}
+
+	/**
+	 * Returns the cache in the directory given by the
+	 * {@link #DIRECTORY_PROPERTY} system property or, if it is not set, in
+	 * bigwarp/transforms under $XDG_CACHE_HOME or ~/.cache.
+	 *
+	 * @return the cache, or null if disabled
+	 */
+	public static SolvedTransformCache getDefault()
+	{
+		final String dir = System.getProperty( DIRECTORY_PROPERTY );
+		if ( dir != null )
+			return dir.isEmpty() || dir.equals( "none" ) ? null : new SolvedTransformCache( Paths.get( dir ) );
+
+		final String xdg = System.getenv( "XDG_CACHE_HOME" );
+		final Path base = xdg != null && !xdg.isEmpty() ? Paths.get( xdg ) : Paths.get( System.getProperty( "user.home" ), ".cache" );
+		return new SolvedTransformCache( base.resolve( "bigwarp" ).resolve( "transforms" ) );
+	}
+
+	/**
+	 * @param minLandmarks the smallest number of active landmarks for which
+	 *            the cache is used
+	 */
+	public void setMinLandmarks( final int minLandmarks )
+	{
+		this.minLandmarks = minLandmarks;
+	}
+
+	public int getMinLandmarks()
+	{
+		return minLandmarks;
+	}
+
+	/**
+	 * @param maxEntries the largest number of files a directory cache keeps
+	 */
+	public void setMaxEntries( final int maxEntries )
+	{
+		this.maxEntries = Math.max( 1, maxEntries );
+	}
+
+	public int getMaxEntries()
+	{
+		return maxEntries;
+	}
+
+	public int getNumHits()
+	{
+		return numHits.get();
+	}
+
+	public int getNumMisses()
+	{
+		return numMisses.get();
+	}
+
+	/**
+	 * Returns the key of the transform solved from the given landmarks.
+	 *
+	 * @param type the transformation type
+	 * @param landmarks the active landmarks
+	 * @param parameters the parameters of the solver that change the result
+	 * @return the key
+	 */
+	public static byte[] key( final String type, final LandmarkSnapshot landmarks, final double... parameters )
+	{
+		final int nd = landmarks.numDimensions();
+		final int n = landmarks.size();
+		final ByteBuffer buf = ByteBuffer.allocate( 8 * Math.max( n, parameters.length ) + 16 );
+		try
+		{
+			final MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+			buf.putInt( VERSION ).putInt( nd ).putInt( n ).putInt( parameters.length );
+			buf.asDoubleBuffer().put( parameters );
+			digest.update( buf.array(), 0, 16 + 8 * parameters.length );
+			digest.update( type.getBytes( StandardCharsets.UTF_8 ) );
+			digest.update( ( byte ) 0 );
+
+			update( digest, buf, landmarks.getMovingPoints() );
+			update( digest, buf, landmarks.getTargetPoints() );
+			return digest.digest();
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			// every java platform supports SHA-256
+			throw new RuntimeException( e );
+		}
+	}
+
+	private static void update( final MessageDigest digest, final ByteBuffer buf, final double[][] points )
+	{
+		for ( final double[] p : points )
+		{
+			buf.clear();
+			buf.asDoubleBuffer().put( p );
+			digest.update( buf.array(), 0, 8 * p.length );
+		}
+	}
+
+	/**
+	 * @param key the key
+	 * @return the file that holds the entry for the given key
+	 */
+	public Path path( final byte[] key )
+	{
+		if ( file != null )
+			return file;
+
+		final StringBuilder sb = new StringBuilder();
+		for ( final byte b : key )
+			sb.append( String.format( "%02x", b ) );
+
+		return directory.resolve( sb.append( SUFFIX ).toString() );
+	}
+
+	/**
+	 * Reads the transform stored for the given key.
+	 *
+	 * @param key the key
+	 * @return a {@link ThinplateSplineTransform} or
+	 *         {@link WendlandRbfTransform}, or null if there is no valid entry
+	 */
+	public RealTransform load( final byte[] key )
+	{
+		final Path p = path( key );
+		RealTransform xfm = null;
+		if ( Files.isRegularFile( p ) )
+		{
+			try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( p ) ) ) )
+			{
+				xfm = read( in, key );
+			}
+			catch ( final IOException | RuntimeException e )
+			{
+				// a corrupt entry is a miss
+				xfm = null;
+			}
+		}
+
+		if ( xfm != null && directory != null )
+		{
+			try
+			{
+				Files.setLastModifiedTime( p, FileTime.fromMillis( System.currentTimeMillis() ) );
+			}
+			catch ( final IOException e )
+			{}
+		}
+
+		( xfm == null ? numMisses : numHits ).incrementAndGet();
+		return xfm;
+	}
+
+	/**
+	 * Stores the given transform for the given key, replacing the file
+	 * atomically where the file system allows it.
+	 *
+	 * @param key the key
+	 * @param transform a {@link ThinplateSplineTransform} or
+	 *            {@link WendlandRbfTransform}, possibly wrapped in a
+	 *            {@link WrappedIterativeInvertibleRealTransform}
+	 * @return true if the transform was stored
+	 */
+	public boolean store( final byte[] key, final RealTransform transform )
+	{
+		final RealTransform xfm = transform instanceof WrappedIterativeInvertibleRealTransform
+				? ( ( WrappedIterativeInvertibleRealTransform< ? > ) transform ).getTransform()
+				: transform;
+		if ( !( xfm instanceof ThinplateSplineTransform || xfm instanceof WendlandRbfTransform ) )
+			return false;
+
+		// a spline without knots is only its affine, and is not worth caching
+		if ( xfm instanceof ThinplateSplineTransform && ( ( ThinplateSplineTransform ) xfm ).getKernelTransform().getKnotWeights() == null )
+			return false;
+
+		final Path p = path( key ).toAbsolutePath();
+		Path tmp = null;
+		try
+		{
+			Files.createDirectories( p.getParent() );
+			tmp = Files.createTempFile( p.getParent(), p.getFileName().toString(), ".tmp" );
+			try ( final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( tmp ) ) ) )
+			{
+				write( out, key, xfm );
+			}
+
+			try
+			{
+				Files.move( tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+			}
+			catch ( final AtomicMoveNotSupportedException e )
+			{
+				Files.move( tmp, p, StandardCopyOption.REPLACE_EXISTING );
+			}
+
+			if ( directory != null )
+				evict();
+
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			try
+			{
+				if ( tmp != null )
+					Files.deleteIfExists( tmp );
+			}
+			catch ( final IOException e1 )
+			{}
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files beyond the largest number of
+	 * entries.
+	 */
+	private void evict() throws IOException
+	{
+		final List< Path > entries;
+		try ( final Stream< Path > files = Files.list( directory ) )
+		{
+			entries = files.filter( f -> f.getFileName().toString().endsWith( SUFFIX ) ).collect( Collectors.toList() );
+		}
+
+		if ( entries.size() <= maxEntries )
+			return;
+
+		final Map< Path, Long > lastUsed = new HashMap<>();
+		for ( final Path f : entries )
+			lastUsed.put( f, f.toFile().lastModified() );
+
+		entries.sort( Comparator.comparing( lastUsed::get ) );
+		for ( final Path f : entries.subList( 0, entries.size() - maxEntries ) )
+			Files.deleteIfExists( f );
+	}
+
+	private static void write( final DataOutputStream out, final byte[] key, final RealTransform xfm ) throws IOException
+	{
+		out.writeInt( MAGIC );
+		out.writeInt( VERSION );
+		out.write( key );
+		if ( xfm instanceof ThinplateSplineTransform )
+		{
+			final ThinPlateR2LogRSplineKernelTransform tps = ( ( ThinplateSplineTransform ) xfm ).getKernelTransform();
+			final double[][] centers = tps.getSourceLandmarks();
+			final double[][] weights = tps.getKnotWeights();
+			final double[][] affine = tps.getAffine();
+			final double[] translation = tps.getTranslation();
+			final int nd = tps.getNumDims();
+			final int n = centers[ 0 ].length;
+
+			out.writeByte( TPS );
+			out.writeInt( nd );
+			out.writeInt( n );
+			out.writeByte( ( affine == null ? 0 : HAS_AFFINE ) | ( translation == null ? 0 : HAS_TRANSLATION ) );
+			for ( int d = 0; d < nd; d++ )
+				writeDoubles( out, centers[ d ], n );
+			for ( int d = 0; d < nd; d++ )
+				writeDoubles( out, weights[ d ], n );
+			if ( affine != null )
+				for ( int d = 0; d < nd; d++ )
+					writeDoubles( out, affine[ d ], nd );
+			if ( translation != null )
+				writeDoubles( out, translation, nd );
+		}
+		else
+		{
+			final WendlandRbfTransform rbf = ( WendlandRbfTransform ) xfm;
+			final double[][] centers = rbf.getCenters();
+			final double[][] weights = rbf.getWeights();
+			final double[][] affine = rbf.getAffine();
+			final int nd = rbf.numSourceDimensions();
+			final int n = rbf.numCenters();
+
+			out.writeByte( WENDLAND );
+			out.writeInt( nd );
+			out.writeInt( n );
+			out.writeDouble( rbf.getRadius() );
+			for ( int d = 0; d < nd; d++ )
+				writeDoubles( out, centers[ d ], n );
+			for ( int d = 0; d < nd; d++ )
+				writeDoubles( out, weights[ d ], n );
+			for ( int d = 0; d < nd; d++ )
+				writeDoubles( out, affine[ d ], nd + 1 );
+		}
+	}
+
+	private static RealTransform read( final DataInputStream in, final byte[] key ) throws IOException
+	{
+		if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+			return null;
+
+		final byte[] storedKey = new byte[ key.length ];
+		in.readFully( storedKey );
+		if ( !Arrays.equals( key, storedKey ) )
+			return null;
+
+		final byte kind = in.readByte();
+		final int nd = in.readInt();
+		final int n = in.readInt();
+		if ( nd < 1 || nd > 3 || n < 1 )
+			return null;
+
+		final RealTransform xfm;
+		if ( kind == TPS )
+		{
+			final byte flags = in.readByte();
+			final double[][] centers = readDoubles( in, nd, n );
+			final double[][] weights = readDoubles( in, nd, n );
+			final double[][] affine = ( flags & HAS_AFFINE ) != 0 ? readDoubles( in, nd, nd ) : null;
+			final double[] translation = ( flags & HAS_TRANSLATION ) != 0 ? readDoubles( in, 1, nd )[ 0 ] : null;
+			xfm = new ThinplateSplineTransform( new ThinPlateR2LogRSplineKernelTransform( centers, affine, translation, weights ) );
+		}
+		else if ( kind == WENDLAND )
+		{
+			final double radius = in.readDouble();
+			final double[][] centers = readDoubles( in, nd, n );
+			final double[][] weights = readDoubles( in, nd, n );
+			final double[][] affine = readDoubles( in, nd, nd + 1 );
+			xfm = new WendlandRbfTransform( centers, weights, affine, radius );
+		}
+		else
+			return null;
+
+		// trailing bytes mean the file was not written by this version
+		return in.read() == -1 ? xfm : null;
+	}
+
+	private static void writeDoubles( final DataOutputStream out, final double[] values, final int n ) throws IOException
+	{
+		final ByteBuffer buf = ByteBuffer.allocate( 8 * n );
+		buf.asDoubleBuffer().put( values, 0, n );
+		out.write( buf.array() );
+	}
+
+	private static double[][] readDoubles( final DataInputStream in, final int rows, final int n ) throws IOException
+	{
+		final byte[] bytes = new byte[ 8 * n ];
+		final double[][] values = new double[ rows ][ n ];
+		for ( int r = 0; r < rows; r++ )
+		{
+			in.readFully( bytes );
+			ByteBuffer.wrap( bytes ).asDoubleBuffer().get( values[ r ] );
+		}
+		return values;
+	}
+}
@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+
+import bdv.export.ProgressWriterConsole;
+import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.transforms.PointStreamTransformer.PointReader;
+import bigwarp.transforms.PointStreamTransformer.PointWriter;
+import bigwarp.transforms.PointStreamTransformer.Statistics;
+import net.imglib2.realtransform.InvertibleRealTransform;
+
+/**
+ * Transforms points from csv files, binary files or n5 datasets with the
+ * transformation of a landmark file, see {@link PointStreamTransformer}.
+ * <p>
+ * The format is chosen by the arguments: points are read from and written
+ * to an n5 dataset if a dataset is given, a csv file if the file name ends
+ * with .csv, and a binary file of interleaved coordinates otherwise.
+ * <p>
+ * Like BigWarp's transformation, the forward direction maps target to
+ * moving space, {@code --inverse} maps moving to target space.
+ */
+public class TransformPoints
+{
+	private transient JCommander jCommander;
+
+	@Parameter( names = { "--landmarks", "-l" }, description = "Landmarks file", required = true )
+	private String landmarksPath;
+
+	@Parameter( names = { "--type", "-t" }, description = "Transformation type, e.g. \"Thin Plate Spline\" or \"Affine\"" )
+	private String transformType = BigWarpTransform.TPS;
+
+	@Parameter( names = { "--input", "-i" }, description = "Input points file or n5 container", required = true )
+	private String inputPath;
+
+	@Parameter( names = { "--input-dataset" }, description = "Input n5 dataset with dimensions [nd, numPoints]" )
+	private String inputDataset;
+
+	@Parameter( names = { "--output", "-o" }, description = "Output points file or n5 container", required = true )
+	private String outputPath;
+
+	@Parameter( names = { "--output-dataset" }, description = "Output n5 dataset" )
+	private String outputDataset;
+
+	@Parameter( names = { "--inverse" }, description = "Transform from moving to target space" )
+	private boolean inverse = false;
+
+	@Parameter( names = { "--header" }, description = "The input csv has a header row, it is copied to csv output" )
+	private boolean hasHeader = false;
+
+	@Parameter( names = { "--dimensions", "-d" }, description = "Number of dimensions of binary input" )
+	private int numDimensions = 3;
+
+	@Parameter( names = { "--input-type" }, description = "Type of binary input {FLOAT32,FLOAT64}" )
+	private String inputType = "FLOAT64";
+
+	@Parameter( names = { "--output-type" }, description = "Type of binary or n5 output {FLOAT32,FLOAT64}" )
+	private String outputType = "FLOAT64";
+
+	@Parameter( names = { "--big-endian" }, description = "Binary files are big endian" )
+	private boolean bigEndian = false;
+
+	@Parameter( names = { "--block-size" }, description = "Points per block of n5 output" )
+	private int blockSize = PointStreamTransformer.DEFAULT_BATCH_SIZE;
+
+	@Parameter( names = { "--tolerance" }, description = "Tolerance of the inverse" )
+	private double tolerance = 0.1;
+
+	@Parameter( names = { "--max-iterations" }, description = "Maximum iterations of the inverse" )
+	private int maxIterations = 200;
+
+	@Parameter( names = { "--max-seed-distance" }, description = "Largest distance between consecutive points for which the inverse "
+			+ "starts at the previous solution, 0 for points in random order" )
+	private double maxSeedDistance = Double.POSITIVE_INFINITY;
+
+	@Parameter( names = { "--batch-size" }, description = "Points per batch" )
+	private int batchSize = PointStreamTransformer.DEFAULT_BATCH_SIZE;
+
+	@Parameter( names = { "--threads", "-j" }, description = "Number of threads" )
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter( names = { "--help", "-h" }, help = true )
+	private boolean help;
+
+	public static void main( final String[] args ) throws IOException, InterruptedException, ExecutionException
+	{
+		final TransformPoints alg = new TransformPoints();
+		alg.jCommander = new JCommander( alg );
+		alg.jCommander.setProgramName( "transform-points" );
+		alg.jCommander.parse( args );
+		if ( alg.help )
+		{
+			alg.jCommander.usage();
+			return;
+		}
+
+		final Statistics stats = alg.process();
+		System.out.println( stats );
+	}
+
+	public Statistics process() throws IOException, InterruptedException, ExecutionException
+	{
+		final ByteOrder order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		final Path input = Paths.get( inputPath );
+		final Path output = Paths.get( outputPath );
+
+		N5Reader n5In = null;
+		N5Writer n5Out = null;
+		PointReader reader = null;
+		PointWriter writer = null;
+		final ExecutorService exec = Executors.newFixedThreadPool( Math.max( 1, numThreads ) );
+		try
+		{
+			String header = null;
+			if ( inputDataset != null )
+			{
+				n5In = new N5Factory().openReader( inputPath );
+				reader = new PointStreams.N5PointReader( n5In, inputDataset );
+			}
+			else if ( isCsv( inputPath ) )
+			{
+				final PointStreams.CsvPointReader csv = PointStreams.csvReader( input, hasHeader );
+				header = csv.getHeader();
+				reader = csv;
+			}
+			else
+				reader = PointStreams.binaryReader( input, numDimensions, DataType.valueOf( inputType ), order );
+
+			final int nd = reader.numDimensions();
+			if ( outputDataset != null )
+			{
+				final long numPoints = reader.size() >= 0 ? reader.size() : PointStreams.countCsvPoints( input, hasHeader );
+				n5Out = new N5Factory().openWriter( outputPath );
+				writer = new PointStreams.N5PointWriter( n5Out, outputDataset, nd, numPoints, blockSize,
+						DataType.valueOf( outputType ), new GzipCompression() );
+			}
+			else if ( isCsv( outputPath ) )
+				writer = PointStreams.csvWriter( output, nd, header );
+			else
+				writer = PointStreams.binaryWriter( output, nd, DataType.valueOf( outputType ), order );
+
+			final PointStreamTransformer transformer = new PointStreamTransformer( buildTransform( nd ), nd );
+			transformer.setInverse( inverse );
+			transformer.setInverseParameters( tolerance, maxIterations );
+			transformer.setMaxSeedDistance( maxSeedDistance );
+			transformer.setBatchSize( batchSize );
+			transformer.setProgressWriter( new ProgressWriterConsole(), 10_000_000 );
+			return transformer.transform( reader, writer, exec );
+		}
+		finally
+		{
+			exec.shutdown();
+			if ( reader != null )
+				reader.close();
+			if ( writer != null )
+				writer.close();
+			if ( n5In != null )
+				n5In.close();
+			if ( n5Out != null )
+				n5Out.close();
+		}
+	}
+
+	private InvertibleRealTransform buildTransform( final int nd ) throws IOException
+	{
+		final LandmarkTableModel ltm = new LandmarkTableModel( nd );
+		ltm.load( new File( landmarksPath ) );
+
+		final BigWarpTransform bwTransform = new BigWarpTransform( ltm, transformType );
+		bwTransform.setInverseTolerance( tolerance );
+		bwTransform.setInverseMaxIterations( maxIterations );
+
+		return bwTransform.getTransformation( false );
+	}
+
+	private static boolean isCsv( final String path )
+	{
+		return path.toLowerCase().endsWith( ".csv" );
+	}
+}
@@ -21,9 +21,25 @@
  */
 package bigwarp.transforms;
 
+import bigwarp.landmarks.LandmarkSnapshot;
 import net.imglib2.realtransform.InvertibleRealTransform;
 
 public interface TransformSolver<T extends InvertibleRealTransform>
 {
+	/**
+	 * Estimates a transform from point correspondences. Implementations must
+	 * not modify the arrays, which may be shared with a
+	 * {@link LandmarkSnapshot}.
+	 *
+	 * @param mvgPts the moving points, ndims x numPoints
+	 * @param tgtPts the target points, ndims x numPoints
+	 * @return the transform
+	 */
 	public T solve( final double[][] mvgPts, final double[][] tgtPts );
+
+	public default T solve( final LandmarkSnapshot landmarks )
+	{
+		return solve( landmarks.getMovingPoints(), landmarks.getTargetPoints() );
+	}
 }
+
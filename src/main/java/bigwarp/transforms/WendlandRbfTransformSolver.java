@@ -0,0 +1,503 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import java.util.Arrays;
+
+import net.imglib2.realtransform.CompactSupportGrid;
+import net.imglib2.realtransform.WendlandRbfTransform;
+import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
+
+/**
+ * Estimates a {@link WendlandRbfTransform} from the target to the moving
+ * points, like the {@link TpsTransformSolver} does for thin plate splines.
+ * <p>
+ * The affine is the least squares fit to the landmarks, and the basis
+ * functions interpolate the residuals of the affine. Since every basis
+ * function only reaches the centres within its support radius, the system
+ * matrix is sparse with about {@link #DEFAULT_NEIGHBORS} nonzero entries
+ * per row. It is assembled with a {@link CompactSupportGrid} and, being
+ * symmetric positive definite, solved with conjugate gradients, so solving
+ * needs O(n) memory and, for a fixed density, O(n) time per iteration.
+ * <p>
+ * The support radius is chosen from the density of the landmarks unless it
+ * is {@link #setSupportRadius(double) set}. Landmarks further apart than
+ * the radius do not influence each other, and the transform is the affine
+ * wherever no landmark is within the radius.
+ */
+public class WendlandRbfTransformSolver extends AbstractTransformSolver< WrappedIterativeInvertibleRealTransform< ? > >
+{
+	public static final int DEFAULT_NEIGHBORS = 32;
+
+	public static final double DEFAULT_TOLERANCE = 1e-10;
+
+	/**
+	 * How far the residual of the solution may exceed the tolerance, since
+	 * the residual the iterations track drifts from the true one by rounding.
+	 */
+	private static final double RESIDUAL_SLACK = 100;
+
+	private double supportRadius = 0;
+
+	private int neighbors = DEFAULT_NEIGHBORS;
+
+	private double tolerance = DEFAULT_TOLERANCE;
+
+	private int lastIterations;
+
+	private double lastResidual;
+
+	/**
+	 * @param supportRadius the support radius, zero or less to choose it
+	 *            from the density of the landmarks
+	 */
+	public void setSupportRadius( final double supportRadius )
+	{
+		this.supportRadius = supportRadius;
+	}
+
+	public double getSupportRadius()
+	{
+		return supportRadius;
+	}
+
+	/**
+	 * @param neighbors the average number of landmarks within the support
+	 *            radius of a landmark if the radius is chosen automatically
+	 */
+	public void setNeighbors( final int neighbors )
+	{
+		this.neighbors = neighbors;
+	}
+
+	public int getNeighbors()
+	{
+		return neighbors;
+	}
+
+	/**
+	 * @param tolerance the residual of the conjugate gradients relative to
+	 *            the right hand side
+	 */
+	public void setTolerance( final double tolerance )
+	{
+		this.tolerance = tolerance;
+	}
+
+	public double getTolerance()
+	{
+		return tolerance;
+	}
+
+	/**
+	 * @return the largest number of conjugate gradient iterations of any
+	 *         dimension in the last solve
+	 */
+	public int getLastIterations()
+	{
+		return lastIterations;
+	}
+
+	/**
+	 * @return the largest residual of the weights of any dimension in the
+	 *         last solve, relative to the residuals of the affine
+	 */
+	public double getLastResidual()
+	{
+		return lastResidual;
+	}
+
+	@Override
+	public WrappedIterativeInvertibleRealTransform< ? > solve( final double[][] mvgPts, final double[][] tgtPts )
+	{
+		// need the "inverse" transform, from target to moving points
+		return new WrappedIterativeInvertibleRealTransform< WendlandRbfTransform >( fit( tgtPts, mvgPts ) );
+	}
+
+	/**
+	 * Fits a transform that maps the source points to the target points.
+	 *
+	 * @param src the source points, ndims x n
+	 * @param tgt the target points, ndims x n
+	 * @return the transform
+	 * @throws IllegalArgumentException if the weights do not reach the
+	 *             tolerance, as for landmarks at the same position with
+	 *             different targets
+	 */
+	public WendlandRbfTransform fit( final double[][] src, final double[][] tgt )
+	{
+		final int nd = src.length;
+		final int n = nd > 0 ? src[ 0 ].length : 0;
+		final double radius = supportRadius > 0 ? supportRadius : radius( src, neighbors );
+
+		final double[][] affine = fitAffine( src, tgt );
+		final double[][] residuals = new double[ nd ][ n ];
+		for ( int i = 0; i < n; i++ )
+			for ( int d = 0; d < nd; d++ )
+			{
+				double y = affine[ d ][ nd ];
+				for ( int c = 0; c < nd; c++ )
+					y += affine[ d ][ c ] * src[ c ][ i ];
+				residuals[ d ][ i ] = tgt[ d ][ i ] - y;
+			}
+
+		final double[][] centers = new double[ nd ][];
+		for ( int d = 0; d < nd; d++ )
+			centers[ d ] = src[ d ].clone();
+
+		final SparseMatrix kernel = kernelMatrix( centers, radius );
+		final double[][] weights = new double[ nd ][];
+		lastIterations = 0;
+		lastResidual = 0;
+		for ( int d = 0; d < nd; d++ )
+		{
+			weights[ d ] = new double[ n ];
+			lastIterations = Math.max( lastIterations, conjugateGradients( kernel, residuals[ d ], weights[ d ], tolerance, Math.max( 100, 2 * n ) ) );
+			lastResidual = Math.max( lastResidual, relativeResidual( kernel, residuals[ d ], weights[ d ] ) );
+		}
+
+		// landmarks at the same position with different targets make the
+		// system singular and inconsistent
+		if ( !( lastResidual <= RESIDUAL_SLACK * tolerance ) )
+			throw new IllegalArgumentException( String.format(
+					"The Wendland RBF weights did not converge: relative residual %.3g after %d iterations. "
+							+ "Are there landmarks at the same position with different targets?",
+					lastResidual, lastIterations ) );
+
+		return new WendlandRbfTransform( centers, weights, affine, radius );
+	}
+
+	/**
+	 * Chooses the radius of a ball that contains the given number of points
+	 * on average if the points were spread uniformly over their bounding box.
+	 *
+	 * @param points the points, ndims x n
+	 * @param neighbors the number of points
+	 * @return the radius
+	 */
+	public static double radius( final double[][] points, final int neighbors )
+	{
+		final int nd = points.length;
+		final int n = nd > 0 ? points[ 0 ].length : 0;
+		if ( n < 2 )
+			return 1;
+
+		// the extent of flat dimensions is the mean extent of the others
+		final double[] extent = new double[ nd ];
+		double sum = 0;
+		int numNonFlat = 0;
+		for ( int d = 0; d < nd; d++ )
+		{
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for ( int i = 0; i < n; i++ )
+			{
+				min = Math.min( min, points[ d ][ i ] );
+				max = Math.max( max, points[ d ][ i ] );
+			}
+			extent[ d ] = max - min;
+			if ( extent[ d ] > 0 )
+			{
+				sum += extent[ d ];
+				numNonFlat++;
+			}
+		}
+		if ( numNonFlat == 0 )
+			return 1;
+
+		double volume = 1;
+		for ( int d = 0; d < nd; d++ )
+			volume *= extent[ d ] > 0 ? extent[ d ] : sum / numNonFlat;
+
+		// the volume of the unit ball
+		final double ball = nd == 1 ? 2 : nd == 2 ? Math.PI : 4.0 / 3.0 * Math.PI;
+		return Math.pow( Math.min( neighbors, n ) * volume / ( n * ball ), 1.0 / nd );
+	}
+
+	/**
+	 * Fits an affine in the least squares sense, or a translation if the
+	 * points do not determine an affine.
+	 *
+	 * @return the affine, ndims x ( ndims + 1 )
+	 */
+	static double[][] fitAffine( final double[][] src, final double[][] tgt )
+	{
+		final int nd = src.length;
+		final int n = nd > 0 ? src[ 0 ].length : 0;
+		final int m = nd + 1;
+
+		// normal equations of the homogeneous source points
+		final double[][] ata = new double[ m ][ m ];
+		final double[][] atb = new double[ nd ][ m ];
+		final double[] h = new double[ m ];
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int d = 0; d < nd; d++ )
+				h[ d ] = src[ d ][ i ];
+			h[ nd ] = 1;
+
+			for ( int r = 0; r < m; r++ )
+			{
+				for ( int c = 0; c < m; c++ )
+					ata[ r ][ c ] += h[ r ] * h[ c ];
+				for ( int d = 0; d < nd; d++ )
+					atb[ d ][ r ] += h[ r ] * tgt[ d ][ i ];
+			}
+		}
+
+		final double[][] affine = new double[ nd ][ m ];
+		final double[][] lu = new double[ m ][];
+		for ( int r = 0; r < m; r++ )
+			lu[ r ] = ata[ r ].clone();
+
+		final int[] perm = new int[ m ];
+		if ( n > nd && decompose( lu, perm ) )
+		{
+			for ( int d = 0; d < nd; d++ )
+				affine[ d ] = substitute( lu, perm, atb[ d ] );
+		}
+		else
+		{
+			for ( int d = 0; d < nd; d++ )
+			{
+				affine[ d ][ d ] = 1;
+				double t = 0;
+				for ( int i = 0; i < n; i++ )
+					t += tgt[ d ][ i ] - src[ d ][ i ];
+				affine[ d ][ nd ] = n > 0 ? t / n : 0;
+			}
+		}
+		return affine;
+	}
+
+	/*
+	 * LU decomposition with partial pivoting in place, false if singular
+	 */
+	private static boolean decompose( final double[][] a, final int[] perm )
+	{
+		final int m = a.length;
+		double scale = 0;
+		for ( int r = 0; r < m; r++ )
+			for ( int c = 0; c < m; c++ )
+				scale = Math.max( scale, Math.abs( a[ r ][ c ] ) );
+
+		for ( int c = 0; c < m; c++ )
+		{
+			int p = c;
+			for ( int r = c + 1; r < m; r++ )
+				if ( Math.abs( a[ r ][ c ] ) > Math.abs( a[ p ][ c ] ) )
+					p = r;
+
+			if ( Math.abs( a[ p ][ c ] ) <= 1e-12 * scale )
+				return false;
+
+			final double[] tmp = a[ c ];
+			a[ c ] = a[ p ];
+			a[ p ] = tmp;
+			perm[ c ] = p;
+
+			for ( int r = c + 1; r < m; r++ )
+			{
+				a[ r ][ c ] /= a[ c ][ c ];
+				for ( int k = c + 1; k < m; k++ )
+					a[ r ][ k ] -= a[ r ][ c ] * a[ c ][ k ];
+			}
+		}
+		return true;
+	}
+
+	private static double[] substitute( final double[][] lu, final int[] perm, final double[] b )
+	{
+		final int m = lu.length;
+		final double[] x = b.clone();
+		for ( int c = 0; c < m; c++ )
+		{
+			final double tmp = x[ c ];
+			x[ c ] = x[ perm[ c ] ];
+			x[ perm[ c ] ] = tmp;
+		}
+		for ( int r = 0; r < m; r++ )
+			for ( int c = 0; c < r; c++ )
+				x[ r ] -= lu[ r ][ c ] * x[ c ];
+		for ( int r = m - 1; r >= 0; r-- )
+		{
+			for ( int c = r + 1; c < m; c++ )
+				x[ r ] -= lu[ r ][ c ] * x[ c ];
+			x[ r ] /= lu[ r ][ r ];
+		}
+		return x;
+	}
+
+	/**
+	 * The kernel matrix phi( |c_i - c_j| / R ) in compressed sparse row
+	 * format.
+	 */
+	static SparseMatrix kernelMatrix( final double[][] centers, final double radius )
+	{
+		final int nd = centers.length;
+		final int n = nd > 0 ? centers[ 0 ].length : 0;
+		final CompactSupportGrid grid = new CompactSupportGrid( centers, radius );
+		final int[] from = new int[ grid.maxNeighborRanges() ];
+		final int[] to = new int[ grid.maxNeighborRanges() ];
+		final double[] x = new double[ nd ];
+		final double r2max = radius * radius;
+
+		final int[] rowStarts = new int[ n + 1 ];
+		int[] columns = new int[ Math.max( 16, n * 8 ) ];
+		double[] values = new double[ columns.length ];
+		int nnz = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			rowStarts[ i ] = nnz;
+			for ( int d = 0; d < nd; d++ )
+				x[ d ] = centers[ d ][ i ];
+
+			final int numRanges = grid.neighborRanges( x, from, to );
+			for ( int r = 0; r < numRanges; r++ )
+				for ( int j = from[ r ]; j < to[ r ]; j++ )
+				{
+					final int k = grid.index( j );
+					double r2 = 0;
+					for ( int d = 0; d < nd; d++ )
+					{
+						final double v = x[ d ] - centers[ d ][ k ];
+						r2 += v * v;
+					}
+					if ( r2 >= r2max )
+						continue;
+
+					if ( nnz == columns.length )
+					{
+						columns = Arrays.copyOf( columns, 2 * nnz );
+						values = Arrays.copyOf( values, 2 * nnz );
+					}
+					columns[ nnz ] = k;
+					values[ nnz ] = WendlandRbfTransform.phi( Math.sqrt( r2 ) / radius );
+					nnz++;
+				}
+		}
+		rowStarts[ n ] = nnz;
+		return new SparseMatrix( rowStarts, columns, values );
+	}
+
+	/**
+	 * Solves A x = b for a symmetric positive definite A with conjugate
+	 * gradients, starting from x = 0.
+	 *
+	 * @return the number of iterations
+	 */
+	static int conjugateGradients( final SparseMatrix a, final double[] b, final double[] x, final double tolerance, final int maxIterations )
+	{
+		final int n = b.length;
+		final double[] r = b.clone();
+		final double[] p = b.clone();
+		final double[] ap = new double[ n ];
+		Arrays.fill( x, 0 );
+
+		final double bb = dot( b, b );
+		if ( bb == 0 )
+			return 0;
+
+		double rr = bb;
+		final double stop = tolerance * tolerance * bb;
+		int it = 0;
+		while ( rr > stop && it < maxIterations )
+		{
+			a.multiply( p, ap );
+			final double pap = dot( p, ap );
+			if ( !( pap > 0 ) )
+				break; // singular direction, the caller checks the residual
+
+			final double alpha = rr / pap;
+			for ( int i = 0; i < n; i++ )
+			{
+				x[ i ] += alpha * p[ i ];
+				r[ i ] -= alpha * ap[ i ];
+			}
+			final double rrNext = dot( r, r );
+			final double beta = rrNext / rr;
+			for ( int i = 0; i < n; i++ )
+				p[ i ] = r[ i ] + beta * p[ i ];
+			rr = rrNext;
+			it++;
+		}
+		return it;
+	}
+
+	/**
+	 * @return | b - A x | / | b |, zero if b is zero
+	 */
+	static double relativeResidual( final SparseMatrix a, final double[] b, final double[] x )
+	{
+		final double[] ax = new double[ b.length ];
+		a.multiply( x, ax );
+		double rr = 0;
+		for ( int i = 0; i < b.length; i++ )
+			rr += ( b[ i ] - ax[ i ] ) * ( b[ i ] - ax[ i ] );
+
+		final double bb = dot( b, b );
+		return bb == 0 ? Math.sqrt( rr ) : Math.sqrt( rr / bb );
+	}
+
+	private static double dot( final double[] a, final double[] b )
+	{
+		double s = 0;
+		for ( int i = 0; i < a.length; i++ )
+			s += a[ i ] * b[ i ];
+		return s;
+	}
+
+	/**
+	 * A square matrix in compressed sparse row format.
+	 */
+	static class SparseMatrix
+	{
+		final int[] rowStarts;
+
+		final int[] columns;
+
+		final double[] values;
+
+		SparseMatrix( final int[] rowStarts, final int[] columns, final double[] values )
+		{
+			this.rowStarts = rowStarts;
+			this.columns = columns;
+			this.values = values;
+		}
+
+		int numNonZero()
+		{
+			return rowStarts[ rowStarts.length - 1 ];
+		}
+
+		void multiply( final double[] x, final double[] y )
+		{
+			for ( int i = 0; i < y.length; i++ )
+			{
+				double s = 0;
+				for ( int k = rowStarts[ i ]; k < rowStarts[ i + 1 ]; k++ )
+					s += values[ k ] * x[ columns[ k ] ];
+				y[ i ] = s;
+			}
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import java.util.function.DoubleFunction;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+
+/**
+ * A lookup table of the affine transforms an interpolator produces for
+ * parameters in [0,1].
+ * <p>
+ * Evaluating a spatially varying interpolation through the table is a matrix
+ * vector product and does not allocate, unlike calling the interpolator for
+ * every point. The table is immutable, so copies of a transform can share it.
+ * Entries are optionally blended linearly, otherwise the nearest entry is
+ * used. The entries for 0 and 1 are exact.
+ */
+public final class AffineInterpolationTable
+{
+	public static final int DEFAULT_SIZE = 1024;
+
+	private final int nd;
+
+	private final int stride;
+
+	private final int steps;
+
+	private final boolean blend;
+
+	private final double[] table;
+
+	/**
+	 * @param nd the number of dimensions, 2 or 3
+	 * @param interpolator the affine for a parameter in [0,1]
+	 * @param size the number of table entries
+	 * @param blend whether to blend neighboring entries linearly
+	 */
+	public AffineInterpolationTable( final int nd, final DoubleFunction< ? extends AffineGet > interpolator, final int size, final boolean blend )
+	{
+		if ( nd != 2 && nd != 3 )
+			throw new IllegalArgumentException( "only 2d and 3d transforms are supported, got " + nd );
+		if ( size < 2 )
+			throw new IllegalArgumentException( "table needs at least two entries, got " + size );
+
+		this.nd = nd;
+		this.blend = blend;
+		stride = nd * ( nd + 1 );
+		steps = size - 1;
+		table = new double[ size * stride ];
+
+		int k = 0;
+		for ( int i = 0; i <= steps; i++ )
+		{
+			final AffineGet affine = interpolator.apply( ( double ) i / steps );
+			for ( int r = 0; r < nd; r++ )
+				for ( int c = 0; c <= nd; c++ )
+					table[ k++ ] = affine.get( r, c );
+		}
+	}
+
+	public AffineInterpolationTable( final int nd, final DoubleFunction< ? extends AffineGet > interpolator )
+	{
+		this( nd, interpolator, DEFAULT_SIZE, true );
+	}
+
+	public int numDimensions()
+	{
+		return nd;
+	}
+
+	public int size()
+	{
+		return steps + 1;
+	}
+
+	public boolean isBlended()
+	{
+		return blend;
+	}
+
+	/**
+	 * Applies the transform for a parameter to a point. Source and target may
+	 * be the same array.
+	 *
+	 * @param lambda the parameter, clamped to [0,1]
+	 * @param source the source point
+	 * @param target the target point
+	 */
+	public void apply( final double lambda, final double[] source, final double[] target )
+	{
+		final double x = source[ 0 ];
+		final double y = source[ 1 ];
+		final double z = nd == 3 ? source[ 2 ] : 0;
+
+		final double pos = position( lambda );
+		final int i = ( int ) pos;
+		final double f = pos - i;
+		final int o = i * stride;
+		if ( f == 0 )
+		{
+			for ( int r = 0; r < nd; r++ )
+				target[ r ] = row( o + r * ( nd + 1 ), x, y, z );
+		}
+		else
+		{
+			for ( int r = 0; r < nd; r++ )
+			{
+				final int or = o + r * ( nd + 1 );
+				target[ r ] = ( 1 - f ) * row( or, x, y, z ) + f * row( or + stride, x, y, z );
+			}
+		}
+	}
+
+	/**
+	 * Applies the transform for a parameter to a point. Source and target may
+	 * be the same object.
+	 *
+	 * @param lambda the parameter, clamped to [0,1]
+	 * @param source the source point
+	 * @param target the target point
+	 */
+	public void apply( final double lambda, final RealLocalizable source, final RealPositionable target )
+	{
+		final double x = source.getDoublePosition( 0 );
+		final double y = source.getDoublePosition( 1 );
+		final double z = nd == 3 ? source.getDoublePosition( 2 ) : 0;
+
+		final double pos = position( lambda );
+		final int i = ( int ) pos;
+		final double f = pos - i;
+		final int o = i * stride;
+		if ( f == 0 )
+		{
+			for ( int r = 0; r < nd; r++ )
+				target.setPosition( row( o + r * ( nd + 1 ), x, y, z ), r );
+		}
+		else
+		{
+			for ( int r = 0; r < nd; r++ )
+			{
+				final int or = o + r * ( nd + 1 );
+				target.setPosition( ( 1 - f ) * row( or, x, y, z ) + f * row( or + stride, x, y, z ), r );
+			}
+		}
+	}
+
+	/**
+	 * Applies the transform for a parameter to one point of coordinates given
+	 * per dimension. Source and target may be the same arrays.
+	 *
+	 * @param lambda the parameter, clamped to [0,1]
+	 * @param source the source coordinates, source[ d ][ k ] is coordinate d
+	 *            of point k
+	 * @param target the target coordinates
+	 * @param k the point
+	 */
+	public void apply( final double lambda, final double[][] source, final double[][] target, final int k )
+	{
+		final double x = source[ 0 ][ k ];
+		final double y = source[ 1 ][ k ];
+		final double z = nd == 3 ? source[ 2 ][ k ] : 0;
+
+		final double pos = position( lambda );
+		final int i = ( int ) pos;
+		final double f = pos - i;
+		final int o = i * stride;
+		if ( f == 0 )
+		{
+			for ( int r = 0; r < nd; r++ )
+				target[ r ][ k ] = row( o + r * ( nd + 1 ), x, y, z );
+		}
+		else
+		{
+			for ( int r = 0; r < nd; r++ )
+			{
+				final int or = o + r * ( nd + 1 );
+				target[ r ][ k ] = ( 1 - f ) * row( or, x, y, z ) + f * row( or + stride, x, y, z );
+			}
+		}
+	}
+
+	/**
+	 * Writes the linear part of the transform for a parameter to a matrix.
+	 *
+	 * @param lambda the parameter, clamped to [0,1]
+	 * @param m receives the nd x nd linear part
+	 */
+	public void linearPart( final double lambda, final double[][] m )
+	{
+		final double pos = position( lambda );
+		final int i = ( int ) pos;
+		final double f = pos - i;
+		final int o = i * stride;
+		for ( int r = 0; r < nd; r++ )
+			for ( int c = 0; c < nd; c++ )
+			{
+				final int k = o + r * ( nd + 1 ) + c;
+				m[ r ][ c ] = f == 0 ? table[ k ] : ( 1 - f ) * table[ k ] + f * table[ k + stride ];
+			}
+	}
+
+	/**
+	 * Computes the derivative of the transformed point with respect to the
+	 * parameter, from the entries around the parameter. This is the exact
+	 * derivative of the blended table, also if the table is not blended.
+	 *
+	 * @param lambda the parameter, clamped to [0,1]
+	 * @param source the source point
+	 * @param derivative receives the derivative
+	 */
+	public void derivative( final double lambda, final double[] source, final double[] derivative )
+	{
+		final double x = source[ 0 ];
+		final double y = source[ 1 ];
+		final double z = nd == 3 ? source[ 2 ] : 0;
+
+		final double l = !( lambda > 0 ) ? 0 : lambda >= 1 ? 1 : lambda;
+		final int i = Math.min( ( int ) ( l * steps ), steps - 1 );
+		final int o = i * stride;
+		for ( int r = 0; r < nd; r++ )
+		{
+			final int or = o + r * ( nd + 1 );
+			derivative[ r ] = steps * ( row( or + stride, x, y, z ) - row( or, x, y, z ) );
+		}
+	}
+
+	private double position( final double lambda )
+	{
+		final double pos;
+		if ( !( lambda > 0 ) ) // also catches NaN
+			pos = 0;
+		else if ( lambda >= 1 )
+			pos = steps;
+		else
+			pos = lambda * steps;
+
+		return blend ? pos : Math.rint( pos );
+	}
+
+	private double row( final int o, final double x, final double y, final double z )
+	{
+		if ( nd == 3 )
+			return table[ o ] * x + table[ o + 1 ] * y + table[ o + 2 ] * z + table[ o + 3 ];
+		else
+			return table[ o ] * x + table[ o + 1 ] * y + table[ o + 2 ];
+	}
+}
@@ -0,0 +1,475 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+
+/**
+ * A {@link ThinplateSplineTransform} that evaluates the sum over its kernels
+ * approximately with a Barnes-Hut style tree over the landmark centers.
+ * <p>
+ * Groups of centers that are far enough from the evaluation point are
+ * replaced by a second order (monopole, dipole and quadrupole) expansion of
+ * the r^2 log(r) kernel about the center of the group. The error of the
+ * expansion is estimated from the (signed) third moment of the knot weights of
+ * the group, and every group gets a share of the error bound proportional to
+ * its number of centers, so the cost per point decreases as the error bound
+ * grows or as the point moves away from the landmarks. Because the knot
+ * weights of a thin plate spline sum to zero and largely cancel, the third
+ * moment is a far better estimate than the bound from the absolute weights,
+ * but it is an estimate and not a guarantee.
+ * <p>
+ * {@link #getKernelTransform()} returns the exact transform, so the affine
+ * part, the landmarks and the knot weights are unchanged. The tree is shared
+ * by all copies of this transform.
+ */
+public class ApproximateThinplateSplineTransform extends ThinplateSplineTransform
+{
+	/**
+	 * Bounds the third derivative of r^2 log(r) in any direction, |D^3U| <=
+	 * 2 sqrt(2) / r, divided by 3!.
+	 */
+	private static final double REMAINDER_CONSTANT = Math.sqrt( 2 ) / 3;
+
+	/**
+	 * Nodes are expanded only for points at least this many radii away from
+	 * their center, such that the terms of the expansion decrease at least
+	 * geometrically.
+	 */
+	private static final double OPENING = 2;
+
+	private static final int LEAF_SIZE = 16;
+
+	private static final double EPS = 1e-8;
+
+	private final KernelTree tree;
+
+	private final double maxError;
+
+	private final double invMaxError;
+
+	private final int ndims;
+
+	private final double[][] affine;
+
+	private final double[] translation;
+
+	private final double[] pt;
+
+	private final double[] src;
+
+	private final double[] dst;
+
+	private final double[] y;
+
+	private final int[] stack;
+
+	/**
+	 * @param tps the exact transform
+	 * @param maxError the (estimated) largest error of any coordinate of the
+	 *            transformed point
+	 */
+	public ApproximateThinplateSplineTransform( final ThinPlateR2LogRSplineKernelTransform tps, final double maxError )
+	{
+		this( tps, new KernelTree( tps.getSourceLandmarks(), tps.getKnotWeights() ), maxError );
+	}
+
+	private ApproximateThinplateSplineTransform( final ThinPlateR2LogRSplineKernelTransform tps, final KernelTree tree, final double maxError )
+	{
+		super( tps );
+		this.tree = tree;
+		this.maxError = maxError;
+		ndims = tps.getNumDims();
+		affine = tps.getAffine();
+		translation = tps.getTranslation();
+
+		invMaxError = 1 / maxError;
+
+		pt = new double[ ndims ];
+		src = new double[ ndims ];
+		dst = new double[ ndims ];
+		y = new double[ ndims ];
+		stack = new int[ 2 * tree.depth + 2 ];
+	}
+
+	public double getMaxError()
+	{
+		return maxError;
+	}
+
+	@Override
+	public void apply( final double[] source, final double[] target )
+	{
+		// target may be the same array as source
+		System.arraycopy( source, 0, src, 0, ndims );
+		kernelSum( src, dst );
+
+		for ( int d = 0; d < ndims; d++ )
+		{
+			double v = src[ d ] + dst[ d ];
+			if ( translation != null )
+				v += translation[ d ];
+
+			if ( affine != null )
+				for ( int j = 0; j < ndims; j++ )
+					v += affine[ d ][ j ] * src[ j ];
+
+			target[ d ] = v;
+		}
+	}
+
+	@Override
+	public void apply( final RealLocalizable source, final RealPositionable target )
+	{
+		source.localize( pt );
+		apply( pt, pt );
+		target.setPosition( pt );
+	}
+
+	@Override
+	public ApproximateThinplateSplineTransform copy()
+	{
+		return new ApproximateThinplateSplineTransform( getKernelTransform(), tree, maxError );
+	}
+
+	private void kernelSum( final double[] x, final double[] sum )
+	{
+		for ( int d = 0; d < ndims; d++ )
+			sum[ d ] = 0;
+
+		if ( tree.numNodes == 0 )
+			return;
+
+		int top = 0;
+		stack[ top++ ] = 0;
+		while ( top > 0 )
+		{
+			final int node = stack[ --top ];
+
+			final int zo = node * ndims;
+			double r2 = 0;
+			for ( int j = 0; j < ndims; j++ )
+			{
+				final double yj = x[ j ] - tree.center[ zo + j ];
+				y[ j ] = yj;
+				r2 += yj * yj;
+			}
+
+			final double rho = tree.radius[ node ];
+			final double r = Math.sqrt( r2 );
+			if ( r >= OPENING * rho && tree.reach[ node ] * invMaxError <= r - rho )
+			{
+				if ( r2 > 0 )
+					addExpansion( node, r2, sum );
+			}
+			else if ( tree.left[ node ] < 0 )
+				addLeaf( node, x, sum );
+			else
+			{
+				stack[ top++ ] = tree.left[ node ];
+				stack[ top++ ] = tree.left[ node ] + 1;
+			}
+		}
+	}
+
+	private void addExpansion( final int node, final double r2, final double[] sum )
+	{
+		final double logr2 = Math.log( r2 );
+		final double u = 0.5 * r2 * logr2;
+		final double l = logr2 + 1;
+
+		final int nd2 = ndims * ndims;
+		for ( int d = 0; d < ndims; d++ )
+		{
+			final int k1 = ( node * ndims + d ) * ndims;
+			double dip = 0;
+			for ( int j = 0; j < ndims; j++ )
+				dip += y[ j ] * tree.m1[ k1 + j ];
+
+			final int k2 = ( node * ndims + d ) * nd2;
+			double quad = 0;
+			for ( int j = 0; j < ndims; j++ )
+			{
+				double row = 0;
+				for ( int k = 0; k < ndims; k++ )
+					row += tree.m2[ k2 + j * ndims + k ] * y[ k ];
+
+				quad += y[ j ] * row;
+			}
+
+			sum[ d ] += tree.m0[ node * ndims + d ] * u - l * dip
+					+ 0.5 * ( l * tree.traceM2[ node * ndims + d ] ) + quad / r2;
+		}
+	}
+
+	private void addLeaf( final int node, final double[] x, final double[] sum )
+	{
+		final double[] c = tree.centers;
+		final double[] w = tree.weights;
+		for ( int i = tree.start[ node ]; i < tree.end[ node ]; i++ )
+		{
+			final int o = i * ndims;
+			double r2 = 0;
+			for ( int j = 0; j < ndims; j++ )
+			{
+				final double dj = x[ j ] - c[ o + j ];
+				r2 += dj * dj;
+			}
+
+			if ( r2 <= EPS * EPS )
+				continue;
+
+			final double u = 0.5 * r2 * Math.log( r2 );
+			for ( int d = 0; d < ndims; d++ )
+				sum[ d ] += u * w[ o + d ];
+		}
+	}
+
+	/**
+	 * A k-d tree over the centers of a thin plate spline that stores the
+	 * moments of the knot weights of every node about its center.
+	 * <p>
+	 * The leading term of the remainder of the expansion of a node is at most
+	 * C |M3| / (r - rho), where M3 = sum_i w_i delta_i^3 is the third moment
+	 * of its weights about its center. A node is expanded if r - rho >= reach
+	 * / maxError.
+	 */
+	static class KernelTree
+	{
+		final int ndims;
+
+		// centers and weights reordered by the tree, interleaved
+		final double[] centers;
+
+		final double[] weights;
+
+
+		int numNodes;
+
+		int depth;
+
+		// the index of the first child, the second child follows it, -1 for leaves
+		final int[] left;
+
+		final int[] start;
+
+		final int[] end;
+
+		final double[] center;
+
+		final double[] radius;
+
+		final double[] m0;
+
+		final double[] m1;
+
+		final double[] m2;
+
+		final double[] traceM2;
+
+		final double[] reach;
+
+		KernelTree( final double[][] srcPts, final double[] knotWeights )
+		{
+			ndims = srcPts.length;
+			final int n = ndims > 0 ? srcPts[ 0 ].length : 0;
+
+			final int[] perm = new int[ n ];
+			for ( int i = 0; i < n; i++ )
+				perm[ i ] = i;
+
+			final int maxNodes = Math.max( 1, 2 * n );
+			left = new int[ maxNodes ];
+			start = new int[ maxNodes ];
+			end = new int[ maxNodes ];
+			center = new double[ maxNodes * ndims ];
+			radius = new double[ maxNodes ];
+			m0 = new double[ maxNodes * ndims ];
+			m1 = new double[ maxNodes * ndims * ndims ];
+			m2 = new double[ maxNodes * ndims * ndims * ndims ];
+			traceM2 = new double[ maxNodes * ndims ];
+			reach = new double[ maxNodes ];
+
+			numNodes = 0;
+			depth = 0;
+			if ( n > 0 )
+			{
+				numNodes = 1;
+				split( 0, 0, n, 1, srcPts, perm );
+			}
+
+			centers = new double[ n * ndims ];
+			weights = new double[ n * ndims ];
+			for ( int i = 0; i < n; i++ )
+			{
+				for ( int d = 0; d < ndims; d++ )
+				{
+					centers[ i * ndims + d ] = srcPts[ d ][ perm[ i ] ];
+
+					// jitk stores the knot weights interleaved, landmark-major
+					weights[ i * ndims + d ] = knotWeights[ perm[ i ] * ndims + d ];
+				}
+			}
+
+			for ( int node = 0; node < numNodes; node++ )
+				computeMoments( node, n );
+		}
+
+		private void split( final int node, final int from, final int to, final int level, final double[][] pts, final int[] perm )
+		{
+			depth = Math.max( depth, level );
+			start[ node ] = from;
+			end[ node ] = to;
+			left[ node ] = -1;
+
+			if ( to - from <= LEAF_SIZE )
+				return;
+
+			// split the widest dimension at the median
+			int dim = 0;
+			double widest = -1;
+			for ( int d = 0; d < ndims; d++ )
+			{
+				double min = Double.MAX_VALUE;
+				double max = -Double.MAX_VALUE;
+				for ( int i = from; i < to; i++ )
+				{
+					final double v = pts[ d ][ perm[ i ] ];
+					min = Math.min( min, v );
+					max = Math.max( max, v );
+				}
+				if ( max - min > widest )
+				{
+					widest = max - min;
+					dim = d;
+				}
+			}
+
+			final int mid = ( from + to ) / 2;
+			select( pts[ dim ], perm, from, to - 1, mid );
+
+			final int child = numNodes;
+			numNodes += 2;
+			left[ node ] = child;
+			split( child, from, mid, level + 1, pts, perm );
+			split( child + 1, mid, to, level + 1, pts, perm );
+		}
+
+		/**
+		 * Reorders perm[lo..hi] such that the kth element is in place.
+		 */
+		private static void select( final double[] values, final int[] perm, int lo, int hi, final int k )
+		{
+			while ( hi > lo )
+			{
+				final double pivot = values[ perm[ ( lo + hi ) >>> 1 ] ];
+				int i = lo;
+				int j = hi;
+				while ( i <= j )
+				{
+					while ( values[ perm[ i ] ] < pivot )
+						i++;
+					while ( values[ perm[ j ] ] > pivot )
+						j--;
+					if ( i <= j )
+					{
+						final int t = perm[ i ];
+						perm[ i ] = perm[ j ];
+						perm[ j ] = t;
+						i++;
+						j--;
+					}
+				}
+				if ( k <= j )
+					hi = j;
+				else if ( k >= i )
+					lo = i;
+				else
+					return;
+			}
+		}
+
+		private void computeMoments( final int node, final int numCenters )
+		{
+			final int from = start[ node ];
+			final int to = end[ node ];
+			final int zo = node * ndims;
+
+			// expand about the centroid of the centers
+			for ( int i = from; i < to; i++ )
+				for ( int j = 0; j < ndims; j++ )
+					center[ zo + j ] += centers[ i * ndims + j ];
+
+			for ( int j = 0; j < ndims; j++ )
+				center[ zo + j ] /= ( to - from );
+
+			final double[] delta = new double[ ndims ];
+			final int nd2 = ndims * ndims;
+			final double[] moment3 = new double[ ndims * nd2 * ndims ];
+			double maxR2 = 0;
+			for ( int i = from; i < to; i++ )
+			{
+				double r2 = 0;
+				for ( int j = 0; j < ndims; j++ )
+				{
+					delta[ j ] = centers[ i * ndims + j ] - center[ zo + j ];
+					r2 += delta[ j ] * delta[ j ];
+				}
+				maxR2 = Math.max( maxR2, r2 );
+
+				for ( int d = 0; d < ndims; d++ )
+				{
+					final double w = weights[ i * ndims + d ];
+					m0[ zo + d ] += w;
+					traceM2[ zo + d ] += w * r2;
+
+					final int k1 = ( zo + d ) * ndims;
+					final int k2 = ( zo + d ) * nd2;
+					for ( int j = 0; j < ndims; j++ )
+					{
+						m1[ k1 + j ] += w * delta[ j ];
+						for ( int k = 0; k < ndims; k++ )
+						{
+							m2[ k2 + j * ndims + k ] += w * delta[ j ] * delta[ k ];
+							for ( int l = 0; l < ndims; l++ )
+								moment3[ ( ( d * ndims + j ) * ndims + k ) * ndims + l ] += w * delta[ j ] * delta[ k ] * delta[ l ];
+						}
+					}
+				}
+			}
+			radius[ node ] = Math.sqrt( maxR2 );
+
+			// the node gets a share of the error bound proportional to its number of centers
+			final double share = ( double ) ( to - from ) / numCenters;
+			for ( int d = 0; d < ndims; d++ )
+			{
+				double norm = 0;
+				for ( int i = d * nd2 * ndims; i < ( d + 1 ) * nd2 * ndims; i++ )
+					norm += moment3[ i ] * moment3[ i ];
+
+				reach[ node ] = Math.max( reach[ node ], 2 * REMAINDER_CONSTANT * Math.sqrt( norm ) / share );
+			}
+		}
+	}
+}
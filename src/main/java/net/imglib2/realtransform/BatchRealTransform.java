@@ -0,0 +1,46 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+/**
+ * A {@link RealTransform} that transforms many points in one call. Points are
+ * given as one array of coordinates per dimension, so per call work is done
+ * once per batch and the loops over points can be vectorized.
+ * <p>
+ * Use {@link RealTransformBatch#apply(RealTransform, double[][], double[][], int, int)}
+ * to transform points with any {@link RealTransform}.
+ */
+public interface BatchRealTransform extends RealTransform
+{
+	/**
+	 * Transforms the points with indexes from start (inclusive) to end
+	 * (exclusive). The target may be the same arrays as the source.
+	 *
+	 * @param source the source coordinates, source[ d ][ i ] is coordinate d
+	 *            of point i, at least {@link #numSourceDimensions()} arrays
+	 * @param target receives the target coordinates, at least
+	 *            {@link #numTargetDimensions()} arrays
+	 * @param start the first point
+	 * @param end one after the last point
+	 */
+	public void apply( double[][] source, double[][] target, int start, int end );
+}
@@ -0,0 +1,72 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
+
+/**
+ * A spatial mask with values in [0,1] that knows where it is constant, and
+ * its gradient.
+ * <p>
+ * Lets {@link SpatiallyInterpolatedRealTransform} skip the transform that does
+ * not contribute at a point, and lets viewers limit repaints to the region a
+ * mask edit can affect.
+ */
+public interface BoundedMask
+{
+	/**
+	 * Returns the value of the mask at a position if it is exactly zero or
+	 * exactly one there, and {@link Double#NaN} otherwise. Coordinates of the
+	 * mask beyond the length of the position are taken to be zero.
+	 *
+	 * @param position the position
+	 * @return 0, 1, or NaN
+	 */
+	public double constantValue( final double[] position );
+
+	/**
+	 * @see #constantValue(double[])
+	 *
+	 * @param position the position
+	 * @return 0, 1, or NaN
+	 */
+	public double constantValue( final RealLocalizable position );
+
+	/**
+	 * Returns a bounding box of the support of this mask, i.e. the mask is
+	 * exactly zero everywhere outside of it.
+	 *
+	 * @return the support bounds
+	 */
+	public RealInterval getSupport();
+
+	/**
+	 * Computes the gradient of the mask at a position. Coordinates beyond the
+	 * length of the position are taken to be zero, and only as many
+	 * components of the gradient as it has elements are written.
+	 *
+	 * @param position the position
+	 * @param gradient receives the gradient
+	 */
+	public void gradient( final double[] position, final double[] gradient );
+}
@@ -21,7 +21,13 @@
  */
 package net.imglib2.realtransform;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.imglib2.FinalInterval;
 import net.imglib2.FinalRealInterval;
@@ -41,6 +47,8 @@ public class BoundingBoxEstimation {
 
 	private double[] steps;
 
+	private int numThreads = 1;
+
 	public BoundingBoxEstimation()
 	{
 		this( Method.FACES );
@@ -67,11 +75,34 @@ public class BoundingBoxEstimation {
 		this.method = method;
 	}
 
+	public BoundingBoxEstimation( final Method method, int samplesPerDim, int numThreads )
+	{
+		this( method, samplesPerDim );
+		setNumThreads( numThreads );
+	}
+
 	public void setSamplesPerDim( int samplesPerDim )
 	{
 		this.samplesPerDim = samplesPerDim;
 	}
 
+	/**
+	 * Sets the number of threads over which the samples of the FACES and
+	 * VOLUME methods are distributed. Every thread transforms the samples with
+	 * its own copy of the transform.
+	 *
+	 * @param numThreads the number of threads
+	 */
+	public void setNumThreads( int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
 	public double[] setSamplesPerDim( final RealInterval itvl, int maxSamples )
 	{
 		steps = samplesPerDim( itvl, maxSamples );
@@ -103,9 +134,9 @@ public class BoundingBoxEstimation {
 		case CORNERS:
 			return cornersReal(xfm, interval);
 		case VOLUME:
-			return volumeReal(xfm, interval, steps );
+			return volumeReal(xfm, interval, steps, numThreads );
 		default:
-			return facesReal( xfm, interval, steps );
+			return facesReal( xfm, interval, steps, numThreads );
 		}
 	}
 
@@ -118,15 +149,15 @@ public class BoundingBoxEstimation {
 		case CORNERS:
 			return corners(xfm, interval);
 		case VOLUME:
-			return volume(xfm, interval, steps );
+			return containingInterval( volumeReal( xfm, interval, steps, numThreads ) );
 		default:
-			return faces( xfm, interval, steps );
+			return containingInterval( facesReal( xfm, interval, steps, numThreads ) );
 		}
 	}
 
 	public BoundingBoxEstimation copy()
 	{
-		return new BoundingBoxEstimation(method, samplesPerDim);
+		return new BoundingBoxEstimation(method, samplesPerDim, numThreads);
 	}
 
 	/**
@@ -155,6 +186,11 @@ public class BoundingBoxEstimation {
 	}
 
 	public static FinalRealInterval facesReal( RealTransform xfm, RealInterval interval, double[] stepsIn )
+	{
+		return facesReal( xfm, interval, stepsIn, 1 );
+	}
+
+	public static FinalRealInterval facesReal( RealTransform xfm, RealInterval interval, double[] stepsIn, int numThreads )
 	{
 		if( xfm == null )
 			return new FinalRealInterval( interval );
@@ -176,18 +212,103 @@ public class BoundingBoxEstimation {
 
 		final double[] itvlMin = new double[ nd ];
 		final double[] itvlMax = new double[ nd ];
+		final List< RealInterval > faces = new ArrayList<>();
 		for( int i = 0; i < nd; i++ )
 		{
 			subInterval( interval, interval.realMin( i ), i, itvlMin, itvlMax );
-			minMaxInterval( xfm, new FinalRealInterval(itvlMin, itvlMax), steps, min, max );
+			faces.add( new FinalRealInterval( itvlMin, itvlMax ) );
 
 			subInterval( interval, interval.realMax( i ) , i, itvlMin, itvlMax );
-			minMaxInterval( xfm, new FinalRealInterval(itvlMin, itvlMax), steps, min, max );
+			faces.add( new FinalRealInterval( itvlMin, itvlMax ) );
 		}
 
+		if( numThreads > 1 )
+			minMaxIntervals( xfm, faces, steps, min, max, numThreads );
+		else
+			for( final RealInterval face : faces )
+				minMaxInterval( xfm, face, steps, min, max );
+
 		return new FinalRealInterval( min, max );
 	}
 
+	/**
+	 * Like {@link #minMaxInterval(RealTransform, RealInterval, double[], double[], double[])}
+	 * for several intervals, with the samples distributed over the given
+	 * number of tasks that run in the common {@link ForkJoinPool}. Stops early
+	 * if the calling thread is interrupted, in which case its interrupted
+	 * status is set and the result is incomplete.
+	 *
+	 * @param xfm the transform
+	 * @param intervals the intervals to sample
+	 * @param steps the sample spacing
+	 * @param min the minimum, updated
+	 * @param max the maximum, updated
+	 * @param numTasks the number of tasks
+	 */
+	public static void minMaxIntervals( final RealTransform xfm, final List< ? extends RealInterval > intervals, final double[] steps,
+			final double[] min, final double[] max, final int numTasks )
+	{
+		final int nd = min.length;
+		final AtomicBoolean stop = new AtomicBoolean( false );
+		final List< Future< double[][] > > futures = new ArrayList<>();
+		for( int t = 0; t < numTasks; t++ )
+		{
+			final int task = t;
+			final RealTransform xfmCopy = xfm.copy();
+			futures.add( ForkJoinPool.commonPool().submit( () -> {
+				final double[] taskMin = new double[ nd ];
+				final double[] taskMax = new double[ nd ];
+				Arrays.fill( taskMin, Long.MAX_VALUE );
+				Arrays.fill( taskMax, Long.MIN_VALUE );
+				final RealPoint ptxfm = new RealPoint( nd );
+
+				// every task transforms every numTasks-th sample
+				long i = 0;
+				for( final RealInterval interval : intervals )
+				{
+					final RealIntervalIterator it = new RealIntervalIterator( interval, steps );
+					while( it.hasNext() && !stop.get() )
+					{
+						it.fwd();
+						if( i++ % numTasks != task )
+							continue;
+
+						xfmCopy.apply( it, ptxfm );
+						for( int d = 0; d < nd; d++ )
+						{
+							taskMin[ d ] = Math.min( taskMin[ d ], ptxfm.getDoublePosition( d ) );
+							taskMax[ d ] = Math.max( taskMax[ d ], ptxfm.getDoublePosition( d ) );
+						}
+					}
+				}
+				return new double[][] { taskMin, taskMax };
+			} ) );
+		}
+
+		try
+		{
+			for( final Future< double[][] > f : futures )
+			{
+				final double[][] minMax = f.get();
+				for( int d = 0; d < nd; d++ )
+				{
+					min[ d ] = Math.min( min[ d ], minMax[ 0 ][ d ] );
+					max[ d ] = Math.max( max[ d ], minMax[ 1 ][ d ] );
+				}
+			}
+		}
+		catch( final InterruptedException e )
+		{
+			stop.set( true );
+			Thread.currentThread().interrupt();
+		}
+		catch( final ExecutionException e )
+		{
+			stop.set( true );
+			throw new RuntimeException( e.getCause() );
+		}
+	}
+
 	public static void minMaxInterval( final RealTransform xfm, final RealInterval interval, final double[] steps,
 			final double[] min, final double[] max )
 	{
@@ -225,6 +346,11 @@ public class BoundingBoxEstimation {
 	}
 
 	public static FinalRealInterval volumeReal( RealTransform xfm, RealInterval interval, double[] steps )
+	{
+		return volumeReal( xfm, interval, steps, 1 );
+	}
+
+	public static FinalRealInterval volumeReal( RealTransform xfm, RealInterval interval, double[] steps, int numThreads )
 	{
 		if( xfm == null )
 			return new FinalRealInterval( interval );
@@ -235,7 +361,11 @@ public class BoundingBoxEstimation {
 		Arrays.fill( min, Long.MAX_VALUE );
 		Arrays.fill( max, Long.MIN_VALUE );
 
-		minMaxInterval( xfm, interval, steps, min, max );
+		if( numThreads > 1 )
+			minMaxIntervals( xfm, Arrays.asList( interval ), steps, min, max, numThreads );
+		else
+			minMaxInterval( xfm, interval, steps, min, max );
+
 		return new FinalRealInterval( min, max );
 	}
 
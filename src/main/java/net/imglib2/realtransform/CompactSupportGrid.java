@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import java.util.Arrays;
+
+/**
+ * An immutable uniform grid over a fixed set of points, used to find the
+ * points within a radius of a location by visiting only the 3^n cells
+ * around it.
+ * <p>
+ * The occupied cells are stored as sorted keys with the indexes of their
+ * points in one array, so the grid needs O(n) memory however sparse the
+ * points are. The cell size is at least the radius queries are made with.
+ * Instances are safe to share between threads.
+ */
+public final class CompactSupportGrid
+{
+	private static final int BITS = 21;
+
+	private static final long MAX_CELL = ( 1L << BITS ) - 1;
+
+	private final int nd;
+
+	private final double cellSize;
+
+	private final double[] origin;
+
+	private final long[] maxCell;
+
+	// sorted keys of occupied cells
+	private final long[] keys;
+
+	// the points of cell k are indices[ starts[ k ] ] ... indices[ starts[ k + 1 ] - 1 ]
+	private final int[] starts;
+
+	private final int[] indices;
+
+	/**
+	 * @param points the points, ndims x n
+	 * @param radius the largest radius of queries
+	 */
+	public CompactSupportGrid( final double[][] points, final double radius )
+	{
+		nd = points.length;
+		if ( nd > 3 )
+			throw new IllegalArgumentException( "At most 3 dimensions are supported, got " + nd );
+
+		final int n = nd > 0 ? points[ 0 ].length : 0;
+		origin = new double[ nd ];
+		maxCell = new long[ nd ];
+		double maxExtent = 0;
+		for ( int d = 0; d < nd; d++ )
+		{
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for ( int i = 0; i < n; i++ )
+			{
+				min = Math.min( min, points[ d ][ i ] );
+				max = Math.max( max, points[ d ][ i ] );
+			}
+			origin[ d ] = n > 0 ? min : 0;
+			maxExtent = Math.max( maxExtent, n > 0 ? max - min : 0 );
+		}
+
+		// keep the number of cells per dimension representable
+		cellSize = Math.max( radius, maxExtent / ( MAX_CELL - 1 ) );
+		for ( int d = 0; d < nd; d++ )
+		{
+			long m = 0;
+			for ( int i = 0; i < n; i++ )
+				m = Math.max( m, cell( points[ d ][ i ], d ) );
+			maxCell[ d ] = m;
+		}
+
+		final long[] pointKeys = new long[ n ];
+		final Integer[] order = new Integer[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			long key = 0;
+			for ( int d = 0; d < nd; d++ )
+				key |= cell( points[ d ][ i ], d ) << ( BITS * d );
+			pointKeys[ i ] = key;
+			order[ i ] = i;
+		}
+		Arrays.sort( order, ( a, b ) -> Long.compare( pointKeys[ a ], pointKeys[ b ] ) );
+
+		indices = new int[ n ];
+		final long[] cellKeys = new long[ n ];
+		final int[] cellStarts = new int[ n + 1 ];
+		int numCells = 0;
+		for ( int j = 0; j < n; j++ )
+		{
+			final int i = order[ j ];
+			indices[ j ] = i;
+			if ( numCells == 0 || cellKeys[ numCells - 1 ] != pointKeys[ i ] )
+			{
+				cellKeys[ numCells ] = pointKeys[ i ];
+				cellStarts[ numCells++ ] = j;
+			}
+		}
+		cellStarts[ numCells ] = n;
+		keys = Arrays.copyOf( cellKeys, numCells );
+		starts = Arrays.copyOf( cellStarts, numCells + 1 );
+	}
+
+	public int numDimensions()
+	{
+		return nd;
+	}
+
+	public double getCellSize()
+	{
+		return cellSize;
+	}
+
+	/**
+	 * @return the largest number of ranges {@link #neighborRanges} returns
+	 */
+	public int maxNeighborRanges()
+	{
+		int k = 1;
+		for ( int d = 0; d < nd; d++ )
+			k *= 3;
+		return k;
+	}
+
+	/**
+	 * Finds the occupied cells around a location. Every point within the
+	 * radius the grid was built for lies in one of them, so its index is
+	 * {@link #index(int)} of some j in [from[ r ], to[ r ]).
+	 *
+	 * @param x the location
+	 * @param from receives the first positions of the ranges
+	 * @param to receives the ends of the ranges
+	 * @return the number of ranges
+	 */
+	public int neighborRanges( final double[] x, final int[] from, final int[] to )
+	{
+		long c0 = 0, c1 = 0, c2 = 0;
+		c0 = floorCell( x[ 0 ], 0 );
+		if ( nd > 1 )
+			c1 = floorCell( x[ 1 ], 1 );
+		if ( nd > 2 )
+			c2 = floorCell( x[ 2 ], 2 );
+
+		int r = 0;
+		for ( long k = c2 - ( nd > 2 ? 1 : 0 ); k <= c2 + ( nd > 2 ? 1 : 0 ); k++ )
+		{
+			if ( nd > 2 && ( k < 0 || k > maxCell[ 2 ] ) )
+				continue;
+
+			for ( long j = c1 - ( nd > 1 ? 1 : 0 ); j <= c1 + ( nd > 1 ? 1 : 0 ); j++ )
+			{
+				if ( nd > 1 && ( j < 0 || j > maxCell[ 1 ] ) )
+					continue;
+
+				for ( long i = c0 - 1; i <= c0 + 1; i++ )
+				{
+					if ( i < 0 || i > maxCell[ 0 ] )
+						continue;
+
+					final int c = Arrays.binarySearch( keys, i | ( j << BITS ) | ( k << ( 2 * BITS ) ) );
+					if ( c >= 0 )
+					{
+						from[ r ] = starts[ c ];
+						to[ r ] = starts[ c + 1 ];
+						r++;
+					}
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * @param j a position in a range returned by {@link #neighborRanges}
+	 * @return the index of the point
+	 */
+	public int index( final int j )
+	{
+		return indices[ j ];
+	}
+
+	private long cell( final double x, final int d )
+	{
+		return Math.min( MAX_CELL, Math.max( 0, ( long ) ( ( x - origin[ d ] ) / cellSize ) ) );
+	}
+
+	/*
+	 * the cell of a location, may be outside of the grid
+	 */
+	private long floorCell( final double x, final int d )
+	{
+		final double c = Math.floor( ( x - origin[ d ] ) / cellSize );
+		return c < -2 ? -2 : c > MAX_CELL + 2 ? MAX_CELL + 2 : ( long ) c;
+	}
+}
@@ -21,7 +21,6 @@
  */
 package net.imglib2.realtransform;
 
-import bdv.viewer.animate.AbstractTransformAnimator;
 import net.imglib2.RealLocalizable;
 import net.imglib2.RealPositionable;
 import net.imglib2.RealRandomAccess;
@@ -33,12 +32,15 @@ import net.imglib2.type.numeric.RealType;
  * <p>
  * Given a {@link RealRandomAccessible} "lambda", and a transformation "a", implements the transformation
  * lambda * a(x) + (1-lambda) * x for a point x.
+ * <p>
+ * The interpolated transforms are looked up in an {@link AffineInterpolationTable}
+ * that copies share, so applying this transform does not allocate.
  * 
  * @author John Bogovic
  *
  * @param <T> lambda's type
  */
-public class MaskedSimilarityTransform<T extends RealType<T>> implements RealTransform {
+public class MaskedSimilarityTransform<T extends RealType<T>> implements BatchRealTransform {
 
 	public static enum Interpolators { SIMILARITY, ROTATION };
 
@@ -48,10 +50,12 @@ public class MaskedSimilarityTransform<T extends RealType<T>> implements RealTra
 
 	private final AffineTransform3D transform;
 
-	private final AbstractTransformAnimator interpolator;
+	private final AffineInterpolationTable table;
 
 	private final double[] c;
 
+	private final Interpolators interp;
+
 //	private final boolean flip;
 
 	public MaskedSimilarityTransform(final AffineTransform3D transform, final RealRandomAccessible<T> lambda ) {
@@ -71,17 +75,46 @@ public class MaskedSimilarityTransform<T extends RealType<T>> implements RealTra
 	}
 
 	public MaskedSimilarityTransform(final AffineTransform3D transform, final RealRandomAccessible<T> lambda, double[] c, Interpolators interp ) {
+		this( transform, lambda, c, interp, interpolationTable( transform, c, interp, AffineInterpolationTable.DEFAULT_SIZE, true ) );
+	}
+
+	public MaskedSimilarityTransform(final AffineTransform3D transform, final RealRandomAccessible<T> lambda, double[] c, Interpolators interp, AffineInterpolationTable table ) {
 
 		assert ( transform.numSourceDimensions() == lambda.numDimensions() );
 		this.transform = transform;
 		this.c = c;
+		this.interp = interp;
 		this.lambda = lambda;
+		this.table = table;
 		lambdaAccess = lambda.realRandomAccess();
+	}
+
+	/**
+	 * Tabulates the interpolation from the identity to the given transform.
+	 *
+	 * @param transform the transform where lambda is one
+	 * @param c the center of the interpolation
+	 * @param interp the interpolation type
+	 * @param size the number of table entries
+	 * @param blend whether to blend neighboring entries
+	 * @return the table
+	 */
+	public static AffineInterpolationTable interpolationTable( final AffineTransform3D transform, final double[] c, final Interpolators interp, final int size, final boolean blend ) {
 
 		if( interp ==  Interpolators.SIMILARITY )
-			interpolator = new SimilarityTransformInterpolator( transform, c );
+			return new AffineInterpolationTable( 3, new SimilarityTransformInterpolator( transform, c )::get, size, blend );
 		else
-			interpolator = new RotationTransformInterpolator( transform, c );
+			return new AffineInterpolationTable( 3, new RotationTransformInterpolator( transform, c )::get, size, blend );
+	}
+
+	public RealRandomAccessible<T> getLambda() {
+
+		return lambda;
+	}
+
+	public AffineInterpolationTable getTable() {
+
+		return table;
 	}
 
 	@Override
@@ -100,20 +133,32 @@ public class MaskedSimilarityTransform<T extends RealType<T>> implements RealTra
 	public void apply(double[] source, double[] target) {
 		lambdaAccess.setPosition(source);
 		final double lam = lambdaAccess.get().getRealDouble();
-		interpolator.get( lam ).apply( source, target );
+		table.apply( lam, source, target );
 	}
 
 	@Override
 	public void apply(RealLocalizable source, RealPositionable target) {
 		lambdaAccess.setPosition(source);
 		final double lam = lambdaAccess.get().getRealDouble();
-		interpolator.get( lam ).apply( source, target );
+		table.apply( lam, source, target );
+	}
+
+	@Override
+	public void apply(double[][] source, double[][] target, int start, int end) {
+		final int n = lambdaAccess.numDimensions();
+		for (int i = start; i < end; i++) {
+			for (int d = 0; d < n; d++)
+				lambdaAccess.setPosition(source[d][i], d);
+
+			table.apply(lambdaAccess.get().getRealDouble(), source, target, i);
+		}
 	}
 
 	@Override
 	public RealTransform copy() {
 
-		return new MaskedSimilarityTransform<T>(transform.copy(), lambda, c );
+		return new MaskedSimilarityTransform<T>(transform.copy(), lambda, c, interp, table );
 	}
 
+
 }
@@ -30,11 +30,14 @@ import net.imglib2.type.numeric.RealType;
 
 /**
  * Spatially-varying mask for a {@link RealTransform}.
+ * <p>
+ * The interpolated transforms are looked up in an {@link AffineInterpolationTable}
+ * that copies share, so applying this transform does not allocate.
  * 
  * @param <T>
  *            mask type
  */
-public class MaskedSimilarityTransform2D<T extends RealType<T>> implements RealTransform {
+public class MaskedSimilarityTransform2D<T extends RealType<T>> implements BatchRealTransform {
 
 	private final RealRandomAccessible<T> lambda;
 
@@ -42,7 +45,7 @@ public class MaskedSimilarityTransform2D<T extends RealType<T>> implements RealT
 
 	private final AffineTransform2D transform;
 
-	private final AffineInterpolator interpolator;
+	private final AffineInterpolationTable table;
 
 	private final double[] c;
 	
@@ -70,17 +73,52 @@ public class MaskedSimilarityTransform2D<T extends RealType<T>> implements RealT
 
 	public MaskedSimilarityTransform2D(final AffineTransform2D transform, final RealRandomAccessible<T> lambda, double[] c, Interpolators interp) {
 
+		this(transform, lambda, c, interp, interpolationTable(transform, c, interp, AffineInterpolationTable.DEFAULT_SIZE, true));
+	}
+
+	public MaskedSimilarityTransform2D(final AffineTransform2D transform, final RealRandomAccessible<T> lambda, double[] c, Interpolators interp,
+			AffineInterpolationTable table) {
+
 		assert (transform.numSourceDimensions() == lambda.numDimensions());
 		this.transform = transform;
 		this.c = c;
 		this.lambda = lambda;
 		this.interp = interp;
+		this.table = table;
 		lambdaAccess = lambda.realRandomAccess();
+	}
 
+	/**
+	 * Tabulates the interpolation from the identity to the given transform.
+	 *
+	 * @param transform the transform where lambda is one
+	 * @param c the center of the interpolation
+	 * @param interp the interpolation type
+	 * @param size the number of table entries
+	 * @param blend whether to blend neighboring entries
+	 * @return the table
+	 */
+	public static AffineInterpolationTable interpolationTable(final AffineTransform2D transform, final double[] c, final Interpolators interp,
+			final int size, final boolean blend) {
+
+		// the 2d interpolators reuse the transform they return, which the table copies right away
+		final AffineInterpolator interpolator;
 		if (interp == Interpolators.SIMILARITY)
 			interpolator = new SimilarityTransformInterpolator2D(transform, c);
 		else
 			interpolator = new RotationTransformInterpolator2D(transform, c);
+
+		return new AffineInterpolationTable(2, interpolator::get, size, blend);
+	}
+
+	public RealRandomAccessible<T> getLambda() {
+
+		return lambda;
+	}
+
+	public AffineInterpolationTable getTable() {
+
+		return table;
 	}
 
 	@Override
@@ -102,7 +140,7 @@ public class MaskedSimilarityTransform2D<T extends RealType<T>> implements RealT
 			lambdaAccess.setPosition(source[i], i);
 
 		final double lam = lambdaAccess.get().getRealDouble();
-		interpolator.get(lam).apply(source, target);
+		table.apply(lam, source, target);
 	}
 
 	@Override
@@ -110,13 +148,26 @@ public class MaskedSimilarityTransform2D<T extends RealType<T>> implements RealT
 
 		lambdaAccess.setPosition(source);
 		final double lam = lambdaAccess.get().getRealDouble();
-		interpolator.get(lam).apply(source, target);
+		table.apply(lam, source, target);
+	}
+
+	@Override
+	public void apply(double[][] source, double[][] target, int start, int end) {
+
+		final int n = numSourceDimensions();
+		for (int i = start; i < end; i++) {
+			for (int d = 0; d < n; d++)
+				lambdaAccess.setPosition(source[d][i], d);
+
+			table.apply(lambdaAccess.get().getRealDouble(), source, target, i);
+		}
 	}
 
 	@Override
 	public RealTransform copy() {
 
-		return new MaskedSimilarityTransform2D<T>(transform.copy(), lambda, c, interp);
+		return new MaskedSimilarityTransform2D<T>(transform.copy(), lambda, c, interp, table);
 	}
 
+
 }
@@ -0,0 +1,402 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.realtransform.inverse.AbstractDifferentiableRealTransform;
+import net.imglib2.realtransform.inverse.DifferentiableRealTransform;
+import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Computes the jacobian of a {@link RealTransform} analytically from the
+ * jacobians of its parts, in contrast to {@link RealTransformFiniteDerivatives}
+ * that evaluates the whole transform 2·d extra times per point.
+ * <p>
+ * Affines, sequences (by the chain rule), {@link DifferentiableRealTransform}s
+ * such as the {@link ThinplateSplineTransform},
+ * {@link SpatiallyInterpolatedRealTransform}s and masked similarities are
+ * differentiated analytically. The gradient of the mask is analytic for
+ * {@link BoundedMask}s. Only other transforms are differentiated with central
+ * finite differences, and only themselves, not the transforms around them.
+ * <p>
+ * Instances are not thread safe, use {@link #copy()} for every thread.
+ */
+public class RealTransformAnalyticDerivatives extends AbstractDifferentiableRealTransform
+{
+	public static final double DEFAULT_STEP = 1e-3;
+
+	private final RealTransform transform;
+
+	private final int nd;
+
+	private final double step;
+
+	private final double[] x;
+
+	private final double[][] jac;
+
+	public RealTransformAnalyticDerivatives( final RealTransform transform )
+	{
+		this( transform, DEFAULT_STEP );
+	}
+
+	/**
+	 * @param transform the transform
+	 * @param step the step of finite differences for parts that can not be
+	 *            differentiated analytically
+	 */
+	public RealTransformAnalyticDerivatives( final RealTransform transform, final double step )
+	{
+		this.transform = transform;
+		this.step = step;
+		nd = transform.numSourceDimensions();
+		x = new double[ nd ];
+		jac = new double[ nd ][ nd ];
+	}
+
+	public RealTransform getTransform()
+	{
+		return transform;
+	}
+
+	@Override
+	public int numSourceDimensions()
+	{
+		return transform.numSourceDimensions();
+	}
+
+	@Override
+	public int numTargetDimensions()
+	{
+		return transform.numTargetDimensions();
+	}
+
+	@Override
+	public void apply( final double[] source, final double[] target )
+	{
+		transform.apply( source, target );
+	}
+
+	@Override
+	public void apply( final RealLocalizable source, final RealPositionable target )
+	{
+		transform.apply( source, target );
+	}
+
+	@Override
+	public AffineTransform jacobian( final double[] position )
+	{
+		jacobian( position, jac );
+		final AffineTransform affine = new AffineTransform( nd );
+		for ( int r = 0; r < nd; r++ )
+			for ( int c = 0; c < nd; c++ )
+				affine.set( jac[ r ][ c ], r, c );
+
+		return affine;
+	}
+
+	/**
+	 * Computes the jacobian at a position.
+	 *
+	 * @param position the position, may be longer than the number of
+	 *            dimensions
+	 * @param jacobian receives the jacobian
+	 */
+	public void jacobian( final double[] position, final double[][] jacobian )
+	{
+		System.arraycopy( position, 0, x, 0, nd );
+		jacobian( transform, x, jacobian );
+	}
+
+	/**
+	 * Computes the determinant of the jacobian at a position without
+	 * allocating a matrix.
+	 *
+	 * @param position the position
+	 * @return the determinant
+	 */
+	public double determinant( final double[] position )
+	{
+		jacobian( position, jac );
+		return determinant( jac, nd );
+	}
+
+	/**
+	 * Returns the determinant of a matrix in closed form.
+	 *
+	 * @param m the matrix
+	 * @param n its size
+	 * @return the determinant, NaN for more than three dimensions
+	 */
+	public static double determinant( final double[][] m, final int n )
+	{
+		switch ( n )
+		{
+		case 1:
+			return m[ 0 ][ 0 ];
+		case 2:
+			return m[ 0 ][ 0 ] * m[ 1 ][ 1 ] - m[ 0 ][ 1 ] * m[ 1 ][ 0 ];
+		case 3:
+			return m[ 0 ][ 0 ] * ( m[ 1 ][ 1 ] * m[ 2 ][ 2 ] - m[ 1 ][ 2 ] * m[ 2 ][ 1 ] )
+					- m[ 0 ][ 1 ] * ( m[ 1 ][ 0 ] * m[ 2 ][ 2 ] - m[ 1 ][ 2 ] * m[ 2 ][ 0 ] )
+					+ m[ 0 ][ 2 ] * ( m[ 1 ][ 0 ] * m[ 2 ][ 1 ] - m[ 1 ][ 1 ] * m[ 2 ][ 0 ] );
+		default:
+			return Double.NaN;
+		}
+	}
+
+	@Override
+	public RealTransformAnalyticDerivatives copy()
+	{
+		return new RealTransformAnalyticDerivatives( transform.copy(), step );
+	}
+
+	/**
+	 * @param t the transform
+	 * @param x the position, of length t.numSourceDimensions()
+	 * @param jac receives the jacobian
+	 */
+	private void jacobian( final RealTransform t, final double[] x, final double[][] jac )
+	{
+		final int n = x.length;
+		if ( t instanceof AffineGet )
+		{
+			final AffineGet affine = ( AffineGet ) t;
+			for ( int r = 0; r < n; r++ )
+				for ( int c = 0; c < n; c++ )
+					jac[ r ][ c ] = affine.get( r, c );
+		}
+		else if ( t instanceof WrappedIterativeInvertibleRealTransform )
+		{
+			jacobian( ( ( WrappedIterativeInvertibleRealTransform< ? > ) t ).getTransform(), x, jac );
+		}
+		else if ( t instanceof Wrapped2DTransformAs3D )
+		{
+			final double[][] jac2 = new double[ 2 ][ 2 ];
+			jacobian( ( ( Wrapped2DTransformAs3D ) t ).getTransform(), new double[] { x[ 0 ], x[ 1 ] }, jac2 );
+			identity( jac, 3 );
+			for ( int r = 0; r < 2; r++ )
+				for ( int c = 0; c < 2; c++ )
+					jac[ r ][ c ] = jac2[ r ][ c ];
+		}
+		else if ( t instanceof RealTransformSequence )
+		{
+			sequenceJacobian( ( RealTransformSequence ) t, x, jac );
+		}
+		else if ( t instanceof SpatiallyInterpolatedRealTransform )
+		{
+			interpolatedJacobian( ( SpatiallyInterpolatedRealTransform< ? > ) t, x, jac );
+		}
+		else if ( t instanceof MaskedSimilarityTransform )
+		{
+			final MaskedSimilarityTransform< ? > m = ( MaskedSimilarityTransform< ? > ) t;
+			maskedJacobian( m.getTable(), m.getLambda(), x, jac );
+		}
+		else if ( t instanceof MaskedSimilarityTransform2D )
+		{
+			final MaskedSimilarityTransform2D< ? > m = ( MaskedSimilarityTransform2D< ? > ) t;
+			maskedJacobian( m.getTable(), m.getLambda(), x, jac );
+		}
+		else if ( t instanceof DifferentiableRealTransform )
+		{
+			final AffineTransform j = ( ( DifferentiableRealTransform ) t ).jacobian( x );
+			for ( int r = 0; r < n; r++ )
+				for ( int c = 0; c < n; c++ )
+					jac[ r ][ c ] = j.get( r, c );
+		}
+		else
+			finiteDifferences( t, x, jac );
+	}
+
+	/*
+	 * chain rule, J = J_k( x_k-1 ) ... J_2( x_1 ) J_1( x )
+	 */
+	private void sequenceJacobian( final RealTransformSequence seq, final double[] x, final double[][] jac )
+	{
+		final int n = x.length;
+		identity( jac, n );
+
+		final int k = seq.transforms.size();
+		if ( k == 0 )
+			return;
+
+		final double[][] ji = new double[ n ][ n ];
+		final double[][] prod = new double[ n ][ n ];
+		double[] cur = x.clone();
+		double[] next = new double[ n ];
+		for ( int i = 0; i < k; i++ )
+		{
+			final RealTransform ti = seq.transforms.get( i );
+			jacobian( ti, cur, ji );
+			multiply( ji, jac, prod, n );
+			for ( int r = 0; r < n; r++ )
+				System.arraycopy( prod[ r ], 0, jac[ r ], 0, n );
+
+			if ( i < k - 1 )
+			{
+				ti.apply( cur, next );
+				final double[] tmp = cur;
+				cur = next;
+				next = tmp;
+			}
+		}
+	}
+
+	/*
+	 * T = l a + (1-l) b, J = l Ja + (1-l) Jb + ( a - b ) grad(l)^T
+	 */
+	private void interpolatedJacobian( final SpatiallyInterpolatedRealTransform< ? > t, final double[] x, final double[][] jac )
+	{
+		final RealRandomAccessible< ? extends RealType< ? > > lambda = t.getLambda();
+		if ( lambda instanceof BoundedMask )
+		{
+			final double c = ( ( BoundedMask ) lambda ).constantValue( x );
+			if ( c == 1 )
+			{
+				jacobian( t.getA(), x, jac );
+				return;
+			}
+			else if ( c == 0 )
+			{
+				jacobian( t.getB(), x, jac );
+				return;
+			}
+		}
+
+		final int n = x.length;
+		final double[][] jb = new double[ n ][ n ];
+		jacobian( t.getA(), x, jac );
+		jacobian( t.getB(), x, jb );
+
+		final double[] ya = new double[ t.numTargetDimensions() ];
+		final double[] yb = new double[ t.numTargetDimensions() ];
+		t.getA().apply( x, ya );
+		t.getB().apply( x, yb );
+
+		final double l = value( lambda, x );
+		final double[] grad = new double[ n ];
+		gradient( lambda, x, grad );
+		for ( int r = 0; r < n; r++ )
+			for ( int c = 0; c < n; c++ )
+				jac[ r ][ c ] = l * jac[ r ][ c ] + ( 1 - l ) * jb[ r ][ c ] + ( ya[ r ] - yb[ r ] ) * grad[ c ];
+	}
+
+	/*
+	 * T = A( l ) x, J = A( l ) + ( dA/dl x ) grad(l)^T
+	 */
+	private void maskedJacobian( final AffineInterpolationTable table, final RealRandomAccessible< ? extends RealType< ? > > lambda, final double[] x, final double[][] jac )
+	{
+		final int n = x.length;
+		final double l = value( lambda, x );
+		table.linearPart( l, jac );
+
+		if ( lambda instanceof BoundedMask && !Double.isNaN( ( ( BoundedMask ) lambda ).constantValue( x ) ) )
+			return;
+
+		final double[] grad = new double[ n ];
+		gradient( lambda, x, grad );
+
+		final double[] dl = new double[ n ];
+		table.derivative( l, x, dl );
+		for ( int r = 0; r < n; r++ )
+			for ( int c = 0; c < n; c++ )
+				jac[ r ][ c ] += dl[ r ] * grad[ c ];
+	}
+
+	private static double value( final RealRandomAccessible< ? extends RealType< ? > > lambda, final double[] x )
+	{
+		final RealRandomAccess< ? extends RealType< ? > > access = lambda.realRandomAccess();
+		for ( int d = 0; d < access.numDimensions(); d++ )
+			access.setPosition( d < x.length ? x[ d ] : 0, d );
+
+		return access.get().getRealDouble();
+	}
+
+	private void gradient( final RealRandomAccessible< ? extends RealType< ? > > lambda, final double[] x, final double[] grad )
+	{
+		if ( lambda instanceof BoundedMask )
+		{
+			( ( BoundedMask ) lambda ).gradient( x, grad );
+			return;
+		}
+
+		final RealRandomAccess< ? extends RealType< ? > > access = lambda.realRandomAccess();
+		for ( int d = 0; d < access.numDimensions(); d++ )
+			access.setPosition( d < x.length ? x[ d ] : 0, d );
+
+		for ( int c = 0; c < grad.length; c++ )
+		{
+			if ( c >= access.numDimensions() )
+			{
+				grad[ c ] = 0;
+				continue;
+			}
+			access.move( step, c );
+			final double p = access.get().getRealDouble();
+			access.move( -2 * step, c );
+			final double m = access.get().getRealDouble();
+			access.move( step, c );
+			grad[ c ] = ( p - m ) / ( 2 * step );
+		}
+	}
+
+	private void finiteDifferences( final RealTransform t, final double[] x, final double[][] jac )
+	{
+		final int n = x.length;
+		final double[] xs = x.clone();
+		final double[] yp = new double[ t.numTargetDimensions() ];
+		final double[] ym = new double[ t.numTargetDimensions() ];
+		for ( int c = 0; c < n; c++ )
+		{
+			xs[ c ] = x[ c ] + step;
+			t.apply( xs, yp );
+			xs[ c ] = x[ c ] - step;
+			t.apply( xs, ym );
+			xs[ c ] = x[ c ];
+			for ( int r = 0; r < n; r++ )
+				jac[ r ][ c ] = ( yp[ r ] - ym[ r ] ) / ( 2 * step );
+		}
+	}
+
+	private static void identity( final double[][] m, final int n )
+	{
+		for ( int r = 0; r < n; r++ )
+			for ( int c = 0; c < n; c++ )
+				m[ r ][ c ] = r == c ? 1 : 0;
+	}
+
+	private static void multiply( final double[][] a, final double[][] b, final double[][] out, final int n )
+	{
+		for ( int r = 0; r < n; r++ )
+			for ( int c = 0; c < n; c++ )
+			{
+				double sum = 0;
+				for ( int k = 0; k < n; k++ )
+					sum += a[ r ][ k ] * b[ k ][ c ];
+				out[ r ][ c ] = sum;
+			}
+	}
+}
@@ -0,0 +1,273 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
+
+/**
+ * Transforms points given as one array of coordinates per dimension with any
+ * {@link RealTransform}.
+ * <p>
+ * {@link BatchRealTransform}s transform the points themselves. Thin plate
+ * splines and affines are evaluated in blocks of points with the loop over
+ * points innermost, sequences apply every transform to a block of points
+ * before the next one, and wrappers are unwrapped once per batch. Other
+ * transforms are applied point by point.
+ * <p>
+ * Like {@link RealTransform#apply(double[], double[])}, this uses the state of
+ * the transform, so a transform must not be used by several threads at once.
+ */
+public class RealTransformBatch
+{
+	/**
+	 * The number of points that are transformed together, small enough that
+	 * the temporary arrays of a block stay in the first level cache.
+	 */
+	public static final int BLOCK_SIZE = 256;
+
+	private RealTransformBatch()
+	{}
+
+	/**
+	 * Transforms the points with indexes from start (inclusive) to end
+	 * (exclusive). The target may be the same arrays as the source.
+	 *
+	 * @param transform the transform
+	 * @param source the source coordinates, source[ d ][ i ] is coordinate d
+	 *            of point i
+	 * @param target receives the target coordinates
+	 * @param start the first point
+	 * @param end one after the last point
+	 */
+	public static void apply( final RealTransform transform, final double[][] source, final double[][] target, final int start, final int end )
+	{
+		if ( end <= start )
+			return;
+
+		if ( transform instanceof BatchRealTransform )
+			( ( BatchRealTransform ) transform ).apply( source, target, start, end );
+		else if ( transform instanceof AffineGet )
+			affine( ( AffineGet ) transform, source, target, start, end );
+		else if ( transform instanceof ThinplateSplineTransform && !( transform instanceof ApproximateThinplateSplineTransform ) )
+			thinPlateSpline( ( ( ThinplateSplineTransform ) transform ).getKernelTransform(), source, target, start, end );
+		else if ( transform instanceof WrappedIterativeInvertibleRealTransform )
+			apply( ( ( WrappedIterativeInvertibleRealTransform< ? > ) transform ).getTransform(), source, target, start, end );
+		else if ( transform instanceof Wrapped2DTransformAs3D )
+			wrapped2D( ( ( Wrapped2DTransformAs3D ) transform ).getTransform(), source, target, start, end );
+		else if ( transform instanceof AbstractRealTransformSequence )
+			sequence( ( AbstractRealTransformSequence< ? > ) transform, source, target, start, end );
+		else
+			pointwise( transform, source, target, start, end );
+	}
+
+	/**
+	 * Transforms all points in place.
+	 *
+	 * @param transform the transform
+	 * @param points the coordinates, points[ d ][ i ] is coordinate d of
+	 *            point i
+	 */
+	public static void apply( final RealTransform transform, final double[][] points )
+	{
+		apply( transform, points, points, 0, points[ 0 ].length );
+	}
+
+	/**
+	 * Transforms the points one by one with
+	 * {@link RealTransform#apply(double[], double[])}.
+	 *
+	 * @param transform the transform
+	 * @param source the source coordinates
+	 * @param target receives the target coordinates
+	 * @param start the first point
+	 * @param end one after the last point
+	 */
+	public static void pointwise( final RealTransform transform, final double[][] source, final double[][] target, final int start, final int end )
+	{
+		final int ns = transform.numSourceDimensions();
+		final int nt = transform.numTargetDimensions();
+		final double[] x = new double[ ns ];
+		final double[] y = new double[ nt ];
+		for ( int i = start; i < end; i++ )
+		{
+			for ( int d = 0; d < ns; d++ )
+				x[ d ] = source[ d ][ i ];
+
+			transform.apply( x, y );
+			for ( int d = 0; d < nt; d++ )
+				target[ d ][ i ] = y[ d ];
+		}
+	}
+
+	private static void affine( final AffineGet affine, final double[][] source, final double[][] target, final int start, final int end )
+	{
+		final int ns = affine.numSourceDimensions();
+		final int nt = affine.numTargetDimensions();
+		final double[][] m = new double[ nt ][ ns + 1 ];
+		for ( int r = 0; r < nt; r++ )
+			for ( int c = 0; c <= ns; c++ )
+				m[ r ][ c ] = affine.get( r, c );
+
+		final double[][] out = new double[ nt ][ BLOCK_SIZE ];
+		for ( int o = start; o < end; o += BLOCK_SIZE )
+		{
+			final int n = Math.min( BLOCK_SIZE, end - o );
+			for ( int r = 0; r < nt; r++ )
+			{
+				final double[] mr = m[ r ];
+				final double[] outr = out[ r ];
+				final double t = mr[ ns ];
+				for ( int i = 0; i < n; i++ )
+					outr[ i ] = t;
+
+				for ( int c = 0; c < ns; c++ )
+				{
+					final double mrc = mr[ c ];
+					final double[] xc = source[ c ];
+					for ( int i = 0; i < n; i++ )
+						outr[ i ] += mrc * xc[ o + i ];
+				}
+			}
+
+			// all rows are computed before writing, the target may be the source
+			for ( int r = 0; r < nt; r++ )
+				System.arraycopy( out[ r ], 0, target[ r ], o, n );
+		}
+	}
+
+	/**
+	 * Evaluates y = x + A x + t + sum_j w_j U( |x - c_j| ) with U( r ) = r^2
+	 * log( r ), the same as
+	 * {@link ThinPlateR2LogRSplineKernelTransform#apply(double[], double[])}.
+	 * For every block of points the loop over landmarks is outermost, so the
+	 * coordinates and weights of a landmark are read once per block.
+	 *
+	 * @param tps the thin plate spline
+	 * @param source the source coordinates
+	 * @param target receives the target coordinates
+	 * @param start the first point
+	 * @param end one after the last point
+	 */
+	public static void thinPlateSpline( final ThinPlateR2LogRSplineKernelTransform tps, final double[][] source, final double[][] target, final int start, final int end )
+	{
+		final int nd = tps.getNumDims();
+		final double[][] centers = tps.getSourceLandmarks();
+		final double[][] weights = tps.getKnotWeights();
+		final double[][] affine = tps.getAffine();
+		final double[] translation = tps.getTranslation();
+		final int numLandmarks = weights == null ? 0 : centers[ 0 ].length;
+
+		final double[][] out = new double[ nd ][ BLOCK_SIZE ];
+		final double[] r2 = new double[ BLOCK_SIZE ];
+		for ( int o = start; o < end; o += BLOCK_SIZE )
+		{
+			final int n = Math.min( BLOCK_SIZE, end - o );
+			for ( int d = 0; d < nd; d++ )
+			{
+				final double[] outd = out[ d ];
+				final double t = translation == null ? 0 : translation[ d ];
+				for ( int i = 0; i < n; i++ )
+					outd[ i ] = t;
+			}
+
+			for ( int j = 0; j < numLandmarks; j++ )
+			{
+				for ( int i = 0; i < n; i++ )
+					r2[ i ] = 0;
+
+				for ( int k = 0; k < nd; k++ )
+				{
+					final double c = centers[ k ][ j ];
+					final double[] xk = source[ k ];
+					for ( int i = 0; i < n; i++ )
+					{
+						final double dk = xk[ o + i ] - c;
+						r2[ i ] += dk * dk;
+					}
+				}
+
+				// r^2 log( r ), zero at the landmark
+				for ( int i = 0; i < n; i++ )
+					r2[ i ] = r2[ i ] > 0 ? 0.5 * r2[ i ] * Math.log( r2[ i ] ) : 0;
+
+				for ( int d = 0; d < nd; d++ )
+				{
+					final double w = weights[ d ][ j ];
+					final double[] outd = out[ d ];
+					for ( int i = 0; i < n; i++ )
+						outd[ i ] += w * r2[ i ];
+				}
+			}
+
+			for ( int d = 0; d < nd; d++ )
+			{
+				final double[] outd = out[ d ];
+				for ( int k = 0; k < nd; k++ )
+				{
+					final double a = ( affine == null ? 0 : affine[ d ][ k ] ) + ( d == k ? 1 : 0 );
+					if ( a == 0 )
+						continue;
+
+					final double[] xk = source[ k ];
+					for ( int i = 0; i < n; i++ )
+						outd[ i ] += a * xk[ o + i ];
+				}
+			}
+
+			for ( int d = 0; d < nd; d++ )
+				System.arraycopy( out[ d ], 0, target[ d ], o, n );
+		}
+	}
+
+	/**
+	 * Applies a 2d transform to the first two coordinates and keeps the
+	 * third.
+	 */
+	private static void wrapped2D( final RealTransform transform, final double[][] source, final double[][] target, final int start, final int end )
+	{
+		apply( transform, new double[][] { source[ 0 ], source[ 1 ] }, new double[][] { target[ 0 ], target[ 1 ] }, start, end );
+		if ( source[ 2 ] != target[ 2 ] )
+			System.arraycopy( source[ 2 ], start, target[ 2 ], start, end - start );
+	}
+
+	private static void sequence( final AbstractRealTransformSequence< ? > sequence, final double[][] source, final double[][] target, final int start, final int end )
+	{
+		final int k = sequence.transforms.size();
+		if ( k == 0 )
+		{
+			for ( int d = 0; d < sequence.numTargetDimensions(); d++ )
+				if ( source[ d ] != target[ d ] )
+					System.arraycopy( source[ d ], start, target[ d ], start, end - start );
+			return;
+		}
+
+		// the intermediate points of a block stay in the cache
+		for ( int o = start; o < end; o += BLOCK_SIZE )
+		{
+			final int e = Math.min( end, o + BLOCK_SIZE );
+			apply( sequence.transforms.get( 0 ), source, target, o, e );
+			for ( int i = 1; i < k; i++ )
+				apply( sequence.transforms.get( i ), target, target, o, e );
+		}
+	}
+}
@@ -33,17 +33,24 @@ import net.imglib2.type.numeric.RealType;
  * <p>
  * Given a {@link RealRandomAccessible} "lambda", and two transformations "a", and "b", implements the transformation
  * lambda * a(x) + (1-lambda) * b(x) for a point x.
+ * <p>
+ * If lambda is a {@link BoundedMask}, only "a" is evaluated where lambda is one,
+ * and only "b" where it is zero. Batches of points evaluate "a" and "b" with
+ * {@link RealTransformBatch}, and skip either if it contributes to no point
+ * of a block.
  *
  * @author John Bogovic
  *
  * @param <T> lambda's type
  */
-public class SpatiallyInterpolatedRealTransform<T extends RealType<T>> implements RealTransform {
+public class SpatiallyInterpolatedRealTransform<T extends RealType<T>> implements BatchRealTransform {
 
 	private RealRandomAccessible<T> lambda;
 
 	private RealRandomAccess<T> lambdaAccess;
 
+	private final BoundedMask bounds;
+
 	private final RealTransform a;
 
 	private final RealTransform b;
@@ -67,6 +74,8 @@ public class SpatiallyInterpolatedRealTransform<T extends RealType<T>> implement
 		if( lambda != null )
 			lambdaAccess = lambda.realRandomAccess();
 
+		bounds = lambda instanceof BoundedMask ? (BoundedMask)lambda : null;
+
 		final int nd = a.numTargetDimensions();
 		arrA = new double[nd];
 		arrB = new double[nd];
@@ -74,6 +83,21 @@ public class SpatiallyInterpolatedRealTransform<T extends RealType<T>> implement
 		pb = RealPoint.wrap(arrB);
 	}
 
+	public RealTransform getA() {
+
+		return a;
+	}
+
+	public RealTransform getB() {
+
+		return b;
+	}
+
+	public RealRandomAccessible<T> getLambda() {
+
+		return lambda;
+	}
+
 	@Override
 	public int numSourceDimensions() {
 
@@ -89,6 +113,20 @@ public class SpatiallyInterpolatedRealTransform<T extends RealType<T>> implement
 	@Override
 	public void apply(double[] source, double[] target) {
 
+		if (bounds != null) {
+			// source and target may be the same array, so go through arrA
+			final double c = bounds.constantValue(source);
+			if (c == 1) {
+				a.apply(source, arrA);
+				System.arraycopy(arrA, 0, target, 0, arrA.length);
+				return;
+			} else if (c == 0) {
+				b.apply(source, arrA);
+				System.arraycopy(arrA, 0, target, 0, arrA.length);
+				return;
+			}
+		}
+
 		a.apply(source, arrA);
 		b.apply(source, arrB);
 
@@ -106,6 +144,19 @@ public class SpatiallyInterpolatedRealTransform<T extends RealType<T>> implement
 	@Override
 	public void apply(RealLocalizable source, RealPositionable target) {
 
+		if (bounds != null) {
+			final double c = bounds.constantValue(source);
+			if (c == 1) {
+				a.apply(source, pa);
+				target.setPosition(pa);
+				return;
+			} else if (c == 0) {
+				b.apply(source, pa);
+				target.setPosition(pa);
+				return;
+			}
+		}
+
 		a.apply(source, pa);
 		b.apply(source, pb);
 
@@ -117,6 +168,61 @@ public class SpatiallyInterpolatedRealTransform<T extends RealType<T>> implement
 			target.setPosition(am * pa.getDoublePosition(i) + bm * pb.getDoublePosition(i), i);
 	}
 
+	@Override
+	public void apply(double[][] source, double[][] target, int start, int end) {
+
+		final int ns = numSourceDimensions();
+		final int nt = numTargetDimensions();
+		final int size = RealTransformBatch.BLOCK_SIZE;
+		final double[] x = new double[ns];
+		final double[] lam = new double[size];
+		final double[][] src = new double[ns][size];
+		final double[][] ta = new double[nt][size];
+		final double[][] tb = new double[nt][size];
+
+		for (int o = start; o < end; o += size) {
+
+			final int n = Math.min(size, end - o);
+			for (int d = 0; d < ns; d++)
+				System.arraycopy(source[d], o, src[d], 0, n);
+
+			boolean needA = false;
+			boolean needB = false;
+			for (int i = 0; i < n; i++) {
+
+				for (int d = 0; d < ns; d++)
+					x[d] = src[d][i];
+
+				double l = bounds != null ? bounds.constantValue(x) : Double.NaN;
+				if (Double.isNaN(l)) {
+					for (int d = 0; d < ns; d++)
+						lambdaAccess.setPosition(x[d], d);
+
+					l = lambdaAccess.get().getRealDouble();
+				}
+				lam[i] = l;
+				needA |= l != 0;
+				needB |= l != 1;
+			}
+
+			if (needA)
+				RealTransformBatch.apply(a, src, ta, 0, n);
+
+			if (needB)
+				RealTransformBatch.apply(b, src, tb, 0, n);
+
+			for (int d = 0; d < nt; d++) {
+				final double[] ad = ta[d];
+				final double[] bd = tb[d];
+				final double[] td = target[d];
+				for (int i = 0; i < n; i++) {
+					final double l = lam[i];
+					td[o + i] = l == 1 ? ad[i] : l == 0 ? bd[i] : l * ad[i] + (1 - l) * bd[i];
+				}
+			}
+		}
+	}
+
 	@Override
 	public RealTransform copy() {
 
@@ -0,0 +1,250 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.inverse.AbstractDifferentiableRealTransform;
+
+/**
+ * An affine plus a sum of compactly supported radial basis functions,
+ *
+ * <pre>
+ * y = A x + t + sum_i w_i phi( |x - c_i| / R )
+ * </pre>
+ *
+ * with the Wendland C2 function phi( r ) = ( 1 - r )^4 ( 4r + 1 ) for r &lt; 1
+ * and zero elsewhere, which is positive definite in up to three dimensions.
+ * <p>
+ * Each basis function is nonzero only within the support radius R of its
+ * centre, so evaluation visits only the centres in the cells of a
+ * {@link CompactSupportGrid} around the location, and the cost does not
+ * grow with the number of centres as long as their density does not. Far
+ * from every centre, the transform is the affine.
+ * <p>
+ * The parameters are immutable and shared by copies, only the work space
+ * is not, so copies are cheap. Use a {@link #copy()} per thread.
+ */
+public class WendlandRbfTransform extends AbstractDifferentiableRealTransform
+{
+	private final int nd;
+
+	private final double radius;
+
+	private final double[][] centers;
+
+	private final double[][] weights;
+
+	private final double[][] affine;
+
+	private final CompactSupportGrid grid;
+
+	private final int[] from;
+
+	private final int[] to;
+
+	private final double[] tmp;
+
+	private final double[] pos;
+
+	/**
+	 * @param centers the centres, ndims x n
+	 * @param weights the weights, ndims x n
+	 * @param affine the affine, ndims x ( ndims + 1 ), the last column is the
+	 *            translation
+	 * @param radius the support radius
+	 */
+	public WendlandRbfTransform( final double[][] centers, final double[][] weights, final double[][] affine, final double radius )
+	{
+		this( centers, weights, affine, radius, new CompactSupportGrid( centers, radius ) );
+	}
+
+	private WendlandRbfTransform( final double[][] centers, final double[][] weights, final double[][] affine, final double radius, final CompactSupportGrid grid )
+	{
+		this.centers = centers;
+		this.weights = weights;
+		this.affine = affine;
+		this.radius = radius;
+		this.grid = grid;
+		nd = centers.length;
+		from = new int[ grid.maxNeighborRanges() ];
+		to = new int[ grid.maxNeighborRanges() ];
+		tmp = new double[ nd ];
+		pos = new double[ nd ];
+	}
+
+	/**
+	 * The Wendland C2 function.
+	 *
+	 * @param r the distance relative to the support radius
+	 * @return the value
+	 */
+	public static double phi( final double r )
+	{
+		if ( r >= 1 )
+			return 0;
+
+		final double s = 1 - r;
+		final double s2 = s * s;
+		return s2 * s2 * ( 4 * r + 1 );
+	}
+
+	public double getRadius()
+	{
+		return radius;
+	}
+
+	public int numCenters()
+	{
+		return nd > 0 ? centers[ 0 ].length : 0;
+	}
+
+	/**
+	 * @return the centres, must not be modified
+	 */
+	public double[][] getCenters()
+	{
+		return centers;
+	}
+
+	/**
+	 * @return the weights, must not be modified
+	 */
+	public double[][] getWeights()
+	{
+		return weights;
+	}
+
+	/**
+	 * @return the affine in homogeneous coordinates, ndims x ( ndims + 1 ),
+	 *         must not be modified
+	 */
+	public double[][] getAffine()
+	{
+		return affine;
+	}
+
+	@Override
+	public int numSourceDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public int numTargetDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public void apply( final double[] source, final double[] target )
+	{
+		// source and target may be the same array
+		for ( int d = 0; d < nd; d++ )
+		{
+			double y = affine[ d ][ nd ];
+			for ( int c = 0; c < nd; c++ )
+				y += affine[ d ][ c ] * source[ c ];
+			tmp[ d ] = y;
+		}
+
+		final double r2max = radius * radius;
+		final int numRanges = grid.neighborRanges( source, from, to );
+		for ( int r = 0; r < numRanges; r++ )
+			for ( int j = from[ r ]; j < to[ r ]; j++ )
+			{
+				final int i = grid.index( j );
+				double r2 = 0;
+				for ( int d = 0; d < nd; d++ )
+				{
+					final double v = source[ d ] - centers[ d ][ i ];
+					r2 += v * v;
+				}
+				if ( r2 >= r2max )
+					continue;
+
+				final double p = phi( Math.sqrt( r2 ) / radius );
+				for ( int d = 0; d < nd; d++ )
+					tmp[ d ] += p * weights[ d ][ i ];
+			}
+
+		System.arraycopy( tmp, 0, target, 0, nd );
+	}
+
+	@Override
+	public void apply( final RealLocalizable source, final RealPositionable target )
+	{
+		source.localize( pos );
+		apply( pos, pos );
+		target.setPosition( pos );
+	}
+
+	/**
+	 * The jacobian, using d phi( |x - c| / R ) / dx = -20 ( 1 - r )^3 ( x - c ) / R^2.
+	 */
+	@Override
+	public AffineTransform jacobian( final double[] x )
+	{
+		final double[][] jac = new double[ nd ][ nd ];
+		for ( int d = 0; d < nd; d++ )
+			for ( int c = 0; c < nd; c++ )
+				jac[ d ][ c ] = affine[ d ][ c ];
+
+		final double r2max = radius * radius;
+		final int numRanges = grid.neighborRanges( x, from, to );
+		for ( int r = 0; r < numRanges; r++ )
+			for ( int j = from[ r ]; j < to[ r ]; j++ )
+			{
+				final int i = grid.index( j );
+				double r2 = 0;
+				for ( int d = 0; d < nd; d++ )
+				{
+					final double v = x[ d ] - centers[ d ][ i ];
+					r2 += v * v;
+				}
+				if ( r2 >= r2max )
+					continue;
+
+				final double s = 1 - Math.sqrt( r2 ) / radius;
+				final double g = -20 * s * s * s / r2max;
+				for ( int c = 0; c < nd; c++ )
+				{
+					final double dc = g * ( x[ c ] - centers[ c ][ i ] );
+					for ( int d = 0; d < nd; d++ )
+						jac[ d ][ c ] += weights[ d ][ i ] * dc;
+				}
+			}
+
+		final AffineTransform out = new AffineTransform( nd );
+		for ( int d = 0; d < nd; d++ )
+			for ( int c = 0; c < nd; c++ )
+				out.set( jac[ d ][ c ], d, c );
+
+		return out;
+	}
+
+	@Override
+	public WendlandRbfTransform copy()
+	{
+		return new WendlandRbfTransform( centers, weights, affine, radius, grid );
+	}
+}
@@ -0,0 +1,188 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bdv.img;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.RealTransform;
+
+public class DisplacementFieldProxyTest
+{
+	private static final double SPACING = 4;
+
+	@Test
+	public void testInterpolation()
+	{
+		final DisplacementFieldProxy proxy = new DisplacementFieldProxy( SPACING, false );
+		assertNull( proxy.getTransform() );
+
+		final Bump xfm = new Bump( 5, 0 );
+		proxy.update( xfm, null );
+		assertTrue( "error", maxError( xfm, proxy.getTransform() ) < 0.05 );
+
+		// grid points are exact
+		final double[] p = new double[] { 10 * SPACING, -3 * SPACING, 25 * SPACING };
+		final double[] q = new double[ 3 ];
+		final double[] qProxy = new double[ 3 ];
+		xfm.apply( p, q );
+		proxy.getTransform().apply( p, qProxy );
+		for ( int d = 0; d < 3; d++ )
+			assertEquals( q[ d ], qProxy[ d ], 1e-4 );
+
+		// cached blocks are not recomputed
+		final RealTransform proxyXfm = proxy.getTransform();
+		xfm.count = 0;
+		maxError( xfm, proxyXfm );
+		assertEquals( "evaluations", NUM_SAMPLES, xfm.count );
+	}
+
+	@Test
+	public void testLocalUpdate()
+	{
+		final DisplacementFieldProxy proxy = new DisplacementFieldProxy( SPACING, false );
+		final Bump xfm = new Bump( 5, 0 );
+		proxy.update( xfm, null );
+		maxError( xfm, proxy.getTransform() );
+
+		// the bump changes, only blocks near it are recomputed
+		final Bump bigger = new Bump( 6, 0 );
+		proxy.update( bigger, new FinalRealInterval( new double[] { 60, 60, 60 }, new double[] { 140, 140, 140 } ) );
+		final RealTransform proxyXfm = proxy.getTransform();
+		assertTrue( "local error", maxError( bigger, proxyXfm ) < 0.3 );
+		assertTrue( "local evaluations", bigger.count < 2 * NUM_SAMPLES + 200 * 729 );
+
+		// a change outside of the changed region is detected
+		final Bump shifted = new Bump( 6, 1 );
+		proxy.update( shifted, new FinalRealInterval( new double[] { 60, 60, 60 }, new double[] { 140, 140, 140 } ) );
+		assertTrue( "shifted error", maxError( shifted, proxy.getTransform() ) < 0.05 );
+	}
+
+	@Test
+	public void testPlanar()
+	{
+		final DisplacementFieldProxy proxy = new DisplacementFieldProxy( SPACING, true );
+		final Bump xfm = new Bump( 5, 0 );
+		proxy.update( xfm, null );
+
+		final double[] p = new double[] { 33.3, 71.2, 0 };
+		final double[] q = new double[ 3 ];
+		final double[] qProxy = new double[ 3 ];
+		xfm.apply( p, q );
+		proxy.getTransform().apply( p, qProxy );
+		for ( int d = 0; d < 3; d++ )
+			assertEquals( q[ d ], qProxy[ d ], 0.01 );
+	}
+
+	private static final int NUM_SAMPLES = 20000;
+
+	private static double maxError( final RealTransform exact, final RealTransform proxy )
+	{
+		final Random rand = new Random( 1 );
+		final double[] p = new double[ 3 ];
+		final double[] q = new double[ 3 ];
+		final double[] qProxy = new double[ 3 ];
+		double err = 0;
+		for ( int i = 0; i < NUM_SAMPLES; i++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+				p[ d ] = 300 * rand.nextDouble() - 50;
+
+			exact.apply( p, q );
+			proxy.apply( p, qProxy );
+			for ( int d = 0; d < 3; d++ )
+				err = Math.max( err, Math.abs( q[ d ] - qProxy[ d ] ) );
+		}
+		return err;
+	}
+
+	/**
+	 * A smooth transform with a gaussian bump at (100,100,100) that counts its
+	 * evaluations.
+	 */
+	private static class Bump implements RealTransform
+	{
+		final double amplitude;
+
+		final double shift;
+
+		int count = 0;
+
+		Bump( final double amplitude, final double shift )
+		{
+			this.amplitude = amplitude;
+			this.shift = shift;
+		}
+
+		@Override
+		public int numSourceDimensions()
+		{
+			return 3;
+		}
+
+		@Override
+		public int numTargetDimensions()
+		{
+			return 3;
+		}
+
+		@Override
+		public synchronized void apply( final double[] source, final double[] target )
+		{
+			count++;
+			double r2 = 0;
+			for ( int d = 0; d < 3; d++ )
+				r2 += ( source[ d ] - 100 ) * ( source[ d ] - 100 );
+
+			final double g = amplitude * Math.exp( -r2 / ( 2 * 30 * 30 ) );
+			final double x = source[ 0 ];
+			final double y = source[ 1 ];
+			target[ 0 ] = x + g + 2 * Math.sin( y / 100 ) + shift;
+			target[ 1 ] = y + 0.5 * g;
+			target[ 2 ] = source[ 2 ];
+		}
+
+		@Override
+		public void apply( final RealLocalizable source, final RealPositionable target )
+		{
+			final double[] p = new double[ 3 ];
+			source.localize( p );
+			apply( p, p );
+			target.setPosition( p );
+		}
+
+		@Override
+		public RealTransform copy()
+		{
+			// shared, such that all evaluations are counted
+			return this;
+		}
+	}
+}
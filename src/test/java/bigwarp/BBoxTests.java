@@ -32,6 +32,7 @@ import net.imglib2.RealInterval;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.BoundingBoxEstimation;
 import net.imglib2.realtransform.Scale3D;
+import net.imglib2.realtransform.ThinplateSplineTransform;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.util.ConstantUtils;
 import net.imglib2.util.Intervals;
@@ -69,6 +70,22 @@ public class BBoxTests {
 		assertEquals( "max z ", itvl.max(2) * 4, bbox.max(2) );
 	}
 
+	@Test
+	public void testParallel()
+	{
+		final double[][] src = new double[][] { { 0, 40, 0, 40, 20 }, { 0, 0, 30, 30, 15 }, { 0, 20, 20, 0, 10 } };
+		final double[][] tgt = new double[][] { { 1, 42, -2, 40, 25 }, { 0, 3, 31, 30, 12 }, { -1, 20, 24, 0, 10 } };
+		final ThinplateSplineTransform xfm = new ThinplateSplineTransform( src, tgt );
+
+		for ( final BoundingBoxEstimation.Method method : new BoundingBoxEstimation.Method[] {
+				BoundingBoxEstimation.Method.FACES, BoundingBoxEstimation.Method.VOLUME } )
+		{
+			final Interval serial = new BoundingBoxEstimation( method, 7, 1 ).estimatePixelInterval( xfm, itvl );
+			final Interval parallel = new BoundingBoxEstimation( method, 7, 4 ).estimatePixelInterval( xfm, itvl );
+			assertTrue( method + " parallel", Intervals.equals( serial, parallel ) );
+		}
+	}
+
 	@SuppressWarnings({"rawtypes", "unchecked"})
 	@Test
 	public void testPhysicalBoundingBoxEstimation() {
@@ -0,0 +1,155 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bigwarp.BigWarpBatchRunner.Job;
+import bigwarp.BigWarpBatchRunner.SolvedTransform;
+
+public class BigWarpBatchRunnerTest
+{
+	private Path tmp;
+
+	@Before
+	public void before() throws IOException
+	{
+		tmp = Files.createTempDirectory( "bw-batch-runner-test-" );
+	}
+
+	@After
+	public void after() throws IOException
+	{
+		FileUtils.deleteDirectory( tmp.toFile() );
+	}
+
+	@Test
+	public void testManifestDefaultsAndRelativePaths() throws IOException
+	{
+		final Path manifest = tmp.resolve( "jobs.csv" );
+		Files.write( manifest, Arrays.asList(
+				"Input,output,landmarks,type,extra",
+				"a.tif,out/a.tif,,,ignored",
+				"",
+				"/data/b.tif,out/b.tif,other.csv,Affine," ), StandardCharsets.UTF_8 );
+
+		final List< Job > jobs = BigWarpBatchRunner.readManifest( manifest, "/lm/shared.csv", "Thin Plate Spline", null );
+		assertEquals( 2, jobs.size() );
+
+		final Job a = jobs.get( 0 );
+		assertEquals( 0, a.index );
+		assertEquals( tmp.resolve( "a.tif" ).toString(), a.input );
+		assertEquals( tmp.resolve( "out/a.tif" ).toString(), a.output );
+		assertEquals( "/lm/shared.csv", a.landmarks );
+		assertEquals( "Thin Plate Spline", a.type );
+		assertNull( a.target );
+
+		final Job b = jobs.get( 1 );
+		assertEquals( 1, b.index );
+		assertEquals( "/data/b.tif", b.input );
+		assertEquals( tmp.resolve( "other.csv" ).toString(), b.landmarks );
+		assertEquals( "Affine", b.type );
+	}
+
+	@Test( expected = IOException.class )
+	public void testManifestWithoutLandmarks() throws IOException
+	{
+		final Path manifest = tmp.resolve( "jobs.csv" );
+		Files.write( manifest, Arrays.asList( "input,output", "a.tif,b.tif" ), StandardCharsets.UTF_8 );
+		BigWarpBatchRunner.readManifest( manifest, null, "Affine", null );
+	}
+
+	@Test( expected = IOException.class )
+	public void testManifestWithoutOutputColumn() throws IOException
+	{
+		final Path manifest = tmp.resolve( "jobs.csv" );
+		Files.write( manifest, Arrays.asList( "input,landmarks", "a.tif,lm.csv" ), StandardCharsets.UTF_8 );
+		BigWarpBatchRunner.readManifest( manifest, null, "Affine", null );
+	}
+
+	@Test
+	public void testIndexedPath()
+	{
+		assertEquals( "out/a_2.tif", BigWarpBatchRunner.indexedPath( "out/a.tif", 2 ) );
+		assertEquals( "out.d/a_0", BigWarpBatchRunner.indexedPath( "out.d/a", 0 ) );
+	}
+
+	@Test
+	public void testTransformsSolvedOnce() throws Exception
+	{
+		final AtomicInteger numSolves = new AtomicInteger();
+		final BigWarpBatchRunner runner = new BigWarpBatchRunner()
+		{
+			@Override
+			protected SolvedTransform solve( final String landmarks, final String type, final int nd, final int id )
+			{
+				numSolves.incrementAndGet();
+				try
+				{
+					Thread.sleep( 50 );
+				}
+				catch ( final InterruptedException e )
+				{}
+				return new SolvedTransform( id, null, null );
+			}
+		};
+
+		final ExecutorService exec = Executors.newFixedThreadPool( 8 );
+		final List< Future< SolvedTransform > > futures = new ArrayList<>();
+		for ( int i = 0; i < 32; i++ )
+		{
+			final String landmarks = i % 2 == 0 ? "a.csv" : "b.csv";
+			futures.add( exec.submit( () -> runner.getTransform( landmarks, "Thin Plate Spline", 3 ) ) );
+		}
+		futures.add( exec.submit( () -> runner.getTransform( "a.csv", "Affine", 3 ) ) );
+		futures.add( exec.submit( () -> runner.getTransform( "a.csv", "Thin Plate Spline", 2 ) ) );
+
+		final List< SolvedTransform > solved = new ArrayList<>();
+		for ( final Future< SolvedTransform > f : futures )
+			solved.add( f.get() );
+		exec.shutdown();
+
+		assertEquals( 4, numSolves.get() );
+		assertEquals( 4, runner.numTransforms() );
+		for ( int i = 2; i < 32; i++ )
+			assertSame( solved.get( i % 2 ), solved.get( i ) );
+	}
+}
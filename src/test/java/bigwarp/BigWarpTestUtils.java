@@ -31,6 +31,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Random;
 import java.util.stream.DoubleStream;
 import java.util.stream.Stream;
 
@@ -530,6 +531,49 @@ public class BigWarpTestUtils{
 		return landmarks(new IntervalIterator(min, max), new Scale(ones));
 	}
 
+	/**
+	 * Random corresponding points. For every point and dimension, the first
+	 * point is uniform in [0, size) and the second is the first shifted by
+	 * offset plus gaussian noise with standard deviation noise.
+	 *
+	 * @return the first and second points, each nd x n
+	 */
+	public static double[][][] randomPoints(final Random rand, final int nd, final int n, final double size,
+			final double offset, final double noise) {
+
+		final double[][] a = new double[nd][n];
+		final double[][] b = new double[nd][n];
+		for (int i = 0; i < n; i++)
+			for (int d = 0; d < nd; d++) {
+				a[d][i] = size * rand.nextDouble();
+				b[d][i] = a[d][i] + offset + noise * rand.nextGaussian();
+			}
+
+		return new double[][][]{a, b};
+	}
+
+	/**
+	 * Random landmarks with target points in [0, 100) and moving points
+	 * shifted by 5 plus gaussian noise, see
+	 * {@link #randomPoints(Random, int, int, double, double, double)}.
+	 */
+	public static LandmarkTableModel randomLandmarks(final int nd, final int n, final double noise, final long seed) {
+
+		final double[][][] pts = randomPoints(new Random(seed), nd, n, 100, 5, noise);
+		final LandmarkTableModel ltm = new LandmarkTableModel(nd);
+		for (int i = 0; i < n; i++) {
+			final double[] tgt = new double[nd];
+			final double[] mvg = new double[nd];
+			for (int d = 0; d < nd; d++) {
+				tgt[d] = pts[0][d][i];
+				mvg[d] = pts[1][d][i];
+			}
+			ltm.add(mvg, tgt);
+		}
+
+		return ltm;
+	}
+
 	public static LandmarkTableModel landmarks(final IntervalIterator it, RealTransform tform) {
 
 		final int nd = it.numDimensions();
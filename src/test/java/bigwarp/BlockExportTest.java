@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import bdv.export.ProgressWriterConsole;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.IntArray;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class BlockExportTest
+{
+	@Test
+	public void testBlocks()
+	{
+		final FinalInterval itvl = Intervals.createMinMax( -3, 0, 0, 2, 100, 70, 0, 20 );
+		final List< Interval > blocks = BigWarpExporter.getBlocks( itvl, new int[] { 64, 64, 1, 8 } );
+		assertEquals( "number of blocks", 2 * 2 * 1 * 3, blocks.size() );
+
+		long n = 0;
+		for ( final Interval b : blocks )
+			n += Intervals.numElements( b );
+
+		assertEquals( "blocks cover the interval", Intervals.numElements( itvl ), n );
+		assertEquals( "last block x", 100, blocks.get( blocks.size() - 1 ).max( 0 ) );
+		assertEquals( "last block z", 20, blocks.get( blocks.size() - 1 ).max( 3 ) );
+	}
+
+	@Test
+	public void testBlockOrderEqualsIterOrder()
+	{
+		// source ordered x,y,z,c
+		final ArrayImg< IntType, IntArray > src = ArrayImgs.ints( 37, 29, 11, 2 );
+		final Cursor< IntType > c = src.cursor();
+		int i = 0;
+		while ( c.hasNext() )
+			c.next().set( i++ );
+
+		// targets ordered x,y,c,z
+		final RandomAccessibleInterval< IntType > iter = ArrayImgs.ints( 37, 29, 2, 11 );
+		final RandomAccessibleInterval< IntType > block = ArrayImgs.ints( 37, 29, 2, 11 );
+		BigWarpExporter.copyToImageStackIterOrder( src, iter, iter, 3, new ProgressWriterConsole() );
+		BigWarpExporter.copyToImageStackByBlock( src, block, block, new int[] { 8, 8, 1, 4 }, 3, new ProgressWriterConsole() );
+
+		final RandomAccess< IntType > ra = block.randomAccess();
+		final Cursor< IntType > ci = Views.flatIterable( iter ).localizingCursor();
+		while ( ci.hasNext() )
+		{
+			ci.fwd();
+			ra.setPosition( ci );
+			assertEquals( ci.get().get(), ra.get().get() );
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp;
+
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bdv.export.ProgressWriter;
+import bigwarp.transforms.TpsTransformSolver;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+
+/**
+ * Compares the export {@link BigWarpExporter.ParallelizationPolicy policies}
+ * for a thin plate spline warp of a cached cell image.
+ * <p>
+ * The largest size is a 2048 x 2048 x 500 export and needs about 8GB of heap
+ * for the source cache and the output.
+ */
+@State( Scope.Benchmark )
+@Warmup( iterations = 1 )
+@Measurement( iterations = 3 )
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( value = 1, jvmArgs = { "-Xmx12g" } )
+public class ExportBenchmark
+{
+	@Param( { "512,512,64", "2048,2048,500" } )
+	public String size;
+
+	@Param( { "8" } )
+	public int numThreads;
+
+	private long[] dims;
+
+	private RandomAccessible< UnsignedByteType > warped;
+
+	private RandomAccessibleInterval< UnsignedByteType > target;
+
+	private final ProgressWriter progress = new NullProgress();
+
+	@Setup
+	public void setup()
+	{
+		final String[] parts = size.split( "," );
+		dims = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			dims[ d ] = Long.parseLong( parts[ d ].trim() );
+
+		final RandomAccessibleInterval< UnsignedByteType > img = new ReadOnlyCachedCellImgFactory(
+				new ReadOnlyCachedCellImgOptions().cellDimensions( 64 ) ).create(
+						dims, new UnsignedByteType(),
+						cell -> {
+							final long[] pos = new long[ 3 ];
+							final Cursor< UnsignedByteType > c = Views.flatIterable( cell ).localizingCursor();
+							while ( c.hasNext() )
+							{
+								c.fwd();
+								c.localize( pos );
+								c.get().set( ( int ) ( ( pos[ 0 ] ^ pos[ 1 ] ^ pos[ 2 ] ) & 0xff ) );
+							}
+						} );
+
+		// a smooth warp through a few landmarks spread over the volume
+		final Random rand = new Random( 3 );
+		final int np = 27;
+		final double[][] tgt = new double[ 3 ][ np ];
+		final double[][] mvg = new double[ 3 ][ np ];
+		for ( int i = 0; i < np; i++ )
+			for ( int d = 0; d < 3; d++ )
+			{
+				tgt[ d ][ i ] = dims[ d ] * rand.nextDouble();
+				mvg[ d ][ i ] = tgt[ d ][ i ] + 0.02 * dims[ 0 ] * rand.nextGaussian();
+			}
+
+		// stacked as x,y,z,c with a single channel like the exporters do
+		warped = Views.stack( Views.interval(
+				RealViews.transform(
+						Views.interpolate( Views.extendZero( img ), new NLinearInterpolatorFactory<>() ),
+						new TpsTransformSolver().solve( mvg, tgt ).getTransform() ),
+				new FinalInterval( dims ) ) );
+	}
+
+	@Setup( Level.Invocation )
+	public void createTarget()
+	{
+		target = new PlanarImgFactory<>( new UnsignedByteType() ).create( dims[ 0 ], dims[ 1 ], 1, dims[ 2 ] );
+	}
+
+	@Benchmark
+	public Object iter()
+	{
+		return BigWarpExporter.copyToImageStackIterOrder( warped, target, target, numThreads, progress );
+	}
+
+	@Benchmark
+	public Object slice()
+	{
+		return BigWarpExporter.copyToImageStackBySlice( warped, target, target, numThreads, progress );
+	}
+
+	@Benchmark
+	public Object block()
+	{
+		return BigWarpExporter.copyToImageStackByBlock( warped, target, target, new int[] { 64, 64, 1, 8 }, numThreads, progress );
+	}
+
+	private static class NullProgress implements ProgressWriter
+	{
+		@Override
+		public PrintStream out()
+		{
+			return System.out;
+		}
+
+		@Override
+		public PrintStream err()
+		{
+			return System.err;
+		}
+
+		@Override
+		public void setProgress( final double completionRatio )
+		{}
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( ExportBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+import org.junit.Test;
+
+import bigwarp.N5PyramidWriter.DownsamplingMethod;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.FloatArray;
+import net.imglib2.img.basictypes.IntArray;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class N5PyramidWriterTest
+{
+	@Test
+	public void testAutomaticFactors()
+	{
+		final int[][] f = N5PyramidWriter.automaticFactors( new long[] { 100, 40, 10 }, new int[] { 16, 16, 16 } );
+		assertEquals( "levels", 3, f.length );
+		assertArrayEquals( new int[] { 2, 2, 1 }, f[ 0 ] );
+		assertArrayEquals( new int[] { 2, 2, 1 }, f[ 1 ] );
+		assertArrayEquals( new int[] { 2, 1, 1 }, f[ 2 ] );
+
+		assertEquals( "single scale", 0, N5PyramidWriter.parseFactors( "", 3 ).length );
+		assertEquals( "single scale", 0, N5PyramidWriter.parseFactors( N5PyramidWriter.SINGLE_SCALE, 3 ).length );
+		assertNull( "automatic", N5PyramidWriter.parseFactors( N5PyramidWriter.AUTOMATIC, 3 ) );
+		assertArrayEquals( new int[] { 2, 2, 1 }, N5PyramidWriter.parseFactors( "2,2,1;2", 3 )[ 0 ] );
+		assertArrayEquals( new int[] { 2, 2, 2 }, N5PyramidWriter.parseFactors( "2,2,1;2", 3 )[ 1 ] );
+	}
+
+	@Test
+	public void testBlockOrder()
+	{
+		final long[] dims = new long[] { 64, 40, 4 };
+		final int[] blockSize = new int[] { 8, 8, 4 };
+		final N5PyramidWriter< FloatType > writer = new N5PyramidWriter<>( null, "img", dims, blockSize,
+				N5PyramidWriter.automaticFactors( dims, blockSize ), DownsamplingMethod.AVERAGE,
+				new RawCompression(), new FloatType() );
+
+		final List< long[] > order = writer.fullResolutionBlockOrder();
+		assertEquals( "number of blocks", 8 * 5, order.size() );
+		assertEquals( "every block once", order.size(), order.stream().map( Arrays::toString ).distinct().count() );
+		assertArrayEquals( new long[] { 1, 1, 0 }, order.get( 3 ) );
+
+		// once the blocks of a parent are done, the parent is never visited again
+		for ( int l = 1; l < writer.numLevels(); l++ )
+		{
+			final long[] f = writer.getAbsoluteFactors( l );
+			final Set< String > finished = new HashSet<>();
+			String current = null;
+			for ( final long[] p : order )
+			{
+				final long[] parent = new long[ p.length ];
+				for ( int d = 0; d < p.length; d++ )
+					parent[ d ] = p[ d ] / f[ d ];
+
+				final String key = Arrays.toString( parent );
+				if ( !key.equals( current ) )
+				{
+					assertTrue( "parent " + key + " of level " + l + " revisited", finished.add( key ) );
+					current = key;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testAverage() throws Exception
+	{
+		final long[] dims = new long[] { 37, 21, 11 };
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( dims );
+		final Cursor< FloatType > c = img.localizingCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.get().set( c.getIntPosition( 0 ) + 100 * c.getIntPosition( 1 ) + 10000 * c.getIntPosition( 2 ) );
+		}
+
+		final int[][] factors = new int[][] { { 2, 2, 2 }, { 2, 2, 1 } };
+		try ( final N5Writer n5 = createWriter() )
+		{
+			write( n5, img, factors, DownsamplingMethod.AVERAGE );
+
+			final RandomAccessibleInterval< FloatType > s1 = N5Utils.open( n5, "img/s1" );
+			final RandomAccessibleInterval< FloatType > s2 = N5Utils.open( n5, "img/s2" );
+			assertArrayEquals( new long[] { 19, 11, 6 }, s1.dimensionsAsLongArray() );
+			assertArrayEquals( new long[] { 10, 6, 6 }, s2.dimensionsAsLongArray() );
+
+			// full window
+			assertEquals( 0.5 + 50 + 5000, get( s1, 0, 0, 0 ), 1e-3 );
+			assertEquals( 1.5 + 150 + 5000, get( s2, 0, 0, 0 ), 1e-3 );
+
+			// windows clipped at the border
+			assertEquals( 36 + 100 * 20 + 10000 * 10, get( s1, 18, 10, 5 ), 1e-3 );
+			assertEquals( 36 + 100 * 20 + 10000 * 10, get( s2, 9, 5, 5 ), 1e-3 );
+		}
+	}
+
+	@Test
+	public void testMode() throws Exception
+	{
+		final ArrayImg< IntType, IntArray > img = ArrayImgs.ints( 8, 8, 2 );
+		final RandomAccess< IntType > ra = img.randomAccess();
+		ra.setPosition( new long[] { 0, 0, 0 } );
+		ra.get().set( 7 );
+		ra.setPosition( new long[] { 1, 0, 0 } );
+		ra.get().set( 7 );
+		ra.setPosition( new long[] { 0, 1, 0 } );
+		ra.get().set( 3 );
+
+		try ( final N5Writer n5 = createWriter() )
+		{
+			write( n5, img, new int[][] { { 2, 2, 2 } }, DownsamplingMethod.MODE );
+			RandomAccessibleInterval< IntType > s1 = N5Utils.open( n5, "img/s1" );
+			assertEquals( "zeros are the most frequent", 0, s1.getAt( 0, 0, 0 ).get() );
+
+			ra.setPosition( new long[] { 1, 1, 0 } );
+			ra.get().set( 7 );
+			ra.setPosition( new long[] { 0, 0, 1 } );
+			ra.get().set( 7 );
+			write( n5, img, new int[][] { { 2, 2, 2 } }, DownsamplingMethod.MODE );
+			s1 = N5Utils.open( n5, "img/s1" );
+			assertEquals( "label", 7, s1.getAt( 0, 0, 0 ).get() );
+		}
+	}
+
+	private static < T extends NativeType< T > > void write( final N5Writer n5,
+			final RandomAccessibleInterval< T > img, final int[][] factors, final DownsamplingMethod method ) throws Exception
+	{
+		final ExecutorService exec = Executors.newFixedThreadPool( 3 );
+		final N5PyramidWriter< T > writer = new N5PyramidWriter<>( n5, "img", img.dimensionsAsLongArray(),
+				new int[] { 8, 8, 4 }, factors, method, new RawCompression(), img.getType().createVariable() );
+		writer.setMaxBlocksInFlight( 2 );
+		writer.write( img, exec, null );
+		exec.shutdown();
+	}
+
+	private static double get( final RandomAccessibleInterval< FloatType > img, final long... pos )
+	{
+		return img.getAt( pos ).getRealDouble();
+	}
+
+	private static N5Writer createWriter() throws Exception
+	{
+		final File tmp = Files.createTempDirectory( "bw-pyramid-test-" ).toFile();
+		tmp.deleteOnExit();
+		return new N5Factory().openWriter( tmp.getCanonicalPath() + ".n5" );
+	}
+}
@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bdv.img.WarpedSource;
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import bigwarp.transforms.TpsTransformSolver;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.FloatArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class WarpedBlockRendererTest
+{
+	@Test
+	public void testMatchesExactRendering()
+	{
+		final List< Source< FloatType > > sources = new ArrayList<>();
+		sources.add( warped( smoothImage(), new AffineTransform3D() ) );
+
+		final AffineTransform3D scaled = new AffineTransform3D();
+		scaled.scale( 2, 2, 1 );
+		sources.add( warped( smoothImage(), scaled ) );
+
+		final AffineTransform3D pixelToPhysical = new AffineTransform3D();
+		pixelToPhysical.set( 0.7, 0, 0, 3, 0, 0.7, 0, -2, 0, 0, 1, 1 );
+
+		final WarpedBlockRenderer< FloatType > renderer = new WarpedBlockRenderer<>( sources, pixelToPhysical, Interpolation.NLINEAR );
+		final long[] min = new long[] { 16, 8, 2 };
+		final long[] max = new long[] { 47, 39, 9 };
+
+		for ( final int spacing : new int[] { 1, 5 } )
+		{
+			renderer.setTransformSpacing( spacing );
+			final List< RandomAccessibleInterval< FloatType > > blocks = new ArrayList<>();
+			for ( int c = 0; c < sources.size(); c++ )
+				blocks.add( Views.translate( ArrayImgs.floats( 32, 32, 8 ), min ) );
+
+			renderer.render( blocks );
+			for ( int c = 0; c < sources.size(); c++ )
+			{
+				final RandomAccessible< FloatType > exact = exact( sources.get( c ), pixelToPhysical );
+				final double err = maxDifference( Views.interval( exact, min, max ), blocks.get( c ) );
+				if ( spacing == 1 )
+					assertEquals( "exact channel " + c, 0, err, 1e-4 );
+				else
+					assertTrue( "channel " + c + " error " + err, err < 0.05 );
+			}
+		}
+	}
+
+	@Test
+	public void test2d()
+	{
+		final List< Source< FloatType > > sources = Arrays.asList( warped( smoothImage(), new AffineTransform3D() ) );
+		final WarpedBlockRenderer< FloatType > renderer = new WarpedBlockRenderer<>( sources, new AffineTransform3D(), Interpolation.NEARESTNEIGHBOR );
+		renderer.setTransformSpacing( 1 );
+
+		final RandomAccessibleInterval< FloatType > block = Views.translate( ArrayImgs.floats( 20, 10 ), 5, 7 );
+		renderer.render( Arrays.asList( block ) );
+
+		final RandomAccessibleInterval< FloatType > exact = Views.hyperSlice( Views.interval(
+				exact( sources.get( 0 ), new AffineTransform3D(), Interpolation.NEARESTNEIGHBOR ),
+				new long[] { 5, 7, 0 }, new long[] { 24, 16, 0 } ), 2, 0 );
+		assertEquals( 0, maxDifference( exact, block ), 1e-6 );
+	}
+
+	private static RandomAccessible< FloatType > exact( final Source< FloatType > src, final AffineTransform3D pixelToPhysical )
+	{
+		return exact( src, pixelToPhysical, Interpolation.NLINEAR );
+	}
+
+	/**
+	 * Renders like {@link BigWarpRealExporter#exportRai(Source)}.
+	 */
+	private static RandomAccessible< FloatType > exact( final Source< FloatType > src, final AffineTransform3D pixelToPhysical,
+			final Interpolation interp )
+	{
+		final AffineTransform3D srcXfm = new AffineTransform3D();
+		src.getSourceTransform( 0, 0, srcXfm );
+		final AffineTransform3D xfm = pixelToPhysical.inverse();
+		xfm.concatenate( srcXfm );
+		return Views.raster( RealViews.affine( src.getInterpolatedSource( 0, 0, interp ), xfm ) );
+	}
+
+	private static Source< FloatType > warped( final ArrayImg< FloatType, FloatArray > img, final AffineTransform3D srcXfm )
+	{
+		final double[][][] pts = BigWarpTestUtils.randomPoints( new Random( 3 ), 3, 20, 64, 0, 1 );
+		final WarpedSource< FloatType > ws = new WarpedSource<>(
+				new RandomAccessibleIntervalSource<>( img, img.getType(), srcXfm, "img" ), "warped" );
+		ws.updateTransform( new TpsTransformSolver().solve( pts[ 1 ], pts[ 0 ] ).getTransform() );
+		ws.setIsTransformed( true );
+		return ws;
+	}
+
+	private static ArrayImg< FloatType, FloatArray > smoothImage()
+	{
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( 64, 64, 16 );
+		final Cursor< FloatType > c = img.localizingCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.get().set( ( float ) ( Math.sin( c.getDoublePosition( 0 ) / 7 ) * Math.cos( c.getDoublePosition( 1 ) / 5 ) + c.getDoublePosition( 2 ) / 16 ) );
+		}
+		return img;
+	}
+
+	private static double maxDifference( final RandomAccessibleInterval< FloatType > expected, final RandomAccessibleInterval< FloatType > actual )
+	{
+		final Cursor< FloatType > c = Views.flatIterable( expected ).localizingCursor();
+		final RandomAccess< FloatType > ra = actual.randomAccess();
+		double err = 0;
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			ra.setPosition( c );
+			err = Math.max( err, Math.abs( c.get().get() - ra.get().get() ) );
+		}
+		return err;
+	}
+}
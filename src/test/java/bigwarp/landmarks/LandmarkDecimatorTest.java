@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LandmarkDecimatorTest
+{
+	@Test
+	public void testAffineNeedsFewLandmarks()
+	{
+		final int n = 20;
+		final double[][] tgt = new double[ 2 ][ n * n ];
+		final double[][] mvg = new double[ 2 ][ n * n ];
+		for ( int i = 0; i < n * n; i++ )
+		{
+			final double x = 10.0 * ( i % n );
+			final double y = 10.0 * ( i / n );
+			tgt[ 0 ][ i ] = x;
+			tgt[ 1 ][ i ] = y;
+			mvg[ 0 ][ i ] = 1.1 * x - 0.2 * y + 5;
+			mvg[ 1 ][ i ] = 0.1 * x + 0.9 * y - 3;
+		}
+
+		final LandmarkDecimator decimator = new LandmarkDecimator( mvg, tgt );
+		decimator.setInitialSize( 8 );
+		final LandmarkDecimator.Result result = decimator.decimate( 1e-3 );
+		assertEquals( 8, result.numSelected() );
+		assertEquals( 1, result.getNumSolves() );
+		assertTrue( result.getMaxError() <= 1e-3 );
+		assertTrue( result.getMaxGridError() <= 1e-3 );
+	}
+
+	@Test
+	public void testSmoothDeformation()
+	{
+		final int n = 25;
+		final double[][] tgt = new double[ 2 ][ n * n ];
+		final double[][] mvg = new double[ 2 ][ n * n ];
+		for ( int i = 0; i < n * n; i++ )
+		{
+			final double x = 4.0 * ( i % n );
+			final double y = 4.0 * ( i / n );
+			tgt[ 0 ][ i ] = x;
+			tgt[ 1 ][ i ] = y;
+			mvg[ 0 ][ i ] = x + 3 * Math.sin( x / 30 );
+			mvg[ 1 ][ i ] = y + 2 * Math.cos( ( x + y ) / 40 );
+		}
+
+		final double maxError = 0.05;
+		final LandmarkDecimator.Result result = new LandmarkDecimator( mvg, tgt ).decimate( maxError );
+		assertTrue( "error " + result.getMaxError(), result.getMaxError() <= maxError );
+		assertTrue( "grid error " + result.getMaxGridError(), result.getMaxGridError() <= maxError );
+		assertEquals( n * n, result.getReferenceSize() );
+		assertTrue( "selected " + result.numSelected(), result.numSelected() < n * n / 2 );
+		assertEquals( result.numSelected(), result.getSelected().length );
+		assertTrue( result.getEvaluationSpeedup() > 0 );
+
+		for ( final int i : result.getSelected() )
+			assertEquals( 0, result.getError( i ), 1e-6 );
+	}
+
+	@Test
+	public void testGridBetweenLandmarks()
+	{
+		// no landmarks in the center
+		final Random rand = new Random( 1 );
+		final int n = 400;
+		final double[][] tgt = new double[ 2 ][ n ];
+		final double[][] mvg = new double[ 2 ][ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			double x, y;
+			do
+			{
+				x = 100 * rand.nextDouble();
+				y = 100 * rand.nextDouble();
+			}
+			while ( Math.abs( x - 50 ) < 20 && Math.abs( y - 50 ) < 20 );
+
+			tgt[ 0 ][ i ] = x;
+			tgt[ 1 ][ i ] = y;
+			mvg[ 0 ][ i ] = x + 3 * Math.sin( x / 15 ) * Math.cos( y / 12 );
+			mvg[ 1 ][ i ] = y + 2 * Math.cos( ( x + y ) / 20 );
+		}
+
+		final double maxError = 0.05;
+		final LandmarkDecimator landmarksOnly = new LandmarkDecimator( mvg, tgt );
+		landmarksOnly.setNumGridPoints( 1 );
+		final LandmarkDecimator.Result coarse = landmarksOnly.decimate( maxError );
+
+		final LandmarkDecimator.Result result = new LandmarkDecimator( mvg, tgt ).decimate( maxError );
+		assertTrue( "grid error " + result.getMaxGridError(), result.getMaxGridError() <= maxError );
+		assertTrue( "selected " + result.numSelected(), result.numSelected() > coarse.numSelected() );
+
+		// a reference of a subset is only as accurate as at the landmarks
+		final LandmarkDecimator subset = new LandmarkDecimator( mvg, tgt );
+		subset.setMaxReferenceSize( 200 );
+		final LandmarkDecimator.Result estimated = subset.decimate( maxError );
+		assertTrue( estimated.isSpeedupEstimated() );
+		assertEquals( 200, estimated.getReferenceSize() );
+		assertTrue( estimated.getMaxGridError() <= maxError + estimated.getReferenceError() );
+		assertTrue( "selected " + estimated.numSelected(), estimated.numSelected() < n );
+	}
+}
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class LandmarkSpatialIndexTest
+{
+	@Test
+	public void testAgainstLinearScan()
+	{
+		final Random rnd = new Random( 17 );
+		final LandmarkStore store = new LandmarkStore( 3 );
+		final double[] p = new double[ 3 ];
+		final double[] q = new double[ 3 ];
+		for ( int i = 0; i < 500; i++ )
+		{
+			random( rnd, p );
+			random( rnd, q );
+			store.addRow( p, q, true );
+		}
+
+		// edits, insertions and deletions in the middle of the table
+		for ( int i = 0; i < 200; i++ )
+		{
+			final int row = rnd.nextInt( store.size() );
+			switch ( rnd.nextInt( 4 ) )
+			{
+			case 0:
+				store.removeRow( row );
+				break;
+			case 1:
+				store.insertRow( row );
+				random( rnd, p );
+				store.set( true, row, p );
+				break;
+			case 2:
+				random( rnd, p );
+				store.setWarped( row, p );
+				break;
+			default:
+				store.set( false, row, 1, rnd.nextDouble() * 100 );
+			}
+		}
+
+		for ( int i = 0; i < 100; i++ )
+		{
+			random( rnd, p );
+			final double r = 5 + 20 * rnd.nextDouble();
+			for ( final boolean isMoving : new boolean[] { true, false } )
+				for ( final boolean displayWarped : new boolean[] { true, false } )
+				{
+					assertEquals( nearest( store, p, isMoving, displayWarped, r ), store.nearest( p, isMoving, displayWarped, r ) );
+					assertEquals( nearest( store, p, isMoving, displayWarped, Double.POSITIVE_INFINITY ),
+							store.nearest( p, isMoving, displayWarped, Double.POSITIVE_INFINITY ) );
+
+					final IntStream.Builder found = IntStream.builder();
+					store.search( p, r, isMoving, displayWarped, found );
+					assertArrayEquals( within( store, p, isMoving, displayWarped, r ), found.build().sorted().toArray() );
+				}
+		}
+	}
+
+	@Test
+	public void testTableModel()
+	{
+		final LandmarkTableModel ltm = new LandmarkTableModel( 2 );
+		for ( int i = 0; i < 100; i++ )
+			ltm.add( new double[] { i, 0 }, new double[] { 0, i } );
+
+		ltm.add( new double[] { 200, 0 }, true );
+		ltm.updateWarpedPoint( 100, new double[] { 50.2, 50.2 } );
+
+		assertEquals( 42, ltm.getIndexNearestTo( new double[] { 41.6, 3 }, true ) );
+		assertEquals( -1, ltm.getIndexNearestTo( new double[] { 41.6, 3 }, true, false, 2.0 ) );
+		assertArrayEquals( new int[] { 9, 10, 11 }, ltm.getIndicesWithin( new double[] { 0, 10 }, 1.5, false, false ) );
+		assertArrayEquals( new int[] { 50, 51 }, ltm.getIndicesInBox( new double[] { 49.5, -1 }, new double[] { 51.5, 1 }, true, false ) );
+
+		// in fixed space, unwarped moving points are displayed at their fixed point
+		assertEquals( 100, ltm.getIndexNearestTo( new double[] { 50, 50 }, true, true, 1.0 ) );
+		assertEquals( 3, ltm.getIndexNearestTo( new double[] { 0, 3 }, true, true, 1.0 ) );
+
+		ltm.deleteRow( 3 );
+		assertEquals( 99, ltm.getIndexNearestTo( new double[] { 50, 50 }, true, true, 1.0 ) );
+		assertEquals( 3, ltm.getIndexNearestTo( new double[] { 0, 3.6 }, false ) );
+	}
+
+	private static void random( final Random rnd, final double[] p )
+	{
+		for ( int d = 0; d < p.length; d++ )
+			p[ d ] = 100 * rnd.nextDouble();
+	}
+
+	private static double distanceSquared( final LandmarkStore store, final int row, final double[] p, final boolean isMoving, final boolean displayWarped )
+	{
+		double dist = 0;
+		for ( int d = 0; d < store.numDimensions(); d++ )
+		{
+			final double x;
+			if ( isMoving && displayWarped )
+				x = store.hasWarped( row ) ? store.getWarped( row, d ) : store.getTarget( row, d );
+			else
+				x = store.get( isMoving, row, d );
+
+			dist += ( x - p[ d ] ) * ( x - p[ d ] );
+		}
+		return dist;
+	}
+
+	private static int nearest( final LandmarkStore store, final double[] p, final boolean isMoving, final boolean displayWarped, final double maxDistance )
+	{
+		int best = -1;
+		double bestDist = maxDistance * maxDistance;
+		for ( int i = 0; i < store.size(); i++ )
+		{
+			final double dist = distanceSquared( store, i, p, isMoving, displayWarped );
+			if ( dist < bestDist )
+			{
+				bestDist = dist;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	private static int[] within( final LandmarkStore store, final double[] p, final boolean isMoving, final boolean displayWarped, final double radius )
+	{
+		return IntStream.range( 0, store.size() )
+				.filter( i -> distanceSquared( store, i, p, isMoving, displayWarped ) <= radius * radius )
+				.toArray();
+	}
+}
@@ -0,0 +1,184 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LandmarkStoreTest
+{
+	@Test
+	public void testInsertRemove()
+	{
+		final LandmarkStore store = new LandmarkStore( 2, 1 );
+		for ( int i = 0; i < 5; i++ )
+			store.addRow( new double[] { i, 10 * i }, new double[] { -i, -10 * i }, i % 2 == 0 );
+
+		assertEquals( 5, store.size() );
+		assertEquals( 3, store.numActive() );
+		store.setWarped( 3, new double[] { 7, 8 } );
+
+		// insert a pending row in the middle
+		store.insertRow( 2 );
+		assertEquals( 6, store.size() );
+		assertTrue( store.isPending( true, 2 ) );
+		assertTrue( store.isPending( false, 2 ) );
+		assertFalse( store.isActive( 2 ) );
+		assertTrue( store.isActive( 3 ) );
+		assertTrue( store.hasWarped( 4 ) );
+		assertEquals( 8, store.getWarped( 4, 1 ), 0 );
+		assertEquals( 30, store.getMoving( 4, 1 ), 0 );
+
+		store.removeRow( 0 );
+		assertEquals( 5, store.size() );
+		assertEquals( 2, store.numActive() );
+		assertEquals( 1, store.getMoving( 0, 0 ), 0 );
+		assertTrue( store.hasWarped( 3 ) );
+		assertEquals( 1, store.activeIndex( 4 ) );
+		assertEquals( -1, store.activeIndex( 0 ) );
+	}
+
+	@Test
+	public void testSnapshot()
+	{
+		final LandmarkStore store = new LandmarkStore( 3 );
+		for ( int i = 0; i < 6; i++ )
+			store.addRow( new double[] { i, i, i }, new double[] { 2 * i, 2 * i, 2 * i }, i != 1 && i != 4 );
+
+		final LandmarkSnapshot s = store.snapshot();
+		assertEquals( 4, s.size() );
+		assertArrayEquals( new double[] { 0, 2, 3, 5 }, s.getMovingPoints()[ 1 ], 0 );
+		assertArrayEquals( new double[] { 0, 4, 6, 10 }, s.getTargetPoints()[ 2 ], 0 );
+		assertEquals( 3, s.getRow( 2 ) );
+
+		// the snapshot is shared until the landmarks change
+		store.setWarped( 0, new double[] { 1, 1, 1 } );
+		store.setNeedsInverse( 0, true );
+		assertSame( s, store.snapshot() );
+
+		store.set( true, 0, 2, 9 );
+		final LandmarkSnapshot t = store.snapshot();
+		assertNotSame( s, t );
+		assertEquals( 0, s.getMoving( 0, 2 ), 0 );
+		assertEquals( 9, t.getMoving( 0, 2 ), 0 );
+
+		store.setActive( 1, true );
+		assertEquals( 5, store.snapshot().size() );
+	}
+
+	@Test
+	public void testPublish()
+	{
+		// span several chunks
+		final int n = 3 * ChunkedDoubleArray.CHUNK_SIZE + 5;
+		final LandmarkStore store = new LandmarkStore( 2 );
+		for ( int i = 0; i < n; i++ )
+		{
+			store.addRow( new double[] { i, 0 }, new double[] { 0, i }, true );
+			store.setName( i, "p" + i );
+		}
+
+		final LandmarkTableSnapshot s = store.publish();
+		assertSame( s, store.publish() );
+		assertEquals( n, s.getRowCount() );
+
+		// later edits do not change the snapshot
+		store.set( true, 5, new double[] { -1, -1 } );
+		store.setWarped( 2000, new double[] { 7, 7 } );
+		store.setName( 3, "renamed" );
+		store.removeRow( 0 );
+		store.insertRow( 1500 );
+		for ( int i = 0; i < n; i++ )
+		{
+			assertEquals( i, s.getMoving( i, 0 ), 0 );
+			assertEquals( i, s.getTarget( i, 1 ), 0 );
+			assertEquals( "p" + i, s.getName( i ) );
+		}
+		assertFalse( s.isWarped( 2000 ) );
+		assertEquals( n, s.getNames().size() );
+		assertEquals( n, s.getActiveLandmarks().size() );
+
+		final LandmarkTableSnapshot t = store.publish();
+		assertNotSame( s, t );
+		assertEquals( n, t.getRowCount() );
+		assertEquals( 1, t.getMoving( 0, 0 ), 0 );
+		assertEquals( -1, t.getMoving( 4, 0 ), 0 );
+		assertEquals( "renamed", t.getName( 2 ) );
+		assertTrue( t.isWarped( 2000 ) );
+		assertEquals( 7, t.getWarped( 2000, 1 ), 0 );
+		assertFalse( t.isMovingPoint( 1500 ) );
+		assertNull( t.getName( 1500 ) );
+		assertEquals( 1501, t.getMoving( 1501, 0 ), 0 );
+		assertEquals( n - 1, t.getActiveLandmarks().size() );
+		assertArrayEquals( new int[] { 4 }, t.getIndicesInBox( new double[] { -2, -2 }, new double[] { -0.5, -0.5 }, true, false ) );
+
+		// changing warped points keeps the active landmarks
+		store.setWarped( 0, new double[] { 1, 1 } );
+		final LandmarkTableSnapshot u = store.publish();
+		assertSame( t.getActiveLandmarks(), u.getActiveLandmarks() );
+		assertArrayEquals( new int[] { 0 }, u.getIndicesWithin( new double[] { 1, 1 }, 0.1, true, true ) );
+
+		// appended names are not seen by earlier snapshots
+		store.addRow( new double[] { 1, 1 }, new double[] { 2, 2 }, true );
+		store.setName( n, "last" );
+		assertEquals( "last", store.publish().getName( n ) );
+		assertEquals( n, u.getNames().size() );
+		assertEquals( "renamed", u.getName( 2 ) );
+	}
+
+	@Test
+	public void testTableModel()
+	{
+		final LandmarkTableModel ltm = new LandmarkTableModel( 2 );
+		for ( int i = 0; i < 4; i++ )
+			ltm.add( new double[] { i, i + 1 }, new double[] { 3 * i, 3 * i + 1 } );
+
+		ltm.add( new double[] { 100, 100 }, true );
+		assertEquals( 5, ltm.getRowCount() );
+		assertEquals( 4, ltm.numActive() );
+
+		final double[][] mvg = new double[ 2 ][ 4 ];
+		final double[][] tgt = new double[ 2 ][ 4 ];
+		ltm.copyLandmarks( mvg, tgt );
+		final LandmarkSnapshot s = ltm.snapshot();
+		assertArrayEquals( mvg[ 1 ], s.getMovingPoints()[ 1 ], 0 );
+		assertArrayEquals( tgt[ 0 ], s.getTargetPoints()[ 0 ], 0 );
+
+		ltm.setIsActive( 1, false );
+		assertEquals( 3, ltm.snapshot().size() );
+		assertEquals( 1, ltm.getActiveIndex( 2 ) );
+
+		ltm.deleteRow( 0 );
+		assertEquals( 2, ltm.numActive() );
+		assertEquals( 2.0, ( Double ) ltm.getValueAt( 0, 3 ), 0 );
+		assertFalse( ltm.isActive( 0 ) );
+		assertTrue( ltm.isMovingPoint( 3 ) );
+		assertFalse( ltm.isFixedPoint( 3 ) );
+	}
+}
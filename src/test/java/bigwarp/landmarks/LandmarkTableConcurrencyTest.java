@@ -0,0 +1,239 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Edits a {@link LandmarkTableModel} from one thread while others render,
+ * solve and save it.
+ * <p>
+ * Every edit sets a moving point to (v, 2v), a target point to (v, -v) and
+ * a warped point to (v, 3v), so a reader that sees a partially written point
+ * or a mix of two states of the table breaks one of these relations.
+ */
+public class LandmarkTableConcurrencyTest
+{
+	@Test
+	public void testReadersDoNotWaitForWriters() throws Exception
+	{
+		final LandmarkTableModel ltm = new LandmarkTableModel( 2 );
+		ltm.add( new double[] { 1, 2 }, new double[] { 1, -1 } );
+
+		// hold the lock of the table as a long edit would
+		final CountDownLatch locked = new CountDownLatch( 1 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final Thread writer = new Thread( () -> {
+			synchronized ( ltm )
+			{
+				locked.countDown();
+				try
+				{
+					release.await();
+				}
+				catch ( final InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		} );
+		writer.start();
+		locked.await();
+
+		final ExecutorService exec = Executors.newSingleThreadExecutor();
+		try
+		{
+			final Future< Double > read = exec.submit( () -> {
+				final double[] p = new double[ 2 ];
+				ltm.copyPointSafe( p, 0, true );
+				assertEquals( 1, ltm.snapshot().size() );
+				assertEquals( 1, ltm.getIndicesInBox( new double[] { 0, 0 }, new double[] { 2, 2 }, true, false ).length );
+				assertTrue( ltm.isActive( 0 ) );
+				assertEquals( "Pt-0", ltm.getNames().get( 0 ) );
+				ltm.toJson();
+				return ( Double ) ltm.getValueAt( 0, 3 ) + p[ 1 ];
+			} );
+			assertEquals( 4.0, read.get( 10, TimeUnit.SECONDS ), 0 );
+		}
+		finally
+		{
+			release.countDown();
+			writer.join();
+			exec.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testEditWhileRendering() throws Exception
+	{
+		final LandmarkTableModel ltm = new LandmarkTableModel( 2 );
+		final int numReaders = 3;
+		final int numEdits = 5000;
+
+		final AtomicBoolean done = new AtomicBoolean( false );
+		final AtomicReference< Throwable > failure = new AtomicReference<>();
+		final AtomicInteger numRendered = new AtomicInteger();
+		final File saved = File.createTempFile( "bigwarp-landmarks-", ".csv" );
+		saved.deleteOnExit();
+
+		final List< Thread > readers = new ArrayList<>();
+		for ( int r = 0; r < numReaders; r++ )
+		{
+			final boolean saves = r == 0;
+			readers.add( new Thread( () -> {
+				try
+				{
+					int i = 0;
+					while ( !done.get() && failure.get() == null )
+					{
+						render( ltm.getTableSnapshot() );
+						checkActive( ltm.getTableSnapshot() );
+						if ( saves && ++i % 64 == 0 )
+							ltm.save( saved );
+
+						numRendered.incrementAndGet();
+					}
+				}
+				catch ( final Throwable t )
+				{
+					failure.compareAndSet( null, t );
+				}
+			} ) );
+		}
+		readers.forEach( Thread::start );
+
+		final Random rnd = new Random( 7 );
+		try
+		{
+			for ( int i = 0; i < numEdits && failure.get() == null; i++ )
+			{
+				final int n = ltm.getRowCount();
+				final double v = rnd.nextInt( 1000 );
+				final int op = n < 20 ? 0 : rnd.nextInt( n > 300 ? 6 : 5 );
+				final int row = n == 0 ? 0 : rnd.nextInt( n );
+				switch ( op )
+				{
+				case 0:
+					ltm.add( new double[] { v, 2 * v }, new double[] { v, -v } );
+					break;
+				case 1:
+					ltm.setPoint( row, true, new double[] { v, 2 * v }, null );
+					break;
+				case 2:
+					ltm.setPoint( row, false, new double[] { v, -v }, null );
+					break;
+				case 3:
+					ltm.updateWarpedPoint( row, new double[] { v, 3 * v } );
+					break;
+				case 4:
+					ltm.setIsActive( row, !ltm.isActive( row ) );
+					break;
+				default:
+					ltm.deleteRow( row );
+				}
+			}
+		}
+		finally
+		{
+			done.set( true );
+			for ( final Thread t : readers )
+				t.join();
+		}
+
+		if ( failure.get() != null )
+			throw new AssertionError( "reader failed", failure.get() );
+
+		assertTrue( numRendered.get() > 0 );
+
+		// the last published snapshot matches the table
+		final LandmarkTableSnapshot s = ltm.getTableSnapshot();
+		assertEquals( ltm.getRowCount(), s.getRowCount() );
+		assertEquals( ltm.numActive(), s.getActiveLandmarks().size() );
+		render( s );
+
+		// and files saved while editing are consistent
+		final LandmarkTableModel loaded = LandmarkTableModel.loadFromCsv( saved, false );
+		render( loaded.getTableSnapshot() );
+	}
+
+	/**
+	 * Visits the rows of a snapshot the way the overlay does and checks the
+	 * relations between the coordinates.
+	 */
+	private static void render( final LandmarkTableSnapshot s )
+	{
+		final int[] rows = s.getIndicesInBox(
+				new double[] { -1e9, -1e9 }, new double[] { 1e9, 1e9 }, true, true );
+
+		final double[] p = new double[ 2 ];
+		for ( final int i : rows )
+		{
+			s.copyDisplayed( true, true, i, p );
+			if ( s.isWarped( i ) )
+				assertEquals( "warped point of row " + i, 3 * p[ 0 ], p[ 1 ], 0 );
+			else
+				assertEquals( "target point of row " + i, -p[ 0 ], p[ 1 ], 0 );
+		}
+
+		for ( int i = 0; i < s.getRowCount(); i++ )
+		{
+			assertTrue( s.getName( i ) != null );
+			if ( s.isMovingPoint( i ) )
+				assertEquals( "moving point of row " + i, 2 * s.getMoving( i, 0 ), s.getMoving( i, 1 ), 0 );
+			if ( s.isFixedPoint( i ) )
+				assertEquals( "target point of row " + i, -s.getTarget( i, 0 ), s.getTarget( i, 1 ), 0 );
+		}
+	}
+
+	/**
+	 * Checks that the active landmarks agree with the rows of a snapshot.
+	 */
+	private static void checkActive( final LandmarkTableSnapshot s )
+	{
+		final LandmarkSnapshot active = s.getActiveLandmarks();
+		assertEquals( s.numActive(), active.size() );
+		for ( int k = 0; k < active.size(); k++ )
+		{
+			final int row = active.getRow( k );
+			assertTrue( s.isActive( row ) );
+			assertEquals( k, s.getActiveIndex( row ) );
+			assertEquals( s.getMoving( row, 1 ), active.getMoving( k, 1 ), 0 );
+			assertEquals( s.getTarget( row, 0 ), active.getTarget( k, 0 ), 0 );
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.landmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import bigwarp.BigWarpTestUtils;
+import net.imglib2.realtransform.ThinplateSplineTransform;
+import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
+
+public class WarpedPointUpdaterTest
+{
+	@Test
+	public void testWarmStart() throws Exception
+	{
+		final Random rnd = new Random( 5 );
+		final int numPoints = 500;
+		final double[][] points = new double[ numPoints ][ 3 ];
+		for ( final double[] p : points )
+			for ( int d = 0; d < 3; d++ )
+				p[ d ] = 100 * rnd.nextDouble();
+
+		final ExecutorService exec = Executors.newFixedThreadPool( 3 );
+		final WarpedPointUpdater updater = new WarpedPointUpdater( exec, 3 );
+
+		final double[][] warped = new double[ numPoints ][ 3 ];
+		final double[] residuals = new double[ numPoints ];
+		updater.solve( transform( 0.0 ), points, new double[ numPoints ][], 1e-3, 50, warped, residuals );
+		assertEquals( 0, updater.getNumWarmStarts() );
+		assertEquals( numPoints, updater.getNumColdStarts() );
+
+		// a slightly different transform, starting from the previous solution
+		final WrappedIterativeInvertibleRealTransform< ? > xfm = transform( 0.5 );
+		final double[][] next = new double[ numPoints ][ 3 ];
+		updater.solve( xfm, points, warped, 1e-3, 50, next, residuals );
+		exec.shutdown();
+
+		assertEquals( numPoints, updater.getNumWarmStarts() );
+		final double[] y = new double[ 3 ];
+		for ( int k = 0; k < numPoints; k++ )
+		{
+			assertTrue( residuals[ k ] <= 1e-3 );
+			xfm.apply( next[ k ], y );
+			for ( int d = 0; d < 3; d++ )
+				assertEquals( points[ k ][ d ], y[ d ], 1e-3 );
+		}
+	}
+
+	@Test
+	public void testTableModel()
+	{
+		final LandmarkTableModel ltm = new LandmarkTableModel( 3 );
+		final Random rnd = new Random( 7 );
+		for ( int i = 0; i < 10; i++ )
+		{
+			final double[] p = new double[] { 100 * rnd.nextDouble(), 100 * rnd.nextDouble(), 100 * rnd.nextDouble() };
+			final double[] q = new double[] { p[ 0 ] + rnd.nextDouble(), p[ 1 ] - rnd.nextDouble(), p[ 2 ] };
+			ltm.add( p, q );
+		}
+
+		// a moving point without a fixed point
+		ltm.add( new double[] { 50, 50, 50 }, true );
+		assertFalse( ltm.isWarped( 10 ) );
+
+		final ThinplateSplineTransform tps = new ThinplateSplineTransform(
+				ltm.snapshot().getTargetPoints(), ltm.snapshot().getMovingPoints() );
+		final WrappedIterativeInvertibleRealTransform< ? > xfm = new WrappedIterativeInvertibleRealTransform<>( tps );
+		xfm.getOptimzer().setTolerance( 1e-3 );
+		ltm.setWarpedPointUpdater( new WarpedPointUpdater( Executors.newSingleThreadExecutor(), 1 ) );
+		ltm.updateAllWarpedPoints( xfm );
+
+		assertTrue( ltm.isWarped( 10 ) );
+		assertFalse( ltm.rowNeedsWarning( 10 ) );
+
+		final double[] warped = new double[ 3 ];
+		final double[] y = new double[ 3 ];
+		ltm.copyWarpedPointSafe( warped, 10 );
+		tps.apply( warped, y );
+		assertEquals( 50, y[ 0 ], 0.5 );
+		assertEquals( 50, y[ 1 ], 0.5 );
+		assertEquals( 50, y[ 2 ], 0.5 );
+	}
+
+	private static WrappedIterativeInvertibleRealTransform< ? > transform( final double amount )
+	{
+		final double[][][] pts = BigWarpTestUtils.randomPoints( new Random( 1 ), 3, 20, 100, amount, 4 );
+		final WrappedIterativeInvertibleRealTransform< ThinplateSplineTransform > xfm = new WrappedIterativeInvertibleRealTransform<>(
+				new ThinplateSplineTransform( pts[ 0 ], pts[ 1 ] ) );
+		xfm.getOptimzer().setTolerance( 1e-4 );
+		xfm.getOptimzer().setMaxIters( 1000 );
+		return xfm;
+	}
+}
@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import bigwarp.BigWarpTestUtils;
+import bigwarp.transforms.BigWarpTransform;
+
+/**
+ * Measures the latency and throughput of a {@link TransformServer} with
+ * concurrent {@link TransformClient}s for a thin plate spline of a few
+ * hundred landmarks.
+ * <p>
+ * Runs against an in-process server, or against a running one if a port is
+ * given as first argument. The second argument is the number of concurrent
+ * clients.
+ */
+public class TransformServerLoadTest
+{
+	private static final int NUM_LANDMARKS = 200;
+
+	private static final int[] POINTS_PER_REQUEST = new int[] { 1, 100, 10000 };
+
+	private static final int WARMUP_REQUESTS = 50;
+
+	public static void main( final String[] args ) throws Exception
+	{
+		final int numClients = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 8;
+
+		TransformServer server = null;
+		final int port;
+		if ( args.length > 0 )
+			port = Integer.parseInt( args[ 0 ] );
+		else
+		{
+			server = new TransformServer( new TransformRegistry(), 0, Runtime.getRuntime().availableProcessors() );
+			server.setAllowPaths( true );
+			server.start();
+			port = server.getPort();
+		}
+
+		final Path landmarks = Files.createTempFile( "bw-load-test-", ".csv" );
+		BigWarpTestUtils.randomLandmarks( 3, NUM_LANDMARKS, 2, 3 ).save( landmarks.toFile() );
+
+		final TransformClient client = new TransformClient( port );
+		long t = System.nanoTime();
+		final String id = client.load( landmarks, BigWarpTransform.TPS );
+		System.out.println( String.format( "first load (solve) %.1f ms", ( System.nanoTime() - t ) * 1e-6 ) );
+		t = System.nanoTime();
+		client.load( landmarks, BigWarpTransform.TPS );
+		System.out.println( String.format( "second load (cached) %.1f ms", ( System.nanoTime() - t ) * 1e-6 ) );
+
+		System.out.println( String.format( "%d clients", numClients ) );
+		System.out.println( "direction  points  requests  p50 ms  p90 ms  p99 ms  max ms  req/s  points/s" );
+		final ExecutorService exec = Executors.newFixedThreadPool( numClients );
+		for ( final boolean inverse : new boolean[] { false, true } )
+			for ( final int n : POINTS_PER_REQUEST )
+				run( client, id, inverse, n, exec, numClients );
+
+		exec.shutdown();
+		Files.delete( landmarks );
+		if ( server != null )
+			server.stop();
+	}
+
+	private static void run( final TransformClient client, final String id, final boolean inverse, final int pointsPerRequest,
+			final ExecutorService exec, final int numClients ) throws Exception
+	{
+		// about a million points or a thousand requests, whichever is less
+		final int numRequests = Math.max( 4 * numClients, Math.min( 1000, 1_000_000 / pointsPerRequest ) );
+		final Random rand = new Random( 1 );
+		final double[] points = new double[ 3 * pointsPerRequest ];
+		for ( int i = 0; i < points.length; i++ )
+			points[ i ] = 100 * rand.nextDouble();
+
+		for ( int i = 0; i < WARMUP_REQUESTS; i++ )
+			request( client, id, inverse, points );
+
+		final long[] latencies = new long[ numRequests ];
+		final List< Future< ? > > futures = new ArrayList<>();
+		final long start = System.nanoTime();
+		for ( int i = 0; i < numRequests; i++ )
+		{
+			final int k = i;
+			futures.add( exec.submit( () -> {
+				final long t = System.nanoTime();
+				request( client, id, inverse, points );
+				latencies[ k ] = System.nanoTime() - t;
+				return null;
+			} ) );
+		}
+		for ( final Future< ? > f : futures )
+			f.get();
+
+		final double seconds = ( System.nanoTime() - start ) * 1e-9;
+		Arrays.sort( latencies );
+		System.out.println( String.format( "%-9s  %6d  %8d  %6.2f  %6.2f  %6.2f  %6.2f  %5.0f  %8.3g",
+				inverse ? "inverse" : "forward", pointsPerRequest, numRequests,
+				percentile( latencies, 0.5 ), percentile( latencies, 0.9 ), percentile( latencies, 0.99 ), latencies[ numRequests - 1 ] * 1e-6,
+				numRequests / seconds, ( double ) numRequests * pointsPerRequest / seconds ) );
+	}
+
+	private static double[] request( final TransformClient client, final String id, final boolean inverse, final double[] points ) throws Exception
+	{
+		return inverse ? client.inverse( id, points ) : client.forward( id, points );
+	}
+
+	private static double percentile( final long[] sorted, final double p )
+	{
+		return sorted[ Math.min( sorted.length - 1, ( int ) ( p * sorted.length ) ) ] * 1e-6;
+	}
+}
@@ -0,0 +1,251 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bigwarp.BigWarpTestUtils;
+import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.transforms.BigWarpTransform;
+import net.imglib2.realtransform.InvertibleRealTransform;
+
+public class TransformServerTest
+{
+	private static final double EPS = 1e-9;
+
+	private Path tmp;
+
+	private TransformServer server;
+
+	private TransformClient client;
+
+	@Before
+	public void before() throws IOException
+	{
+		tmp = Files.createTempDirectory( "bw-transform-server-test-" );
+		server = new TransformServer( new TransformRegistry(), 0, 4 );
+		server.setAllowPaths( true );
+		server.start();
+		client = new TransformClient( server.getPort() );
+	}
+
+	@After
+	public void after() throws IOException
+	{
+		server.stop();
+		FileUtils.deleteDirectory( tmp.toFile() );
+	}
+
+	@Test
+	public void testSameContentSolvedOnce() throws Exception
+	{
+		final LandmarkTableModel ltm = BigWarpTestUtils.randomLandmarks( 3, 20, 1, 3 );
+		final Path a = tmp.resolve( "a.csv" );
+		final Path b = tmp.resolve( "b.csv" );
+		ltm.save( a.toFile() );
+		ltm.save( b.toFile() );
+
+		final ExecutorService exec = Executors.newFixedThreadPool( 4 );
+		final List< Future< String > > ids = new ArrayList<>();
+		for ( int i = 0; i < 8; i++ )
+		{
+			final Path p = i % 2 == 0 ? a : b;
+			ids.add( exec.submit( () -> client.load( p, null ) ) );
+		}
+		final Set< String > distinct = new HashSet<>();
+		for ( final Future< String > f : ids )
+			distinct.add( f.get() );
+		distinct.add( client.upload( Files.readAllBytes( a ), BigWarpTransform.TPS ) );
+		exec.shutdown();
+
+		assertEquals( 1, distinct.size() );
+		assertEquals( 1, server.getRegistry().entries().size() );
+
+		// another type is another transformation
+		final String affine = client.upload( Files.readAllBytes( a ), BigWarpTransform.AFFINE );
+		assertTrue( !distinct.contains( affine ) );
+		assertEquals( BigWarpTransform.AFFINE, client.describe( affine ).get( "type" ).getAsString() );
+	}
+
+	@Test
+	public void testForwardAndInverse() throws IOException
+	{
+		final LandmarkTableModel ltm = BigWarpTestUtils.randomLandmarks( 3, 20, 1, 3 );
+		final Path path = tmp.resolve( "landmarks.csv" );
+		ltm.save( path.toFile() );
+		final String id = client.load( path, BigWarpTransform.TPS );
+
+		final InvertibleRealTransform expected = new BigWarpTransform( ltm, BigWarpTransform.TPS ).getTransformation( false );
+		final Random rand = new Random( 7 );
+		final double[] points = new double[ 3 * 500 ];
+		for ( int i = 0; i < points.length; i++ )
+			points[ i ] = 100 * rand.nextDouble();
+
+		final double[] forward = client.forward( id, points );
+		assertEquals( points.length, forward.length );
+		final double[] x = new double[ 3 ];
+		final double[] y = new double[ 3 ];
+		for ( int i = 0; i < points.length; i += 3 )
+		{
+			System.arraycopy( points, i, x, 0, 3 );
+			expected.apply( x, y );
+			assertArrayEquals( y, new double[] { forward[ i ], forward[ i + 1 ], forward[ i + 2 ] }, EPS );
+		}
+
+		final double[] inverse = client.inverse( id, forward );
+		assertArrayEquals( points, inverse, 0.1 );
+	}
+
+	@Test
+	public void testSettingsJson() throws IOException
+	{
+		final LandmarkTableModel ltm = BigWarpTestUtils.randomLandmarks( 2, 6, 1, 3 );
+		final String settings = "{\"Sources\":{},\"Transform\":{\"type\":\"" + BigWarpTransform.AFFINE + "\",\"landmarks\":" + ltm.toJson() + "}}";
+		final String id = client.upload( settings.getBytes( StandardCharsets.UTF_8 ), null );
+		assertEquals( BigWarpTransform.AFFINE, client.describe( id ).get( "type" ).getAsString() );
+		assertEquals( 2, client.describe( id ).get( "numDimensions" ).getAsInt() );
+
+		final double[] pt = new double[] { 3, 4 };
+		final double[] expected = new double[ 2 ];
+		new BigWarpTransform( ltm, BigWarpTransform.AFFINE ).getTransformation( false ).apply( pt, expected );
+		assertArrayEquals( expected, client.forward( id, pt ), EPS );
+	}
+
+	@Test
+	public void testErrors() throws IOException
+	{
+		final Path path = tmp.resolve( "landmarks.csv" );
+		BigWarpTestUtils.randomLandmarks( 3, 10, 1, 3 ).save( path.toFile() );
+		final String id = client.load( path, null );
+
+		assertFails( () -> client.forward( "nosuchid", new double[ 3 ] ), "404" );
+		assertFails( () -> client.forward( id, new double[ 2 ] ), "400" );
+		assertFails( () -> client.render( id, new double[ 3 ], new double[] { 1, 1, 1 }, new long[] { 4, 4, 4 } ), "409" );
+		assertFails( () -> client.upload( "not landmarks".getBytes( StandardCharsets.UTF_8 ), null ), "400" );
+
+		server.setAllowPaths( false );
+		assertFails( () -> client.load( path, null ), "403" );
+	}
+
+	@Test
+	public void testOnlyLocalRequests() throws IOException
+	{
+		assertEquals( "200", rawStatus( "Host: localhost:" + server.getPort() ) );
+		assertEquals( "200", rawStatus( "Host: 127.0.0.1:" + server.getPort() ) );
+		assertEquals( "403", rawStatus( "Host: attacker.example:" + server.getPort() ) );
+		assertEquals( "403", rawStatus( "Host: localhost:" + server.getPort() + "\r\nOrigin: http://attacker.example" ) );
+	}
+
+	@Test
+	public void testRenderSizeOverflow() throws IOException
+	{
+		server.setSources( Collections.singletonList(
+				BigWarpTestUtils.generateSource( "src", new long[] { 4, 4, 4 }, new long[] { 1, 1, 1 }, new double[] { 1, 1, 1 }, new double[] { 0, 0, 0 } ) ) );
+		final String id = client.upload( BigWarpTestUtils.randomLandmarks( 3, 10, 1, 3 ).toJson().toString().getBytes( StandardCharsets.UTF_8 ), BigWarpTransform.TPS );
+
+		final long big = 1L << 31;
+		assertFails( () -> client.render( id, new double[ 3 ], new double[] { 1, 1, 1 }, new long[] { big, big, big } ), "413" );
+		assertFails( () -> client.render( id, new double[ 3 ], new double[] { 1, 1, 1 }, new long[] { big, 4, 1 } ), "413" );
+	}
+
+	/**
+	 * Sends a status request with the given headers over a plain socket,
+	 * since {@link java.net.HttpURLConnection} does not let the Host be set.
+	 */
+	private String rawStatus( final String headers ) throws IOException
+	{
+		try ( final Socket socket = new Socket( InetAddress.getLoopbackAddress(), server.getPort() ) )
+		{
+			final OutputStream os = socket.getOutputStream();
+			os.write( ( "GET /status HTTP/1.1\r\n" + headers + "\r\nConnection: close\r\n\r\n" ).getBytes( StandardCharsets.US_ASCII ) );
+			os.flush();
+			final String statusLine = new BufferedReader( new InputStreamReader( socket.getInputStream(), StandardCharsets.US_ASCII ) ).readLine();
+			return statusLine.split( " " )[ 1 ];
+		}
+	}
+
+	@Test
+	public void testRender() throws IOException
+	{
+		final long[] size = new long[] { 16, 12, 8 };
+		final long[] pos = new long[] { 5, 7, 3 };
+		server.setSources( Collections.singletonList(
+				BigWarpTestUtils.generateSource( "src", size, pos, new double[] { 1, 1, 1 }, new double[] { 0, 0, 0 } ) ) );
+
+		final Path path = tmp.resolve( "identity.csv" );
+		BigWarpTestUtils.identityLandmarks( 3 ).save( path.toFile() );
+		final String id = client.load( path, BigWarpTransform.TPS );
+
+		final float[] block = client.render( id, new double[] { 0, 0, 0 }, new double[] { 1, 1, 1 }, size );
+		assertEquals( size[ 0 ] * size[ 1 ] * size[ 2 ], block.length );
+		for ( int i = 0; i < block.length; i++ )
+		{
+			final boolean atPos = i == pos[ 0 ] + size[ 0 ] * ( pos[ 1 ] + size[ 1 ] * pos[ 2 ] );
+			assertEquals( atPos ? 255 : 0, block[ i ], 1e-3 );
+		}
+	}
+
+	private interface Request
+	{
+		void run() throws IOException;
+	}
+
+	private static void assertFails( final Request request, final String status )
+	{
+		try
+		{
+			request.run();
+			fail( "expected status " + status );
+		}
+		catch ( final IOException e )
+		{
+			assertTrue( e.getMessage(), e.getMessage().contains( "failed with " + status ) );
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class WarpVisRandomAccessTest
+{
+	@Test
+	public void testWarpMagnitude()
+	{
+		final SquareWarp warp = new SquareWarp();
+		final WarpMagnitudeRandomAccess< FloatType > ra = new WarpMagnitudeRandomAccess<>(
+				new double[ 3 ], new FloatType(), warp, new AffineTransform3D() );
+
+		ra.setPosition( new double[] { 1.5, -2, 3 } );
+		assertEquals( 6, ra.get().getRealDouble(), 1e-6 );
+
+		// an access evaluates its own copy of the warp and reuses its value
+		assertNotSame( warp, ra.warp );
+		assertSame( ra.get(), ra.get() );
+
+		final WarpMagnitudeRandomAccess< FloatType > copy = ( WarpMagnitudeRandomAccess< FloatType > ) ra.copy();
+		assertNotSame( ra.warp, copy.warp );
+		copy.setPosition( new double[] { 0, 0, 4 } );
+		assertEquals( 12, copy.get().getRealDouble(), 1e-6 );
+		assertEquals( 6, ra.get().getRealDouble(), 1e-6 );
+	}
+
+	@Test
+	public void testGrid()
+	{
+		final GridRealRandomAccess< FloatType > ra = new GridRealRandomAccess<>(
+				new double[ 3 ], new FloatType(), new SquareWarp() );
+		final GridRealRandomAccess< FloatType > identity = new GridRealRandomAccess<>(
+				new double[ 3 ], new FloatType(), null );
+
+		// the grid is evaluated at the warped position
+		ra.setPosition( new double[] { 1, 2, 3 } );
+		identity.setPosition( new double[] { 1, 2, 9 } );
+		assertEquals( identity.get().getRealDouble(), ra.get().getRealDouble(), 0 );
+		assertSame( ra.get(), ra.get() );
+	}
+
+	@Test
+	public void testDeterminant()
+	{
+		final AffineTransform3D affine = new AffineTransform3D();
+		affine.set(
+				1.1, -0.2, 0.1, 4,
+				0.3, 0.9, -0.1, 5,
+				-0.1, -0.2, 1.2, 6 );
+
+		final double expected = 1.1 * ( 0.9 * 1.2 - 0.1 * 0.2 )
+				+ 0.2 * ( 0.3 * 1.2 - 0.1 * 0.1 )
+				+ 0.1 * ( -0.3 * 0.2 + 0.9 * 0.1 );
+		assertEquals( expected, JacobianDeterminantRandomAccess.determinant( affine ), 1e-12 );
+	}
+
+	/**
+	 * Squares the last coordinate.
+	 */
+	private static class SquareWarp implements RealTransform
+	{
+		@Override
+		public int numSourceDimensions()
+		{
+			return 3;
+		}
+
+		@Override
+		public int numTargetDimensions()
+		{
+			return 3;
+		}
+
+		@Override
+		public void apply( final double[] source, final double[] target )
+		{
+			target[ 0 ] = source[ 0 ];
+			target[ 1 ] = source[ 1 ];
+			target[ 2 ] = source[ 2 ] * source[ 2 ];
+		}
+
+		@Override
+		public void apply( final RealLocalizable source, final RealPositionable target )
+		{
+			target.setPosition( source.getDoublePosition( 0 ), 0 );
+			target.setPosition( source.getDoublePosition( 1 ), 1 );
+			target.setPosition( source.getDoublePosition( 2 ) * source.getDoublePosition( 2 ), 2 );
+		}
+
+		@Override
+		public RealTransform copy()
+		{
+			return new SquareWarp();
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+import org.junit.Test;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.ThinplateSplineTransform;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class DisplacementFieldWriterTest
+{
+	private static final long[] dims = new long[] { 13, 9, 5 };
+
+	private static final double[] spacing = new double[] { 0.5, 1.0, 2.0 };
+
+	private static final double[] offset = new double[] { 10, -3, 1 };
+
+	@Test
+	public void testVectorAxisFirstAndLast() throws Exception
+	{
+		final AffineTransform3D xfm = transform();
+		final ExecutorService exec = Executors.newFixedThreadPool( 3 );
+		try ( final N5Writer n5 = createWriter() )
+		{
+			final DisplacementFieldWriter< FloatType > first = new DisplacementFieldWriter<>( xfm, dims, spacing, offset, new FloatType() );
+			first.setMaxBlocksInFlight( 2 );
+			first.write( n5, "first", new int[] { 4, 4, 4 }, new RawCompression(), exec );
+
+			final DisplacementFieldWriter< FloatType > last = new DisplacementFieldWriter<>( xfm, dims, spacing, offset, new FloatType() );
+			last.setVectorAxisLast( true );
+			last.write( n5, "last", new int[] { 8, 3, 2 }, new RawCompression(), exec );
+
+			final RandomAccessibleInterval< FloatType > f = N5Utils.open( n5, "first" );
+			final RandomAccessibleInterval< FloatType > l = N5Utils.open( n5, "last" );
+			assertArrayEquals( new long[] { 3, 13, 9, 5 }, f.dimensionsAsLongArray() );
+			assertArrayEquals( new long[] { 13, 9, 5, 3 }, l.dimensionsAsLongArray() );
+
+			final RandomAccess< FloatType > fa = f.randomAccess();
+			final RandomAccess< FloatType > la = l.randomAccess();
+			final double[] x = new double[ 3 ];
+			final double[] y = new double[ 3 ];
+			for ( int k = 0; k < dims[ 2 ]; k++ )
+				for ( int j = 0; j < dims[ 1 ]; j++ )
+					for ( int i = 0; i < dims[ 0 ]; i++ )
+					{
+						x[ 0 ] = offset[ 0 ] + spacing[ 0 ] * i;
+						x[ 1 ] = offset[ 1 ] + spacing[ 1 ] * j;
+						x[ 2 ] = offset[ 2 ] + spacing[ 2 ] * k;
+						xfm.apply( x, y );
+						for ( int d = 0; d < 3; d++ )
+						{
+							fa.setPosition( new long[] { d, i, j, k } );
+							la.setPosition( new long[] { i, j, k, d } );
+							assertEquals( y[ d ] - x[ d ], fa.get().get(), 1e-5 );
+							assertEquals( y[ d ] - x[ d ], la.get().get(), 1e-5 );
+						}
+					}
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+	}
+
+	@Test
+	public void testQuantized() throws Exception
+	{
+		final AffineTransform3D xfm = transform();
+		final double maxError = 0.01;
+		final double m = DisplacementFieldWriter.quantizationMultiplier( 3, maxError );
+		final ExecutorService exec = Executors.newFixedThreadPool( 2 );
+		try ( final N5Writer n5 = createWriter() )
+		{
+			final DisplacementFieldWriter< ShortType > writer = new DisplacementFieldWriter<>( xfm, dims, spacing, offset, new ShortType() );
+			writer.setQuantization( m );
+			writer.write( n5, "quantized", new int[] { 5, 5, 5 }, new RawCompression(), exec );
+
+			final RandomAccessibleInterval< ShortType > q = N5Utils.open( n5, "quantized" );
+			final RandomAccess< ShortType > qa = q.randomAccess();
+			final double[] x = new double[] { offset[ 0 ] + spacing[ 0 ] * 12, offset[ 1 ] + spacing[ 1 ] * 8, offset[ 2 ] + spacing[ 2 ] * 4 };
+			final double[] y = new double[ 3 ];
+			xfm.apply( x, y );
+
+			double err = 0;
+			for ( int d = 0; d < 3; d++ )
+			{
+				qa.setPosition( new long[] { d, 12, 8, 4 } );
+				final double e = qa.get().get() * m - ( y[ d ] - x[ d ] );
+				err += e * e;
+			}
+			assertEquals( "vector error", 0, Math.sqrt( err ), maxError );
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+	}
+
+	@Test
+	public void testInverse() throws Exception
+	{
+		final double[][] src = new double[][] { { 0, 40, 0, 40, 20 }, { 0, 0, 30, 30, 15 }, { 0, 20, 20, 0, 10 } };
+		final double[][] tgt = new double[][] { { 11, 52, 8, 50, 35 }, { -3, 0, 28, 27, 9 }, { 0, 20, 24, 0, 10 } };
+		final ThinplateSplineTransform forward = new ThinplateSplineTransform( src, tgt );
+
+		final double tolerance = 1e-4;
+		final ExecutorService exec = Executors.newFixedThreadPool( 2 );
+		try ( final N5Writer n5 = createWriter() )
+		{
+			final InverseDisplacementFieldWriter< FloatType > writer = new InverseDisplacementFieldWriter<>(
+					forward, null, tolerance, 200, dims, spacing, offset, new FloatType() );
+			writer.setWriteDiagnostics( true );
+			writer.write( n5, "inverse", new int[] { 6, 6, 3 }, new RawCompression(), exec );
+
+			final InverseDisplacementFieldWriter.Statistics stats = writer.getStatistics();
+			assertEquals( "positions", dims[ 0 ] * dims[ 1 ] * dims[ 2 ], stats.numPositions );
+			assertEquals( "not converged", 0, stats.numNotConverged );
+			assertTrue( "residual", stats.maxResidual <= tolerance );
+			assertTrue( "warm starts", stats.meanIterations() < 3 );
+
+			final RandomAccessibleInterval< FloatType > f = N5Utils.open( n5, "inverse" );
+			final RandomAccessibleInterval< ShortType > iters = N5Utils.open( n5, "inverse" + InverseDisplacementFieldWriter.ITERATIONS_SUFFIX );
+			assertArrayEquals( dims, iters.dimensionsAsLongArray() );
+
+			final RandomAccess< FloatType > fa = f.randomAccess();
+			final double[] y = new double[ 3 ];
+			final double[] x = new double[ 3 ];
+			final double[] fx = new double[ 3 ];
+			for ( final long[] p : new long[][] { { 0, 0, 0 }, { 7, 4, 2 }, { 12, 8, 4 } } )
+			{
+				for ( int d = 0; d < 3; d++ )
+				{
+					y[ d ] = offset[ d ] + spacing[ d ] * p[ d ];
+					fa.setPosition( new long[] { d, p[ 0 ], p[ 1 ], p[ 2 ] } );
+					x[ d ] = y[ d ] + fa.get().get();
+				}
+				forward.apply( x, fx );
+				for ( int d = 0; d < 3; d++ )
+					assertEquals( y[ d ], fx[ d ], 1e-3 );
+			}
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+	}
+
+	private static AffineTransform3D transform()
+	{
+		final AffineTransform3D xfm = new AffineTransform3D();
+		xfm.rotate( 2, 0.3 );
+		xfm.scale( 1.1 );
+		xfm.translate( 2, -1, 0.5 );
+		return xfm;
+	}
+
+	private static N5Writer createWriter() throws Exception
+	{
+		final File tmp = Files.createTempDirectory( "bw-dfield-writer-test-" ).toFile();
+		tmp.deleteOnExit();
+		return new N5Factory().openWriter( tmp.getCanonicalPath() + ".n5" );
+	}
+}
@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import bigwarp.BigWarpTestUtils;
+import net.imglib2.realtransform.RealTransform;
+
+public class IncrementalTpsTransformSolverTest
+{
+	private static final double EPS = 1e-6;
+
+	private static final int N = 60;
+
+	private Random rand;
+
+	private double[][] mvg;
+
+	private double[][] tgt;
+
+	private IncrementalTpsTransformSolver solver;
+
+	@Before
+	public void before()
+	{
+		rand = new Random( 3 );
+		final double[][][] pts = BigWarpTestUtils.randomPoints( rand, 3, N, 100, 0, 5 );
+		tgt = pts[ 0 ];
+		mvg = pts[ 1 ];
+
+		solver = new IncrementalTpsTransformSolver();
+		solver.solve( mvg, tgt );
+		assertEquals( "initial full solve", 1, solver.getNumFullSolves() );
+	}
+
+	@Test
+	public void testMove()
+	{
+		tgt[ 0 ][ 7 ] += 3.5;
+		tgt[ 2 ][ 7 ] -= 1.5;
+		checkIncremental( "move target point", 1 );
+
+		mvg[ 1 ][ 11 ] += 2.0;
+		checkIncremental( "move moving point", 2 );
+
+		tgt[ 1 ][ 3 ] += 1.0;
+		tgt[ 1 ][ 40 ] -= 1.0;
+		checkIncremental( "move two points", 3 );
+	}
+
+	@Test
+	public void testAddRemove()
+	{
+		mvg = insert( mvg, 12, new double[] { 20, 30, 40 } );
+		tgt = insert( tgt, 12, new double[] { 22, 31, 38 } );
+		checkIncremental( "add point", 1 );
+
+		mvg = insert( mvg, mvg[ 0 ].length, new double[] { 70, 10, 40 } );
+		tgt = insert( tgt, tgt[ 0 ].length, new double[] { 71, 11, 42 } );
+		checkIncremental( "append point", 2 );
+
+		mvg = remove( mvg, 30 );
+		tgt = remove( tgt, 30 );
+		checkIncremental( "remove (deactivate) point", 3 );
+
+		mvg = remove( mvg, 0 );
+		tgt = remove( tgt, 0 );
+		checkIncremental( "remove first point", 4 );
+	}
+
+	@Test
+	public void testFallback()
+	{
+		for ( int i = 0; i < N; i++ )
+			tgt[ 0 ][ i ] += 1;
+
+		checkIncremental( "many changes", 0 );
+		assertEquals( "full solve", 2, solver.getNumFullSolves() );
+	}
+
+	private void checkIncremental( final String msg, final int expectedIncremental )
+	{
+		final RealTransform incremental = solver.solve( mvg, tgt );
+		final RealTransform full = new TpsTransformSolver().solve( mvg, tgt );
+		assertEquals( msg + " incremental", expectedIncremental, solver.getNumIncrementalSolves() );
+
+		final double[] p = new double[ 3 ];
+		final double[] qInc = new double[ 3 ];
+		final double[] qFull = new double[ 3 ];
+		for ( int i = 0; i < 50; i++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+				p[ d ] = 120 * rand.nextDouble() - 10;
+
+			incremental.apply( p, qInc );
+			full.apply( p, qFull );
+			for ( int d = 0; d < 3; d++ )
+				assertEquals( msg, qFull[ d ], qInc[ d ], EPS * ( 1 + Math.abs( qFull[ d ] ) ) );
+		}
+	}
+
+	private static double[][] insert( final double[][] pts, final int i, final double[] pt )
+	{
+		final int np = pts[ 0 ].length;
+		final double[][] out = new double[ pts.length ][ np + 1 ];
+		for ( int d = 0; d < pts.length; d++ )
+		{
+			System.arraycopy( pts[ d ], 0, out[ d ], 0, i );
+			out[ d ][ i ] = pt[ d ];
+			System.arraycopy( pts[ d ], i, out[ d ], i + 1, np - i );
+		}
+		return out;
+	}
+
+	private static double[][] remove( final double[][] pts, final int i )
+	{
+		final int np = pts[ 0 ].length;
+		final double[][] out = new double[ pts.length ][ np - 1 ];
+		for ( int d = 0; d < pts.length; d++ )
+		{
+			System.arraycopy( pts[ d ], 0, out[ d ], 0, i );
+			System.arraycopy( pts[ d ], i + 1, out[ d ], i, np - 1 - i );
+		}
+		return out;
+	}
+}
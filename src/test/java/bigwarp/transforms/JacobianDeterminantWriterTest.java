@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+import org.junit.Test;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class JacobianDeterminantWriterTest
+{
+	private static final long[] dims = new long[] { 13, 9, 5 };
+
+	private static final double[] spacing = new double[] { 0.5, 1.0, 2.0 };
+
+	private static final double[] offset = new double[] { 10, -3, 1 };
+
+	@Test
+	public void testScale() throws Exception
+	{
+		final AffineTransform3D xfm = new AffineTransform3D();
+		xfm.rotate( 2, 0.3 );
+		xfm.scale( 2 );
+		xfm.translate( 2, -1, 0.5 );
+
+		final ExecutorService exec = Executors.newFixedThreadPool( 3 );
+		try ( final N5Writer n5 = createWriter() )
+		{
+			final JacobianDeterminantWriter writer = new JacobianDeterminantWriter( xfm, dims, spacing, offset );
+			writer.setMaxBlocksInFlight( 2 );
+			final JacobianDeterminantWriter.Statistics stats = writer.write( n5, "det", "folds", new int[] { 4, 4, 4 }, new RawCompression(), exec );
+
+			assertEquals( dims[ 0 ] * dims[ 1 ] * dims[ 2 ], stats.getCount() );
+			assertEquals( 8, stats.getMin(), 1e-9 );
+			assertEquals( 8, stats.getMax(), 1e-9 );
+			assertEquals( 0, stats.getNegativeFraction(), 0 );
+			assertEquals( 8, n5.getAttribute( "det", JacobianDeterminantWriter.Statistics.MEAN_KEY, double.class ), 1e-9 );
+
+			final RandomAccessibleInterval< FloatType > det = N5Utils.open( n5, "det" );
+			assertArrayEquals( dims, det.dimensionsAsLongArray() );
+			for ( final FloatType t : Views.iterable( det ) )
+				assertEquals( 8, t.get(), 1e-5 );
+
+			final RandomAccessibleInterval< UnsignedByteType > folds = N5Utils.open( n5, "folds" );
+			for ( final UnsignedByteType t : Views.iterable( folds ) )
+				assertEquals( 0, t.get() );
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+	}
+
+	@Test
+	public void testFolds() throws Exception
+	{
+		final AffineTransform3D reflection = new AffineTransform3D();
+		reflection.set( -1, 0, 0 );
+
+		final ExecutorService exec = Executors.newFixedThreadPool( 2 );
+		try ( final N5Writer n5 = createWriter() )
+		{
+			final JacobianDeterminantWriter writer = new JacobianDeterminantWriter( reflection, dims, spacing, offset );
+			final JacobianDeterminantWriter.Statistics stats = writer.write( n5, null, "folds", new int[] { 5, 5, 5 }, new RawCompression(), exec );
+
+			assertEquals( 1, stats.getNegativeFraction(), 0 );
+			assertEquals( -1, stats.getMin(), 1e-9 );
+			assertEquals( 1.0, n5.getAttribute( "folds", JacobianDeterminantWriter.Statistics.NEGATIVE_FRACTION_KEY, double.class ), 0 );
+
+			final RandomAccessibleInterval< UnsignedByteType > folds = N5Utils.open( n5, "folds" );
+			for ( final UnsignedByteType t : Views.iterable( folds ) )
+				assertEquals( 1, t.get() );
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+	}
+
+	private static N5Writer createWriter() throws Exception
+	{
+		final File tmp = Files.createTempDirectory( "bw-jacdet-writer-test-" ).toFile();
+		tmp.deleteOnExit();
+		return new N5Factory().openWriter( tmp.getCanonicalPath() + ".n5" );
+	}
+}
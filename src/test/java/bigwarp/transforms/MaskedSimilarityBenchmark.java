@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bigwarp.source.PlateauSphericalMaskRealRandomAccessible;
+import net.imglib2.RealPoint;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.realtransform.AffineInterpolationTable;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.MaskedSimilarityTransform;
+import net.imglib2.realtransform.MaskedSimilarityTransform.Interpolators;
+import net.imglib2.realtransform.SimilarityTransformInterpolator;
+import net.imglib2.type.numeric.real.DoubleType;
+
+/**
+ * Compares evaluating a masked similarity by calling the interpolator for
+ * every point with looking the interpolated transform up in a table.
+ * <p>
+ * Run with -prof gc to see the allocation rates.
+ */
+@State( Scope.Benchmark )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 3 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( value = 1 )
+public class MaskedSimilarityBenchmark
+{
+	private static final int NUM_POINTS = 100000;
+
+	@Param( { "true", "false" } )
+	public boolean blend;
+
+	private double[][] pts;
+
+	private double[] out;
+
+	private RealRandomAccess< DoubleType > lambdaAccess;
+
+	private SimilarityTransformInterpolator interpolator;
+
+	private MaskedSimilarityTransform< DoubleType > msim;
+
+	@Setup
+	public void setup()
+	{
+		final double[] center = new double[] { 100, 100, 100 };
+		final PlateauSphericalMaskRealRandomAccessible mask = new PlateauSphericalMaskRealRandomAccessible( new RealPoint( center ) );
+		mask.setRadius( 40 );
+		mask.setSigma( 60 );
+		lambdaAccess = mask.realRandomAccess();
+
+		final AffineTransform3D sim = new AffineTransform3D();
+		sim.rotate( 2, 0.5 );
+		sim.scale( 1.2 );
+		sim.translate( 5, -3, 2 );
+
+		interpolator = new SimilarityTransformInterpolator( sim, center );
+		final AffineInterpolationTable table = MaskedSimilarityTransform.interpolationTable( sim, center,
+				Interpolators.SIMILARITY, AffineInterpolationTable.DEFAULT_SIZE, blend );
+		msim = new MaskedSimilarityTransform<>( sim, mask, center, Interpolators.SIMILARITY, table );
+
+		final Random rand = new Random( 11 );
+		pts = new double[ NUM_POINTS ][ 3 ];
+		for ( final double[] p : pts )
+			for ( int d = 0; d < 3; d++ )
+				p[ d ] = 200 * rand.nextDouble();
+
+		out = new double[ 3 ];
+	}
+
+	@Benchmark
+	public double interpolatorPerPoint()
+	{
+		double sum = 0;
+		for ( final double[] p : pts )
+		{
+			lambdaAccess.setPosition( p );
+			interpolator.get( lambdaAccess.get().getRealDouble() ).apply( p, out );
+			sum += out[ 0 ];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double lookupTable()
+	{
+		double sum = 0;
+		for ( final double[] p : pts )
+		{
+			msim.apply( p, out );
+			sum += out[ 0 ];
+		}
+		return sum;
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options options = new OptionsBuilder()
+				.include( MaskedSimilarityBenchmark.class.getSimpleName() )
+				.build();
+
+		new Runner( options ).run();
+	}
+}
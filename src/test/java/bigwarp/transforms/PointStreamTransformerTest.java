@@ -0,0 +1,385 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bigwarp.BigWarpTestUtils;
+import bigwarp.transforms.PointStreamTransformer.PointReader;
+import bigwarp.transforms.PointStreamTransformer.PointWriter;
+import bigwarp.transforms.PointStreamTransformer.Statistics;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.ThinplateSplineTransform;
+import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
+
+public class PointStreamTransformerTest
+{
+	private static final double EPS = 1e-9;
+
+	private static final int N = 1000;
+
+	private Path tmp;
+
+	private ExecutorService exec;
+
+	@Before
+	public void before() throws IOException
+	{
+		tmp = Files.createTempDirectory( "bw-point-stream-test-" );
+		exec = Executors.newFixedThreadPool( 3 );
+	}
+
+	@After
+	public void after() throws IOException
+	{
+		exec.shutdown();
+		FileUtils.deleteDirectory( tmp.toFile() );
+	}
+
+	@Test
+	public void testCsvKeepsOrderAndHeader() throws Exception
+	{
+		final double[] points = randomPoints( 3, N, 100, 1 );
+		final Path in = tmp.resolve( "in.csv" );
+		final Path out = tmp.resolve( "out.csv" );
+		try ( final PointWriter w = PointStreams.csvWriter( in, 3, "x,y,z" ) )
+		{
+			w.write( points, N );
+		}
+
+		final AffineTransform3D xfm = affine();
+		final PointStreamTransformer transformer = new PointStreamTransformer( xfm, 3 );
+		transformer.setBatchSize( 7 );
+		transformer.setMaxBatchesInFlight( 2 );
+		final Statistics stats;
+		try ( final PointStreams.CsvPointReader r = PointStreams.csvReader( in, true );
+				final PointWriter w = PointStreams.csvWriter( out, r.numDimensions(), r.getHeader() ) )
+		{
+			assertEquals( "dimensions", 3, r.numDimensions() );
+			stats = transformer.transform( r, w, exec );
+		}
+		assertEquals( "points", N, stats.numPoints );
+		assertEquals( "csv points", N, PointStreams.countCsvPoints( out, true ) );
+
+		final List< String > lines = Files.readAllLines( out );
+		assertEquals( "header", "x,y,z", lines.get( 0 ) );
+		assertArrayEquals( "transformed", expected( xfm, points ), readAll( PointStreams.csvReader( out, true ), N ), EPS );
+	}
+
+	@Test
+	public void testBinary() throws Exception
+	{
+		final double[] points = randomPoints( 3, N, 100, 2 );
+		final AffineTransform3D xfm = affine();
+		final double[] expected = expected( xfm, points );
+		for ( final DataType type : new DataType[] { DataType.FLOAT64, DataType.FLOAT32 } )
+			for ( final ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN } )
+			{
+				final Path in = tmp.resolve( "in-" + type + "-" + order );
+				final Path out = tmp.resolve( "out-" + type + "-" + order );
+				try ( final PointWriter w = PointStreams.binaryWriter( in, 3, type, order ) )
+				{
+					w.write( points, N );
+				}
+				assertEquals( "file size", N * 3 * ( type == DataType.FLOAT32 ? 4 : 8 ), Files.size( in ) );
+
+				final PointStreamTransformer transformer = new PointStreamTransformer( xfm, 3 );
+				transformer.setBatchSize( 64 );
+				try ( final PointReader r = PointStreams.binaryReader( in, 3, type, order );
+						final PointWriter w = PointStreams.binaryWriter( out, 3, type, order ) )
+				{
+					assertEquals( "size", N, r.size() );
+					transformer.transform( r, w, exec );
+				}
+
+				final double eps = type == DataType.FLOAT32 ? 1e-3 : EPS;
+				assertArrayEquals( type + " " + order, expected, readAll( PointStreams.binaryReader( out, 3, type, order ), N ), eps );
+			}
+	}
+
+	@Test
+	public void testN5() throws Exception
+	{
+		final double[] points = randomPoints( 2, N, 100, 3 );
+		final File container = tmp.resolve( "points.n5" ).toFile();
+		try ( final N5Writer n5 = new N5Factory().openWriter( container.getCanonicalPath() ) )
+		{
+			try ( final PointWriter w = new PointStreams.N5PointWriter( n5, "in", 2, N, 300, DataType.FLOAT64, new RawCompression() ) )
+			{
+				w.write( points, 10 );
+				w.write( Arrays.copyOfRange( points, 20, points.length ), N - 10 );
+			}
+
+			final PointStreamTransformer transformer = new PointStreamTransformer( new Shift( 2 ), 2 );
+			transformer.setBatchSize( 128 );
+			try ( final PointReader r = new PointStreams.N5PointReader( n5, "in" );
+					final PointWriter w = new PointStreams.N5PointWriter( n5, "out", 2, r.size(), 256, DataType.FLOAT64, new RawCompression() ) )
+			{
+				assertEquals( "dimensions", 2, r.numDimensions() );
+				transformer.transform( r, w, exec );
+			}
+
+			final double[] expected = new double[ points.length ];
+			for ( int i = 0; i < points.length; i++ )
+				expected[ i ] = points[ i ] + 2;
+			assertArrayEquals( "shifted", expected, readAll( new PointStreams.N5PointReader( n5, "out" ), N ), EPS );
+		}
+	}
+
+	@Test
+	public void testInverseWarmStarts() throws Exception
+	{
+		final WrappedIterativeInvertibleRealTransform< ? > xfm = thinPlateSpline();
+		final double tolerance = 1e-4;
+
+		// a sorted line of points, neighbours are close
+		final double[] points = new double[ 3 * N ];
+		for ( int i = 0; i < N; i++ )
+		{
+			points[ 3 * i ] = 10 + 80.0 * i / N;
+			points[ 3 * i + 1 ] = 50 + 20 * Math.sin( i * 0.01 );
+			points[ 3 * i + 2 ] = 40;
+		}
+
+		final PointStreamTransformer transformer = new PointStreamTransformer( xfm, 3 );
+		transformer.setInverse( true );
+		transformer.setInverseParameters( tolerance, 100 );
+		transformer.setBatchSize( 100 );
+		final ArrayWriter out = new ArrayWriter( N, 3 );
+		final Statistics stats = transformer.transform( new ArrayReader( points, 3 ), out, exec );
+
+		assertEquals( "points", N, stats.numPoints );
+		assertTrue( "warm starts", stats.numWarmStarts > 0.9 * N );
+		assertEquals( "all points", N, stats.numWarmStarts + stats.numColdStarts );
+		assertEquals( "not converged", 0, stats.numNotConverged );
+		assertTrue( "iterations per warm start", stats.numIterations < 4 * stats.numWarmStarts );
+
+		final double[] x = new double[ 3 ];
+		final double[] y = new double[ 3 ];
+		for ( int i = 0; i < N; i++ )
+		{
+			System.arraycopy( out.points, 3 * i, x, 0, 3 );
+			xfm.apply( x, y );
+			assertArrayEquals( "inverse " + i, Arrays.copyOfRange( points, 3 * i, 3 * i + 3 ), y, 2 * tolerance );
+		}
+
+		// without warm starts every point falls back to the iterative inverse
+		transformer.setMaxSeedDistance( 0 );
+		final Statistics cold = transformer.transform( new ArrayReader( points, 3 ), new ArrayWriter( N, 3 ), exec );
+		assertEquals( "no warm starts", 0, cold.numWarmStarts );
+		assertEquals( "all cold", N, cold.numColdStarts );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testInverseRequiresInvertible()
+	{
+		new PointStreamTransformer( new Shift( 1 ), 3 ).setInverse( true );
+	}
+
+	private static double[] expected( final RealTransform xfm, final double[] points )
+	{
+		final int nd = xfm.numSourceDimensions();
+		final double[] expected = new double[ points.length ];
+		final double[] x = new double[ nd ];
+		final double[] y = new double[ nd ];
+		for ( int o = 0; o < points.length; o += nd )
+		{
+			System.arraycopy( points, o, x, 0, nd );
+			xfm.apply( x, y );
+			System.arraycopy( y, 0, expected, o, nd );
+		}
+		return expected;
+	}
+
+	private static double[] readAll( final PointReader reader, final int n ) throws IOException
+	{
+		try ( final PointReader r = reader )
+		{
+			final double[] points = new double[ n * r.numDimensions() ];
+			assertEquals( "points", n, r.read( points, n ) );
+			assertEquals( "end", 0, r.read( new double[ r.numDimensions() ], 1 ) );
+			return points;
+		}
+	}
+
+	private static double[] randomPoints( final int nd, final int n, final double size, final long seed )
+	{
+		final Random rnd = new Random( seed );
+		final double[] points = new double[ nd * n ];
+		for ( int i = 0; i < points.length; i++ )
+			points[ i ] = size * rnd.nextDouble();
+		return points;
+	}
+
+	private static AffineTransform3D affine()
+	{
+		final AffineTransform3D xfm = new AffineTransform3D();
+		xfm.set( 1.1, 0.1, 0, 5, -0.2, 0.9, 0.05, -3, 0, 0.1, 1.2, 7 );
+		return xfm;
+	}
+
+	private static WrappedIterativeInvertibleRealTransform< ? > thinPlateSpline()
+	{
+		final double[][][] pts = BigWarpTestUtils.randomPoints( new Random( 1 ), 3, 20, 100, 0, 4 );
+		final WrappedIterativeInvertibleRealTransform< ThinplateSplineTransform > xfm = new WrappedIterativeInvertibleRealTransform<>(
+				new ThinplateSplineTransform( pts[ 0 ], pts[ 1 ] ) );
+		xfm.getOptimzer().setTolerance( 1e-5 );
+		xfm.getOptimzer().setMaxIters( 1000 );
+		return xfm;
+	}
+
+	/**
+	 * Adds a constant to every coordinate, not invertible.
+	 */
+	private static class Shift implements RealTransform
+	{
+		private final double shift;
+
+		public Shift( final double shift )
+		{
+			this.shift = shift;
+		}
+
+		@Override
+		public int numSourceDimensions()
+		{
+			return 2;
+		}
+
+		@Override
+		public int numTargetDimensions()
+		{
+			return 2;
+		}
+
+		@Override
+		public void apply( final double[] source, final double[] target )
+		{
+			for ( int d = 0; d < 2; d++ )
+				target[ d ] = source[ d ] + shift;
+		}
+
+		@Override
+		public void apply( final RealLocalizable source, final RealPositionable target )
+		{
+			for ( int d = 0; d < 2; d++ )
+				target.setPosition( source.getDoublePosition( d ) + shift, d );
+		}
+
+		@Override
+		public RealTransform copy()
+		{
+			return this;
+		}
+	}
+
+	private static class ArrayReader implements PointReader
+	{
+		private final double[] points;
+
+		private final int nd;
+
+		private int position = 0;
+
+		public ArrayReader( final double[] points, final int nd )
+		{
+			this.points = points;
+			this.nd = nd;
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return nd;
+		}
+
+		@Override
+		public long size()
+		{
+			return points.length / nd;
+		}
+
+		@Override
+		public int read( final double[] dst, final int maxPoints )
+		{
+			final int n = Math.min( maxPoints, points.length / nd - position );
+			System.arraycopy( points, position * nd, dst, 0, n * nd );
+			position += n;
+			return n;
+		}
+
+		@Override
+		public void close()
+		{}
+	}
+
+	private static class ArrayWriter implements PointWriter
+	{
+		private final double[] points;
+
+		private final int nd;
+
+		private int position = 0;
+
+		public ArrayWriter( final int numPoints, final int nd )
+		{
+			this.points = new double[ numPoints * nd ];
+			this.nd = nd;
+		}
+
+		@Override
+		public void write( final double[] src, final int numPoints )
+		{
+			System.arraycopy( src, 0, points, position * nd, numPoints * nd );
+			position += numPoints;
+		}
+
+		@Override
+		public void close()
+		{}
+	}
+}
@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bigwarp.BigWarpTestUtils;
+import bigwarp.landmarks.LandmarkSnapshot;
+import bigwarp.landmarks.LandmarkTableModel;
+import net.imglib2.realtransform.InvertibleRealTransform;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.ThinplateSplineTransform;
+import net.imglib2.realtransform.WendlandRbfTransform;
+
+public class SolvedTransformCacheTest
+{
+	private Path tmp;
+
+	@Before
+	public void before() throws IOException
+	{
+		tmp = Files.createTempDirectory( "bw-solved-cache-test-" );
+	}
+
+	@After
+	public void after() throws IOException
+	{
+		FileUtils.deleteDirectory( tmp.toFile() );
+	}
+
+	@Test
+	public void testRoundTrip()
+	{
+		final SolvedTransformCache cache = new SolvedTransformCache( tmp );
+		for ( int nd = 2; nd <= 3; nd++ )
+		{
+			final LandmarkSnapshot s = BigWarpTestUtils.randomLandmarks( nd, 300, 1, 0 ).snapshot();
+
+			final byte[] tpsKey = SolvedTransformCache.key( BigWarpTransform.TPS, s );
+			final RealTransform tps = new TpsTransformSolver().solve( s );
+			assertTrue( cache.store( tpsKey, tps ) );
+			final RealTransform tpsLoaded = cache.load( tpsKey );
+			assertTrue( tpsLoaded instanceof ThinplateSplineTransform );
+			assertSameTransform( tps, tpsLoaded, nd );
+
+			final byte[] rbfKey = SolvedTransformCache.key( BigWarpTransform.WENDLAND, s );
+			final RealTransform rbf = new WendlandRbfTransformSolver().solve( s );
+			assertTrue( cache.store( rbfKey, rbf ) );
+			final RealTransform rbfLoaded = cache.load( rbfKey );
+			assertTrue( rbfLoaded instanceof WendlandRbfTransform );
+			assertSameTransform( rbf, rbfLoaded, nd );
+		}
+		assertEquals( 4, cache.getNumHits() );
+	}
+
+	@Test
+	public void testKeyValidation() throws IOException
+	{
+		final LandmarkTableModel ltm = BigWarpTestUtils.randomLandmarks( 3, 300, 1, 0 );
+		final SolvedTransformCache cache = SolvedTransformCache.nextTo( tmp.resolve( "landmarks.csv" ).toFile() );
+
+		final LandmarkSnapshot s = ltm.snapshot();
+		final byte[] key = SolvedTransformCache.key( BigWarpTransform.TPS, s );
+		assertTrue( cache.store( key, new TpsTransformSolver().solve( s ) ) );
+		assertTrue( Files.isRegularFile( tmp.resolve( "landmarks.csv" + SolvedTransformCache.SUFFIX ) ) );
+		assertNotNull( cache.load( key ) );
+
+		// other types, solver parameters and landmarks are misses
+		assertFalse( Arrays.equals( key, SolvedTransformCache.key( BigWarpTransform.WENDLAND, s ) ) );
+		assertFalse( Arrays.equals( key, SolvedTransformCache.key( BigWarpTransform.TPS, s, 1.0 ) ) );
+		assertNull( cache.load( SolvedTransformCache.key( BigWarpTransform.WENDLAND, s ) ) );
+
+		ltm.setIsActive( 7, false );
+		assertNull( cache.load( SolvedTransformCache.key( BigWarpTransform.TPS, ltm.snapshot() ) ) );
+
+		// so is a truncated file
+		final Path p = cache.path( key );
+		final byte[] content = Files.readAllBytes( p );
+		Files.write( p, Arrays.copyOf( content, content.length - 8 ) );
+		assertNull( cache.load( key ) );
+		assertEquals( 1, cache.getNumHits() );
+	}
+
+	@Test
+	public void testSkipsSolve()
+	{
+		final LandmarkTableModel ltm = BigWarpTestUtils.randomLandmarks( 3, 300, 1, 0 );
+		final SolvedTransformCache cache = new SolvedTransformCache( tmp );
+
+		final BigWarpTransform first = new BigWarpTransform( ltm, BigWarpTransform.TPS );
+		first.setSolvedTransformCache( cache );
+		final InvertibleRealTransform solved = first.getTransformation( false );
+		assertEquals( 0, cache.getNumHits() );
+		assertEquals( 1, cache.getNumMisses() );
+
+		final BigWarpTransform second = new BigWarpTransform( ltm, BigWarpTransform.TPS );
+		second.setSolvedTransformCache( cache );
+		final InvertibleRealTransform loaded = second.getTransformation( false );
+		assertEquals( 1, cache.getNumHits() );
+		assertSameTransform( solved, loaded, 3 );
+
+		// fewer landmarks than the minimum do not touch the cache
+		cache.setMinLandmarks( 1000 );
+		second.getTransformation( false );
+		assertEquals( 2, cache.getNumHits() + cache.getNumMisses() );
+	}
+
+	@Test
+	public void testEviction() throws IOException
+	{
+		final SolvedTransformCache cache = new SolvedTransformCache( tmp );
+		cache.setMaxEntries( 3 );
+		final LandmarkSnapshot s = BigWarpTestUtils.randomLandmarks( 2, 300, 1, 0 ).snapshot();
+		final RealTransform tps = new TpsTransformSolver().solve( s );
+
+		final byte[][] keys = new byte[ 4 ][];
+		for ( int i = 0; i < keys.length; i++ )
+			keys[ i ] = SolvedTransformCache.key( BigWarpTransform.TPS, s, i );
+
+		for ( int i = 0; i < 3; i++ )
+		{
+			assertTrue( cache.store( keys[ i ], tps ) );
+			Files.setLastModifiedTime( cache.path( keys[ i ] ), FileTime.fromMillis( 1000000 * ( i + 1 ) ) );
+		}
+
+		// loading the oldest entry makes the second one least recently used
+		assertNotNull( cache.load( keys[ 0 ] ) );
+		assertTrue( cache.store( keys[ 3 ], tps ) );
+		assertTrue( Files.isRegularFile( cache.path( keys[ 0 ] ) ) );
+		assertFalse( Files.exists( cache.path( keys[ 1 ] ) ) );
+		assertTrue( Files.isRegularFile( cache.path( keys[ 2 ] ) ) );
+		assertTrue( Files.isRegularFile( cache.path( keys[ 3 ] ) ) );
+	}
+
+	@Test
+	public void testUnwritableLocation() throws IOException
+	{
+		final File notADirectory = Files.createFile( tmp.resolve( "file" ) ).toFile();
+		final SolvedTransformCache cache = new SolvedTransformCache( notADirectory.toPath() );
+		final LandmarkSnapshot s = BigWarpTestUtils.randomLandmarks( 2, 300, 1, 0 ).snapshot();
+		final byte[] key = SolvedTransformCache.key( BigWarpTransform.TPS, s );
+		assertFalse( cache.store( key, new TpsTransformSolver().solve( s ) ) );
+		assertNull( cache.load( key ) );
+	}
+
+	private static void assertSameTransform( final RealTransform expected, final RealTransform actual, final int nd )
+	{
+		final Random rand = new Random( 7 );
+		final double[] x = new double[ nd ];
+		final double[] ye = new double[ nd ];
+		final double[] ya = new double[ nd ];
+		for ( int i = 0; i < 100; i++ )
+		{
+			for ( int d = 0; d < nd; d++ )
+				x[ d ] = 120 * rand.nextDouble() - 10;
+
+			expected.apply( x, ye );
+			actual.apply( x, ya );
+			assertArrayEquals( ye, ya, 0 );
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bigwarp.BigWarpTestUtils;
+
+/**
+ * Compares a full thin plate spline solve with the incremental update after
+ * dragging a single landmark.
+ */
+@State( Scope.Benchmark )
+@Warmup( iterations = 1 )
+@Measurement( iterations = 3 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( value = 1, jvmArgs = { "-Xmx4g" } )
+public class TpsSolverBenchmark
+{
+	@Param( { "100", "1000", "5000" } )
+	public int numLandmarks;
+
+	private double[][] mvgPts;
+
+	private double[][] tgtPts;
+
+	private IncrementalTpsTransformSolver incrementalSolver;
+
+	private int step = 0;
+
+	@Setup
+	public void setup()
+	{
+		final double[][][] pts = BigWarpTestUtils.randomPoints( new Random( 7 ), 3, numLandmarks, 1000, 0, 10 );
+		tgtPts = pts[ 0 ];
+		mvgPts = pts[ 1 ];
+
+		incrementalSolver = new IncrementalTpsTransformSolver();
+		incrementalSolver.setMaxIncrementalUpdates( Integer.MAX_VALUE );
+		incrementalSolver.solve( mvgPts, tgtPts );
+	}
+
+	@Benchmark
+	public Object fullSolve()
+	{
+		return new TpsTransformSolver().solve( mvgPts, tgtPts );
+	}
+
+	@Benchmark
+	public Object dragTargetPoint()
+	{
+		tgtPts[ 0 ][ numLandmarks / 2 ] += ( step++ % 2 == 0 ) ? 0.5 : -0.5;
+		return incrementalSolver.solve( mvgPts, tgtPts );
+	}
+
+	@Benchmark
+	public Object dragMovingPoint()
+	{
+		mvgPts[ 0 ][ numLandmarks / 2 ] += ( step++ % 2 == 0 ) ? 0.5 : -0.5;
+		return incrementalSolver.solve( mvgPts, tgtPts );
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options options = new OptionsBuilder()
+				.include( TpsSolverBenchmark.class.getSimpleName() )
+				.build();
+
+		new Runner( options ).run();
+	}
+}
@@ -0,0 +1,204 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bigwarp.BigWarpTestUtils;
+import net.imglib2.realtransform.AffineTransform;
+import net.imglib2.realtransform.CompactSupportGrid;
+import net.imglib2.realtransform.WendlandRbfTransform;
+
+public class WendlandRbfTransformSolverTest
+{
+	@Test
+	public void testInterpolatesLandmarks()
+	{
+		for ( int nd = 2; nd <= 3; nd++ )
+		{
+			final int n = 2000;
+			final double[][] src = new double[ nd ][ n ];
+			final double[][] tgt = new double[ nd ][ n ];
+			landmarks( nd, src, tgt );
+
+			final WendlandRbfTransformSolver solver = new WendlandRbfTransformSolver();
+			final WendlandRbfTransform xfm = solver.fit( src, tgt );
+
+			final double[] x = new double[ nd ];
+			final double[] y = new double[ nd ];
+			for ( int i = 0; i < n; i++ )
+			{
+				for ( int d = 0; d < nd; d++ )
+					x[ d ] = src[ d ][ i ];
+
+				xfm.apply( x, y );
+				for ( int d = 0; d < nd; d++ )
+					assertEquals( tgt[ d ][ i ], y[ d ], 1e-6 );
+			}
+		}
+	}
+
+	@Test
+	public void testAffineFarAway()
+	{
+		final int nd = 3;
+		final double[][] src = new double[ nd ][ 500 ];
+		final double[][] tgt = new double[ nd ][ 500 ];
+		landmarks( nd, src, tgt );
+
+		final WendlandRbfTransform xfm = new WendlandRbfTransformSolver().fit( src, tgt );
+		final double[][] affine = xfm.getAffine();
+		final double[] x = new double[] { -5000, 12000, 3 };
+		final double[] y = new double[ nd ];
+		xfm.apply( x, y );
+		for ( int d = 0; d < nd; d++ )
+		{
+			double expected = affine[ d ][ nd ];
+			for ( int c = 0; c < nd; c++ )
+				expected += affine[ d ][ c ] * x[ c ];
+			assertEquals( expected, y[ d ], 1e-9 );
+		}
+
+		// the landmarks are an affine plus a small deformation
+		assertEquals( 1.1, affine[ 0 ][ 0 ], 0.05 );
+	}
+
+	@Test
+	public void testJacobian()
+	{
+		final int nd = 2;
+		final double[][] src = new double[ nd ][ 1000 ];
+		final double[][] tgt = new double[ nd ][ 1000 ];
+		landmarks( nd, src, tgt );
+
+		final WendlandRbfTransform xfm = new WendlandRbfTransformSolver().fit( src, tgt );
+		final WendlandRbfTransform copy = xfm.copy();
+		final double[] x = new double[] { 412.3, 587.1 };
+		final AffineTransform jac = xfm.jacobian( x );
+
+		final double h = 1e-5;
+		final double[] yp = new double[ nd ];
+		final double[] ym = new double[ nd ];
+		for ( int c = 0; c < nd; c++ )
+		{
+			final double[] xp = x.clone();
+			final double[] xm = x.clone();
+			xp[ c ] += h;
+			xm[ c ] -= h;
+			copy.apply( xp, yp );
+			copy.apply( xm, ym );
+			for ( int r = 0; r < nd; r++ )
+				assertEquals( ( yp[ r ] - ym[ r ] ) / ( 2 * h ), jac.get( r, c ), 1e-5 );
+		}
+	}
+
+	@Test
+	public void testGrid()
+	{
+		final Random rnd = new Random( 7 );
+		final double[][] pts = new double[ 3 ][ 3000 ];
+		for ( int i = 0; i < 3000; i++ )
+			for ( int d = 0; d < 3; d++ )
+				pts[ d ][ i ] = rnd.nextGaussian() * 100;
+
+		final double radius = 17;
+		final CompactSupportGrid grid = new CompactSupportGrid( pts, radius );
+		final int[] from = new int[ grid.maxNeighborRanges() ];
+		final int[] to = new int[ grid.maxNeighborRanges() ];
+		final boolean[] found = new boolean[ 3000 ];
+		for ( int q = 0; q < 50; q++ )
+		{
+			final double[] x = new double[] { rnd.nextGaussian() * 120, rnd.nextGaussian() * 120, rnd.nextGaussian() * 120 };
+			Arrays.fill( found, false );
+			final int numRanges = grid.neighborRanges( x, from, to );
+			for ( int r = 0; r < numRanges; r++ )
+				for ( int j = from[ r ]; j < to[ r ]; j++ )
+					found[ grid.index( j ) ] = true;
+
+			for ( int i = 0; i < 3000; i++ )
+			{
+				double r2 = 0;
+				for ( int d = 0; d < 3; d++ )
+					r2 += ( x[ d ] - pts[ d ][ i ] ) * ( x[ d ] - pts[ d ][ i ] );
+				if ( r2 < radius * radius )
+					assertTrue( "point " + i + " within the radius", found[ i ] );
+			}
+		}
+	}
+
+	@Test
+	public void testDuplicateLandmarks()
+	{
+		final int nd = 2;
+		final int n = 500;
+		final double[][] src = new double[ nd ][ n ];
+		final double[][] tgt = new double[ nd ][ n ];
+		landmarks( nd, src, tgt );
+
+		// the same landmark twice is harmless
+		for ( int d = 0; d < nd; d++ )
+		{
+			src[ d ][ 1 ] = src[ d ][ 0 ];
+			tgt[ d ][ 1 ] = tgt[ d ][ 0 ];
+		}
+		final WendlandRbfTransformSolver solver = new WendlandRbfTransformSolver();
+		final WendlandRbfTransform xfm = solver.fit( src, tgt );
+		assertTrue( solver.getLastResidual() <= 100 * WendlandRbfTransformSolver.DEFAULT_TOLERANCE );
+
+		final double[] x = new double[] { src[ 0 ][ 0 ], src[ 1 ][ 0 ] };
+		final double[] y = new double[ nd ];
+		xfm.apply( x, y );
+		assertEquals( tgt[ 0 ][ 0 ], y[ 0 ], 1e-6 );
+		assertEquals( tgt[ 1 ][ 0 ], y[ 1 ], 1e-6 );
+
+		// but not with different targets
+		tgt[ 0 ][ 1 ] += 10;
+		try
+		{
+			solver.fit( src, tgt );
+			fail( "expected the weights not to converge" );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			assertTrue( solver.getLastResidual() > 100 * WendlandRbfTransformSolver.DEFAULT_TOLERANCE );
+		}
+	}
+
+	private static void landmarks( final int nd, final double[][] src, final double[][] tgt )
+	{
+		final int n = src[ 0 ].length;
+		final double[][] pts = BigWarpTestUtils.randomPoints( new Random( 42 ), nd, n, 1000, 0, 0 )[ 0 ];
+		for ( int d = 0; d < nd; d++ )
+			System.arraycopy( pts[ d ], 0, src[ d ], 0, n );
+
+		for ( int d = 0; d < nd; d++ )
+			for ( int i = 0; i < n; i++ )
+				tgt[ d ][ i ] = 1.1 * src[ d ][ i ] + 5 + 10 * Math.sin( src[ ( d + 1 ) % nd ][ i ] / 100 );
+	}
+}
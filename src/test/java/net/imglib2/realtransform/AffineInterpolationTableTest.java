@@ -0,0 +1,91 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+import java.util.function.DoubleFunction;
+
+import org.junit.Test;
+
+import net.imglib2.RealPoint;
+
+public class AffineInterpolationTableTest
+{
+	@Test
+	public void testSimilarity3d()
+	{
+		final AffineTransform3D transform = new AffineTransform3D();
+		transform.rotate( 2, 0.8 );
+		transform.rotate( 0, -0.3 );
+		transform.scale( 1.7 );
+		transform.translate( 10, -4, 3 );
+		final double[] c = new double[] { 20, 30, 5 };
+
+		final SimilarityTransformInterpolator interpolator = new SimilarityTransformInterpolator( transform, c );
+		check( new AffineInterpolationTable( 3, interpolator::get ), interpolator::get, 1e-3 );
+		check( new AffineInterpolationTable( 3, interpolator::get, 4096, false ), interpolator::get, 0.05 );
+	}
+
+	@Test
+	public void testSimilarity2d()
+	{
+		final AffineTransform2D transform = new AffineTransform2D();
+		transform.rotate( 1.1 );
+		transform.scale( 0.6 );
+		transform.translate( -7, 12 );
+		final double[] c = new double[] { 20, 30 };
+
+		final SimilarityTransformInterpolator2D interpolator = new SimilarityTransformInterpolator2D( transform, c );
+		check( new AffineInterpolationTable( 2, interpolator::get ), interpolator::get, 1e-3 );
+		check( new AffineInterpolationTable( 2, interpolator::get, 4096, false ), interpolator::get, 0.05 );
+	}
+
+	private static void check( final AffineInterpolationTable table, final DoubleFunction< ? extends AffineGet > interpolator, final double eps )
+	{
+		final int nd = table.numDimensions();
+		final Random rand = new Random( 3 );
+		final double[] x = new double[ nd ];
+		final double[] expected = new double[ nd ];
+		final double[] actual = new double[ nd ];
+		final RealPoint p = new RealPoint( nd );
+
+		for ( int i = 0; i < 1000; i++ )
+		{
+			final double lambda = i < 2 ? i : rand.nextDouble();
+			for ( int d = 0; d < nd; d++ )
+				x[ d ] = 100 * rand.nextDouble();
+
+			interpolator.apply( lambda ).apply( x, expected );
+			table.apply( lambda, x, actual );
+			assertArrayEquals( "lambda " + lambda, expected, actual, i < 2 ? 1e-9 : eps );
+
+			p.setPosition( x );
+			table.apply( lambda, p, p );
+			assertArrayEquals( "in place " + lambda, actual, p.positionAsDoubleArray(), 1e-12 );
+
+			table.apply( lambda, x, x );
+			assertArrayEquals( "in place " + lambda, actual, x, 1e-12 );
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import bigwarp.BigWarpTestUtils;
+import bigwarp.transforms.TpsTransformSolver;
+import net.imglib2.RealPoint;
+
+public class ApproximateThinplateSplineTransformTest
+{
+	private static final double[] ERRORS = { 1e-3, 1e-2, 0.1, 0.5 };
+
+	@Test
+	public void testErrorBound3d()
+	{
+		final Random rand = new Random( 11 );
+		final ThinplateSplineTransform tps = smoothTps( rand, 3, 300, 100 );
+		for ( final double maxError : ERRORS )
+		{
+			final ApproximateThinplateSplineTransform approx = new ApproximateThinplateSplineTransform( tps.getKernelTransform(), maxError );
+
+			// inside and around the landmarks, and far away from them
+			checkError( rand, tps, approx, -20, 120, maxError );
+			checkError( rand, tps, approx, -2000, 2000, maxError );
+		}
+	}
+
+	@Test
+	public void testErrorBound2d()
+	{
+		final Random rand = new Random( 17 );
+		final ThinplateSplineTransform tps = smoothTps( rand, 2, 500, 100 );
+		for ( final double maxError : ERRORS )
+		{
+			final ApproximateThinplateSplineTransform approx = new ApproximateThinplateSplineTransform( tps.getKernelTransform(), maxError );
+			checkError( rand, tps, approx, -20, 120, maxError );
+			checkError( rand, tps, approx, -2000, 2000, maxError );
+		}
+	}
+
+	@Test
+	public void testCopyAndLocalizable()
+	{
+		final Random rand = new Random( 5 );
+		final ThinplateSplineTransform tps = smoothTps( rand, 3, 100, 100 );
+		final ApproximateThinplateSplineTransform approx = new ApproximateThinplateSplineTransform( tps.getKernelTransform(), 0.1 );
+		final ApproximateThinplateSplineTransform copy = approx.copy();
+
+		final double[] p = new double[] { 10, 250, -40 };
+		final double[] q = new double[ 3 ];
+		final double[] qCopy = new double[ 3 ];
+		approx.apply( p, q );
+		copy.apply( p, qCopy );
+		assertArrayEquals( "copy", q, qCopy, 1e-12 );
+
+		final RealPoint src = new RealPoint( p );
+		final RealPoint dst = new RealPoint( 3 );
+		approx.apply( src, dst );
+		dst.localize( qCopy );
+		assertArrayEquals( "localizable", q, qCopy, 1e-12 );
+
+		// the result may be written to the source
+		approx.apply( p, p );
+		assertArrayEquals( "in place", q, p, 1e-12 );
+	}
+
+	private static void checkError( final Random rand, final ThinplateSplineTransform exact,
+			final ApproximateThinplateSplineTransform approx, final double min, final double max, final double maxError )
+	{
+		final int nd = exact.getKernelTransform().getNumDims();
+		final double[] p = new double[ nd ];
+		final double[] qExact = new double[ nd ];
+		final double[] qApprox = new double[ nd ];
+		double err = 0;
+		for ( int i = 0; i < 2000; i++ )
+		{
+			for ( int d = 0; d < nd; d++ )
+				p[ d ] = min + ( max - min ) * rand.nextDouble();
+
+			exact.apply( p, qExact );
+			approx.apply( p, qApprox );
+			for ( int d = 0; d < nd; d++ )
+				err = Math.max( err, Math.abs( qExact[ d ] - qApprox[ d ] ) );
+		}
+		assertTrue( String.format( "error %g exceeds %g", err, maxError ), err <= maxError );
+	}
+
+	/**
+	 * A thin plate spline through a smooth deformation with a little noise.
+	 */
+	private static ThinplateSplineTransform smoothTps( final Random rand, final int nd, final int np, final double size )
+	{
+		final double[][][] pts = BigWarpTestUtils.randomPoints( rand, nd, np, size, 0, 0.1 );
+		final double[][] tgt = pts[ 0 ];
+		final double[][] mvg = pts[ 1 ];
+		for ( int d = 0; d < nd; d++ )
+			for ( int i = 0; i < np; i++ )
+				mvg[ d ][ i ] += 5 * Math.sin( tgt[ ( d + 1 ) % nd ][ i ] / 30 );
+
+		return ( ThinplateSplineTransform ) new TpsTransformSolver().solve( mvg, tgt ).getTransform();
+	}
+}
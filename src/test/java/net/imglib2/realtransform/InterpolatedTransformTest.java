@@ -21,11 +21,20 @@
  */
 package net.imglib2.realtransform;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 
 import org.junit.Test;
 
+import bigwarp.source.PlateauSphericalMaskRealRandomAccessible;
+import bigwarp.source.PlateauSphericalMaskRealRandomAccessible.FalloffShape;
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
+import net.imglib2.RealPositionable;
+import net.imglib2.RealRandomAccess;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.ConstantUtils;
@@ -63,4 +72,101 @@ public class InterpolatedTransformTest
 
 	}
 
+	@Test
+	public void boundedMaskTest()
+	{
+		for ( final FalloffShape shape : FalloffShape.values() )
+		{
+			final PlateauSphericalMaskRealRandomAccessible mask = new PlateauSphericalMaskRealRandomAccessible( new RealPoint( 2 ) );
+			mask.setFalloffShape( shape );
+			mask.setRadius( 2 );
+			mask.setSigma( 3 );
+			final RealRandomAccess< DoubleType > maskAccess = mask.realRandomAccess();
+			final RealInterval support = mask.getSupport();
+
+			final CountingTransform a = new CountingTransform( new Translation2D( new double[] { 1, 0 } ) );
+			final CountingTransform b = new CountingTransform( new Translation2D( new double[] { 0, 2 } ) );
+			final SpatiallyInterpolatedRealTransform< ? > t = new SpatiallyInterpolatedRealTransform<>( a, b, mask );
+
+			final double[] x = new double[ 2 ];
+			final double[] y = new double[ 2 ];
+			for ( double r = 0; r < 60; r += 0.0625 )
+			{
+				x[ 0 ] = r;
+				x[ 1 ] = 0.5;
+				maskAccess.setPosition( x );
+				final double lambda = maskAccess.get().get();
+				final double c = mask.constantValue( x );
+				if ( !Double.isNaN( c ) )
+					assertEquals( shape + " constant at " + r, lambda, c, 0 );
+
+				if ( lambda > 0 )
+					assertTrue( shape + " support at " + r, r <= support.realMax( 0 ) );
+
+				a.count = 0;
+				b.count = 0;
+				t.apply( x, y );
+				assertEquals( shape + " x at " + r, r + lambda, y[ 0 ], 1e-9 );
+				assertEquals( shape + " y at " + r, 0.5 + 2 * ( 1 - lambda ), y[ 1 ], 1e-9 );
+				assertEquals( shape + " a skipped at " + r, c == 0 ? 0 : 1, a.count );
+				assertEquals( shape + " b skipped at " + r, c == 1 ? 0 : 1, b.count );
+
+				// in place
+				t.apply( x, x );
+				assertArrayEquals( y, x, 1e-9 );
+			}
+
+			final RealPoint p = new RealPoint( 100, 0 );
+			a.count = 0;
+			t.apply( p, p );
+			assertEquals( "outside support " + shape, 0, a.count );
+			assertEquals( 100, p.getDoublePosition( 0 ), 0 );
+			assertEquals( 2, p.getDoublePosition( 1 ), 0 );
+		}
+	}
+
+	private static class CountingTransform implements RealTransform
+	{
+		private final RealTransform transform;
+
+		private int count;
+
+		public CountingTransform( final RealTransform transform )
+		{
+			this.transform = transform;
+		}
+
+		@Override
+		public int numSourceDimensions()
+		{
+			return transform.numSourceDimensions();
+		}
+
+		@Override
+		public int numTargetDimensions()
+		{
+			return transform.numTargetDimensions();
+		}
+
+		@Override
+		public void apply( final double[] source, final double[] target )
+		{
+			count++;
+			transform.apply( source, target );
+		}
+
+		@Override
+		public void apply( final RealLocalizable source, final RealPositionable target )
+		{
+			count++;
+			transform.apply( source, target );
+		}
+
+		@Override
+		public RealTransform copy()
+		{
+			return new CountingTransform( transform.copy() );
+		}
+	}
+
 }
@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import bigwarp.source.PlateauSphericalMaskRealRandomAccessible;
+import bigwarp.source.PlateauSphericalMaskRealRandomAccessible.FalloffShape;
+import net.imglib2.RealPoint;
+
+public class RealTransformAnalyticDerivativesTest
+{
+	private static final double EPS = 1e-4;
+
+	private static final double STEP = 1e-5;
+
+	@Test
+	public void testSequence()
+	{
+		final AffineTransform3D a = new AffineTransform3D();
+		a.rotate( 1, 0.4 );
+		a.scale( 1.5 );
+
+		final double[][] src = new double[][] { { 0, 40, 0, 40, 20 }, { 0, 0, 30, 30, 15 }, { 0, 20, 20, 0, 10 } };
+		final double[][] tgt = new double[][] { { 11, 52, 8, 50, 35 }, { -3, 0, 28, 27, 9 }, { 0, 20, 24, 0, 10 } };
+		final ThinplateSplineTransform tps = new ThinplateSplineTransform( src, tgt );
+
+		final RealTransformSequence seq = new RealTransformSequence();
+		seq.add( a );
+		seq.add( tps );
+		seq.add( new Scale3D( 0.5, 2, 1 ) );
+
+		assertJacobian( seq, new double[] { 3, 7, 2 } );
+		assertJacobian( seq, new double[] { 20, 11, 9 } );
+		assertJacobian( new RealTransformSequence(), new double[] { 1, 2, 3 } );
+	}
+
+	@Test
+	public void testInterpolated()
+	{
+		final AffineTransform2D a = new AffineTransform2D();
+		a.rotate( 0.3 );
+		a.translate( 2, -1 );
+		final double[][] src = new double[][] { { 0, 10, 0, 10 }, { 0, 0, 10, 10 } };
+		final double[][] tgt = new double[][] { { 1, 11, -1, 12 }, { 0, 1, 9, 11 } };
+		final ThinplateSplineTransform b = new ThinplateSplineTransform( src, tgt );
+
+		for ( final FalloffShape shape : FalloffShape.values() )
+		{
+			final PlateauSphericalMaskRealRandomAccessible mask = mask( shape );
+			final SpatiallyInterpolatedRealTransform< ? > t = new SpatiallyInterpolatedRealTransform<>( a, b, mask );
+
+			// plateau, falloff and outside
+			assertJacobian( t, new double[] { 5.5, 4.5 } );
+			assertJacobian( t, new double[] { 9.5, 6.1 } );
+			assertJacobian( t, new double[] { 6.2, 11.7 } );
+			assertJacobian( t, new double[] { 40, 30 } );
+		}
+	}
+
+	@Test
+	public void testMaskedSimilarity()
+	{
+		final AffineTransform2D xfm = new AffineTransform2D();
+		xfm.rotate( 0.8 );
+		xfm.scale( 1.3 );
+		xfm.translate( 4, 2 );
+
+		final PlateauSphericalMaskRealRandomAccessible mask = mask( FalloffShape.COSINE );
+		final MaskedSimilarityTransform2D< ? > t = new MaskedSimilarityTransform2D<>( xfm, mask, new double[] { 5, 5 } );
+		assertJacobian( t, new double[] { 5.5, 4.5 }, 1e-3 );
+		assertJacobian( t, new double[] { 9.5, 6.1 }, 1e-3 );
+		assertJacobian( t, new double[] { 40, 30 }, 1e-3 );
+	}
+
+	@Test
+	public void testWrapped2D()
+	{
+		final AffineTransform2D a = new AffineTransform2D();
+		a.rotate( 0.3 );
+		a.scale( 2 );
+
+		final RealTransformAnalyticDerivatives d = new RealTransformAnalyticDerivatives( new Wrapped2DTransformAs3D( a ) );
+		final double[][] jac = new double[ 3 ][ 3 ];
+		d.jacobian( new double[] { 1, 2, 3 }, jac );
+		for ( int r = 0; r < 2; r++ )
+			for ( int c = 0; c < 2; c++ )
+				assertEquals( a.get( r, c ), jac[ r ][ c ], 1e-12 );
+
+		assertEquals( 1, jac[ 2 ][ 2 ], 1e-12 );
+		assertEquals( 0, jac[ 2 ][ 0 ], 1e-12 );
+		assertEquals( 0, jac[ 0 ][ 2 ], 1e-12 );
+		assertEquals( 4, d.determinant( new double[] { 1, 2, 3 } ), 1e-9 );
+	}
+
+	private static PlateauSphericalMaskRealRandomAccessible mask( final FalloffShape shape )
+	{
+		final PlateauSphericalMaskRealRandomAccessible mask = new PlateauSphericalMaskRealRandomAccessible( new RealPoint( 5.0, 5.0 ) );
+		mask.setFalloffShape( shape );
+		mask.setRadius( 3 );
+		mask.setSigma( 6 );
+		return mask;
+	}
+
+	private static void assertJacobian( final RealTransform t, final double[] x )
+	{
+		assertJacobian( t, x, EPS );
+	}
+
+	/*
+	 * compares the analytic jacobian to central differences of the whole transform
+	 */
+	private static void assertJacobian( final RealTransform t, final double[] x, final double eps )
+	{
+		final int n = x.length;
+		final double[][] jac = new double[ n ][ n ];
+		final RealTransformAnalyticDerivatives d = new RealTransformAnalyticDerivatives( t );
+		d.jacobian( x, jac );
+
+		final double[] xs = x.clone();
+		final double[] yp = new double[ n ];
+		final double[] ym = new double[ n ];
+		final double[][] expected = new double[ n ][ n ];
+		for ( int c = 0; c < n; c++ )
+		{
+			xs[ c ] = x[ c ] + STEP;
+			t.apply( xs, yp );
+			xs[ c ] = x[ c ] - STEP;
+			t.apply( xs, ym );
+			xs[ c ] = x[ c ];
+			for ( int r = 0; r < n; r++ )
+			{
+				expected[ r ][ c ] = ( yp[ r ] - ym[ r ] ) / ( 2 * STEP );
+				assertEquals( "jacobian " + r + "," + c, expected[ r ][ c ], jac[ r ][ c ], eps );
+			}
+		}
+		assertEquals( "determinant", RealTransformAnalyticDerivatives.determinant( expected, n ), d.determinant( x ), eps * 10 );
+	}
+}
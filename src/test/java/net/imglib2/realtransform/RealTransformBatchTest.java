@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * BigWarp plugin for Fiji.
+ * %%
+ * Copyright (C) 2015 - 2025 Howard Hughes Medical Institute.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.realtransform;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import bigwarp.BigWarpTestUtils;
+import bigwarp.source.PlateauSphericalMaskRealRandomAccessible;
+import bigwarp.source.PlateauSphericalMaskRealRandomAccessible.FalloffShape;
+import net.imglib2.RealPoint;
+import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
+
+public class RealTransformBatchTest
+{
+	private static final double EPS = 1e-9;
+
+	// more than one block, and not a multiple of the block size
+	private static final int N = 2 * RealTransformBatch.BLOCK_SIZE + 37;
+
+	@Test
+	public void testAffine()
+	{
+		final AffineTransform3D a = new AffineTransform3D();
+		a.rotate( 1, 0.4 );
+		a.scale( 1.5 );
+		a.translate( 3, -2, 7 );
+		assertBatch( a, 3 );
+		assertBatch( new Scale2D( 2, 0.5 ), 2 );
+	}
+
+	@Test
+	public void testThinPlateSpline()
+	{
+		assertBatch( thinPlateSpline( 3, 40, 1 ), 3 );
+		assertBatch( thinPlateSpline( 2, 25, 2 ), 2 );
+		assertBatch( new WrappedIterativeInvertibleRealTransform<>( thinPlateSpline( 3, 10, 3 ) ), 3 );
+	}
+
+	@Test
+	public void testSequenceAndWrapped()
+	{
+		final AffineTransform3D a = new AffineTransform3D();
+		a.rotate( 2, 0.3 );
+
+		final RealTransformSequence seq = new RealTransformSequence();
+		seq.add( a );
+		seq.add( thinPlateSpline( 3, 20, 4 ) );
+		seq.add( new Scale3D( 0.5, 2, 1 ) );
+		assertBatch( seq, 3 );
+		assertBatch( new RealTransformSequence(), 3 );
+
+		assertBatch( new Wrapped2DTransformAs3D( thinPlateSpline( 2, 12, 5 ) ), 3 );
+	}
+
+	@Test
+	public void testInterpolated()
+	{
+		final AffineTransform2D a = new AffineTransform2D();
+		a.rotate( 0.3 );
+		a.translate( 2, -1 );
+		final ThinplateSplineTransform b = thinPlateSpline( 2, 8, 6 );
+
+		for ( final FalloffShape shape : FalloffShape.values() )
+		{
+			final PlateauSphericalMaskRealRandomAccessible mask = new PlateauSphericalMaskRealRandomAccessible( new RealPoint( 50.0, 50.0 ) );
+			mask.setFalloffShape( shape );
+			mask.setRadius( 20 );
+			mask.setSigma( 15 );
+
+			assertBatch( new SpatiallyInterpolatedRealTransform<>( a, b, mask ), 2 );
+			assertBatch( new MaskedSimilarityTransform2D<>( a, mask, new double[] { 50, 50 } ), 2 );
+		}
+	}
+
+	/*
+	 * compares the batch to single points, into new arrays and in place
+	 */
+	private static void assertBatch( final RealTransform t, final int nd )
+	{
+		final Random rnd = new Random( 7 );
+		final double[][] src = new double[ nd ][ N ];
+		for ( int d = 0; d < nd; d++ )
+			for ( int i = 0; i < N; i++ )
+				src[ d ][ i ] = 100 * rnd.nextDouble();
+
+		final int start = 5;
+		final int end = N - 3;
+		final double[][] tgt = new double[ nd ][ N ];
+		RealTransformBatch.apply( t.copy(), src, tgt, start, end );
+
+		final double[][] inPlace = new double[ nd ][];
+		for ( int d = 0; d < nd; d++ )
+			inPlace[ d ] = src[ d ].clone();
+		RealTransformBatch.apply( t.copy(), inPlace, inPlace, start, end );
+
+		final double[] x = new double[ nd ];
+		final double[] y = new double[ nd ];
+		for ( int i = 0; i < N; i++ )
+		{
+			for ( int d = 0; d < nd; d++ )
+				x[ d ] = src[ d ][ i ];
+			t.apply( x, y );
+
+			final boolean inRange = i >= start && i < end;
+			for ( int d = 0; d < nd; d++ )
+			{
+				final double expected = y[ d ];
+				final double eps = EPS * Math.max( 1, Math.abs( expected ) );
+				assertEquals( "point " + i + " dim " + d, inRange ? expected : 0, tgt[ d ][ i ], eps );
+				assertEquals( "in place " + i + " dim " + d, inRange ? expected : x[ d ], inPlace[ d ][ i ], eps );
+			}
+		}
+	}
+
+	private static ThinplateSplineTransform thinPlateSpline( final int nd, final int n, final long seed )
+	{
+		// scaled, so that the spline has an affine part
+		final double[][][] pts = BigWarpTestUtils.randomPoints( new Random( seed ), nd, n, 100, 3, 5 );
+		for ( int d = 0; d < nd; d++ )
+			for ( int i = 0; i < n; i++ )
+				pts[ 1 ][ d ][ i ] += 0.1 * pts[ 0 ][ d ][ i ];
+
+		return new ThinplateSplineTransform( pts[ 0 ], pts[ 1 ] );
+	}
+}